@@ -1,6 +1,6 @@
 package jp.ohtayo.building;
 
-import jp.ohtayo.building.environment.PMV;
+import jp.ohtayo.building.environment.ComfortKernel;
 import jp.ohtayo.commons.math.Matrix;
 import jp.ohtayo.commons.math.Vector;
 
@@ -42,13 +42,13 @@ public class BuildingUtils {
 	 */
 	public static double calculateAverageCOP(Vector coolingEnergy, Vector electricEnergy)
 	{
-		Vector cop = new Vector(coolingEnergy);
+		//中間配列を作らずに各時刻のCOPを積算する
+		double sum = 0.0;
 		for (int t=0; t<coolingEnergy.length(); t++)
 		{
-			double temp = coolingEnergy.get(t) / electricEnergy.get(t);
-			cop.set(t, temp);
+			sum += coolingEnergy.get(t) / electricEnergy.get(t);
 		}
-		return cop.mean();
+		return sum / coolingEnergy.length();
 	}
 
 	/**
@@ -60,16 +60,14 @@ public class BuildingUtils {
 	 */
 	public static double calculatePeakPower(Vector electricEnergy, double samplingPeriod)
 	{
-		Vector power = new Vector(electricEnergy);
+		//最大電力量を探してから電力に変換する
+		double max = Double.NEGATIVE_INFINITY;
 		for (int t=0; t<electricEnergy.length(); t++)
 		{
-			//電力量[J]をkWhに変換
-			double kWh = J2kWh(electricEnergy.get(t));
-			//kWhを瞬時電力に変換して格納
-			power.set(t, kWh/samplingPeriod);
+			if (electricEnergy.get(t) > max)	max = electricEnergy.get(t);
 		}
-		//最大電力を返す
-		return power.max();
+		//電力量[J]をkWhに変換し，瞬時電力にして返す
+		return J2kWh(max)/samplingPeriod;
 	}
 
 	//Todo:
@@ -110,10 +108,11 @@ public class BuildingUtils {
 	public static Vector calculatePMV(Vector temperature, Vector humidity, double Va, double Icl, double M)
 	{
 		Vector pmv = new Vector(temperature);
+		ComfortKernel comfort = new ComfortKernel(Va, Icl, M);
 
 		for (int t=0; t<temperature.length(); t++)
 		{
-			double temp = new PMV(temperature.get(t), humidity.get(t), Va, temperature.get(t)+1, Icl, M).get();
+			double temp = comfort.pmv(temperature.get(t), humidity.get(t), temperature.get(t)+1);
 			pmv.set(t,temp);
 		}
 		return pmv;
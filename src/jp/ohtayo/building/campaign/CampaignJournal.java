@@ -0,0 +1,275 @@
+package jp.ohtayo.building.campaign;
+
+import jp.ohtayo.commons.log.Logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * シミュレーションキャンペーンの追記型ジャーナルです．<br>
+ * 評価の投入(S)，完了(C)，失敗(F)を1行1レコードで追記し，開いたときに先頭から読み直して完了済みの評価を復元します．<br>
+ * 状態は評価番号のビット集合だけで持つため，評価数が数十万になっても1件あたりの処理時間は変わりません．<br>
+ * 書き込み途中で終了した末尾の行は開くときに切り捨てます．<br>
+ * <br>
+ * レコードの形式(タブ区切り)：<br>
+ * H 計画点数 計画のハッシュ値<br>
+ * S 評価番号<br>
+ * C 評価番号 設計変数(カンマ区切り) 目的関数値(カンマ区切り)<br>
+ * F 評価番号 エラーメッセージ<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class CampaignJournal implements AutoCloseable {
+
+	/**
+	 * 完了した評価を受け取る処理です．
+	 */
+	public interface ResultHandler {
+		/**
+		 * @param id 評価番号
+		 * @param variable 設計変数
+		 * @param objectives 目的関数値
+		 */
+		void accept(int id, double[] variable, double[] objectives);
+	}
+
+	/** ジャーナルファイル */
+	private final Path file;
+	private final FileChannel channel;
+	/** 完了した評価番号 */
+	private final BitSet completed = new BitSet();
+	/** 失敗した評価番号(その後完了したものを除く) */
+	private final BitSet failed = new BitSet();
+	/** 投入したが完了も失敗もしていない評価番号 */
+	private final BitSet inFlight = new BitSet();
+	/** 計画点数(ヘッダが無ければ-1) */
+	private int designSize = -1;
+	/** 計画のハッシュ値 */
+	private long designHash = 0;
+	/** 何件の完了ごとにディスクへ同期するか */
+	private int syncInterval = 1;
+	/** 前回の同期からの完了数 */
+	private int unsynced = 0;
+
+	/**
+	 * ジャーナルを開きます．ファイルが無ければ作成し，有れば記録を読み直します．
+	 * @param file ジャーナルファイル
+	 * @throws IOException 読込エラー
+	 */
+	public CampaignJournal(Path file) throws IOException
+	{
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long end = replay();
+		if( end < channel.size() ) {
+			Logging.logger.warning("truncate incomplete record at "+end+" in "+file);
+			channel.truncate(end);
+		}
+		channel.position(end);
+	}
+
+	/**
+	 * 記録を読み直して状態を復元します．
+	 * @return 完全な行の末尾の位置
+	 */
+	private long replay() throws IOException
+	{
+		long end = 0;
+		try(InputStream input = new BufferedInputStream(Files.newInputStream(file)))
+		{
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			long position = 0;
+			while( (b = input.read()) >= 0 )
+			{
+				position++;
+				if( b != '\n' ) {
+					line.write(b);
+					continue;
+				}
+				apply(new String(line.toByteArray(), StandardCharsets.UTF_8));
+				line.reset();
+				end = position;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * 1レコードを状態に反映します．
+	 */
+	private void apply(String line)
+	{
+		String[] field = line.split("\t", -1);
+		switch(field[0]) {
+			case "H":
+				designSize = Integer.parseInt(field[1]);
+				designHash = Long.parseLong(field[2]);
+				break;
+			case "S":
+				inFlight.set(Integer.parseInt(field[1]));
+				break;
+			case "C": {
+				int id = Integer.parseInt(field[1]);
+				completed.set(id);
+				failed.clear(id);
+				inFlight.clear(id);
+				break;
+			}
+			case "F": {
+				int id = Integer.parseInt(field[1]);
+				if( !completed.get(id) )	failed.set(id);
+				inFlight.clear(id);
+				break;
+			}
+			default:
+				Logging.logger.warning("unknown record in "+file+": "+line);
+		}
+	}
+
+	/**
+	 * 何件の完了ごとにディスクへ同期するかを設定します．1なら毎回同期します．
+	 * @param syncInterval 同期間隔[件]
+	 */
+	public CampaignJournal setSyncInterval(int syncInterval)
+	{
+		this.syncInterval = Math.max(1, syncInterval);
+		return this;
+	}
+
+	/**
+	 * 計画を記録します．既に記録があれば同じ計画かを確認します．
+	 * @param size 計画点数
+	 * @param hash 計画のハッシュ値
+	 * @throws IOException 書込エラー
+	 */
+	public synchronized void begin(int size, long hash) throws IOException
+	{
+		if( designSize < 0 ) {
+			designSize = size;
+			designHash = hash;
+			write("H\t"+size+"\t"+hash, true);
+		}else if( designSize != size || designHash != hash ) {
+			throw new IllegalStateException("design differs from the journal "+file+" (size "+designSize+" -> "+size+").");
+		}
+	}
+
+	/**
+	 * 評価の投入を記録します．
+	 * @param id 評価番号
+	 * @throws IOException 書込エラー
+	 */
+	public synchronized void submitted(int id) throws IOException
+	{
+		inFlight.set(id);
+		write("S\t"+id, false);
+	}
+
+	/**
+	 * 評価の完了を記録します．
+	 * @param id 評価番号
+	 * @param variable 設計変数
+	 * @param objectives 目的関数値
+	 * @throws IOException 書込エラー
+	 */
+	public synchronized void completed(int id, double[] variable, double[] objectives) throws IOException
+	{
+		completed.set(id);
+		failed.clear(id);
+		inFlight.clear(id);
+		write("C\t"+id+"\t"+join(variable)+"\t"+join(objectives), ++unsynced >= syncInterval);
+	}
+
+	/**
+	 * 評価の失敗を記録します．
+	 * @param id 評価番号
+	 * @param message エラーメッセージ
+	 * @throws IOException 書込エラー
+	 */
+	public synchronized void failed(int id, String message) throws IOException
+	{
+		failed.set(id);
+		inFlight.clear(id);
+		write("F\t"+id+"\t"+String.valueOf(message).replaceAll("[\\t\\r\\n]", " "), true);
+	}
+
+	public synchronized boolean isCompleted(int id){ return completed.get(id); }
+	public synchronized boolean isFailed(int id){ return failed.get(id); }
+	public synchronized int getCompletedCount(){ return completed.cardinality(); }
+	public synchronized int getFailedCount(){ return failed.cardinality(); }
+
+	/**
+	 * 投入したまま完了も失敗も記録されていない(前回の実行中に中断した)評価の数を返します．
+	 * @return 評価の数
+	 */
+	public synchronized int getInterruptedCount(){ return inFlight.cardinality(); }
+
+	/**
+	 * 完了した評価を記録順に読み込みます．結果はメモリに保持せず，ファイルから順に読みます．
+	 * @param handler 完了した評価を受け取る処理
+	 * @throws IOException 読込エラー
+	 */
+	public void forEachCompleted(ResultHandler handler) throws IOException
+	{
+		synchronized(this) {
+			channel.force(false);
+		}
+		try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+		{
+			String line;
+			while( (line = reader.readLine()) != null )
+			{
+				if( !line.startsWith("C\t") )	continue;
+				String[] field = line.split("\t", -1);
+				if( field.length < 4 )	continue;	// 書き込み途中の行
+				handler.accept(Integer.parseInt(field[1]), split(field[2]), split(field[3]));
+			}
+		}
+	}
+
+	private void write(String record, boolean sync) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap((record+"\n").getBytes(StandardCharsets.UTF_8));
+		while( buffer.hasRemaining() )	channel.write(buffer);
+		if( sync ) {
+			channel.force(false);
+			unsynced = 0;
+		}
+	}
+
+	private static String join(double[] values)
+	{
+		StringBuilder text = new StringBuilder();
+		for(int i=0; i<values.length; i++) {
+			if( i>0 )	text.append(',');
+			text.append(values[i]);
+		}
+		return text.toString();
+	}
+
+	private static double[] split(String text)
+	{
+		if( text.isEmpty() )	return new double[0];
+		String[] field = text.split(",");
+		double[] values = new double[field.length];
+		for(int i=0; i<field.length; i++)	values[i] = Double.parseDouble(field[i]);
+		return values;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		channel.force(false);
+		channel.close();
+	}
+}
@@ -0,0 +1,200 @@
+package jp.ohtayo.building.campaign;
+
+import jp.ohtayo.building.optimization.ObjectiveEvaluator;
+import jp.ohtayo.commons.log.Logging;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 実験計画などの大量の評価をジャーナルに記録しながら実行するキャンペーン実行クラスです．<br>
+ * 各評価の投入と完了をCampaignJournalに追記し，JVMの異常終了やノードの再起動の後に同じ計画で実行すると，
+ * 完了済みの評価を飛ばして中断した評価から再開します．<br>
+ * 同時に実行中の評価の数はワーカー数で抑えるので，計画点がいくら多くてもキューやメモリは増えません．<br>
+ * 評価器にはEnergyPlusEvaluatorなどを使います．ワーカースレッドには1からの番号の名前を付けます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class CampaignRunner {
+
+	/** ジャーナルファイル */
+	private final Path journalFile;
+	/** 評価器 */
+	private final ObjectiveEvaluator evaluator;
+	/** 同時に評価する数 */
+	private int numberOfWorkers = Runtime.getRuntime().availableProcessors();
+	/** 前回失敗した評価をやり直すか */
+	private boolean retryFailed = true;
+	/** 何件の完了ごとにジャーナルをディスクへ同期するか */
+	private int syncInterval = 1;
+	/** 評価が完了するたびに呼ぶ処理 */
+	private CampaignJournal.ResultHandler listener = null;
+	/** 何件ごとに進捗を表示するか */
+	private int reportInterval = 1000;
+
+	/**
+	 * constructor.
+	 * @param journalFile ジャーナルファイル
+	 * @param evaluator 評価器
+	 */
+	public CampaignRunner(Path journalFile, ObjectiveEvaluator evaluator)
+	{
+		this.journalFile = journalFile;
+		this.evaluator = evaluator;
+	}
+
+	public CampaignRunner setNumberOfWorkers(int numberOfWorkers)
+	{
+		this.numberOfWorkers = numberOfWorkers;
+		return this;
+	}
+
+	public CampaignRunner setRetryFailed(boolean retryFailed)
+	{
+		this.retryFailed = retryFailed;
+		return this;
+	}
+
+	/**
+	 * 何件の完了ごとにジャーナルをディスクへ同期するかを設定します．大きくすると速くなりますが，異常終了時に最後の数件を再評価します．
+	 * @param syncInterval 同期間隔[件]
+	 */
+	public CampaignRunner setSyncInterval(int syncInterval)
+	{
+		this.syncInterval = syncInterval;
+		return this;
+	}
+
+	/**
+	 * 評価が完了するたびに呼ぶ処理を設定します．ワーカースレッドから呼ばれます．
+	 * @param listener 完了時の処理
+	 */
+	public CampaignRunner setListener(CampaignJournal.ResultHandler listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+
+	public CampaignRunner setReportInterval(int reportInterval)
+	{
+		this.reportInterval = reportInterval;
+		return this;
+	}
+
+	/**
+	 * キャンペーンを実行します．ジャーナルに完了の記録がある評価は実行しません．<br>
+	 * 再開するときは前回と同じ計画(同じ順番の同じ設計変数)を与えてください．<br>
+	 * @param design 計画点の設計変数
+	 * @return この実行で評価した数(失敗を含む)
+	 * @throws IOException ジャーナルの読み書きエラー
+	 */
+	public int run(List<double[]> design) throws IOException
+	{
+		try(CampaignJournal journal = new CampaignJournal(journalFile))
+		{
+			journal.setSyncInterval(syncInterval);
+			journal.begin(design.size(), hash(design));
+			Logging.logger.info("campaign "+journalFile+": "+design.size()+" runs, completed = "+journal.getCompletedCount()
+					+", failed = "+journal.getFailedCount()+", interrupted = "+journal.getInterruptedCount());
+
+			AtomicInteger threadNumber = new AtomicInteger(0);
+			// EnergyPlusの作業フォルダはスレッド名で分かれるので，ワーカーに1からの番号を付ける("0"は複製元)
+			ExecutorService executor = Executors.newFixedThreadPool(numberOfWorkers, r -> {
+				Thread thread = new Thread(r, String.valueOf(threadNumber.incrementAndGet()));
+				thread.setDaemon(true);
+				return thread;
+			});
+			Semaphore slots = new Semaphore(numberOfWorkers);
+			AtomicInteger finished = new AtomicInteger(0);
+			long startTime = System.currentTimeMillis();
+			try {
+				for(int id=0; id<design.size(); id++)
+				{
+					if( journal.isCompleted(id) )	continue;
+					if( !retryFailed && journal.isFailed(id) )	continue;
+
+					// 空いたワーカーができるまで待つ
+					slots.acquire();
+					final int runId = id;
+					final double[] variable = design.get(id).clone();
+					journal.submitted(runId);
+					executor.execute(() -> {
+						try {
+							evaluate(journal, runId, variable);
+							int count = finished.incrementAndGet();
+							if( count % reportInterval == 0 ) {
+								double hours = (System.currentTimeMillis()-startTime)/3600000.0;
+								Logging.logger.info("campaign: "+journal.getCompletedCount()+"/"+design.size()+" completed, "
+										+String.format("%.1f", count/hours)+" runs/h");
+							}
+						}finally{
+							slots.release();
+						}
+					});
+				}
+				// 全ての評価の終了を待つ
+				slots.acquire(numberOfWorkers);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				Logging.logger.severe("campaign interrupted.");
+			}finally{
+				executor.shutdownNow();
+				try {
+					executor.awaitTermination(1, TimeUnit.MINUTES);
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			}
+			return finished.get();
+		}
+	}
+
+	/**
+	 * 1つの評価を実行してジャーナルに記録します．
+	 */
+	private void evaluate(CampaignJournal journal, int id, double[] variable)
+	{
+		try {
+			double[] objectives;
+			try {
+				objectives = evaluator.evaluate(variable);
+			}catch(RuntimeException e){
+				Logging.logger.severe("run "+id+" failed: "+e);
+				journal.failed(id, e.toString());
+				return;
+			}
+			journal.completed(id, variable, objectives);
+			if( listener!=null )	listener.accept(id, variable, objectives);
+		}catch(IOException e){
+			Logging.logger.severe("journal write failed: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * 計画のハッシュ値(FNV-1a)を計算します．
+	 * @param design 計画点の設計変数
+	 * @return ハッシュ値
+	 */
+	static long hash(List<double[]> design)
+	{
+		long h = 0xcbf29ce484222325L;
+		for(double[] variable : design) {
+			for(double value : variable) {
+				long bits = Double.doubleToLongBits(value);
+				for(int i=0; i<8; i++) {
+					h ^= (bits >>> (i*8)) & 0xff;
+					h *= 0x100000001b3L;
+				}
+			}
+			h ^= variable.length;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+}
@@ -0,0 +1,293 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.commons.log.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * EnergyPlusの同時実行数を実行中に調整する制御クラスです．<br>
+ * 一定時間ごとに完了数/秒(スループット)，EnergyPlusプロセスの常駐メモリ(RSS)の合計，I/O待ちの割合を測り，
+ * メモリの上限を超えない範囲でスループットが最大になるように同時実行数を1ずつ増減します(山登り法)．<br>
+ * ControlEnergyPlus.setConcurrencyControllerで登録すると，EnergyPlusの起動前に実行枠を待ち，終了後に返します．
+ * ワーカースレッドはgetMaximum()個用意してください．<br>
+ * RSSとI/O待ちはLinuxの/procから測ります．/procの無い環境では空き物理メモリだけで判定します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class AdaptiveConcurrencyController {
+
+	/** 同時実行数の下限と上限 */
+	private final int minimum;
+	private final int maximum;
+	/** 現在の同時実行数の上限 */
+	private int limit;
+	/** 実行中の数 */
+	private int running = 0;
+	/** 測定区間内の完了数 */
+	private int completions = 0;
+
+	/** EnergyPlusプロセスのRSS合計の上限[byte] */
+	private long memoryCeiling = Long.MAX_VALUE;
+	/** 確保しておく空き物理メモリ[byte] */
+	private long memoryReserve = 512L*1024*1024;
+	/** 同時実行数を減らすI/O待ちの割合 */
+	private double ioWaitThreshold = 0.2;
+	/** スループットが変化したとみなす割合 */
+	private double tolerance = 0.05;
+	/** 調整の間隔[ms] */
+	private long interval = 30000;
+	/** RSSを測るプロセス名 */
+	private String processName = "energyplus";
+
+	/** 前回の測定区間のスループット[runs/s] */
+	private double lastThroughput = -1.0;
+	/** 前回の調整の向き */
+	private int direction = +1;
+	/** 測定区間の開始時刻 */
+	private long windowStart = System.currentTimeMillis();
+	/** 前回の/proc/statのI/O待ちと合計 */
+	private long lastIoWait = -1, lastTotal = -1;
+	/** 直近の測定値 */
+	private double throughput = 0.0, ioWait = 0.0;
+	private long rss = 0;
+
+	/** 調整スレッド */
+	private Thread adjuster = null;
+
+	/**
+	 * constructor.
+	 * @param minimum 同時実行数の下限
+	 * @param maximum 同時実行数の上限
+	 * @param initial 最初の同時実行数
+	 */
+	public AdaptiveConcurrencyController(int minimum, int maximum, int initial)
+	{
+		this.minimum = Math.max(1, minimum);
+		this.maximum = Math.max(this.minimum, maximum);
+		this.limit = Math.min(this.maximum, Math.max(this.minimum, initial));
+	}
+
+	/**
+	 * EnergyPlusプロセスのRSS合計の上限を設定します．
+	 * @param memoryCeiling 上限[byte]
+	 */
+	public synchronized AdaptiveConcurrencyController setMemoryCeiling(long memoryCeiling)
+	{
+		this.memoryCeiling = memoryCeiling;
+		return this;
+	}
+
+	/**
+	 * 確保しておく空き物理メモリを設定します．空きがこれを下回ると同時実行数を減らします．
+	 * @param memoryReserve 空きメモリ[byte]
+	 */
+	public synchronized AdaptiveConcurrencyController setMemoryReserve(long memoryReserve)
+	{
+		this.memoryReserve = memoryReserve;
+		return this;
+	}
+
+	public synchronized AdaptiveConcurrencyController setIoWaitThreshold(double ioWaitThreshold)
+	{
+		this.ioWaitThreshold = ioWaitThreshold;
+		return this;
+	}
+
+	/**
+	 * 調整の間隔を設定します．1回のシミュレーション時間より十分長くしてください．
+	 * @param interval 間隔[ms]
+	 */
+	public synchronized AdaptiveConcurrencyController setInterval(long interval)
+	{
+		this.interval = interval;
+		return this;
+	}
+
+	public synchronized AdaptiveConcurrencyController setProcessName(String processName)
+	{
+		this.processName = processName;
+		return this;
+	}
+
+	public int getMinimum(){ return minimum; }
+	public int getMaximum(){ return maximum; }
+	public synchronized int getLimit(){ return limit; }
+	public synchronized int getRunning(){ return running; }
+	public synchronized double getThroughput(){ return throughput; }
+	public synchronized long getResidentMemory(){ return rss; }
+	public synchronized double getIoWait(){ return ioWait; }
+
+	/**
+	 * 実行枠が空くまで待って1つ確保します．
+	 * @throws InterruptedException 割り込み
+	 */
+	public synchronized void acquire() throws InterruptedException
+	{
+		while( running >= limit )	wait();
+		running++;
+	}
+
+	/**
+	 * 実行枠を返します．
+	 * @param completed 正常に完了したならtrue(スループットに数える)
+	 */
+	public synchronized void release(boolean completed)
+	{
+		running--;
+		if( completed )	completions++;
+		notifyAll();
+	}
+
+	/**
+	 * 一定間隔で同時実行数を調整するデーモンスレッドを起動します．
+	 * @return this
+	 */
+	public synchronized AdaptiveConcurrencyController start()
+	{
+		if( adjuster != null )	return this;
+		adjuster = new Thread(() -> {
+			try {
+				while( !Thread.currentThread().isInterrupted() ) {
+					Thread.sleep(interval);
+					adjust();
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}, "concurrency-controller");
+		adjuster.setDaemon(true);
+		adjuster.start();
+		return this;
+	}
+
+	/**
+	 * 調整スレッドを止めます．
+	 */
+	public synchronized void stop()
+	{
+		if( adjuster != null )	adjuster.interrupt();
+		adjuster = null;
+	}
+
+	/**
+	 * 測定区間の結果から同時実行数を調整します．start()で起動した場合は一定間隔で呼ばれます．
+	 */
+	public void adjust()
+	{
+		// 測定(ファイル読込)はロックの外で行う
+		long residentMemory = measureResidentMemory();
+		long freeMemory = measureFreeMemory();
+		double wait = measureIoWait();
+
+		synchronized(this)
+		{
+			long now = System.currentTimeMillis();
+			double seconds = Math.max(1.0e-3, (now - windowStart)/1000.0);
+			throughput = completions / seconds;
+			rss = residentMemory;
+			ioWait = wait;
+			int previous = limit;
+			String reason;
+
+			long perRun = (running>0) ? residentMemory/running : 0;
+			if( residentMemory > memoryCeiling || (freeMemory>=0 && freeMemory < memoryReserve) ) {
+				limit--;
+				direction = -1;
+				reason = "memory";
+			}else if( wait > ioWaitThreshold ) {
+				limit--;
+				direction = -1;
+				reason = "iowait";
+			}else if( completions == 0 ) {
+				reason = "no completion";	// 区間内に完了が無ければ判断しない
+			}else {
+				// 山登り法：前回よりスループットが落ちたら向きを変え，変わらなければ増やす向きを試す
+				if( lastThroughput >= 0 && throughput < lastThroughput*(1.0-tolerance) )	direction = -direction;
+				else if( lastThroughput >= 0 && throughput <= lastThroughput*(1.0+tolerance) && direction < 0 )	direction = +1;
+				// メモリに余裕が無ければ増やさない
+				int step = direction;
+				if( step > 0 && residentMemory + perRun > memoryCeiling )	step = 0;
+				limit += step;
+				lastThroughput = throughput;
+				reason = "throughput";
+			}
+			limit = Math.min(maximum, Math.max(minimum, limit));
+			if( limit != previous )
+				Logging.logger.info("concurrency "+previous+" -> "+limit+" ("+reason+": "+String.format("%.4f", throughput)+" runs/s, rss "
+						+(residentMemory/1024/1024)+" MB, iowait "+String.format("%.2f", wait)+")");
+			if( reason.equals("throughput") || reason.equals("memory") || reason.equals("iowait") ) {
+				completions = 0;
+				windowStart = now;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * EnergyPlusプロセスのRSSの合計を/procから測ります．
+	 * @return RSSの合計[byte]．測れなければ0
+	 */
+	private long measureResidentMemory()
+	{
+		File[] processes = new File("/proc").listFiles();
+		if( processes == null )	return 0;
+		long total = 0;
+		for(File process : processes)
+		{
+			if( !process.getName().chars().allMatch(Character::isDigit) )	continue;
+			try {
+				List<String> status = Files.readAllLines(Paths.get(process.getPath(), "status"), StandardCharsets.ISO_8859_1);
+				if( status.isEmpty() || !status.get(0).toLowerCase().contains(processName.toLowerCase()) )	continue;
+				for(String line : status)
+					if( line.startsWith("VmRSS:") )	total += Long.parseLong(line.replaceAll("[^0-9]", ""))*1024;
+			}catch(IOException | RuntimeException e){
+				// 測定中に終了したプロセスは無視する
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 空き物理メモリを測ります．
+	 * @return 空きメモリ[byte]．測れなければ-1
+	 */
+	private long measureFreeMemory()
+	{
+		try {
+			for(String line : Files.readAllLines(Paths.get("/proc/meminfo"), StandardCharsets.ISO_8859_1))
+				if( line.startsWith("MemAvailable:") )	return Long.parseLong(line.replaceAll("[^0-9]", ""))*1024;
+		}catch(IOException | RuntimeException e){
+			// /procが無い環境
+		}
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if( os instanceof com.sun.management.OperatingSystemMXBean )
+			return ((com.sun.management.OperatingSystemMXBean)os).getFreePhysicalMemorySize();
+		return -1;
+	}
+
+	/**
+	 * 前回の測定からのCPU時間のうちI/O待ちの割合を/proc/statから測ります．
+	 * @return I/O待ちの割合．測れなければ0
+	 */
+	private double measureIoWait()
+	{
+		try {
+			String[] field = Files.readAllLines(Paths.get("/proc/stat"), StandardCharsets.ISO_8859_1).get(0).trim().split("\\s+");
+			long total = 0;
+			for(int i=1; i<field.length; i++)	total += Long.parseLong(field[i]);
+			long wait = Long.parseLong(field[5]);
+			double fraction = (lastTotal<0 || total==lastTotal) ? 0.0 : (double)(wait-lastIoWait)/(total-lastTotal);
+			lastIoWait = wait;
+			lastTotal = total;
+			return fraction;
+		}catch(IOException | RuntimeException e){
+			return 0.0;
+		}
+	}
+}
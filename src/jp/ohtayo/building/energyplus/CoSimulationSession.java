@@ -0,0 +1,219 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.commons.log.Logging;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EnergyPlusを起動したままタイムステップごとに設定値と室内状態をやり取りする連成シミュレーションのセッションです．<br>
+ * EnergyPlusのExternalInterface(BCVTBプロトコル)のサーバ側として動作します．<br>
+ * 各タイムステップでEnergyPlusから出力値(ゾーン温度など)を受け取り，Javaから入力値(設定温度など)を返します．<br>
+ * 起動・IDF解析・助走計算は最初の1回だけなので，MPCの制御周期ごとの遅延はソケット通信だけになります．<br>
+ * <br>
+ * 通信の形式は1行のテキストで，「バージョン フラグ 実数の数 整数の数 論理値の数 時刻 値...」です．<br>
+ * フラグは0が通常，1がシミュレーション終了，負値がエラーを表します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class CoSimulationSession implements AutoCloseable {
+
+	/** BCVTBプロトコルのバージョン */
+	static final int PROTOCOL_VERSION = 2;
+	/** 通常の通信のフラグ */
+	static final int FLAG_NORMAL = 0;
+	/** シミュレーション終了のフラグ */
+	static final int FLAG_END = 1;
+
+	/** 作業フォルダ */
+	private final File workspace;
+	/** 実行コマンド(nullなら外部で起動した連成相手の接続を待つ) */
+	private final String[] command;
+	/** 入力値(Javaから送る値)の数 */
+	private final int numberOfInputs;
+	/** 接続待ちのタイムアウト[ms] */
+	private int timeout = 10*60*1000;
+
+	private ServerSocket server;
+	private Socket socket;
+	private BufferedReader reader;
+	private BufferedWriter writer;
+	private Process process;
+
+	/** 最後に受け取ったシミュレーション時刻[s] */
+	private double time = 0.0;
+	/** シミュレーションが終了したか */
+	private boolean finished = false;
+
+	/**
+	 * constructor.
+	 * @param workspace 作業フォルダ(socket.cfgを書き込む)
+	 * @param command 連成相手の実行コマンド．nullなら起動しない
+	 * @param numberOfInputs 入力値(Javaから送る値)の数
+	 */
+	public CoSimulationSession(File workspace, String[] command, int numberOfInputs)
+	{
+		this.workspace = workspace;
+		this.command = command;
+		this.numberOfInputs = numberOfInputs;
+	}
+
+	/**
+	 * 接続待ちのタイムアウトを設定します．
+	 * @param timeout タイムアウト[ms]
+	 */
+	public CoSimulationSession setTimeout(int timeout)
+	{
+		this.timeout = timeout;
+		return this;
+	}
+
+	public double getTime(){ return time; }
+	public boolean isFinished(){ return finished; }
+
+	/**
+	 * 連成相手を起動して接続し，最初のタイムステップの出力値を受け取ります．
+	 * @return 最初のタイムステップの出力値
+	 * @throws IOException 通信エラー
+	 */
+	public double[] start() throws IOException
+	{
+		// ローカルの空きポートで待ち受け，socket.cfgに書き出す
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		server.setSoTimeout(timeout);
+		writeSocketConfig(new File(workspace, "socket.cfg"), server.getLocalPort());
+
+		if( command != null ) {
+			Logging.logger.info("co-simulation: "+String.join(" ", command));
+			process = new ProcessBuilder(command).directory(workspace).redirectErrorStream(true)
+					.redirectOutput(new File(workspace, "cosimulation.log")).start();
+		}
+
+		socket = server.accept();
+		socket.setTcpNoDelay(true);
+		reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+		writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+		return receive();
+	}
+
+	/**
+	 * 入力値を送り，次のタイムステップの出力値を受け取ります．
+	 * @param inputs 入力値(設定温度など)
+	 * @return 次のタイムステップの出力値．シミュレーションが終了した場合はnull
+	 * @throws IOException 通信エラー
+	 */
+	public double[] step(double[] inputs) throws IOException
+	{
+		if( finished )	return null;
+		if( inputs.length != numberOfInputs )
+			throw new IllegalArgumentException("illegal number of inputs: "+inputs.length+" (expected "+numberOfInputs+")");
+
+		send(FLAG_NORMAL, time, inputs);
+		return receive();
+	}
+
+	/**
+	 * 1タイムステップ分のメッセージを受け取ります．
+	 * @return 受け取った値．終了メッセージならnull
+	 */
+	private double[] receive() throws IOException
+	{
+		String line = reader.readLine();
+		if( line == null ) {
+			finished = true;
+			return null;
+		}
+		String[] field = line.trim().split("\\s+");
+		int flag = Integer.parseInt(field[1]);
+		if( flag != FLAG_NORMAL ) {
+			finished = true;
+			if( flag < 0 )	Logging.logger.severe("co-simulation peer reported error: flag = "+flag);
+			return null;
+		}
+		int numberOfDoubles = Integer.parseInt(field[2]);
+		time = Double.parseDouble(field[5]);
+		double[] values = new double[numberOfDoubles];
+		for(int i=0; i<numberOfDoubles; i++)	values[i] = Double.parseDouble(field[6+i]);
+		return values;
+	}
+
+	/**
+	 * 1タイムステップ分のメッセージを送ります．
+	 */
+	private void send(int flag, double simulationTime, double[] values) throws IOException
+	{
+		writer.write(formatMessage(flag, simulationTime, values));
+		writer.flush();
+	}
+
+	/**
+	 * BCVTBプロトコルのメッセージを作成します．
+	 * @param flag フラグ
+	 * @param simulationTime シミュレーション時刻[s]
+	 * @param values 実数値
+	 * @return 1行のメッセージ
+	 */
+	static String formatMessage(int flag, double simulationTime, double[] values)
+	{
+		StringBuilder message = new StringBuilder();
+		message.append(PROTOCOL_VERSION).append(' ').append(flag).append(' ')
+			   .append(values.length).append(" 0 0 ").append(simulationTime);
+		for(double v : values)	message.append(' ').append(v);
+		return message.append('\n').toString();
+	}
+
+	/**
+	 * socket.cfgを書き出します．
+	 * @param file 書き出し先
+	 * @param port 待ち受けポート番号
+	 */
+	static void writeSocketConfig(File file, int port) throws IOException
+	{
+		String config = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n"
+					  + "<!DOCTYPE BCVTB-client SYSTEM \"bcvtb-client.dtd\">\n"
+					  + "<BCVTB-client>\n"
+					  + "  <ipc>\n"
+					  + "    <socket port=\""+port+"\" hostname=\"localhost\"/>\n"
+					  + "  </ipc>\n"
+					  + "</BCVTB-client>\n";
+		Files.write(file.toPath(), config.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * セッションを終了します．シミュレーションの途中であれば終了を通知し，連成相手の終了を待ちます．
+	 */
+	@Override
+	public void close()
+	{
+		try {
+			if( writer != null && !finished )	send(FLAG_END, time, new double[0]);
+		}catch(IOException e){
+			Logging.logger.warning(e.getMessage());
+		}
+		try {
+			if( socket != null )	socket.close();
+			if( server != null )	server.close();
+		}catch(IOException e){
+			Logging.logger.warning(e.getMessage());
+		}
+		if( process != null ) {
+			try {
+				if( !process.waitFor(30, TimeUnit.SECONDS) )	process.destroyForcibly();
+			}catch(InterruptedException e){
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+		finished = true;
+	}
+}
@@ -11,6 +11,8 @@ public class ConfigEnergyPlus extends ConfigBase {
 
 	// EnergyPlusのexeのあるフォルダ名
 	public String exeFolder;
+	// EnergyPlusの実行ファイル名(省略時はenergyplus.exe．試験用の代替プログラムも指定できる)
+	public String exeFile;
 	// weatherファイル名
 	public String weatherFile;
 	// EnergyPlusの作業フォルダの親フォルダ
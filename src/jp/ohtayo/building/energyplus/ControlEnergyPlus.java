@@ -1,18 +1,32 @@
 package jp.ohtayo.building.energyplus;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import jp.ohtayo.commons.io.Csv;
 import jp.ohtayo.commons.io.Text;
-import jp.ohtayo.commons.util.Cast;
 import jp.ohtayo.commons.log.Logging;
-import jp.ohtayo.commons.math.Matrix;
-import jp.ohtayo.commons.math.Vector;
 import jp.ohtayo.commons.io.TimeSeries;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -26,15 +40,67 @@ public class ControlEnergyPlus {
 
 	/** ターゲットフォルダ・ファイルのロケーション定義 */
 	private String exeFolder;
-	private final static String exeFile = "energyplus.exe";
+	private final static String DEFAULT_EXE_FILE = "energyplus.exe";
+	private String exeFile = DEFAULT_EXE_FILE;
 	private String weatherFolder;
 	private String weatherFile;
 	private String idfFolder;
   	private String idfBaseFolder;
 	private String idfFile;
+	private String runIdfFile;
 	private String sqliteFile;
 	private String csvFile;
 
+	/** HVACテンプレート(expidf)を展開するプログラム */
+	private final static String expandObjectsFile = "ExpandObjects.exe";
+	/** expidfを事前に展開して実行するか */
+	private boolean preExpansion = true;
+	/** 展開済みIDFのキャッシュ(キーはテンプレート内容のハッシュ値) */
+	private static final Map<String, String[]> expandedModels = new ConcurrentHashMap<>();
+	/** 展開前後の行番号の対応のキャッシュ */
+	private static final Map<String, Integer> expandedOffsets = new ConcurrentHashMap<>();
+
+	/** 出力変数を目的関数の計算に必要なものだけに絞り込むか */
+	private boolean outputPruning = false;
+	/** 絞り込み前の出力から求めた抽出列の列名(キーは作業フォルダの親フォルダとidfファイル名) */
+	private static final Map<String, OutputColumns> learnedColumns = new ConcurrentHashMap<>();
+
+	/** 1時間あたりのタイムステップ数(IDFのTimestepオブジェクトを書き換える) */
+	private int timestepsPerHour = 6;
+
+	/** EnergyPlusの同時実行数の制御(nullなら制御しない．全インスタンスで共有) */
+	private static volatile AdaptiveConcurrencyController concurrencyController = null;
+
+	/** 気象データの差分(nullなら元のepwをそのまま使う) */
+	private WeatherOverlay weatherOverlay = null;
+	/** 差分を適用したepwのファイル名 */
+	private final static String overlayWeatherFile = "in.epw";
+
+	/** 実行中の出力から判定する打ち切り条件(キーは条件の名前) */
+	private final Map<String, StopCriterion> stopCriteria = new LinkedHashMap<>();
+	/** 打ち切り条件を判定する間隔[ms] */
+	private long pollInterval = 1000;
+	/** 連成シミュレーション用のidfファイル */
+	private final static String coSimulationIdfFile = "cosimulation.idf";
+	/** 実行中に追いかけて読む出力ファイル */
+	private final static String esoFile = "eplusout.eso";
+	/** ReadVarsESOで出力CSVを作らず，esoファイルを直接読むか */
+	private boolean readingEso = false;
+	/** 実行中に読んだ結果データの行を流す先(nullなら流さない) */
+	private ResultRowPublisher resultPublisher = null;
+	/** 流し終えた行数 */
+	private int publishedRows = 0;
+	/** 直前のシミュレーションを打ち切った条件の名前(打ち切っていなければnull) */
+	private String terminationReason = null;
+
+	/** PMVをJava側で計算する条件{風速[m/s], 着衣量[clo], 代謝量[met]}(nullならEnergyPlusの出力を使う) */
+	private double[] comfortCondition = null;
+	/** 直前のシミュレーションでのJava側とEnergyPlusのPMVの差{平均絶対誤差, 最大絶対誤差}(比べていなければnull) */
+	private double[] comfortValidationError = null;
+	/** EnergyPlusの熱快適性モデルの名前(Peopleオブジェクトのフィールド値) */
+	private static final Set<String> COMFORT_MODELS = new HashSet<>(Arrays.asList(
+			"fanger", "pierce", "ksu", "adaptiveash55", "adaptivecen15251", "coolingeffectash55", "ankledraftash55"));
+
 	/**
 	 * constructor.
 	 * @param configFileName name of ConfigEnergyPlus configuration file
@@ -58,13 +124,15 @@ public class ControlEnergyPlus {
 
 		// 読込結果の格納
 		exeFolder = config.exeFolder;
+		if( config.exeFile != null && !config.exeFile.trim().isEmpty() )	exeFile = config.exeFile.trim();
 		idfBaseFolder = config.idfBaseFolder;
 		String threadName = Thread.currentThread().getName();
-		idfFolder = idfBaseFolder + threadName+"\\";
+		idfFolder = idfBaseFolder + threadName + File.separator;
 		idfFile = config.idfFile;
 		weatherFile = config.weatherFile;
-		weatherFolder = exeFolder+"WeatherData\\";
+		weatherFolder = exeFolder + "WeatherData" + File.separator;
 		String idfName = FilenameUtils.removeExtension(idfFile);
+		runIdfFile = isTemplate() ? idfName + ".idf" : idfFile;
 		sqliteFile = "eplusout.sql";
 		csvFile = "eplusout.csv";
 
@@ -75,46 +143,315 @@ public class ControlEnergyPlus {
 		Logging.logger.info("weatherFile = " + weatherFolder+weatherFile);
 	}
 
+	/**
+	 * HVACテンプレート(expidf)を事前に展開して実行するかを設定します．<br>
+	 * 有効な場合，テンプレートはセッション中に内容ごとに一度だけ展開され，各評価は展開済みのモデルで実行されます．<br>
+	 * @param preExpansion 事前展開するならtrue
+	 */
+	public ControlEnergyPlus setPreExpansion(boolean preExpansion)
+	{
+		this.preExpansion = preExpansion;
+		runIdfFile = isTemplate() ? FilenameUtils.removeExtension(idfFile) + ".idf" : idfFile;
+		return this;
+	}
+
+	/**
+	 * 事前展開の対象となるHVACテンプレートかを判定します．
+	 * @return 事前展開が有効でidfファイルがexpidfならtrue
+	 */
+	private boolean isTemplate()
+	{
+		return preExpansion && idfFile.toLowerCase().endsWith(".expidf");
+	}
+
+	/**
+	 * 出力CSVを使わず，esoファイルを直接読むかを設定します．<br>
+	 * 有効な場合はEnergyPlusに-rを渡さないのでReadVarsESOが実行されず，esoファイルの必要な変数のレコードだけを実行中から読みます．<br>
+	 * esoファイルの変数の並び(データ辞書の順)は出力CSVの列の並びと同じなので，列番号ファイルはそのまま使えます．<br>
+	 * @param readingEso esoファイルを直接読むならtrue
+	 */
+	public ControlEnergyPlus setReadingEso(boolean readingEso)
+	{
+		this.readingEso = readingEso;
+		return this;
+	}
+
+	/**
+	 * 出力変数を目的関数の計算に必要なものだけに絞り込むかを設定します．<br>
+	 * 有効な場合，最初の実行は絞り込まずに行って列番号ファイルの列名を記録し，
+	 * 以降の実行ではIDFのOutput:Variable/Output:Meterを記録した列だけに書き換えて，列番号を列名から求め直します．<br>
+	 * @param outputPruning 絞り込むならtrue
+	 */
+	public ControlEnergyPlus setOutputPruning(boolean outputPruning)
+	{
+		this.outputPruning = outputPruning;
+		return this;
+	}
+
+	/**
+	 * 1時間あたりのタイムステップ数を設定します．<br>
+	 * IDFのTimestepオブジェクトをこの値に書き換えて実行し，出力もこのタイムステップごとの行になります．<br>
+	 * @param timestepsPerHour 1時間あたりのタイムステップ数(60の約数)
+	 */
+	public ControlEnergyPlus setTimestepsPerHour(int timestepsPerHour)
+	{
+		if( timestepsPerHour<=0 || 60 % timestepsPerHour != 0 )
+			throw new IllegalArgumentException("timestepsPerHour must divide 60: "+timestepsPerHour);
+		this.timestepsPerHour = timestepsPerHour;
+		return this;
+	}
+
+	public int getTimestepsPerHour(){ return timestepsPerHour; }
+
+	/**
+	 * EnergyPlusの同時実行数の制御を設定します．全てのインスタンスのexecuteEnergyPlusで共有されます．
+	 * @param controller 同時実行数の制御(nullなら制御しない)
+	 */
+	public static void setConcurrencyController(AdaptiveConcurrencyController controller)
+	{
+		concurrencyController = controller;
+	}
+
+	/**
+	 * 気象データの差分を設定します．<br>
+	 * 設定した場合，実行時に元のepw(メモリ上で共有)に差分を適用したepwを作業フォルダに書き出して使います．
+	 * 元のepwは書き換えないので，別の差分のシミュレーションと同時に実行できます．<br>
+	 * @param weatherOverlay 気象データの差分(nullなら元のepwを使う)
+	 */
+	public ControlEnergyPlus setWeatherOverlay(WeatherOverlay weatherOverlay)
+	{
+		this.weatherOverlay = weatherOverlay;
+		return this;
+	}
+
+	/**
+	 * 実行中のEnergyPlusを打ち切る条件を追加します．<br>
+	 * 条件が1つでもあれば，simulateは実行中の出力(eplusout.eso)を追いかけて読み，途中までの結果データで条件を判定します．
+	 * いずれかの条件が成り立つとEnergyPlusを終了し，途中までの結果データを返します．打ち切ったかはisTerminated()で確認できます．<br>
+	 * 例えば，累積の電力量が既に最も悪いパレート解を超えた候補や，PMVが範囲を外れた回数が既に多すぎる候補の残りの計算を省けます．<br>
+	 * @param name 条件の名前(打ち切りの理由として記録する)
+	 * @param criterion 打ち切り条件
+	 */
+	public ControlEnergyPlus addStopCriterion(String name, StopCriterion criterion)
+	{
+		stopCriteria.put(name, criterion);
+		return this;
+	}
+
+	/**
+	 * 打ち切り条件を判定する間隔を設定します．
+	 * @param pollInterval 間隔[ms]
+	 */
+	public ControlEnergyPlus setPollInterval(long pollInterval)
+	{
+		this.pollInterval = pollInterval;
+		return this;
+	}
+
+	/**
+	 * 実行中に読んだ結果データの行を流す先を設定します．<br>
+	 * 設定すると，simulateは実行中の出力(eplusout.eso)をpollIntervalごとに追いかけて読み，読んだ行を終了を待たずに流します．
+	 * 結果データもesoファイルから作ります(出力CSVは使わないので，setReadingEso(true)と併せて使うとReadVarsESOの実行も省けます)．<br>
+	 * Java側でPMVを計算する場合，流す行のPMVはJava側で計算した値で，EnergyPlusのPMVとの検証はしません．<br>
+	 * @param publisher 結果データの行を流す先(1回のシミュレーションに1つ)
+	 */
+	public ControlEnergyPlus setResultPublisher(ResultRowPublisher publisher)
+	{
+		this.resultPublisher = publisher;
+		return this;
+	}
+
+	/**
+	 * 各階のPMVをEnergyPlusの出力ではなくJava側で計算するように設定します．<br>
+	 * 最初の実行ではEnergyPlusのPMVも出力させて列名を記録し，Java側で計算したPMVとの差をログに出して検証します(getComfortValidationError)．
+	 * 以降の実行ではIDFのPeopleオブジェクトの熱快適性モデルを空欄にしてEnergyPlusの熱快適性の計算と出力を止め，
+	 * 抽出した各ゾーンの温湿度からゾーンごとに並列にPMVを計算します．平均放射温度は室温+1℃とします(BuildingUtils.calculateZonePMVと同じ)．<br>
+	 * @param Va 風速[m/s]
+	 * @param Icl 着衣量[clo]
+	 * @param M 代謝量[met]
+	 */
+	public ControlEnergyPlus setComfortInJava(double Va, double Icl, double M)
+	{
+		this.comfortCondition = new double[]{Va, Icl, M};
+		return this;
+	}
+
+	/**
+	 * 直前のシミュレーションでJava側で計算したPMVとEnergyPlusのPMVの差を返します．
+	 * @return {平均絶対誤差, 最大絶対誤差}(比べていなければnull)
+	 */
+	public double[] getComfortValidationError(){ return comfortValidationError; }
+
+	/**
+	 * 直前のシミュレーションを打ち切り条件で途中終了したかを返します．
+	 * @return 途中終了したならtrue(結果データは途中までの行だけ)
+	 */
+	public boolean isTerminated(){ return terminationReason != null; }
+
+	/**
+	 * 直前のシミュレーションを打ち切った条件の名前を返します．
+	 * @return 条件の名前(打ち切っていなければnull)
+	 */
+	public String getTerminationReason(){ return terminationReason; }
+
+	/**
+	 * 気象データの差分があれば，差分を適用したepwを作業フォルダに書き出します．
+	 */
+	void materializeWeather()
+	{
+		if( weatherOverlay == null )	return;
+		try {
+			WeatherData.load(Paths.get(weatherFolder + weatherFile)).write(weatherOverlay, Paths.get(idfFolder + overlayWeatherFile));
+		}catch(IOException e){
+			Logging.logger.severe(e.getMessage());
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 出力CSVから抽出する列の定義を取得します．
+	 * @param learned 記録済みの列名を持つ列の定義(絞り込みもJava側のPMV計算もしていなければnull)
+	 * @param header 出力の列名
+	 * @return 抽出する列の定義
+	 */
+	private OutputColumns getOutputColumns(OutputColumns learned, String[] header)
+	{
+		if( learned != null )	return learned.resolve(header);
+
+		OutputColumns columns = OutputColumns.readIndexFiles(idfFolder);
+		if( outputPruning || comfortCondition != null )
+			learnedColumns.putIfAbsent(idfBaseFolder+idfFile, columns.withNames(header));
+		return columns;
+	}
+
 	/**
 	 * EnergyPlusの実行プログラム
 	 * @return energyPlusの実行結果(0なら正常終了、1ならエラー)
 	 */
 	public int executeEnergyPlus()
 	{
+		return executeEnergyPlus(null);
+	}
+
+	/**
+	 * 結果データを作るResultRowAggregatorを作成します．PMVをJava側で計算する場合はその条件も設定します．
+	 * @param columns 抽出する列の定義
+	 * @return ResultRowAggregator
+	 */
+	private ResultRowAggregator createAggregator(OutputColumns columns)
+	{
+		ResultRowAggregator aggregator = new ResultRowAggregator(columns);
+		if( comfortCondition != null )	aggregator.setComfortCondition(comfortCondition[0], comfortCondition[1], comfortCondition[2]);
+		return aggregator;
+	}
+
+	/**
+	 * EnergyPlusを実行します．followerを与えた場合は実行中の出力を追いかけて読み，打ち切り条件が成り立てばEnergyPlusを終了します．
+	 * @param follower 実行中の出力を読むEsoFollower(nullなら終了まで待つだけ)
+	 * @return energyPlusの実行結果(0なら正常終了)
+	 */
+	int executeEnergyPlus(EsoFollower follower)
+	{
+		terminationReason = null;
 		//コマンドの作成
-		String command = exeFolder + exeFile +
-						 " -w " + weatherFolder + weatherFile +
-						 " -d " + idfFolder +
-						 " -r " + idfFolder + idfFile;
-		System.out.println(command);
+		String[] command = getCommand();
+		System.out.println(String.join(" ", command));
 		//EnergyPlusプログラム実行
 		int ret = 0;
 		Runtime runtime = Runtime.getRuntime();
+		AdaptiveConcurrencyController controller = concurrencyController;
+		boolean acquired = false;
 		try{
+			//同時実行数の制御があれば実行枠を待つ
+			if( controller != null ) {
+				controller.acquire();
+				acquired = true;
+			}
 			Process process = runtime.exec(command);
-			ret = process.waitFor();
+			if( follower == null ) {
+				ret = process.waitFor();
+			}else {
+				ret = follow(process, follower);
+			}
 			System.out.println(ret);
 			if(ret!=0)	Logging.logger.severe("EnergyPlus occurred error(s).");
 		}catch(Exception e){
 			e.printStackTrace();
+			ret = 1;
+		}finally{
+			if( acquired )	controller.release(ret==0);
 		}
 		return ret;
 	}
 
 	/**
-	 * 温度配列からidfファイルの設定温度を変更して、EnergyPlusで消費電力・空調能力・温湿度を計算します<br>
-	 * @param settemp 設定温度[℃]の配列
-	 * @param startDay シミュレーション開始日
-	 * @param endDay シミュレーション終了日
-	 * @param idfDateOffset IDFファイルのうち日付指定箇所の行番号
-	 * @param idfTemperatureOffset IDFファイルのうち温度指定箇所の行番号
-	 * @return EnergyPlusの算出した全データ
+	 * 実行中の出力を一定間隔で読み，打ち切り条件が成り立てばEnergyPlusを強制終了します．
+	 * @param process EnergyPlusのプロセス
+	 * @param follower 実行中の出力を読むEsoFollower
+	 * @return プロセスの終了コード(打ち切った場合は0)
 	 */
-	public double[][] simulate(double[] settemp, Calendar startDay, Calendar endDay, int idfDateOffset, int idfTemperatureOffset)
+	private int follow(Process process, EsoFollower follower) throws IOException, InterruptedException
+	{
+		while( !process.waitFor(pollInterval, TimeUnit.MILLISECONDS) )
+		{
+			if( follower.poll() == 0 )	continue;
+			publish(follower);
+			for(Map.Entry<String, StopCriterion> criterion : stopCriteria.entrySet())
+			{
+				if( !criterion.getValue().test(follower.getRows()) )	continue;
+				process.destroyForcibly();
+				process.waitFor();
+				terminationReason = criterion.getKey();
+				Logging.logger.info("EnergyPlus terminated by '"+terminationReason+"' after "+follower.getRows().size()+" rows.");
+				return 0;
+			}
+		}
+		return process.exitValue();
+	}
+
+	/**
+	 * まだ流していない結果データの行を流します．
+	 * @param follower 実行中の出力を読むEsoFollower
+	 */
+	private void publish(EsoFollower follower)
+	{
+		if( resultPublisher == null )	return;
+		List<double[]> rows = follower.getRows();
+		for(; publishedRows<rows.size(); publishedRows++)	resultPublisher.submit(rows.get(publishedRows));
+	}
+
+	/**
+	 * EnergyPlusの実行コマンドを作成します．
+	 * @return コマンドと引数の配列
+	 */
+	String[] getCommand()
+	{
+		return getCommand(runIdfFile);
+	}
+
+	/**
+	 * 指定したidfファイルを実行するEnergyPlusの実行コマンドを作成します．
+	 * @param modelFile 作業フォルダ内のidfファイル名
+	 * @return コマンドと引数の配列
+	 */
+	private String[] getCommand(String modelFile)
+	{
+		String weather = (weatherOverlay==null) ? weatherFolder + weatherFile : idfFolder + overlayWeatherFile;
+		if( readingEso )
+			return new String[]{ exeFolder + exeFile, "-w", weather, "-d", idfFolder, idfFolder + modelFile };
+		return new String[]{ exeFolder + exeFile,
+							 "-w", weather,
+							 "-d", idfFolder,
+							 "-r", idfFolder + modelFile };
+	}
+
+	/**
+	 * 作業フォルダとIDFファイルが有るか確認し，無ければフォルダを作ってidfをコピーします．
+	 */
+	void prepareWorkspace()
 	{
-		// フォルダとIDFファイルが有るか確認．無ければフォルダを作ってidfをコピーする
 		if( Files.notExists(Paths.get(idfFolder)) || Files.notExists(Paths.get(idfFolder+idfFile))){
-			String sourceFolder = idfBaseFolder + "0\\";	//フォルダ名定義
+			String sourceFolder = idfBaseFolder + "0" + File.separator;	//フォルダ名定義
 			System.out.println("copy from: "+sourceFolder+" \ncopy to  : "+idfFolder);
 			try {
 				FileUtils.copyDirectory(new File(sourceFolder), new File(idfFolder));
@@ -123,91 +460,351 @@ public class ControlEnergyPlus {
 				e.printStackTrace();
 			}
 		}
+	}
+
+	/**
+	 * 作業フォルダのIDFを読み込み，実行するモデルの各行を返します．<br>
+	 * HVACテンプレート(expidf)の場合は展開済みのモデルを返し，offsetsを展開後の行番号に書き換えます．<br>
+	 * @param offsets テンプレート上の書き換え箇所の行番号(展開後の行番号に書き換えられる)
+	 * @param lengths 各書き換え箇所の行数
+	 * @return 実行するモデルの各行
+	 */
+	String[] readModel(int[] offsets, int[] lengths)
+	{
+		String[] template = new Text().read(idfFolder+idfFile).getStringArray();
+		if( !isTemplate() )	return template;
+
+		String hash = hash(template);
+		String[] model = expandedModels.computeIfAbsent(hash, h -> expandTemplate(template, h));
+		for(int i=0; i<offsets.length; i++)
+		{
+			final int offset = offsets[i];
+			final int length = lengths[i];
+			offsets[i] = expandedOffsets.computeIfAbsent(hash+":"+offset+":"+length, k -> {
+				// オブジェクトの先頭から書き換え箇所までの並びで展開後の位置を探す
+				int start = IdfUtils.findObjectStart(template, offset);
+				String[] block = Arrays.copyOfRange(template, start, offset+length);
+				int found = IdfUtils.findBlock(model, block, start);
+				if( found<0 )	throw new IllegalStateException("line "+(offset+1)+" of "+idfFile+" is not found in the expanded model.");
+				return found + (offset-start);
+			});
+		}
+		return model.clone();
+	}
+
+	/**
+	 * ExpandObjectsでHVACテンプレートを展開します．展開結果は作業フォルダの親フォルダにも保存し，次回以降は再利用します．
+	 * @param template テンプレートの各行
+	 * @param hash テンプレート内容のハッシュ値
+	 * @return 展開済みモデルの各行
+	 */
+	private String[] expandTemplate(String[] template, String hash)
+	{
+		File cache = new File(idfBaseFolder + "expanded", hash + ".idf");
+		if( cache.exists() )	return new Text().read(cache.getPath()).getStringArray();
+
+		Logging.logger.info("expand "+idfFile+" ("+hash+")");
+		File folder = new File(idfBaseFolder + "expanded", hash);
+		try {
+			FileUtils.forceMkdir(folder);
+			new Text(template).write(new File(folder, "in.idf").getPath());
+			File idd = new File(exeFolder + "Energy+.idd");
+			if( idd.exists() )	FileUtils.copyFile(idd, new File(folder, "Energy+.idd"));
+
+			Process process = new ProcessBuilder(exeFolder + expandObjectsFile).directory(folder).redirectErrorStream(true)
+					.redirectOutput(new File(folder, "expandobjects.log")).start();
+			int ret = process.waitFor();
+			File expanded = new File(folder, "expanded.idf");
+			if( ret!=0 || !expanded.exists() )
+				throw new IllegalStateException("ExpandObjects failed: "+folder);
+
+			String[] model = new Text().read(expanded.getPath()).getStringArray();
+			FileUtils.copyFile(expanded, cache);
+			FileUtils.deleteDirectory(folder);
+			return model;
+		}catch(IOException e){
+			Logging.logger.severe(e.getMessage());
+			throw new IllegalStateException(e);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * IDFの内容のハッシュ値(SHA-256)を計算します．
+	 * @param idf IDFの各行
+	 * @return 16進数文字列のハッシュ値
+	 */
+	static String hash(String[] idf)
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for(String line : idf) {
+				digest.update(line.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte)'\n');
+			}
+			StringBuilder hex = new StringBuilder();
+			for(byte b : digest.digest())	hex.append(String.format("%02x", b));
+			return hex.toString();
+		}catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * IDFのシミュレーション期間を書き換えます．
+	 * @param idf IDFファイルの各行
+	 * @param startDay シミュレーション開始日
+	 * @param endDay シミュレーション終了日
+	 * @param idfDateOffset IDFファイルのうち日付指定箇所の行番号
+	 */
+	static void rewriteRunPeriod(String[] idf, Calendar startDay, Calendar endDay, int idfDateOffset)
+	{
+		rewriteRunPeriod(idf, toIdfDate(startDay), toIdfDate(endDay), idfDateOffset);
+	}
+
+	/**
+	 * IDFのシミュレーション期間を書き換えます．
+	 * @param idf IDFファイルの各行
+	 * @param startDay シミュレーション開始日
+	 * @param endDay シミュレーション終了日
+	 * @param idfDateOffset IDFファイルのうち日付指定箇所の行番号
+	 */
+	static void rewriteRunPeriod(String[] idf, LocalDate startDay, LocalDate endDay, int idfDateOffset)
+	{
+		idf[idfDateOffset+0] = "    " + String.valueOf(startDay.getMonthValue()) + ",                      !- Begin Month\r";
+		idf[idfDateOffset+1] = "    " + String.valueOf(startDay.getDayOfMonth()) + ",                      !- Begin Day of Month\r";
+		idf[idfDateOffset+2] = "    " + String.valueOf(endDay.getMonthValue()) + ",                      !- End Month\r";
+		idf[idfDateOffset+3] = "    " + String.valueOf(endDay.getDayOfMonth()) + ",                      !- End Day of Month\r";
+	}
 
-		//1. variableの設定温度組合せへの変換
-		Vector temperature = new Vector(settemp);
+	/**
+	 * シミュレーション日をIDFの日付に変換します．<br>
+	 * IDFの月にはCalendarのMONTHの値をそのまま使います(evaluationMonth=8なら8月)．<br>
+	 * @param day シミュレーション日
+	 * @return IDFの日付
+	 */
+	static LocalDate toIdfDate(Calendar day)
+	{
+		return LocalDate.of(day.get(Calendar.YEAR), day.get(Calendar.MONTH), day.get(Calendar.DATE));
+	}
 
-		//2. idfファイル書き換え
-		String[] idf = new Text().read(idfFolder+idfFile).getStringArray();
-		//2.1 日付の書き換え
-		idf[idfDateOffset+0] = "    " + String.valueOf(startDay.get(Calendar.MONTH)) + ",                      !- Begin Month\r";
-		idf[idfDateOffset+1] = "    " + String.valueOf(startDay.get(Calendar.DATE))  + ",                      !- Begin Day of Month\r";
-		idf[idfDateOffset+2] = "    " + String.valueOf(endDay.get(Calendar.MONTH) ) + ",                      !- End Month\r";
-		idf[idfDateOffset+3] = "    " + String.valueOf(endDay.get(Calendar.DATE)  ) + ",                      !- End Day of Month\r";
+	/**
+	 * IDFのタイムステップ数(Timestepオブジェクト)を書き換えます．行数は変えません．
+	 * @param idf IDFファイルの各行
+	 * @param timestepsPerHour 1時間あたりのタイムステップ数
+	 */
+	static void rewriteTimestep(String[] idf, int timestepsPerHour)
+	{
+		int start = IdfUtils.findObject(idf, "Timestep", 0);
+		if( start<0 )	return;
+		int end = IdfUtils.findObjectEnd(idf, start);
+		if( start == end )
+			idf[start] = "  Timestep," + timestepsPerHour + ";\r";
+		else
+			idf[end] = "    " + timestepsPerHour + ";                       !- Number of Timesteps per Hour\r";
+	}
 
-		//2.2 設定温度情報書き換え
-		for(int i=0; i<temperature.length()-1; i++){
-			idf[idfTemperatureOffset+i*2] = "    "+String.valueOf(temperature.get( i))+",                    !- Value Until Time" + String.valueOf(i+1)+"\r";
-		}//最終行だけセミコロン
-		idf[idfTemperatureOffset+(temperature.length()-1)*2] = "    "+String.valueOf(temperature.get(temperature.length()-1))+";                    !- Value Until Time" + String.valueOf(temperature.length())+"\r";
+	/**
+	 * IDFのPeopleオブジェクトの熱快適性モデル(Fanger等)を空欄にして，EnergyPlusの熱快適性の計算を止めます．行数は変えません．<br>
+	 * 1行に1フィールドずつ書かれたPeopleオブジェクトだけを対象にします．<br>
+	 * @param idf IDFファイルの各行
+	 * @return 空欄にしたフィールドの数
+	 */
+	static int disableThermalComfort(String[] idf)
+	{
+		int disabled = 0;
+		int start = IdfUtils.findObject(idf, "People", 0);
+		while( start >= 0 )
+		{
+			int end = IdfUtils.findObjectEnd(idf, start);
+			for(int l=start+1; l<=end; l++)
+			{
+				if( !COMFORT_MODELS.contains(IdfUtils.fieldValue(idf[l]).toLowerCase()) )	continue;
+				int bang = idf[l].indexOf('!');
+				String comment = (bang<0) ? (idf[l].endsWith("\r") ? "\r" : "") : idf[l].substring(bang);
+				idf[l] = "    " + (IdfUtils.isObjectEnd(idf[l]) ? ";" : ",") + "                       " + comment;
+				disabled++;
+			}
+			start = IdfUtils.findObject(idf, "People", end+1);
+		}
+		return disabled;
+	}
+
+	/**
+	 * IDFの設定温度スケジュールを書き換えます．<br>
+	 * 1日分の場合は温度指定箇所の各行だけを書き換えます．
+	 * 複数日の場合はスケジュール全体を，日ごとにThrough:フィールドで区切ったSchedule:Compactに置き換えます．
+	 * このとき各日の時刻(Until:)とFor:フィールドは元のスケジュールのものを使い，最終日は12/31までとします．<br>
+	 * @param idf IDFファイルの各行
+	 * @param settemp 日ごとの1時間ごとの設定温度[℃]の配列
+	 * @param startDay シミュレーション開始日
+	 * @param idfTemperatureOffset IDFファイルのうち温度指定箇所の行番号
+	 * @return 書き換えたIDFファイルの各行
+	 */
+	static String[] rewriteTemperatureSchedule(String[] idf, double[][] settemp, LocalDate startDay, int idfTemperatureOffset)
+	{
+		int length = settemp[0].length;
+		int lastDay = settemp.length-1;
+		if( settemp.length == 1 ) {
+			for(int i=0; i<length; i++)	idf[idfTemperatureOffset+i*2] = temperatureLine(settemp[0][i], i, i==length-1);
+			return idf;
+		}
+
+		int start = IdfUtils.findObjectStart(idf, idfTemperatureOffset);
+		int end = IdfUtils.findObjectEnd(idf, idfTemperatureOffset+(length-1)*2);
+		List<String> lines = new ArrayList<>(idf.length + settemp.length*(length*2+2));
+		lines.addAll(Arrays.asList(idf).subList(0, start));
+		// 最初のThrough:より前(クラス名，スケジュール名，型)はそのまま，For:の行は各日で使う
+		int l = start;
+		while( l<idfTemperatureOffset-1 && !isField(idf[l], "through:") )	lines.add(idf[l++]);
+		List<String> forLines = new ArrayList<>();
+		for(; l<idfTemperatureOffset-1; l++)
+			if( !isField(idf[l], "through:") )	forLines.add(idf[l]);
+
+		for(int d=0; d<=lastDay; d++)
+		{
+			LocalDate day = (d==lastDay) ? LocalDate.of(startDay.getYear(), 12, 31) : startDay.plusDays(d);
+			lines.add("    Through: " + day.getMonthValue() + "/" + day.getDayOfMonth() + ",            !- Field\r");
+			lines.addAll(forLines);
+			for(int i=0; i<length; i++) {
+				lines.add(idf[idfTemperatureOffset+i*2-1]);	// Until:
+				lines.add(temperatureLine(settemp[d][i], i, d==lastDay && i==length-1));
+			}
+		}
+		lines.addAll(Arrays.asList(idf).subList(end+1, idf.length));
+		return lines.toArray(new String[0]);
+	}
+
+	private static String temperatureLine(double temperature, int index, boolean last)
+	{
+		return "    "+String.valueOf(temperature)+(last ? ";" : ",")+"                    !- Value Until Time" + String.valueOf(index+1)+"\r";
+	}
+
+	private static boolean isField(String line, String prefix)
+	{
+		return IdfUtils.fieldValue(line).toLowerCase().startsWith(prefix);
+	}
+
+	/**
+	 * 温度配列からidfファイルの設定温度を変更して、EnergyPlusで消費電力・空調能力・温湿度を計算します<br>
+	 * シミュレーション期間の全ての日に同じ設定温度スケジュールを使います．<br>
+	 * @param settemp 設定温度[℃]の配列
+	 * @param startDay シミュレーション開始日
+	 * @param endDay シミュレーション終了日
+	 * @param idfDateOffset IDFファイルのうち日付指定箇所の行番号
+	 * @param idfTemperatureOffset IDFファイルのうち温度指定箇所の行番号
+	 * @return EnergyPlusの算出した全データ
+	 */
+	public double[][] simulate(double[] settemp, Calendar startDay, Calendar endDay, int idfDateOffset, int idfTemperatureOffset)
+	{
+		int numberOfDays = (int)ChronoUnit.DAYS.between(toIdfDate(startDay), toIdfDate(endDay)) + 1;
+		double[][] schedule = new double[Math.max(1, numberOfDays)][];
+		Arrays.fill(schedule, settemp);
+		return simulate(schedule, startDay, schedule.length, idfDateOffset, idfTemperatureOffset);
+	}
+
+	/**
+	 * 日ごとの設定温度スケジュールでidfファイルを変更して、EnergyPlusで消費電力・空調能力・温湿度を計算します<br>
+	 * 出力CSVは1行ずつ読んで必要な列だけを集約するので，1年分(1時間6ステップで52,560行)の出力でも結果データ分のメモリで処理できます．<br>
+	 * @param settemp 日ごとの1時間ごとの設定温度[℃]の配列([日][時刻])
+	 * @param startDay シミュレーション開始日
+	 * @param numberOfDays シミュレーション日数
+	 * @param idfDateOffset IDFファイルのうち日付指定箇所の行番号
+	 * @param idfTemperatureOffset IDFファイルのうち温度指定箇所の行番号
+	 * @return EnergyPlusの算出した全データ
+	 */
+	public double[][] simulate(double[][] settemp, Calendar startDay, int numberOfDays, int idfDateOffset, int idfTemperatureOffset)
+	{
+		if( settemp.length != numberOfDays )	Logging.logger.severe("illegal number of daily schedules.");
+
+		// フォルダとIDFファイルが有るか確認．無ければフォルダを作ってidfをコピーする
+		prepareWorkspace();
+		materializeWeather();
+
+		//1. idfファイル書き換え
+		int[] offsets = {idfDateOffset, idfTemperatureOffset};
+		String[] idf = readModel(offsets, new int[]{4, settemp[0].length*2-1});
+		idfDateOffset = offsets[0];
+		idfTemperatureOffset = offsets[1];
+		//1.1 日付とタイムステップの書き換え(行数は変わらない)
+		LocalDate start = toIdfDate(startDay);
+		rewriteRunPeriod(idf, start, start.plusDays(numberOfDays-1), idfDateOffset);
+		rewriteTimestep(idf, timestepsPerHour);
+
+		//1.2 設定温度情報書き換え
+		idf = rewriteTemperatureSchedule(idf, settemp, start, idfTemperatureOffset);
+
+		//1.3 熱快適性の計算の停止と出力変数の絞り込み(列名を記録済みの場合)
+		OutputColumns recorded = (outputPruning || comfortCondition != null) ? learnedColumns.get(idfBaseFolder+idfFile) : null;
+		if( recorded != null && comfortCondition != null ) {
+			recorded = recorded.withoutComfort();
+			disableThermalComfort(idf);
+		}
+		final OutputColumns learned = recorded;
+		if( learned != null && outputPruning )	idf = new OutputVariablePruner(learned.getAllNames()).prune(idf);
 
 		Text text = new Text();
 		text.set(idf);
-		text.write(idfFolder+idfFile);	//utf-8, BOM無し
-
-		//3. EnergyPlusプログラム実行
-		executeEnergyPlus();
-
-		//4. 出力のCSVデータをまとめる
-		//CSVデータは0列目：日時，1列目外気温，2列目外気湿度，3～389列目：各部屋温度・湿度・PMV，390列目：冷房能力，391列目：消費電力，のならび
-		String filename = idfFolder + csvFile;
-//		Matrix csvData = new Matrix(Csv.read(filename, 1, 1));
-		TimeSeries csvData = new TimeSeries(filename, 1, " MM/dd  HH:mm:ss");
-		int[] temp1index = Cast.doubleToInt(Csv.read(idfFolder + "tempgroundindex_ep.csv")[0]);
-		int[] temp2index = Cast.doubleToInt(Csv.read(idfFolder + "tempmiddleindex_ep.csv")[0]);
-		int[] temp3index = Cast.doubleToInt(Csv.read(idfFolder + "temptopindex_ep.csv")[0]);
-		int[] humi1index = Cast.doubleToInt(Csv.read(idfFolder + "humigroundindex_ep.csv")[0]);
-		int[] humi2index = Cast.doubleToInt(Csv.read(idfFolder + "humimiddleindex_ep.csv")[0]);
-		int[] humi3index = Cast.doubleToInt(Csv.read(idfFolder + "humitopindex_ep.csv")[0]);
-		int[] pmv1index = Cast.doubleToInt(Csv.read(idfFolder + "pmvgroundindex_ep.csv")[0]);
-		int[] pmv2index = Cast.doubleToInt(Csv.read(idfFolder + "pmvmiddleindex_ep.csv")[0]);
-		int[] pmv3index = Cast.doubleToInt(Csv.read(idfFolder + "pmvtopindex_ep.csv")[0]);
-		Vector temp1 = csvData.getColumns(temp1index).mean("row");
-		Vector temp2 = csvData.getColumns(temp2index).mean("row");
-		Vector temp3 = csvData.getColumns(temp3index).mean("row");
-		Vector humi1 = csvData.getColumns(humi1index).mean("row");
-		Vector humi2 = csvData.getColumns(humi2index).mean("row");
-		Vector humi3 = csvData.getColumns(humi3index).mean("row");
-		Vector pmv1 = csvData.getColumns(pmv1index).mean("row");
-		Vector pmv2 = csvData.getColumns(pmv2index).mean("row");
-		Vector pmv3 = csvData.getColumns(pmv3index).mean("row");
-
-		int[] energyIndex = Cast.doubleToInt(Csv.read(idfFolder + "powerindex_ep.csv")[0]);
-		int[] outdoorIndex = {0, 1, 2};	//時刻，外気温，外気湿度
-		Matrix energy = csvData.getColumns(energyIndex);
-		Matrix outdoor = csvData.getColumns(outdoorIndex);
-
-		// 設定温度の追加
-		Vector settempdata = new Vector(5, temperature.get(0));
-		for(int t=1; t<temperature.length()-1; t++) {
-			Vector temp = new Vector(6, temperature.get(t));
-			settempdata = settempdata.add(temp);
+		text.write(idfFolder+runIdfFile);	//utf-8, BOM無し
+
+		//2. EnergyPlusプログラム実行(打ち切り条件があるかesoファイルを直接読む場合は実行中の出力を追いかけて読む)
+		double[] settempdata = expandTemperatureSetting(settemp, timestepsPerHour);
+		EsoFollower follower = null;
+		publishedRows = 0;
+		if( !stopCriteria.isEmpty() || readingEso || resultPublisher != null ) {
+			follower = new EsoFollower(Paths.get(idfFolder + esoFile), header -> createAggregator(getOutputColumns(learned, header)), settempdata);
+			// 打ち切り条件に使わず，行も流さなければPMVは読み終えてからEnergyPlusの出力と比べて計算する
+			if( stopCriteria.isEmpty() && resultPublisher == null )	follower.deferComfort();
 		}
-		settempdata = settempdata.add(new Vector(1, temperature.get(temperature.length()-1)));
-
-		//年と分の補正 必要性に応じて後で追加する．
-		//outdoor.set(0, 0, outdoor.get(0, 0)-600);//時刻の先頭を10分前に戻す
-		//outdoor.setColumn(0, outdoor.getColumn(0).plus( ((2006-1970)*365+9)*24*60*60 ));	//36年と8日分足す
-
-		Matrix alldata = new Matrix(csvData.length(), 15);
-		alldata.setSubMatrix(0, csvData.length(), 0, outdoor.columnLength(), outdoor);	//時刻，外気温，外気湿度
-		alldata.setColumn(3, settempdata);	// 設定温度
-		alldata.setColumn(4, temp1);
-		alldata.setColumn(5, humi1);
-		alldata.setColumn(6, temp2);
-		alldata.setColumn(7, humi2);
-		alldata.setColumn(8, temp3);
-		alldata.setColumn(9, humi3);
-		alldata.setColumn(10, pmv1);
-		alldata.setColumn(11, pmv2);
-		alldata.setColumn(12, pmv3);
-		alldata.setSubMatrix(0, csvData.length(), 13, energy.columnLength(), energy);
-
-		// 5. 抽出したデータの書き出し
-		String header = "time, outdoortemp, outdoorhumi, settemp, groundtemp, groundhumi, middletem, middlehumi, toptemp, tophumi, groundpmv, middlepmv, toppmv, electricenergy, coolingenergy";
-		new TimeSeries(alldata).write(idfFolder+"eplusout_picup.csv", header);
-
-		// 10. EnergyPlusの作業フォルダを削除
+		int ret = executeEnergyPlus(follower);
+
+		double[][] alldata;
+		if( isTerminated() ) {
+			//3'. 打ち切った場合は途中までの結果データを返す
+			alldata = follower.getRows().toArray(new double[0][]);
+			if( resultPublisher != null )	resultPublisher.closeExceptionally(new CancellationException("EnergyPlus terminated by '"+terminationReason+"'."));
+		}else if( readingEso || resultPublisher != null ) {
+			//3''. esoファイルの残りを読む(正常終了しなければ結果データは無し)
+			alldata = new double[0][];
+			try {
+				follower.poll();
+				if( ret == 0 && follower.getAggregator() != null ) {
+					follower.finish();
+					alldata = follower.getRows().toArray(new double[0][]);
+				}
+			}catch(IOException e){
+				Logging.logger.severe(e.getMessage());
+			}
+			if( resultPublisher != null ) {
+				if( alldata.length > 0 ) {
+					publish(follower);
+					resultPublisher.close();
+				}else {
+					resultPublisher.closeExceptionally(new IllegalStateException("EnergyPlus occurred error(s)."));
+				}
+			}
+			if( alldata.length > 0 && follower.isComfortDeferred() )	calculateComfort(alldata, follower.getAggregator(), learned == null);
+		}else {
+			//3. 出力のCSVデータから必要な列を集約する
+			//CSVデータは0列目：日時，1列目外気温，2列目外気湿度，3～389列目：各部屋温度・湿度・PMV，390列目：冷房能力，391列目：消費電力，のならび
+			String filename = idfFolder + csvFile;
+			ResultRowAggregator aggregator = createAggregator(getOutputColumns(learned, OutputColumns.readHeader(filename)));
+			try {
+				alldata = readResult(filename, aggregator, settempdata);
+			}catch(IOException e){
+				Logging.logger.severe(e.getMessage());
+				alldata = new double[0][];
+			}
+			//3.1 PMVをJava側で計算する(EnergyPlusのPMVを出力させた最初の実行では差を検証する)
+			if( alldata.length > 0 )	calculateComfort(alldata, aggregator, learned == null);
+		}
+
+		//4. 抽出したデータの書き出し
+		new TimeSeries(alldata).write(idfFolder+"eplusout_picup.csv", ResultRowAggregator.HEADER);
+
+		//5. EnergyPlusの作業フォルダを削除
 		System.out.println("delete "+idfFolder);
 		try{
 			FileUtils.deleteDirectory(new File(idfFolder));
@@ -216,13 +813,216 @@ public class ControlEnergyPlus {
 			e.printStackTrace();
 		}
 
-		return alldata.get();
+		return alldata;
+	}
+
+	/**
+	 * 出力CSVを1行ずつ読み込み，抽出する列だけから結果データ(時刻，外気温，外気湿度，設定温度，各階の温湿度・PMV，電力量)を作ります．<br>
+	 * 時刻は年を含まない日時の秒数，空欄は0として扱います．<br>
+	 * @param csvFile 出力CSVファイル
+	 * @param columns 抽出する列の定義
+	 * @param settemp タイムステップごとの設定温度[℃]
+	 * @return 結果データ
+	 * @throws IOException 読込エラー
+	 */
+	static double[][] readResult(String csvFile, OutputColumns columns, double[] settemp) throws IOException
+	{
+		return readResult(csvFile, new ResultRowAggregator(columns), settemp);
+	}
+
+	/**
+	 * 出力CSVを1行ずつ読み込み，指定したResultRowAggregatorで結果データを作ります．<br>
+	 * PMVをJava側で計算するaggregatorの場合，PMVはaggregator.calculateComfortで別に計算してください．<br>
+	 * @param csvFile 出力CSVファイル
+	 * @param aggregator 結果データを作るResultRowAggregator
+	 * @param settemp タイムステップごとの設定温度[℃]
+	 * @return 結果データ
+	 * @throws IOException 読込エラー
+	 */
+	static double[][] readResult(String csvFile, ResultRowAggregator aggregator, double[] settemp) throws IOException
+	{
+		boolean[] required = aggregator.getRequiredColumns();
+		double[] values = new double[required.length];
+		SimpleDateFormat format = new SimpleDateFormat(" MM/dd  HH:mm:ss");
+		List<double[]> rows = new ArrayList<>(settemp.length);
+		try(BufferedReader reader = Files.newBufferedReader(Paths.get(csvFile), StandardCharsets.UTF_8))
+		{
+			reader.readLine();	// ヘッダ
+			String line;
+			while( (line = reader.readLine()) != null )
+			{
+				if( line.trim().isEmpty() )	continue;
+				double time = Double.NaN;
+				int from = 0;
+				for(int column=0; column<required.length && from<=line.length(); column++)
+				{
+					int to = line.indexOf(',', from);
+					if( to<0 )	to = line.length();
+					if( column == 0 ) {
+						time = parseTime(format, line.substring(from, to));
+					}else if( required[column] ) {
+						String value = line.substring(from, to).trim();
+						values[column] = value.isEmpty() ? 0.0 : Double.parseDouble(value);
+					}
+					from = to+1;
+				}
+				int r = rows.size();
+				double[] row = new double[aggregator.width()];
+				aggregator.aggregate(time, values, r<settemp.length ? settemp[r] : Double.NaN, row);
+				rows.add(row);
+			}
+		}
+		if( rows.size() != settemp.length )
+			Logging.logger.warning("number of output rows ("+rows.size()+") differs from the schedule ("+settemp.length+").");
+		return rows.toArray(new double[0][]);
+	}
+
+	/**
+	 * 結果データの各階のPMVをJava側で計算します．<br>
+	 * validateがtrueなら，計算前のPMV(EnergyPlusの出力)との差をgetComfortValidationErrorで返せるように記録してログに出します．<br>
+	 * @param data 結果データ
+	 * @param aggregator 結果データを作ったResultRowAggregator
+	 * @param validate EnergyPlusのPMVと比べるならtrue
+	 */
+	private void calculateComfort(double[][] data, ResultRowAggregator aggregator, boolean validate)
+	{
+		comfortValidationError = null;
+		if( !aggregator.isComfortCalculated() )	return;
+		int[] columns = {ResultRowAggregator.GROUND_PMV, ResultRowAggregator.MIDDLE_PMV, ResultRowAggregator.TOP_PMV};
+		double[][] energyPlusPMV = new double[data.length][columns.length];
+		for(int r=0; r<data.length; r++)
+			for(int c=0; c<columns.length; c++)	energyPlusPMV[r][c] = data[r][columns[c]];
+
+		aggregator.calculateComfort(Arrays.asList(data), 0);
+		if( !validate )	return;
+
+		double sum = 0.0, max = 0.0;
+		int count = 0;
+		for(int r=0; r<data.length; r++) {
+			for(int c=0; c<columns.length; c++) {
+				double error = Math.abs(data[r][columns[c]] - energyPlusPMV[r][c]);
+				if( Double.isNaN(error) )	continue;
+				sum += error;
+				max = Math.max(max, error);
+				count++;
+			}
+		}
+		comfortValidationError = new double[]{ (count>0) ? sum/count : Double.NaN, max };
+		Logging.logger.info("PMV calculated in Java differs from EnergyPlus: mean |error| = "+String.format("%.4f", comfortValidationError[0])
+				+", max |error| = "+String.format("%.4f", max)+" ("+count+" values)");
+	}
+
+	static double parseTime(SimpleDateFormat format, String text)
+	{
+		try {
+			return format.parse(text).getTime() / 1000.0;
+		}catch(ParseException e){
+			return Double.NaN;
+		}
+	}
+
+
+	/**
+	 * EnergyPlusを起動したままタイムステップごとに設定温度を与える連成シミュレーションを準備します<br>
+	 * 設定温度のスケジュール(idfTemperatureOffsetを含むオブジェクト)を同じ名前のExternalInterface:Scheduleに置き換え，
+	 * ExternalInterfaceの設定ファイル(variables.cfg)を作業フォルダに書き出します．<br>
+	 * 返されたセッションのstart()でEnergyPlusが起動します．<br>
+	 * @param startDay シミュレーション開始日
+	 * @param endDay シミュレーション終了日
+	 * @param idfDateOffset IDFファイルのうち日付指定箇所の行番号
+	 * @param idfTemperatureOffset IDFファイルのうち温度指定箇所の行番号
+	 * @param outputs EnergyPlusから受け取る出力変数({キー名, 変数名}の配列．例：{"ZONE1", "Zone Mean Air Temperature"})
+	 * @param initialSetpoint 連成開始前(助走計算中)の設定温度[℃]
+	 * @return 連成シミュレーションのセッション
+	 */
+	public CoSimulationSession openCoSimulation(Calendar startDay, Calendar endDay, int idfDateOffset, int idfTemperatureOffset, String[][] outputs, double initialSetpoint)
+	{
+		prepareWorkspace();
+		materializeWeather();
+
+		int[] offsets = {idfDateOffset, idfTemperatureOffset};
+		String[] idf = readModel(offsets, new int[]{4, 1});
+		idfDateOffset = offsets[0];
+		idfTemperatureOffset = offsets[1];
+		rewriteRunPeriod(idf, startDay, endDay, idfDateOffset);
+
+		// 設定温度スケジュールをExternalInterface:Scheduleに置き換える
+		int start = IdfUtils.findObjectStart(idf, idfTemperatureOffset);
+		int end = IdfUtils.findObjectEnd(idf, idfTemperatureOffset);
+		String scheduleName = IdfUtils.fieldValue(idf[start+1]);
+		String typeLimits = IdfUtils.fieldValue(idf[start+2]);
+		List<String> lines = new ArrayList<>(Arrays.asList(idf).subList(0, start));
+		lines.add("  ExternalInterface:Schedule,\r");
+		lines.add("    "+scheduleName+",                  !- Name\r");
+		lines.add("    "+typeLimits+",                    !- Schedule Type Limits Name\r");
+		lines.add("    "+initialSetpoint+";                    !- Initial Value\r");
+		lines.addAll(Arrays.asList(idf).subList(end+1, idf.length));
+		if( !IdfUtils.containsObject(idf, "ExternalInterface") ) {
+			lines.add("\r");
+			lines.add("  ExternalInterface,\r");
+			lines.add("    PtolemyServer;            !- Name of External Interface\r");
+		}
+		// 元のidfを書き換えないように別のファイルに書き出す(次のsimulateはidfFileを読み直すため)
+		new Text(lines.toArray(new String[0])).write(idfFolder+coSimulationIdfFile);
+
+		// 出力変数と入力スケジュールの対応を書き出す
+		StringBuilder variables = new StringBuilder();
+		variables.append("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n");
+		variables.append("<!DOCTYPE BCVTB-variables SYSTEM \"variables.dtd\">\n");
+		variables.append("<BCVTB-variables>\n");
+		for(String[] output : outputs)
+			variables.append("  <variable source=\"EnergyPlus\">\n    <EnergyPlus name=\"").append(output[0])
+					 .append("\" type=\"").append(output[1]).append("\"/>\n  </variable>\n");
+		variables.append("  <variable source=\"Ptolemy\">\n    <EnergyPlus schedule=\"").append(scheduleName).append("\"/>\n  </variable>\n");
+		variables.append("</BCVTB-variables>\n");
+		try {
+			Files.write(Paths.get(idfFolder+"variables.cfg"), variables.toString().getBytes(StandardCharsets.ISO_8859_1));
+		}catch(IOException e){
+			Logging.logger.severe(e.getMessage());
+			e.printStackTrace();
+		}
+
+		return new CoSimulationSession(new File(idfFolder), getCommand(coSimulationIdfFile), 1);
+	}
+
+	/**
+	 * 1時間ごとの設定温度スケジュールを，EnergyPlusの出力と同じタイムステップごとの系列に展開します<br>
+	 * 出力の各行は区間の終端時刻のデータなので，最初の設定温度はtimestepsPerHour-1行，最後の設定温度は1行になります．<br>
+	 * @param temperature 1時間ごとの設定温度[℃]の配列
+	 * @param timestepsPerHour 1時間あたりのタイムステップ数
+	 * @return タイムステップごとの設定温度[℃]の配列
+	 */
+	public static double[] expandTemperatureSetting(double[] temperature, int timestepsPerHour)
+	{
+		double[] expanded = new double[(temperature.length-1)*timestepsPerHour];
+		int row = 0;
+		for(int i=0; i<timestepsPerHour-1; i++)	expanded[row++] = temperature[0];
+		for(int t=1; t<temperature.length-1; t++) {
+			for(int i=0; i<timestepsPerHour; i++)	expanded[row++] = temperature[t];
+		}
+		expanded[row] = temperature[temperature.length-1];
+		return expanded;
 	}
 
+	/**
+	 * 日ごとの1時間ごとの設定温度スケジュールを，EnergyPlusの出力と同じタイムステップごとの系列に展開して連結します<br>
+	 * @param temperature 日ごとの1時間ごとの設定温度[℃]の配列([日][時刻])
+	 * @param timestepsPerHour 1時間あたりのタイムステップ数
+	 * @return タイムステップごとの設定温度[℃]の配列
+	 */
+	public static double[] expandTemperatureSetting(double[][] temperature, int timestepsPerHour)
+	{
+		int rowsPerDay = (temperature[0].length-1)*timestepsPerHour;
+		double[] expanded = new double[temperature.length*rowsPerDay];
+		for(int d=0; d<temperature.length; d++)
+			System.arraycopy(expandTemperatureSetting(temperature[d], timestepsPerHour), 0, expanded, d*rowsPerDay, rowsPerDay);
+		return expanded;
+	}
 
 	/**
 	 * epwファイルの所定の時刻の気温、湿度を書き換える関数<br>
 	 * 本関数の呼び出し前にepwファイルをバックアップしておくこと<br>
+	 * 共有のepwを直接書き換えるため，シミュレーションの並列実行中は使わずWeatherOverlayを使うこと<br>
 	 * @param currentTime 2006/8/21 00:00:00から現在までの秒数
 	 * @param temperature その時刻の実際の気温
 	 * @param humidity その時刻の実際の湿度
@@ -264,6 +1064,7 @@ public class ControlEnergyPlus {
 	/**
 	 * epwファイルのある1日の外気温を別の1日の外気温に書き換える<br>
 	 * 本関数の呼び出し前にepwファイルをバックアップしておくこと<br>
+	 * 共有のepwを直接書き換えるため，シミュレーションの並列実行中は使わずWeatherOverlayを使うこと<br>
 	 * @param base 書き換え元の気温のある日
 	 * @param target 書き換え先の日
 	 */
@@ -306,6 +1107,7 @@ public class ControlEnergyPlus {
 	/**
 	 * epwファイルのある1日の外気温を別の1日の外気温に書き換える<br>
 	 * 本関数の呼び出し前にepwファイルをバックアップしておくこと<br>
+	 * 共有のepwを直接書き換えるため，シミュレーションの並列実行中は使わずWeatherOverlayを使うこと<br>
 	 * @param base 書き換え先の気温のある日
 	 * @param data 書き換えデータ
 	 */
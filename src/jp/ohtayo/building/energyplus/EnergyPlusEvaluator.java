@@ -0,0 +1,56 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.building.optimization.ObjectiveEvaluator;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * EnergyPlusObjectivesで目的関数値を算出する評価器です．<br>
+ * 評価ごとにEnergyPlusObjectivesを作成し，configuratorで設定(configファイル，IDFの変更行，評価日など)を与えます．<br>
+ * EnergyPlusの作業フォルダは実行スレッド名で分かれるため，複数スレッドから同時に呼び出せます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class EnergyPlusEvaluator implements ObjectiveEvaluator {
+
+	/** EnergyPlusObjectivesの設定を行う関数 */
+	private final UnaryOperator<EnergyPlusObjectives> configurator;
+	/** 設計変数を設定温度に変換するときに差分とするか */
+	private final boolean usingDifference;
+	/** 設計変数の数 */
+	private final int numberOfVariables;
+
+	/**
+	 * constructor.
+	 * @param configurator EnergyPlusObjectivesの設定を行う関数(例：o -&gt; o.setXmlFile(...).setIdfOffsets(...))
+	 * @param usingDifference 設計変数を設定温度に変換するときに差分とするか
+	 */
+	public EnergyPlusEvaluator(UnaryOperator<EnergyPlusObjectives> configurator, boolean usingDifference)
+	{
+		this.configurator = configurator;
+		this.usingDifference = usingDifference;
+		this.numberOfVariables = configurator.apply(new EnergyPlusObjectives(new double[0])).getNumberOfVariables();
+	}
+
+	/**
+	 * 設定済みのEnergyPlusObjectivesを作成します．
+	 * @param variable 設計変数
+	 * @return EnergyPlusObjectives
+	 */
+	public EnergyPlusObjectives create(double[] variable)
+	{
+		return configurator.apply(new EnergyPlusObjectives(variable));
+	}
+
+	@Override
+	public double[] evaluate(double[] variable)
+	{
+		return create(variable).calculate(usingDifference).calculateObjectives();
+	}
+
+	@Override
+	public int getNumberOfVariables(){ return numberOfVariables; }
+
+	@Override
+	public int getNumberOfObjectives(){ return EnergyPlusObjectives.NUMBER_OF_OBJECTIVES; }
+}
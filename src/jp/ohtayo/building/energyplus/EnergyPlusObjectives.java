@@ -1,12 +1,18 @@
 package jp.ohtayo.building.energyplus;
 
 import jp.ohtayo.building.BuildingUtils;
+import jp.ohtayo.building.environment.ComfortUncertainty;
+import jp.ohtayo.building.optimization.ParetoArchive;
+import jp.ohtayo.building.optimization.Solution;
+import jp.ohtayo.building.tariff.TariffBill;
+import jp.ohtayo.building.tariff.TimeOfUseTariff;
 import jp.ohtayo.commons.log.Logging;
 import jp.ohtayo.commons.math.Matrix;
 import jp.ohtayo.commons.math.Numeric;
 import jp.ohtayo.commons.math.Vector;
-import jp.ohtayo.commons.util.Cast;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
 
 /**
@@ -31,12 +37,14 @@ public class EnergyPlusObjectives {
     //PMVの抽出：35行目から103行が6:00-23:00のデータ、5-6列目にゾーン1, 2のPMV
     private static final int HOURS_IN_ONE_DAY = 24;
     private int timestepsPerHour = 6;
-    private int evaluationStartTimeForComfortLevel = 7*timestepsPerHour-1;	//7:00
-    private int evaluationEndTimeForComfortLevel = 21*timestepsPerHour-1;	//21:00
+    private int numberOfDays = 1;
+    // 評価時間は各日の時刻[時]で持ち，行番号はタイムステップ数と日数から求める
+    private int evaluationStartTimeForComfortLevel = 7;	//7:00
+    private int evaluationEndTimeForComfortLevel = 21;	//21:00
     private int evaluationStartTimeForEnergy = 0;	//0:10
-    private int evaluationEndTimeForEnergy = 24*timestepsPerHour-1;		//24:00
-    private int evaluationStartTimeForTemperatureSetting = 6*timestepsPerHour;	//6:00
-    private int evaluationEndTimeForTemperatureSetting = 24*timestepsPerHour-1;		//24:00
+    private int evaluationEndTimeForEnergy = 24;		//24:00
+    private int evaluationStartTimeForTemperatureSetting = 6;	//6:00
+    private int evaluationEndTimeForTemperatureSetting = 24;		//24:00
     /*
     private static int groundPMVColumnNumber		= 10;
     private static int middlePMVColumnNumber		= 11;
@@ -50,7 +58,8 @@ public class EnergyPlusObjectives {
     private int[] columnsOfElectricEnergy = {13};
     private int[] columnsOfTemperatureSetting = {3};
 
-    private int numberOfVariables = 19;    // 6:00～24:00を1時間毎に変更する．変数長は19
+    public static final int NUMBER_OF_OBJECTIVES = 5;
+    private int numberOfVariables = 19;    // 6:00～24:00を1時間毎に変更する．1日あたりの変数長は19
     private int VARIABLE_LENGTH_MAX = HOURS_IN_ONE_DAY + 1;    // 0:00～24:00を1時間毎に変更する．変数長最大値
     private final static double SETPOINT_TEMPERATURE_MIN = 18.0;
     private final static double SETPOINT_TEMPERATURE_MAX = 30.0;
@@ -58,12 +67,42 @@ public class EnergyPlusObjectives {
     private double basicPowerRateUnit = 1684.8;
     private double powerRateUnit = 17.22;
     private double powerFactor = 0.9;
+    private TimeOfUseTariff tariff = null;
+
+    private FeasibilityPolicy feasibilityPolicy = FeasibilityPolicy.SIMULATE;
+    private double infeasiblePenalty = 1.0e10;
+    private boolean screenedOut = false;
+    private boolean outputPruning = false;
+    private boolean readingEso = false;
+    private ResultRowPublisher resultPublisher = null;
+    private ResultArchive resultArchive = null;
+    private ParetoArchive paretoArchive = null;
+    private WeatherOverlay weatherOverlay = null;
+    private boolean reuseArchivedResult = false;
+    private double screenedViolation = 0.0;
+    private double energyStopLimit = Double.POSITIVE_INFINITY;
+    private double pmvStopLimit = Double.POSITIVE_INFINITY;
+    private boolean terminated = false;
+    private String lowFidelityConfigFile = null;
+    private int lowFidelityTimestepsPerHour = 1;
+    private int lowFidelityIdfDateOffset = 0;
+    private int lowFidelityIdfTemperatureOffset = 0;
+    private boolean lowFidelity = false;
+    private double[] comfortCondition = null;
+    private static final int EVALUATION_YEAR = 2006;
 
     private Matrix result;
     private double[] variable;
 
     public double[][] get(){ return result.get();  }
     public double[] getVariable(){ return variable; }
+    public int getNumberOfVariables(){ return numberOfVariables*numberOfDays; }
+    public boolean isScreenedOut(){ return screenedOut; }
+    public boolean isTerminated(){ return terminated; }
+    public boolean isLowFidelity(){ return lowFidelity; }
+    public int getEvaluationMonth(){ return evaluationMonth; }
+    public int getEvaluationDay(){ return evaluationDay; }
+    public int getTimestepsPerHour(){ return timestepsPerHour; }
 
 
     /**
@@ -108,6 +147,30 @@ public class EnergyPlusObjectives {
         return this;
     }
 
+    /**
+     * 評価期間の日数を指定します．<br>
+     * 評価日から指定日数をシミュレーションし，評価時間は各日に適用します．設計変数は1日分の変数を日数分並べたものになります．<br>
+     * @param numberOfDays 評価日数
+     */
+    public EnergyPlusObjectives setEvaluationPeriod(int numberOfDays)
+    {
+        if( numberOfDays<1 )    throw new IllegalArgumentException("numberOfDays must be positive: "+numberOfDays);
+        this.numberOfDays = numberOfDays;
+        return this;
+    }
+
+    /**
+     * 1時間あたりのタイムステップ数を指定します．IDFのTimestepオブジェクトもこの値に書き換えます．
+     * @param timestepsPerHour 1時間あたりのタイムステップ数(60の約数)
+     */
+    public EnergyPlusObjectives setTimestepsPerHour(int timestepsPerHour)
+    {
+        if( timestepsPerHour<=0 || 60 % timestepsPerHour != 0 )
+            throw new IllegalArgumentException("timestepsPerHour must divide 60: "+timestepsPerHour);
+        this.timestepsPerHour = timestepsPerHour;
+        return this;
+    }
+
     /**
      * 快適性の評価開始時刻と終了時刻を指定します．
      * @param start 開始時間
@@ -115,12 +178,8 @@ public class EnergyPlusObjectives {
      */
     public EnergyPlusObjectives setEvaluationTimeForComfortLevel(int start, int end)
     {
-        if(start==0) {
-            this.evaluationStartTimeForComfortLevel = 0;
-        }else{
-            this.evaluationStartTimeForComfortLevel = start*timestepsPerHour-1;
-        }
-        this.evaluationEndTimeForComfortLevel = end*timestepsPerHour-1;
+        this.evaluationStartTimeForComfortLevel = start;
+        this.evaluationEndTimeForComfortLevel = end;
         return this;
     }
 
@@ -131,12 +190,8 @@ public class EnergyPlusObjectives {
      */
     public EnergyPlusObjectives setEvaluationStartTimeForEnergy(int start, int end)
     {
-        if(start==0) {
-            this.evaluationStartTimeForEnergy = 0;
-        }else {
-            this.evaluationStartTimeForEnergy = start * timestepsPerHour - 1;
-        }
-        this.evaluationEndTimeForEnergy = end*timestepsPerHour-1;
+        this.evaluationStartTimeForEnergy = start;
+        this.evaluationEndTimeForEnergy = end;
         return this;
     }
 
@@ -164,6 +219,158 @@ public class EnergyPlusObjectives {
         return this;
     }
 
+    /**
+     * 時間帯別電気料金の料金体系を設定します．
+     * @param tariff 時間帯別・季節別電気料金
+     */
+    public EnergyPlusObjectives setTariff(TimeOfUseTariff tariff)
+    {
+        this.tariff = tariff;
+        return this;
+    }
+
+    /**
+     * 制約違反のある設定温度スケジュールの扱いを指定します．<br>
+     * 設計変数から設定温度への変換(variableToTemperatureSettingUsingDifference, variableToTemperatureSettingUsingEachValue)は18～30℃と±2℃に制限するので，
+     * 制約違反は制限する前の設定温度(18～30℃の範囲外や±2℃を超える変化を含む)で判定します．
+     * @param policy 制約違反時の扱い
+     * @param penalty PENALIZEのときに各目的関数値とするペナルティ値
+     */
+    public EnergyPlusObjectives setFeasibilityPolicy(FeasibilityPolicy policy, double penalty)
+    {
+        this.feasibilityPolicy = policy;
+        this.infeasiblePenalty = penalty;
+        return this;
+    }
+
+    /**
+     * EnergyPlusの出力変数を目的関数の計算に必要なものだけに絞り込むかを指定します．
+     * @param outputPruning 絞り込むならtrue
+     */
+    public EnergyPlusObjectives setOutputPruning(boolean outputPruning)
+    {
+        this.outputPruning = outputPruning;
+        return this;
+    }
+
+    /**
+     * ReadVarsESOを使わずEnergyPlusのesoファイルを直接読むかを指定します．
+     * @param readingEso esoファイルを直接読むならtrue
+     */
+    public EnergyPlusObjectives setReadingEso(boolean readingEso)
+    {
+        this.readingEso = readingEso;
+        return this;
+    }
+
+    /**
+     * シミュレーション中に読んだ結果データの行を流す先を指定します(ControlEnergyPlus.setResultPublisher)．<br>
+     * アーカイブの結果を再利用した場合はその行を流し，制約違反で選別した場合は行を流さずにonErrorとします．<br>
+     * @param publisher 結果データの行を流す先(1回の評価に1つ)
+     */
+    public EnergyPlusObjectives setResultPublisher(ResultRowPublisher publisher)
+    {
+        this.resultPublisher = publisher;
+        return this;
+    }
+
+    /**
+     * PMVをEnergyPlusの出力ではなくJava側で各ゾーンの温湿度から計算するように指定します(ControlEnergyPlus.setComfortInJava)．
+     * @param Va 風速[m/s]
+     * @param Icl 着衣量[clo]
+     * @param M 代謝量[met]
+     */
+    public EnergyPlusObjectives setComfortInJava(double Va, double Icl, double M)
+    {
+        this.comfortCondition = new double[]{Va, Icl, M};
+        return this;
+    }
+
+    /**
+     * 気象データの差分を指定します．元のepwは書き換えずに作業フォルダに差分を適用したepwを書き出して実行します．
+     * @param weatherOverlay 気象データの差分
+     */
+    public EnergyPlusObjectives setWeatherOverlay(WeatherOverlay weatherOverlay)
+    {
+        this.weatherOverlay = weatherOverlay;
+        return this;
+    }
+
+    /**
+     * 低忠実度の評価に使う簡略モデルを指定します．<br>
+     * ゾーンをまとめた簡略モデルのconfigファイルとIDFの変更行数，粗いタイムステップ数を与えます．useLowFidelity()で切り替えます．<br>
+     * @param xmlFile 簡略モデルのConfigEnergyPlusのconfigファイル名(nullなら通常のモデルのまま)
+     * @param idfDateOffset 簡略モデルのIDFの日付の行(xmlFileがnullなら無視)
+     * @param idfTemperatureOffset 簡略モデルのIDFの設定温度の行(xmlFileがnullなら無視)
+     * @param timestepsPerHour 低忠実度の1時間あたりのタイムステップ数(60の約数)
+     */
+    public EnergyPlusObjectives setLowFidelityModel(String xmlFile, int idfDateOffset, int idfTemperatureOffset, int timestepsPerHour)
+    {
+        if( timestepsPerHour<=0 || 60 % timestepsPerHour != 0 )
+            throw new IllegalArgumentException("timestepsPerHour must divide 60: "+timestepsPerHour);
+        this.lowFidelityConfigFile = xmlFile;
+        this.lowFidelityIdfDateOffset = idfDateOffset;
+        this.lowFidelityIdfTemperatureOffset = idfTemperatureOffset;
+        this.lowFidelityTimestepsPerHour = timestepsPerHour;
+        return this;
+    }
+
+    /**
+     * 低忠実度の評価に切り替えます．<br>
+     * 簡略モデル(setLowFidelityModelで指定)をそのIDFの変更行数と粗いタイムステップで実行し，出力変数を目的関数の計算に必要なものだけに絞り込みます．
+     * 目的関数値は通常の評価と同じ定義で計算しますが，行数が変わるためPMVの制約違反量などの尺度は通常の評価と一致しません．<br>
+     */
+    public EnergyPlusObjectives useLowFidelity()
+    {
+        if( lowFidelityConfigFile != null ) {
+            energyPlusConfigFile = lowFidelityConfigFile;
+            idfDateOffset = lowFidelityIdfDateOffset;
+            idfTemperatureOffset = lowFidelityIdfTemperatureOffset;
+        }
+        this.timestepsPerHour = lowFidelityTimestepsPerHour;
+        this.outputPruning = true;
+        this.lowFidelity = true;
+        return this;
+    }
+
+    /**
+     * シミュレーションを途中で打ち切る目的関数値の上限を指定します．<br>
+     * 実行中の出力から求めた評価時間内の消費電力量の累積値，またはPMVの制約違反量の累積値が上限を超えた時点でEnergyPlusを終了します．
+     * 上限には現在のパレート解のうち最も悪い値などを与えます．<br>
+     * 打ち切った候補はisTerminated()がtrueになり，目的関数値はペナルティ値(設定温度の制約違反量はスケジュールから求めた値)になります．<br>
+     * @param totalElectricEnergy 消費電力量の上限[J]
+     * @param pmvViolation PMVの制約違反量の上限
+     */
+    public EnergyPlusObjectives setStopLimits(double totalElectricEnergy, double pmvViolation)
+    {
+        this.energyStopLimit = totalElectricEnergy;
+        this.pmvStopLimit = pmvViolation;
+        return this;
+    }
+
+    /**
+     * 評価結果を保存するアーカイブを指定します．
+     * @param archive 評価結果のアーカイブ
+     * @param reuse 同じスケジュール・評価条件の結果がアーカイブにあればシミュレーションせずに再利用するか
+     */
+    public EnergyPlusObjectives setResultArchive(ResultArchive archive, boolean reuse)
+    {
+        this.resultArchive = archive;
+        this.reuseArchivedResult = reuse;
+        return this;
+    }
+
+    /**
+     * 非優越解を保持するアーカイブを指定します．calculateObjectives()の結果を設計変数と組にして追加します．<br>
+     * 制約違反で選別した候補と打ち切った候補は追加しません．<br>
+     * @param archive 非優越解のアーカイブ(目的関数の数はNUMBER_OF_OBJECTIVES)
+     */
+    public EnergyPlusObjectives setParetoArchive(ParetoArchive archive)
+    {
+        this.paretoArchive = archive;
+        return this;
+    }
+
     /**
      * 目的関数を計算します<br>
      */
@@ -191,24 +398,211 @@ public class EnergyPlusObjectives {
     public void executeEnergyPlusSimulation(double[] variable, boolean usingDifference)
     {
         //0. 入力値チェック
-        if( variable.length != numberOfVariables )	Logging.logger.severe("illegal variable length.");
+        if( variable.length != getNumberOfVariables() )	Logging.logger.severe("illegal variable length.");
+
+        //1. variableの日ごとの設定温度組合せへの変換
+        double[][] temperature = toTemperatureSchedule(variable, usingDifference);
+        double[] schedule = joinDailySchedules(temperature);
+
+        //2. 設定温度スケジュールの制約違反をシミュレーション前に判定(変換時に制限する前の設定温度で判定する)
+        screenedOut = false;
+        terminated = false;
+        if( feasibilityPolicy != FeasibilityPolicy.SIMULATE ) {
+            double violation = calculateSetpointViolation(joinDailySchedules(toUnlimitedTemperatureSchedule(variable, usingDifference)));
+            if( violation > 0.0 ) {
+                if( feasibilityPolicy == FeasibilityPolicy.REPAIR ) {
+                    for(int d=0; d<numberOfDays; d++)
+                        temperature[d] = limitTemperatureSettingSchedule(limitTemperatureSettingRange(temperature[d]));
+                    schedule = joinDailySchedules(temperature);
+                }else {
+                    screenedOut = true;
+                    screenedViolation = violation;
+                    result = null;
+                    if( resultPublisher != null )   resultPublisher.closeExceptionally(new IllegalStateException("schedule screened out."));
+                    return;
+                }
+            }
+        }
 
-        //1. variableの設定温度組合せへの変換
-        double initialValue = 25.0;
-        double[] temperature;
-        if(usingDifference)
-            temperature = variableToTemperatureSettingUsingDifference(variable, initialValue,VARIABLE_LENGTH_MAX-numberOfVariables, HOURS_IN_ONE_DAY+1);
-        else
-            temperature = variableToTemperatureSettingUsingEachValue(variable, initialValue,VARIABLE_LENGTH_MAX-numberOfVariables, HOURS_IN_ONE_DAY+1);
-        System.out.println(temperature);
-
-        //2. EnergyPlusの実行
+        //3. 同じスケジュールの評価結果があれば再利用
+        String context = getEvaluationContext();
+        if( resultArchive != null && reuseArchivedResult ) {
+            try {
+                ResultArchive.Entry entry = resultArchive.find(schedule, context);
+                if( entry != null ) {
+                    result = new Matrix(entry.getResult());
+                    if( resultPublisher != null ) {
+                        for(double[] row : entry.getResult())   resultPublisher.submit(row);
+                        resultPublisher.close();
+                    }
+                    return;
+                }
+            }catch(IOException e){
+                Logging.logger.severe(e.getMessage());
+            }
+        }
+
+        //4. EnergyPlusの実行
         Calendar simulationDate = Calendar.getInstance();
         simulationDate.set(2006, evaluationMonth, evaluationDay, 1, 0);
-        ControlEnergyPlus energyPlus = new ControlEnergyPlus(energyPlusConfigFile);
-        double[][] resultData = energyPlus.simulate(temperature, simulationDate, simulationDate, idfDateOffset, idfTemperatureOffset);
+        ControlEnergyPlus energyPlus = new ControlEnergyPlus(energyPlusConfigFile).setOutputPruning(outputPruning).setReadingEso(readingEso).setTimestepsPerHour(timestepsPerHour).setWeatherOverlay(weatherOverlay).setResultPublisher(resultPublisher);
+        if( comfortCondition != null )  energyPlus.setComfortInJava(comfortCondition[0], comfortCondition[1], comfortCondition[2]);
+        addStopCriteria(energyPlus);
+        double[][] resultData = energyPlus.simulate(temperature, simulationDate, numberOfDays, idfDateOffset, idfTemperatureOffset);
 
         result = new Matrix(resultData);
+        terminated = energyPlus.isTerminated();
+        if( terminated ) {
+            // 途中までの結果データは保存せず，設定温度の制約違反量はスケジュールから求める
+            screenedViolation = countSetpointStepViolation(ControlEnergyPlus.expandTemperatureSetting(temperature, timestepsPerHour));
+            return;
+        }
+
+        //5. 評価結果の保存
+        if( resultArchive != null ) {
+            try {
+                resultArchive.append(ResultArchive.hash(schedule, context), variable, schedule, resultData);
+            }catch(IOException e){
+                Logging.logger.severe(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 設計変数を日ごとの1時間ごとの設定温度スケジュールに変換する
+     * @param variable 変数
+     * @param usingDifference 設計変数を設定温度に変換するときに差分とするか
+     * @return 日ごとの設定温度スケジュール([日][時刻])
+     */
+    double[][] toTemperatureSchedule(double[] variable, boolean usingDifference)
+    {
+        double initialValue = 25.0;
+        double[][] temperature = new double[numberOfDays][];
+        for(int d=0; d<numberOfDays; d++) {
+            double[] daily = Arrays.copyOfRange(variable, d*numberOfVariables, (d+1)*numberOfVariables);
+            if(usingDifference)
+                temperature[d] = variableToTemperatureSettingUsingDifference(daily, initialValue,VARIABLE_LENGTH_MAX-numberOfVariables, HOURS_IN_ONE_DAY+1);
+            else
+                temperature[d] = variableToTemperatureSettingUsingEachValue(daily, initialValue,VARIABLE_LENGTH_MAX-numberOfVariables, HOURS_IN_ONE_DAY+1);
+        }
+        return temperature;
+    }
+
+    /**
+     * 設計変数を，範囲と変化量の制限をせずに日ごとの1時間ごとの設定温度スケジュールに変換する<br>
+     * 変換式はtoTemperatureScheduleと同じで，制約違反の事前判定に使います．<br>
+     * @param variable 変数
+     * @param usingDifference 設計変数を設定温度に変換するときに差分とするか
+     * @return 日ごとの設定温度スケジュール([日][時刻])
+     */
+    private double[][] toUnlimitedTemperatureSchedule(double[] variable, boolean usingDifference)
+    {
+        double initialValue = 25.0;
+        int offset = VARIABLE_LENGTH_MAX-numberOfVariables;
+        double[][] temperature = new double[numberOfDays][];
+        for(int d=0; d<numberOfDays; d++) {
+            double[] daily = new double[HOURS_IN_ONE_DAY+1];
+            Arrays.fill(daily, initialValue);
+            for(int v=0; v<numberOfVariables; v++) {
+                double value = variable[d*numberOfVariables+v];
+                if( usingDifference && v > 0 )
+                    daily[offset+v] = Numeric.round(daily[offset+v-1] + (value*4-2), 0.1);
+                else
+                    daily[offset+v] = Numeric.round(value*(SETPOINT_TEMPERATURE_MAX-SETPOINT_TEMPERATURE_MIN)+SETPOINT_TEMPERATURE_MIN, 0.1);
+            }
+            // 残りは最終値を保持
+            for(int t=offset+numberOfVariables; t<daily.length; t++)	daily[t] = daily[t-1];
+            temperature[d] = daily;
+        }
+        return temperature;
+    }
+
+    /**
+     * シミュレーションせずに得た結果データ(縮約モデルの予測など)を評価結果とする<br>
+     * 以降のcalculateObjectives()などは通常の評価と同じ定義で結果データから目的関数値を計算します．<br>
+     * @param data 結果データ(列の並びはResultRowAggregatorの定義)
+     */
+    void setResult(double[][] data)
+    {
+        result = new Matrix(data);
+        screenedOut = false;
+        terminated = false;
+    }
+
+    /**
+     * 目的関数値の上限から打ち切り条件を作り，EnergyPlusの実行に登録する<br>
+     * 累積値は評価時間内の行のうち出力済みの行だけで求めるので，打ち切った時点の値は最終的な目的関数値以下になる．<br>
+     * @param energyPlus EnergyPlusの実行
+     */
+    private void addStopCriteria(ControlEnergyPlus energyPlus)
+    {
+        if( energyStopLimit < Double.POSITIVE_INFINITY ) {
+            int[] rows = getEvaluationRows(getFirstRow(evaluationStartTimeForEnergy), getLastRow(evaluationEndTimeForEnergy));
+            energyPlus.addStopCriterion("total electric energy", StopCriterion.sumExceeds(columnsOfElectricEnergy, rows, x -> x, energyStopLimit));
+        }
+        if( pmvStopLimit < Double.POSITIVE_INFINITY ) {
+            int[] rows = getEvaluationRows(getFirstRow(evaluationStartTimeForComfortLevel), getLastRow(evaluationEndTimeForComfortLevel));
+            energyPlus.addStopCriterion("PMV violation", StopCriterion.sumExceeds(columnsOfPMV, rows, x -> Math.round(Math.abs(x)), pmvStopLimit));
+        }
+    }
+
+    /**
+     * 日ごとの設定温度スケジュールを1つの配列に連結する
+     * @param temperature 日ごとの設定温度スケジュール
+     * @return 連結した設定温度スケジュール
+     */
+    private static double[] joinDailySchedules(double[][] temperature)
+    {
+        int length = temperature[0].length;
+        double[] schedule = new double[temperature.length*length];
+        for(int d=0; d<temperature.length; d++)
+            System.arraycopy(temperature[d], 0, schedule, d*length, length);
+        return schedule;
+    }
+
+    /**
+     * 連結した設定温度スケジュールを日ごとに分ける
+     * @param schedule 連結した設定温度スケジュール
+     * @return 日ごとの設定温度スケジュール
+     */
+    private static double[][] splitDailySchedules(double[] schedule)
+    {
+        int length = HOURS_IN_ONE_DAY+1;
+        double[][] temperature = new double[schedule.length/length][];
+        for(int d=0; d<temperature.length; d++)
+            temperature[d] = Arrays.copyOfRange(schedule, d*length, (d+1)*length);
+        return temperature;
+    }
+
+    /**
+     * 各日の評価時間に当たる結果データの行番号を作成する<br>
+     * 開始時刻の行は区間の終端時刻のデータの行(0時なら先頭行)，終了時刻の行はその時刻のデータの行とする．<br>
+     * @param firstRow 1日の中の評価開始行
+     * @param lastRow 1日の中の評価終了行
+     * @return 全評価日の行番号
+     */
+    private int[] getEvaluationRows(int firstRow, int lastRow)
+    {
+        int rowsPerDay = HOURS_IN_ONE_DAY*timestepsPerHour;
+        int[] rows = new int[numberOfDays*(lastRow-firstRow+1)];
+        int i = 0;
+        for(int d=0; d<numberOfDays; d++)
+            for(int row=firstRow; row<=lastRow; row++)  rows[i++] = d*rowsPerDay + row;
+        return rows;
+    }
+
+    private int getFirstRow(int hour){ return (hour==0) ? 0 : hour*timestepsPerHour-1; }
+    private int getLastRow(int hour){ return hour*timestepsPerHour-1; }
+
+    /**
+     * 評価結果に影響する評価条件を表す文字列を作成する
+     * @return 評価条件
+     */
+    private String getEvaluationContext()
+    {
+        return energyPlusConfigFile+"|"+evaluationMonth+"/"+evaluationDay+"|"+idfDateOffset+"|"+idfTemperatureOffset+"|"+timestepsPerHour+"|"+numberOfDays
+                +(weatherOverlay==null ? "" : "|"+weatherOverlay.fingerprint())
+                +(comfortCondition==null ? "" : "|pmv"+Arrays.toString(comfortCondition));
     }
 
   /**
@@ -216,9 +610,24 @@ public class EnergyPlusObjectives {
    * @return EnergyPlus計算結果のうち電力に関するデータ
    */
   public double[][] getElectricEnergyData(){
-      Matrix allData = new Matrix(result);
-      int[] rowsOfElectricEnergy = Cast.doubleToInt( new Vector(evaluationStartTimeForEnergy, 1,evaluationEndTimeForEnergy).get() );
-      return allData.getSubMatrix(rowsOfElectricEnergy, columnsOfElectricEnergy).get();
+      int[] rowsOfElectricEnergy = getEvaluationRows(getFirstRow(evaluationStartTimeForEnergy), getLastRow(evaluationEndTimeForEnergy));
+      return result.getSubMatrix(rowsOfElectricEnergy, columnsOfElectricEnergy).get();
+    }
+
+    /**
+     * 評価時間内の電力量を時刻と組にして出力する<br>
+     * 複数の建物の電力量を時刻で揃えて合計する場合に使います．<br>
+     * @return {時刻[s], 全ての電力項目の合計[J]}の配列(評価時間内の各行)
+     */
+    public double[][] getElectricEnergySeries()
+    {
+        int[] rows = getEvaluationRows(getFirstRow(evaluationStartTimeForEnergy), getLastRow(evaluationEndTimeForEnergy));
+        double[][] series = new double[rows.length][2];
+        for(int i=0; i<rows.length; i++) {
+            series[i][0] = result.get(rows[i], ResultRowAggregator.TIME);
+            for(int c : columnsOfElectricEnergy)   series[i][1] += result.get(rows[i], c);
+        }
+        return series;
     }
 
     /**
@@ -227,6 +636,7 @@ public class EnergyPlusObjectives {
      */
     public double calculateTotalElectricEnergy()
     {
+        if( screenedOut || terminated )   return infeasiblePenalty;
         return new Matrix(getElectricEnergyData()).sum();	//室外機の総消費電力量[J]
     }
     /**
@@ -235,6 +645,7 @@ public class EnergyPlusObjectives {
      */
     public double calculatePeakElectricEnergy()
     {
+        if( screenedOut || terminated )   return infeasiblePenalty;
         Vector allEnergyData = new Matrix(getElectricEnergyData()).sum(Matrix.DIRECTION_ROW); // 各時刻で全ての電力項目を足し合わせる
         return BuildingUtils.calculatePeakPower(allEnergyData, 1.0/timestepsPerHour);	// ピーク消費電力[kW]
     }
@@ -259,14 +670,44 @@ public class EnergyPlusObjectives {
       return BuildingUtils.calculateElectricityRate(totalEnergy, powerRateUnit);
     }
 
+    /**
+     * 時間帯別電気料金の料金体系で評価期間の電気料金を計算する<br>
+     * 料金体系が未設定の場合は単一単価の料金体系(setPowerRateの設定値)で計算する．<br>
+     * @return 請求結果
+     */
+    public TariffBill calculateTimeOfUseBill()
+    {
+        if( screenedOut )   throw new IllegalStateException("candidate was screened out before simulation.");
+        if( terminated )    throw new IllegalStateException("simulation was terminated by a stop criterion.");
+        TimeOfUseTariff timeOfUseTariff = tariff;
+        if( timeOfUseTariff == null )
+            timeOfUseTariff = TimeOfUseTariff.flatRate(powerRateUnit, basicPowerRateUnit, powerFactor);
+
+        // 評価期間外を0とした全時刻の電力量系列を作る
+        double[] energy = new double[result.length()];
+        for(int t : getEvaluationRows(getFirstRow(evaluationStartTimeForEnergy), getLastRow(evaluationEndTimeForEnergy))) {
+            for(int c : columnsOfElectricEnergy)   energy[t] += result.get(t, c);
+        }
+        return timeOfUseTariff.getCalendar(EVALUATION_YEAR, evaluationMonth, evaluationDay, energy.length, timestepsPerHour).bill(energy);
+    }
+
+    /**
+     * 時間帯別電気料金の料金体系で評価期間の電気料金(基本料金と電力量料金の合計)を計算する
+     * @return 電気料金[円]
+     */
+    public double calculateTimeOfUseElectricityCost()
+    {
+        if( screenedOut || terminated )   return infeasiblePenalty;
+        return calculateTimeOfUseBill().getTotal();
+    }
+
     /**
      * 結果データからPMVのデータを抽出して出力する
      * @return 評価対象のPMVデータ
      */
     public double[][] getPMVData(){
-        Matrix allData = new Matrix(result);
-        int[] rowsOfPMV = Cast.doubleToInt( new Vector(evaluationStartTimeForComfortLevel, 1, evaluationEndTimeForComfortLevel).get() );
-        return allData.getSubMatrix(rowsOfPMV, columnsOfPMV).get();
+        int[] rowsOfPMV = getEvaluationRows(getFirstRow(evaluationStartTimeForComfortLevel), getLastRow(evaluationEndTimeForComfortLevel));
+        return result.getSubMatrix(rowsOfPMV, columnsOfPMV).get();
     }
     /**
      * 1日の平均PMVを算出する
@@ -274,15 +715,40 @@ public class EnergyPlusObjectives {
      */
     public double calculateAveragePMV()
     {
+        if( screenedOut || terminated )   return infeasiblePenalty;
         return new Matrix(getPMVData()).mean();	//PMVの平均値
     }
 
+    /**
+     * 在室者の条件の不確かさによる快適性の指標の分布を，シミュレーションし直さずに算出する<br>
+     * 評価対象のPMVの列の階の温湿度から，評価時間内の各時刻のPMVを抽出した条件ごとに計算します．
+     * 階の平均の温湿度から計算するので，条件を抽出しない値もEnergyPlusのPMVとは少し異なります．<br>
+     * @param uncertainty 条件の分布と抽出数
+     * @return 抽出ごとの条件と指標{平均PMVの0からの乖離, PMVの制約違反量, 平均PPD}
+     */
+    public ComfortUncertainty.Result calculateComfortUncertainty(ComfortUncertainty uncertainty)
+    {
+        if( screenedOut )   throw new IllegalStateException("candidate was screened out before simulation.");
+        if( terminated )    throw new IllegalStateException("simulation was terminated by a stop criterion.");
+        int[] rows = getEvaluationRows(getFirstRow(evaluationStartTimeForComfortLevel), getLastRow(evaluationEndTimeForComfortLevel));
+        double[][] temperature = new double[columnsOfPMV.length][];
+        double[][] humidity = new double[columnsOfPMV.length][];
+        for(int i=0; i<columnsOfPMV.length; i++) {
+            // PMVの列と同じ階の温度・湿度の列
+            int floor = columnsOfPMV[i] - ResultRowAggregator.GROUND_PMV;
+            temperature[i] = result.getColumn(ResultRowAggregator.GROUND_TEMPERATURE + floor*2).get();
+            humidity[i] = result.getColumn(ResultRowAggregator.GROUND_HUMIDITY + floor*2).get();
+        }
+        return uncertainty.evaluate(temperature, humidity, rows);
+    }
+
     /**
      * 1日の最大・最小PMVを算出する
      * @return [0]: 1日の最小PMV, [1]: 最大PMV
      */
     public double[] calculatePeakPMV()
     {
+        if( screenedOut || terminated )   return new double[]{-infeasiblePenalty, infeasiblePenalty};
         Matrix pmvData = new Matrix(getPMVData());
         double[] peakPMV = new double[2];
         peakPMV[0] = pmvData.min();
@@ -296,36 +762,86 @@ public class EnergyPlusObjectives {
      */
     public double countConstraintExceededTimesOfPMV()
     {
+        if( screenedOut || terminated )   return infeasiblePenalty;
         Matrix pmvData = new Matrix(getPMVData());
         return pmvData.abs().round().sum();	//PMVが±0.5を超過した回数
     }
 
+    /**
+     * 最適化で用いる目的関数値をまとめて算出する<br>
+     * [0]: 全日消費電力量[J], [1]: ピーク消費電力[kW], [2]: 平均PMVの0からの乖離, [3]: PMVの制約違反量, [4]: 設定温度の制約違反量<br>
+     * いずれも小さいほど良い値です．<br>
+     * @return 目的関数値
+     */
+    public double[] calculateObjectives()
+    {
+        double[] objectives = new double[NUMBER_OF_OBJECTIVES];
+        objectives[0] = calculateTotalElectricEnergy();
+        objectives[1] = calculatePeakElectricEnergy();
+        objectives[2] = Math.abs(calculateAveragePMV());
+        objectives[3] = countConstraintExceededTimesOfPMV();
+        objectives[4] = countConstraintExceededTimesOfSetpointTemperature();
+        if( paretoArchive != null && variable != null && !screenedOut && !terminated )
+            paretoArchive.add(new Solution(variable.clone(), objectives.clone()));
+        return objectives;
+    }
+
     /**
      * PMVの制約違反量を算出する
      * @return 制約違反量
      */
     public double countConstraintExceededTimesOfSetpointTemperature()
     {
-        Matrix allData = new Matrix(result);
-        int[] rowsOfTemperatureSetting = Cast.doubleToInt( new Vector(evaluationStartTimeForTemperatureSetting, 1, evaluationEndTimeForTemperatureSetting).get() );
-        Matrix temperatureSettingData = allData.getSubMatrix(rowsOfTemperatureSetting, columnsOfTemperatureSetting);
+        if( screenedOut || terminated )   return screenedViolation;
 
         // 超過分をカウント
-        Vector exceededCount = new Vector(temperatureSettingData.columnLength());
+        double exceededCount = 0.0;
         // 温度設定の各列について
-        for(int setting = 0; setting < temperatureSettingData.columnLength(); setting++) {
+        for(int column : columnsOfTemperatureSetting) {
+            exceededCount += countSetpointStepViolation(result.getColumn(column).get());
+        }
+
+        // 超過の総量を返す
+        return exceededCount;
+    }
+
+    /**
+     * タイムステップごとの設定温度系列について，各日の評価時間内で前回設定値からの差分が±2℃を超過した量を積算する
+     * @param settemp タイムステップごとの設定温度
+     * @return 超過量の合計
+     */
+    private double countSetpointStepViolation(double[] settemp)
+    {
+        double exceeded = 0.0;
+        int rowsPerDay = HOURS_IN_ONE_DAY*timestepsPerHour;
+        for (int day = 0; day < numberOfDays; day++) {
+            int offset = day*rowsPerDay;
             // 時刻ごとに
-            for (int time = 1; time < temperatureSettingData.length(); time++) {
-                double temp = temperatureSettingData.get(time, setting) - temperatureSettingData.get(time-1, setting);  // 前回設定値と今回設定値の差分
+            for (int time = offset+evaluationStartTimeForTemperatureSetting*timestepsPerHour+1; time <= offset+getLastRow(evaluationEndTimeForTemperatureSetting); time++) {
+                double temp = settemp[time] - settemp[time-1];  // 前回設定値と今回設定値の差分
                 if( Math.abs(temp)>2.0 ){   // 差分が2を超過した場合超過分を積算
-                    double increases = Math.abs(temp)-2.0;
-                    exceededCount.set(setting, exceededCount.get(setting)+increases);
+                    exceeded += Math.abs(temp)-2.0;
                 }
             }
         }
+        return exceeded;
+    }
 
-        // 超過の総量を返す
-        return exceededCount.sum();
+    /**
+     * 設定温度スケジュールの制約違反量をシミュレーションせずに算出する<br>
+     * 各日の評価時間内の±2℃の変化量制約の超過量と，18～30℃の範囲制約の超過量の合計を返します．<br>
+     * @param temperature 1時間ごとの設定温度スケジュール(複数日の場合は日ごとのスケジュールを連結したもの)
+     * @return 制約違反量
+     */
+    public double calculateSetpointViolation(double[] temperature)
+    {
+        double[] settemp = ControlEnergyPlus.expandTemperatureSetting(splitDailySchedules(temperature), timestepsPerHour);
+        double violation = countSetpointStepViolation(settemp);
+        for (int time : getEvaluationRows(evaluationStartTimeForTemperatureSetting*timestepsPerHour, getLastRow(evaluationEndTimeForTemperatureSetting))) {
+            if( settemp[time] > SETPOINT_TEMPERATURE_MAX )  violation += settemp[time] - SETPOINT_TEMPERATURE_MAX;
+            if( settemp[time] < SETPOINT_TEMPERATURE_MIN )  violation += SETPOINT_TEMPERATURE_MIN - settemp[time];
+        }
+        return violation;
     }
 
     /**
@@ -346,6 +862,19 @@ public class EnergyPlusObjectives {
     }
 
 
+    /**
+     * 設定温度スケジュールが18～30℃の範囲に入るように修正する関数
+     * @param temperature 設定温度
+     * @return 範囲内に修正した設定温度
+     */
+    public static double[] limitTemperatureSettingRange(double[] temperature)
+    {
+        for (int i=0; i<temperature.length; i++) {
+            temperature[i] = Numeric.limit(temperature[i], SETPOINT_TEMPERATURE_MAX, SETPOINT_TEMPERATURE_MIN);
+        }
+        return temperature;
+    }
+
     /**
      * 変数から設定温度スケジュールに変換する関数<br>
      * 最初の変数を最初の設定温度，残りの変数は前回の設定温度からの差分を表します．<br>
@@ -0,0 +1,286 @@
+package jp.ohtayo.building.energyplus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 実行中のEnergyPlusが書き出すeplusout.esoを追いかけて読み，結果データ(ResultRowAggregatorの並び)を1行ずつ作るクラスです．<br>
+ * poll()を呼ぶたびに前回の続きから読み，書き途中の行は次回に回します．<br>
+ * 出力変数の列番号はデータ辞書の並び(ReadVarsESOが出力CSVに書き出す並び)とし，列名も出力CSVと同じ形式で作ります．<br>
+ * 時刻は出力CSVと同じく年を含まない日時の秒数とし，その時刻に出力の無い変数は0とします．<br>
+ * PMVをJava側で計算するResultRowAggregatorを使う場合は，poll()で追加した行のPMVも計算します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class EsoFollower {
+
+	/** データ辞書の終わりとデータの終わり */
+	private static final String END_OF_DICTIONARY = "End of Data Dictionary";
+	private static final String END_OF_DATA = "End of Data";
+	/** 予約済みのレコード番号 */
+	private static final int ENVIRONMENT_RECORD = 1;
+	private static final int TIMESTEP_RECORD = 2;
+	private static final int LAST_RESERVED_RECORD = 6;
+
+	/** esoファイル */
+	private final Path esoFile;
+	/** 列名から集約に使うResultRowAggregatorを作る関数 */
+	private final Function<String[], ResultRowAggregator> aggregatorFactory;
+	/** タイムステップごとの設定温度[℃] */
+	private final double[] settemp;
+
+	/** 読み終えた位置[byte] */
+	private long position = 0;
+	/** 書き途中の行 */
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	/** 出力CSVと同じ形式の列名 */
+	private final List<String> header = new ArrayList<>(Collections.singletonList("Date/Time"));
+	/** レコード番号と列番号の対応 */
+	private final Map<Integer, Integer> columnOf = new HashMap<>();
+	private boolean dictionaryRead = false;
+	private boolean finished = false;
+
+	private ResultRowAggregator aggregator = null;
+	private boolean[] required;
+	private double[] values;
+	/** 集約中の行の時刻の文字列(無ければnull) */
+	private String timestamp = null;
+	/** タイムステップのレコードの値を読んでいるか */
+	private boolean inTimestep = false;
+	private final SimpleDateFormat format = new SimpleDateFormat(" MM/dd  HH:mm:ss");
+
+	/** 結果データ */
+	private final List<double[]> rows = new ArrayList<>();
+	/** PMVを計算済みの行数 */
+	private int calculatedRows = 0;
+	/** PMVを読み込み中に計算せず，呼び出し側に任せるか */
+	private boolean comfortDeferred = false;
+
+	/**
+	 * constructor.
+	 * @param esoFile esoファイル
+	 * @param aggregatorFactory 出力CSVと同じ形式の列名から，集約に使うResultRowAggregatorを作る関数
+	 * @param settemp タイムステップごとの設定温度[℃]
+	 */
+	public EsoFollower(Path esoFile, Function<String[], ResultRowAggregator> aggregatorFactory, double[] settemp)
+	{
+		this.esoFile = esoFile;
+		this.aggregatorFactory = aggregatorFactory;
+		this.settemp = settemp;
+	}
+
+	/**
+	 * 前回の続きからesoファイルを読み，結果データに行を追加します．ファイルがまだ無ければ何もしません．
+	 * @return 追加した行数
+	 * @throws IOException 読込エラー
+	 */
+	public int poll() throws IOException
+	{
+		if( finished || Files.notExists(esoFile) )	return 0;
+		int before = rows.size();
+		try(RandomAccessFile file = new RandomAccessFile(esoFile.toFile(), "r"))
+		{
+			file.seek(position);
+			byte[] buffer = new byte[1<<16];
+			int length;
+			while( !finished && (length = file.read(buffer)) > 0 )
+			{
+				position += length;
+				int start = 0;
+				for(int i=0; i<length; i++)
+				{
+					if( buffer[i] != '\n' )	continue;
+					pending.write(buffer, start, i-start);
+					String line = new String(pending.toByteArray(), StandardCharsets.UTF_8);
+					pending.reset();
+					start = i+1;
+					accept(line.endsWith("\r") ? line.substring(0, line.length()-1) : line);
+					if( finished )	break;
+				}
+				if( !finished )	pending.write(buffer, start, length-start);
+			}
+		}
+		calculateComfort();
+		return rows.size() - before;
+	}
+
+	/**
+	 * 1行分を処理します．
+	 */
+	private void accept(String line)
+	{
+		if( !dictionaryRead ) {
+			if( line.startsWith(END_OF_DICTIONARY) )	beginData();
+			else	define(line);
+			return;
+		}
+		if( line.startsWith(END_OF_DATA) ) {
+			finish();
+			return;
+		}
+		int comma = line.indexOf(',');
+		if( comma < 0 )	return;
+		int id;
+		try {
+			id = Integer.parseInt(line.substring(0, comma).trim());
+		}catch(NumberFormatException e){
+			return;
+		}
+
+		if( id == ENVIRONMENT_RECORD ) {
+			completeRow();
+			inTimestep = false;
+		}else if( id == TIMESTEP_RECORD ) {
+			// 時間ごとの変数のレコードは同じ時刻のタイムステップの行にまとめる
+			String time = toTimestamp(line.split(",", -1));
+			if( !time.equals(timestamp) ) {
+				completeRow();
+				timestamp = time;
+			}
+			inTimestep = true;
+		}else if( id <= LAST_RESERVED_RECORD ) {
+			inTimestep = false;	// 日・月・期間ごとの変数は扱わない
+		}else if( inTimestep ) {
+			Integer column = columnOf.get(id);
+			if( column == null || column >= required.length || !required[column] )	return;
+			int to = line.indexOf(',', comma+1);
+			String value = line.substring(comma+1, to<0 ? line.length() : to).trim();
+			values[column] = value.isEmpty() ? 0.0 : Double.parseDouble(value);
+		}
+	}
+
+	/**
+	 * データ辞書の1行から列名を作ります．<br>
+	 * 例：「7,1,Environment,Site Outdoor Air Drybulb Temperature [C] !TimeStep」の列名は「Environment:Site Outdoor Air Drybulb Temperature [C](TimeStep)」です．<br>
+	 */
+	private void define(String line)
+	{
+		String[] field = line.split(",", 3);
+		int bang = line.lastIndexOf('!');
+		if( field.length < 3 || bang < 0 )	return;
+		String frequency = line.substring(bang+1).trim();
+		if( frequency.startsWith("When") )	return;	// 予約済みのレコードの定義
+		int id;
+		try {
+			id = Integer.parseInt(field[0].trim());
+		}catch(NumberFormatException e){
+			return;
+		}
+		int space = frequency.indexOf(' ');
+		if( space > 0 )	frequency = frequency.substring(0, space);
+
+		String name = field[2].substring(0, field[2].lastIndexOf('!')).trim();
+		int keySeparator = name.indexOf(',');
+		if( keySeparator >= 0 )	name = name.substring(0, keySeparator).trim() + ":" + name.substring(keySeparator+1).trim();
+		columnOf.put(id, header.size());
+		header.add(name + "(" + frequency + ")");
+	}
+
+	/**
+	 * データ辞書を読み終えたので抽出する列を決めます．
+	 */
+	private void beginData()
+	{
+		dictionaryRead = true;
+		aggregator = aggregatorFactory.apply(getHeader());
+		required = aggregator.getRequiredColumns();
+		values = new double[required.length];
+	}
+
+	/**
+	 * 時刻のレコードから出力CSVと同じ形式の時刻の文字列を作ります．<br>
+	 * 例：「2,1, 9,21, 0, 1, 0.00,10.00,Thursday」は「 09/21  00:10:00」です．<br>
+	 */
+	private static String toTimestamp(String[] field)
+	{
+		int month = Integer.parseInt(field[2].trim());
+		int day = Integer.parseInt(field[3].trim());
+		int hour = Integer.parseInt(field[5].trim()) - 1;
+		int minute = (int)Math.round(Double.parseDouble(field[7].trim()));
+		if( minute >= 60 ) {
+			hour++;
+			minute -= 60;
+		}
+		return String.format(" %02d/%02d  %02d:%02d:00", month, day, hour, minute);
+	}
+
+	/**
+	 * 集約中の行を結果データに加えます．
+	 */
+	private void completeRow()
+	{
+		if( timestamp == null )	return;
+		int r = rows.size();
+		double[] row = new double[aggregator.width()];
+		aggregator.aggregate(ControlEnergyPlus.parseTime(format, timestamp), values, r<settemp.length ? settemp[r] : Double.NaN, row);
+		rows.add(row);
+		Arrays.fill(values, 0.0);
+		timestamp = null;
+	}
+
+	/**
+	 * 読み終えたとして最後の行を結果データに加えます．「End of Data」を読むと呼ばれます．<br>
+	 * EnergyPlusを途中で止めた場合は呼ばないでください(書き途中の行を捨てるため)．<br>
+	 */
+	public void finish()
+	{
+		if( finished )	return;
+		if( dictionaryRead )	completeRow();
+		finished = true;
+		calculateComfort();
+	}
+
+	/**
+	 * PMVを読み込み中に計算せず，結果データにはEnergyPlusの出力を残します．<br>
+	 * 呼び出し側でgetAggregator().calculateComfortを呼んで計算してください．<br>
+	 */
+	void deferComfort(){ comfortDeferred = true; }
+
+	boolean isComfortDeferred(){ return comfortDeferred; }
+
+	/**
+	 * Java側でPMVを計算する場合は，まだ計算していない行のPMVを計算します．
+	 */
+	private void calculateComfort()
+	{
+		if( aggregator == null || comfortDeferred )	return;
+		aggregator.calculateComfort(rows, calculatedRows);
+		calculatedRows = rows.size();
+	}
+
+	public boolean isFinished(){ return finished; }
+
+	/**
+	 * 結果データを作るResultRowAggregatorを返します．
+	 * @return ResultRowAggregator(データ辞書を読み終えていなければnull)
+	 */
+	ResultRowAggregator getAggregator(){ return aggregator; }
+
+	/**
+	 * 出力CSVと同じ形式の列名を返します．
+	 * @return 列名の配列(データ辞書を読み終えていなければnull)
+	 */
+	public String[] getHeader()
+	{
+		return (dictionaryRead || finished) ? header.toArray(new String[0]) : null;
+	}
+
+	/**
+	 * 読み終えた行の結果データを返します．
+	 * @return 結果データ(読み取り専用)
+	 */
+	public List<double[]> getRows(){ return Collections.unmodifiableList(rows); }
+}
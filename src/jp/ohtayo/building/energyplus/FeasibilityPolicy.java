@@ -0,0 +1,15 @@
+package jp.ohtayo.building.energyplus;
+
+/**
+ * 設定温度スケジュールが制約(前時刻から±2℃，18～30℃)を満たさない場合の扱いを表す列挙型です．
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public enum FeasibilityPolicy {
+	/** 制約違反があってもそのままシミュレーションする */
+	SIMULATE,
+	/** 制約を満たすように修復してからシミュレーションする */
+	REPAIR,
+	/** シミュレーションせずにペナルティ値を目的関数値とする */
+	PENALIZE
+}
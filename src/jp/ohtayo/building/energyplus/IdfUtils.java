@@ -0,0 +1,155 @@
+package jp.ohtayo.building.energyplus;
+
+/**
+ * IDFファイルの各行を扱うユーティリティクラスです．<br>
+ * IDFのオブジェクトは「クラス名,」の行から始まり，「;」を含む行で終わるものとして扱います．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class IdfUtils {
+
+	/**
+	 * 行からコメント(!以降)を除いた部分を返します．
+	 * @param line IDFの行
+	 * @return コメントを除いた部分
+	 */
+	public static String removeComment(String line)
+	{
+		int index = line.indexOf('!');
+		return (index<0) ? line : line.substring(0, index);
+	}
+
+	/**
+	 * 行がオブジェクトの終わり(;を含む)かを判定します．
+	 * @param line IDFの行
+	 * @return オブジェクトの終わりならtrue
+	 */
+	public static boolean isObjectEnd(String line)
+	{
+		return removeComment(line).indexOf(';') >= 0;
+	}
+
+	/**
+	 * 行のフィールド値(コメントと区切り文字を除いた値)を返します．
+	 * @param line IDFの行
+	 * @return フィールド値
+	 */
+	public static String fieldValue(String line)
+	{
+		String value = removeComment(line).trim();
+		if( value.endsWith(",") || value.endsWith(";") )	value = value.substring(0, value.length()-1);
+		return value.trim();
+	}
+
+	/**
+	 * 指定行を含むオブジェクトの最初の行(クラス名の行)を探します．
+	 * @param idf IDFファイルの各行
+	 * @param line オブジェクトに含まれる行番号
+	 * @return オブジェクトの最初の行番号
+	 */
+	public static int findObjectStart(String[] idf, int line)
+	{
+		for(int l=line-1; l>=0; l--){
+			if( isObjectEnd(idf[l]) )	return nextContentLine(idf, l+1);
+		}
+		return nextContentLine(idf, 0);
+	}
+
+	/**
+	 * 指定行を含むオブジェクトの最後の行(;を含む行)を探します．
+	 * @param idf IDFファイルの各行
+	 * @param line オブジェクトに含まれる行番号
+	 * @return オブジェクトの最後の行番号
+	 */
+	public static int findObjectEnd(String[] idf, int line)
+	{
+		for(int l=line; l<idf.length; l++){
+			if( isObjectEnd(idf[l]) )	return l;
+		}
+		throw new IllegalArgumentException("object is not terminated: line "+(line+1));
+	}
+
+	/**
+	 * オブジェクトのクラス名を返します．
+	 * @param idf IDFファイルの各行
+	 * @param start オブジェクトの最初の行番号
+	 * @return クラス名
+	 */
+	public static String className(String[] idf, int start)
+	{
+		String content = removeComment(idf[start]);
+		int index = content.indexOf(',');
+		if( index<0 )	index = content.indexOf(';');
+		return (index<0 ? content : content.substring(0, index)).trim();
+	}
+
+	/**
+	 * 指定したクラスのオブジェクトがあるかを判定します．
+	 * @param idf IDFファイルの各行
+	 * @param className クラス名
+	 * @return 有ればtrue
+	 */
+	public static boolean containsObject(String[] idf, String className)
+	{
+		return findObject(idf, className, 0) >= 0;
+	}
+
+	/**
+	 * 指定したクラスのオブジェクトを探します．
+	 * @param idf IDFファイルの各行
+	 * @param className クラス名
+	 * @param from 探索を始める行番号
+	 * @return オブジェクトの最初の行番号．無ければ-1
+	 */
+	public static int findObject(String[] idf, String className, int from)
+	{
+		boolean objectStart = true;
+		for(int l=0; l<idf.length; l++){
+			String content = removeComment(idf[l]).trim();
+			if( content.isEmpty() )	continue;
+			if( objectStart && l>=from && className(idf, l).equalsIgnoreCase(className) )	return l;
+			objectStart = content.indexOf(';') >= 0;
+		}
+		return -1;
+	}
+
+	/**
+	 * 指定した行の並びと同じ内容(コメントと空白を除く)の位置を探します．<br>
+	 * 行番号の変わったIDFで，元のIDFの行番号を対応付けるのに使います．<br>
+	 * @param idf 探索対象のIDFファイルの各行
+	 * @param block 探す行の並び
+	 * @param hint 探索を優先する行番号
+	 * @return 見つかった最初の行番号．無ければ-1
+	 */
+	public static int findBlock(String[] idf, String[] block, int hint)
+	{
+		if( matches(idf, block, hint) )	return hint;
+		for(int l=0; l+block.length<=idf.length; l++){
+			if( matches(idf, block, l) )	return l;
+		}
+		return -1;
+	}
+
+	private static boolean matches(String[] idf, String[] block, int at)
+	{
+		if( at<0 || at+block.length>idf.length )	return false;
+		for(int i=0; i<block.length; i++){
+			if( !normalize(idf[at+i]).equals(normalize(block[i])) )	return false;
+		}
+		return true;
+	}
+
+	private static String normalize(String line)
+	{
+		return removeComment(line).replaceAll("\\s", "").toLowerCase();
+	}
+
+	private static int nextContentLine(String[] idf, int from)
+	{
+		for(int l=from; l<idf.length; l++){
+			String content = removeComment(idf[l]).trim();
+			if( !content.isEmpty() )	return l;
+		}
+		return idf.length;
+	}
+}
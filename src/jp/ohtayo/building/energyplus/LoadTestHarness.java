@@ -0,0 +1,350 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.commons.log.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MockEnergyPlusを使って，EnergyPlusの周りの処理(idfの書き換え，プロセスの起動，出力CSVの集約，目的関数の計算)を負荷試験するクラスです．<br>
+ * 指定フォルダに起動スクリプト，合成のidfと列番号ファイル，configファイルを作り，
+ * ControlEnergyPlus.simulateまたはEnergyPlusObjectivesを指定の同時実行数で繰り返し実行して，
+ * スループット，応答時間のパーセンタイル，メモリの割り当て速度を報告します．<br>
+ * 実際のEnergyPlusが無いLinuxでも同じ条件の負荷試験を繰り返せます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class LoadTestHarness {
+
+	/** 合成idfの日付と設定温度の行番号 */
+	private static final int IDF_DATE_OFFSET = 4;
+	private static final int IDF_TEMPERATURE_OFFSET = 18;
+	/** 1日の設定温度の数 */
+	private static final int SCHEDULE_LENGTH = 25;
+
+	/** 試験用のファイルを置くフォルダ */
+	private final Path root;
+	/** 同時実行数 */
+	private int numberOfWorkers = Runtime.getRuntime().availableProcessors();
+	/** 実行回数 */
+	private int numberOfRuns = 100;
+	/** 出力CSVの列数 */
+	private int columns = MockEnergyPlus.DEFAULT_COLUMNS;
+	/** MockEnergyPlusの計算時間[ms] */
+	private long delay = 1000;
+	/** MockEnergyPlusが計算時間中にCPUを使うか */
+	private boolean busy = false;
+	/** シミュレーション日数 */
+	private int numberOfDays = 1;
+	/** 1時間あたりのタイムステップ数 */
+	private int timestepsPerHour = 6;
+	/** EnergyPlusObjectivesで目的関数まで計算するか(falseならControlEnergyPlus.simulateだけ) */
+	private boolean throughObjectives = true;
+	/** ReadVarsESOを使わずesoファイルを直接読むか */
+	private boolean readingEso = false;
+
+	/**
+	 * constructor.
+	 * @param root 試験用のファイルを置くフォルダ
+	 */
+	public LoadTestHarness(Path root)
+	{
+		this.root = root.toAbsolutePath();
+	}
+
+	public LoadTestHarness setNumberOfWorkers(int numberOfWorkers)
+	{
+		this.numberOfWorkers = numberOfWorkers;
+		return this;
+	}
+
+	public LoadTestHarness setNumberOfRuns(int numberOfRuns)
+	{
+		this.numberOfRuns = numberOfRuns;
+		return this;
+	}
+
+	/**
+	 * MockEnergyPlusの出力を設定します．
+	 * @param columns 出力CSVの列数
+	 * @param delay 計算時間[ms]
+	 * @param busy 計算時間中にCPUを使うならtrue
+	 */
+	public LoadTestHarness setMockOutput(int columns, long delay, boolean busy)
+	{
+		this.columns = columns;
+		this.delay = delay;
+		this.busy = busy;
+		return this;
+	}
+
+	/**
+	 * シミュレーション期間を設定します．出力CSVの行数は日数×24×タイムステップ数になります．
+	 * @param numberOfDays シミュレーション日数
+	 * @param timestepsPerHour 1時間あたりのタイムステップ数
+	 */
+	public LoadTestHarness setPeriod(int numberOfDays, int timestepsPerHour)
+	{
+		this.numberOfDays = numberOfDays;
+		this.timestepsPerHour = timestepsPerHour;
+		return this;
+	}
+
+	public LoadTestHarness setThroughObjectives(boolean throughObjectives)
+	{
+		this.throughObjectives = throughObjectives;
+		return this;
+	}
+
+	public LoadTestHarness setReadingEso(boolean readingEso)
+	{
+		this.readingEso = readingEso;
+		return this;
+	}
+
+	/**
+	 * 起動スクリプト，合成のidfと列番号ファイル，configファイルを作成します．
+	 * @return configファイル名
+	 * @throws IOException 書込エラー
+	 */
+	public String prepare() throws IOException
+	{
+		// MockEnergyPlusの起動スクリプト
+		Path exeFolder = Files.createDirectories(root.resolve("exe"));
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		String options = "-Dmock.columns="+columns+" -Dmock.delay="+delay+" -Dmock.busy="+busy
+				+" -cp \""+System.getProperty("java.class.path")+"\" "+MockEnergyPlus.class.getName();
+		boolean windows = File.separatorChar == '\\';
+		String exeFile = windows ? "energyplus.bat" : "energyplus";
+		Path script = exeFolder.resolve(exeFile);
+		if( windows ) {
+			Files.write(script, ("@\""+java+"\" "+options+" %*\r\n").getBytes(StandardCharsets.UTF_8));
+		}else {
+			Files.write(script, ("#!/bin/sh\nexec \""+java+"\" "+options+" \"$@\"\n").getBytes(StandardCharsets.UTF_8));
+			if( !script.toFile().setExecutable(true) )	Logging.logger.severe("cannot make "+script+" executable.");
+		}
+
+		// 作業フォルダの複製元
+		Path workspace = Files.createDirectories(root.resolve("workspace"));
+		Path source = Files.createDirectories(workspace.resolve("0"));
+		Files.write(source.resolve("model.idf"), createIdf());
+		MockEnergyPlus.writeIndexFiles(source, columns);
+
+		// configファイル
+		Properties config = new Properties();
+		config.setProperty("exeFolder", exeFolder.toString()+File.separator);
+		config.setProperty("exeFile", exeFile);
+		config.setProperty("weatherFile", "mock.epw");
+		config.setProperty("idfBaseFolder", workspace.toString()+File.separator);
+		config.setProperty("idfFile", "model.idf");
+		Path configFile = root.resolve("energyplus_mock.xml");
+		try(OutputStream output = Files.newOutputStream(configFile)) {
+			config.storeToXML(output, "MockEnergyPlus load test", "UTF-8");
+		}
+		return configFile.toString();
+	}
+
+	/**
+	 * 日付(IDF_DATE_OFFSET行目から)と設定温度(IDF_TEMPERATURE_OFFSET行目から)を書き換えられる合成のidfを作ります．
+	 */
+	private List<String> createIdf()
+	{
+		List<String> idf = new ArrayList<>(Arrays.asList(
+				"Version,8.5;",
+				"",
+				"RunPeriod,",
+				"    Run Period 1,            !- Name",
+				"    9,                       !- Begin Month",
+				"    21,                      !- Begin Day of Month",
+				"    9,                       !- End Month",
+				"    21,                      !- End Day of Month",
+				"    Thursday;                !- Day of Week for Start Day",
+				"",
+				"Timestep,6;",
+				"",
+				"Schedule:Compact,",
+				"    Cooling Setpoint,        !- Name",
+				"    Temperature,             !- Schedule Type Limits Name",
+				"    Through: 12/31,          !- Field 1",
+				"    For: AllDays,            !- Field 2"));
+		for(int i=0; i<SCHEDULE_LENGTH; i++) {
+			idf.add("    Until: " + (i==0 ? "00:10" : String.format("%02d:00", i)) + ",            !- Field");
+			idf.add("    25" + (i==SCHEDULE_LENGTH-1 ? ";" : ",") + "                      !- Field");
+		}
+		if( !idf.get(IDF_TEMPERATURE_OFFSET).trim().startsWith("25") )	throw new IllegalStateException("illegal synthetic idf.");
+		return idf;
+	}
+
+	/**
+	 * 負荷試験を実行します．prepare()を先に呼んでください．
+	 * @param configFile prepare()で作成したconfigファイル名
+	 * @return 試験結果
+	 * @throws InterruptedException 割り込み
+	 */
+	public Report run(String configFile) throws InterruptedException
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean allocation = threads instanceof com.sun.management.ThreadMXBean;
+		long[] latency = new long[numberOfRuns];
+		AtomicInteger failures = new AtomicInteger(0);
+		AtomicLong allocatedBytes = new AtomicLong(0);
+
+		AtomicInteger threadNumber = new AtomicInteger(0);
+		// EnergyPlusの作業フォルダはスレッド名で分かれるので，ワーカーに1からの番号を付ける("0"は複製元)
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfWorkers, r -> new Thread(r, String.valueOf(threadNumber.incrementAndGet())));
+		List<Future<?>> futures = new ArrayList<>(numberOfRuns);
+		long startTime = System.nanoTime();
+		for(int run=0; run<numberOfRuns; run++)
+		{
+			final int id = run;
+			futures.add(executor.submit(() -> {
+				long threadId = Thread.currentThread().getId();
+				long allocatedBefore = allocation ? ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threadId) : 0;
+				long start = System.nanoTime();
+				try {
+					if( !execute(configFile, new Random(id)) )	failures.incrementAndGet();
+				}catch(RuntimeException e){
+					Logging.logger.severe("run "+id+" failed: "+e);
+					failures.incrementAndGet();
+				}
+				latency[id] = System.nanoTime() - start;
+				if( allocation )	allocatedBytes.addAndGet(((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threadId) - allocatedBefore);
+			}));
+		}
+		for(Future<?> future : futures) {
+			try {
+				future.get();
+			}catch(java.util.concurrent.ExecutionException e){
+				Logging.logger.severe(e.getMessage());
+			}
+		}
+		double seconds = (System.nanoTime() - startTime) / 1.0e9;
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		Report report = new Report(numberOfRuns, failures.get(), seconds, latency, allocation ? allocatedBytes.get() : -1);
+		Logging.logger.info(report.toString());
+		return report;
+	}
+
+	/**
+	 * 1回分を実行します．
+	 * @return 結果データが得られたならtrue
+	 */
+	private boolean execute(String configFile, Random random)
+	{
+		if( throughObjectives ) {
+			double[] variable = new double[new EnergyPlusObjectives(new double[0]).setEvaluationPeriod(numberOfDays).getNumberOfVariables()];
+			for(int i=0; i<variable.length; i++)	variable[i] = 0.4 + 0.2*random.nextDouble();
+			EnergyPlusObjectives objectives = new EnergyPlusObjectives(variable)
+					.setXmlFile(configFile)
+					.setIdfOffsets(IDF_DATE_OFFSET, IDF_TEMPERATURE_OFFSET)
+					.setEvaluationPeriod(numberOfDays)
+					.setTimestepsPerHour(timestepsPerHour)
+					.setReadingEso(readingEso)
+					.calculate(true);
+			return objectives.get().length > 0 && !Double.isNaN(objectives.calculateObjectives()[0]);
+		}
+
+		double[][] settemp = new double[numberOfDays][SCHEDULE_LENGTH];
+		for(double[] daily : settemp)
+			for(int i=0; i<daily.length; i++)	daily[i] = 25.0 + 2.0*random.nextDouble();
+		Calendar startDay = Calendar.getInstance();
+		startDay.set(2006, 9, 21, 1, 0);
+		double[][] result = new ControlEnergyPlus(configFile).setTimestepsPerHour(timestepsPerHour).setReadingEso(readingEso)
+				.simulate(settemp, startDay, numberOfDays, IDF_DATE_OFFSET, IDF_TEMPERATURE_OFFSET);
+		return result.length == numberOfDays*24*timestepsPerHour;
+	}
+
+	/**
+	 * 負荷試験の結果です．
+	 */
+	public static class Report {
+		private final int runs;
+		private final int failures;
+		private final double seconds;
+		private final long[] latency;
+		private final long allocatedBytes;
+
+		Report(int runs, int failures, double seconds, long[] latency, long allocatedBytes)
+		{
+			this.runs = runs;
+			this.failures = failures;
+			this.seconds = seconds;
+			this.latency = latency.clone();
+			Arrays.sort(this.latency);
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		public int getRuns(){ return runs; }
+		public int getFailures(){ return failures; }
+		public double getSeconds(){ return seconds; }
+
+		/**
+		 * スループットを返します．
+		 * @return 1秒あたりの実行数
+		 */
+		public double getThroughput(){ return runs / seconds; }
+
+		/**
+		 * 応答時間のパーセンタイルを返します．
+		 * @param percentile パーセンタイル(0～100)
+		 * @return 応答時間[ms]
+		 */
+		public double getLatency(double percentile)
+		{
+			if( latency.length == 0 )	return Double.NaN;
+			int index = (int)Math.ceil(percentile/100.0*latency.length) - 1;
+			return latency[Math.min(latency.length-1, Math.max(0, index))] / 1.0e6;
+		}
+
+		/**
+		 * ワーカースレッドでのメモリの割り当て速度を返します．
+		 * @return 割り当て速度[MB/s](測れなければ負の値)
+		 */
+		public double getAllocationRate(){ return (allocatedBytes<0) ? -1.0 : allocatedBytes/1024.0/1024.0/seconds; }
+
+		@Override
+		public String toString()
+		{
+			return String.format("runs = %d (failures %d) in %.1f s, throughput = %.3f runs/s, latency p50/p90/p99/max = %.0f/%.0f/%.0f/%.0f ms, allocation = %.1f MB/s (%.2f MB/run)",
+					runs, failures, seconds, getThroughput(), getLatency(50), getLatency(90), getLatency(99), getLatency(100),
+					getAllocationRate(), (allocatedBytes<0) ? -1.0 : allocatedBytes/1024.0/1024.0/runs);
+		}
+	}
+
+	/**
+	 * 負荷試験を実行します．
+	 * 引数：試験用フォルダ [同時実行数] [実行回数] [列数] [計算時間ms] [日数]
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		Path root = Paths.get(args.length>0 ? args[0] : "loadtest");
+		LoadTestHarness harness = new LoadTestHarness(root);
+		if( args.length>1 )	harness.setNumberOfWorkers(Integer.parseInt(args[1]));
+		if( args.length>2 )	harness.setNumberOfRuns(Integer.parseInt(args[2]));
+		harness.setMockOutput(args.length>3 ? Integer.parseInt(args[3]) : MockEnergyPlus.DEFAULT_COLUMNS,
+							  args.length>4 ? Long.parseLong(args[4]) : 1000, false);
+		if( args.length>5 )	harness.setPeriod(Integer.parseInt(args[5]), 6);
+		System.out.println(harness.run(harness.prepare()));
+	}
+}
@@ -0,0 +1,251 @@
+package jp.ohtayo.building.energyplus;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 負荷試験用にEnergyPlusの代わりをするプログラムです．<br>
+ * EnergyPlusと同じ引数(-w 気象データ -d 出力フォルダ -r idfファイル)を受け取り，指定時間待ってから合成データのeplusout.esoを書き出します．
+ * -rを指定した場合は(ReadVarsESOと同じく)同じ内容のeplusout.csvも書き出します．<br>
+ * 行数はidfのRunPeriodとTimestepから求め，列数と待ち時間はシステムプロパティで指定します．<br>
+ * <ul>
+ * <li>mock.columns：出力CSVの列数(既定392，最小14)</li>
+ * <li>mock.delay：書き出しまでの時間[ms](既定1000)</li>
+ * <li>mock.busy：trueなら待つ間CPUを使い続ける(既定false)</li>
+ * </ul>
+ * 列の並びは時刻，外気温，外気湿度，ゾーンごとの温度・湿度・PMV，空きの列，消費電力量，冷房能力の順です．
+ * 列番号ファイル(*_ep.csv)はwriteIndexFilesで同じ並びのものを作れます．<br>
+ * ConfigEnergyPlusのexeFileにこのプログラムを起動するスクリプトを指定して使います(LoadTestHarnessが作成します)．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class MockEnergyPlus {
+
+	/** 列数の既定値と最小値 */
+	public static final int DEFAULT_COLUMNS = 392;
+	private static final int MINIMUM_COLUMNS = 14;
+	/** 1ゾーンあたりの列数(温度，湿度，PMV) */
+	private static final int COLUMNS_PER_ZONE = 3;
+	/** esoの出力変数の最初のレコード番号 */
+	private static final int FIRST_RECORD = 7;
+
+	public static void main(String[] args) throws Exception
+	{
+		String outputFolder = ".";
+		String idfFile = null;
+		boolean readVars = false;
+		for(int i=0; i<args.length; i++) {
+			if( args[i].equals("-d") && i+1<args.length )	outputFolder = args[++i];
+			else if( args[i].equals("-r") )	readVars = true;
+			else if( args[i].equals("-w") && i+1<args.length )	i++;
+			else if( !args[i].startsWith("-") )	idfFile = args[i];
+		}
+		int columns = Math.max(MINIMUM_COLUMNS, Integer.getInteger("mock.columns", DEFAULT_COLUMNS));
+		long delay = Long.getLong("mock.delay", 1000L);
+		boolean busy = Boolean.getBoolean("mock.busy");
+
+		int[] period = (idfFile==null) ? new int[]{1, 6, 1, 1} : readPeriod(Paths.get(idfFile));
+		int rows = period[0]*24*period[1];
+
+		// 計算時間の代わりに待つ
+		long end = System.currentTimeMillis() + delay;
+		if( busy ) {
+			double x = 0.0;
+			while( System.currentTimeMillis() < end )	for(int i=0; i<10000; i++)	x += Math.sqrt(i+x);
+			if( x < 0 )	System.out.println(x);
+		}else {
+			Thread.sleep(delay);
+		}
+
+		writeOutput(Paths.get(outputFolder), readVars, columns, rows, period[1], LocalDate.of(2006, period[2], period[3]), outputFolder.hashCode());
+		System.out.println("EnergyPlus Completed Successfully.");
+	}
+
+	/**
+	 * idfからシミュレーション日数と1時間あたりのタイムステップ数を読み取ります．
+	 * @param idfFile idfファイル
+	 * @return {日数, タイムステップ数, 開始月, 開始日}
+	 */
+	static int[] readPeriod(Path idfFile) throws IOException
+	{
+		String[] idf = Files.readAllLines(idfFile, StandardCharsets.UTF_8).toArray(new String[0]);
+		int timestepsPerHour = 6;
+		int start = IdfUtils.findObject(idf, "Timestep", 0);
+		if( start >= 0 ) {
+			int end = IdfUtils.findObjectEnd(idf, start);
+			String value = (start==end) ? IdfUtils.removeComment(idf[start]).replaceAll("[^0-9]", "") : IdfUtils.fieldValue(idf[end]);
+			timestepsPerHour = Integer.parseInt(value.trim());
+		}
+		int days = 1;
+		int[] date = {1, 1, 1, 1};
+		start = IdfUtils.findObject(idf, "RunPeriod", 0);
+		if( start >= 0 ) {
+			String[] labels = {"begin month", "begin day of month", "end month", "end day of month"};
+			for(int l=start; l<=IdfUtils.findObjectEnd(idf, start); l++) {
+				String line = idf[l].toLowerCase();
+				for(int i=0; i<labels.length; i++)
+					if( line.contains("!- "+labels[i]) )	date[i] = Integer.parseInt(IdfUtils.fieldValue(idf[l]));
+			}
+			days = (int)ChronoUnit.DAYS.between(LocalDate.of(2006, date[0], date[1]), LocalDate.of(2006, date[2], date[3])) + 1;
+		}
+		return new int[]{days, timestepsPerHour, date[0], date[1]};
+	}
+
+	/**
+	 * 合成データのesoファイル(と出力CSV)を書き出します．外気温は日周期の正弦波，室温は26℃付近，電力量は外気温に比例させます．
+	 * @param folder 出力フォルダ
+	 * @param csv 出力CSVも書き出すならtrue
+	 * @param columns 列数
+	 * @param rows 行数
+	 * @param timestepsPerHour 1時間あたりのタイムステップ数
+	 * @param startDay 開始日
+	 * @param seed 乱数の種
+	 */
+	static void writeOutput(Path folder, boolean csv, int columns, int rows, int timestepsPerHour, LocalDate startDay, long seed) throws IOException
+	{
+		int zones = numberOfZones(columns);
+		Random random = new Random(seed);
+		// 出力CSVと同じ形式の列名(時刻を除く)
+		List<String> names = new ArrayList<>(columns);
+		names.add("Environment:Site Outdoor Air Drybulb Temperature [C](TimeStep)");
+		names.add("Environment:Site Outdoor Air Relative Humidity [%](TimeStep)");
+		for(int z=0; z<zones; z++) {
+			names.add("ZONE"+(z+1)+":Zone Mean Air Temperature [C](TimeStep)");
+			names.add("ZONE"+(z+1)+":Zone Air Relative Humidity [%](TimeStep)");
+			names.add("ZONE"+(z+1)+" PEOPLE:Zone Thermal Comfort Fanger Model PMV [](TimeStep)");
+		}
+		for(int c=3+zones*COLUMNS_PER_ZONE; c<columns-2; c++)	names.add("SPARE"+c+":Other Variable [](TimeStep)");
+		names.add("Electricity:Facility [J](TimeStep)");
+		names.add("VRF:VRF Heat Pump Total Cooling Rate [W](TimeStep)");
+
+		try(BufferedWriter eso = Files.newBufferedWriter(folder.resolve("eplusout.eso"), StandardCharsets.UTF_8);
+			BufferedWriter writer = csv ? Files.newBufferedWriter(folder.resolve("eplusout.csv"), StandardCharsets.UTF_8) : null)
+		{
+			// esoのデータ辞書(レコード番号7からが出力変数)
+			eso.write("Program Version,EnergyPlus, Version 8.5.0-mock, YMD=2006."+startDay.getMonthValue()+"."+startDay.getDayOfMonth()+" 00:00\r\n");
+			eso.write("1,5,Environment Title[],Latitude[deg],Longitude[deg],Time Zone[],Elevation[m]\r\n");
+			eso.write("2,8,Day of Simulation[],Month[],Day of Month[],DST Indicator[1=yes 0=no],Hour[],StartMinute[],EndMinute[],DayType\r\n");
+			eso.write("3,5,Cumulative Day of Simulation[],Month[],Day of Month[],DST Indicator[1=yes 0=no],DayType  ! When Daily Report Variables Requested\r\n");
+			eso.write("4,2,Cumulative Days of Simulation[],Month[]  ! When Monthly Report Variables Requested\r\n");
+			eso.write("5,1,Cumulative Days of Simulation[] ! When Run Period Report Variables Requested\r\n");
+			eso.write("6,1,Calendar Year of Simulation[] ! When Annual Report Variables Requested\r\n");
+			for(int c=0; c<names.size(); c++) {
+				String name = names.get(c).substring(0, names.get(c).lastIndexOf('('));
+				int colon = name.startsWith("Electricity:") ? -1 : name.indexOf(':');
+				String variable = (colon<0) ? name : name.substring(0, colon)+","+name.substring(colon+1);
+				eso.write((FIRST_RECORD+c)+",1,"+variable+" !TimeStep\r\n");
+			}
+			eso.write("End of Data Dictionary\r\n");
+			eso.write("1,RUN PERIOD 1,  35.00, 139.00,   9.00,   10.00\r\n");
+
+			if( writer != null ) {
+				writer.write("Date/Time,"+String.join(",", names));
+				writer.write("\r\n");
+			}
+
+			double seconds = 3600.0/timestepsPerHour;
+			double[] values = new double[names.size()];
+			StringBuilder line = new StringBuilder(columns*8);
+			for(int r=0; r<rows; r++)
+			{
+				int minutes = (r+1)*60/timestepsPerHour;
+				int day = minutes/1440;
+				int minuteOfDay = minutes%1440;
+				double hour = minuteOfDay/60.0;
+				double outdoor = 28.0 + 4.0*Math.sin(2.0*Math.PI*(hour - 9.0)/24.0);
+				double load = Math.max(0.0, outdoor - 24.0);
+
+				int v = 0;
+				values[v++] = outdoor;
+				values[v++] = 60.0 + 10.0*random.nextGaussian();
+				for(int z=0; z<zones; z++) {
+					double temperature = 26.0 + 0.1*load + 0.3*random.nextGaussian();
+					values[v++] = temperature;
+					values[v++] = 50.0 + 5.0*random.nextGaussian();
+					values[v++] = (temperature-25.5)/2.0;
+				}
+				while( v < values.length-2 )	values[v++] = random.nextDouble();
+				double cooling = 20000.0*load*(1.0 + 0.05*random.nextGaussian());
+				values[v++] = cooling/3.5*seconds;
+				values[v] = cooling;
+
+				// 日付はEnergyPlusと同じく24:00を使う
+				LocalDate date = startDay.plusDays((minuteOfDay==0) ? day-1 : day);
+				int printedMinutes = (minuteOfDay==0) ? 1440 : minuteOfDay;
+				int endMinute = (printedMinutes%60==0) ? 60 : printedMinutes%60;
+				int hourOfDay = (printedMinutes-1)/60 + 1;
+				eso.write(String.format(Locale.ROOT, "2,%d,%2d,%2d, 0,%2d,%5.2f,%5.2f,Thursday\r\n", day+1, date.getMonthValue(), date.getDayOfMonth(),
+						hourOfDay, (double)(endMinute - 60/timestepsPerHour), (double)endMinute));
+				for(int c=0; c<values.length; c++) {
+					eso.write(String.valueOf(FIRST_RECORD+c));
+					eso.write(',');
+					eso.write(format(values[c]));
+					eso.write("\r\n");
+				}
+
+				if( writer != null ) {
+					line.setLength(0);
+					line.append(String.format(" %02d/%02d  %02d:%02d:00", date.getMonthValue(), date.getDayOfMonth(), printedMinutes/60, printedMinutes%60));
+					for(double value : values)	line.append(',').append(format(value));
+					writer.write(line.toString());
+					writer.write("\r\n");
+				}
+			}
+			eso.write("End of Data\r\n");
+			eso.write(" Number of Records Written=          "+(rows*(values.length+1))+"\r\n");
+		}
+	}
+
+	/**
+	 * 列数からゾーン数を求めます．
+	 * @param columns 出力CSVの列数
+	 * @return ゾーン数(3以上)
+	 */
+	public static int numberOfZones(int columns)
+	{
+		return Math.max(3, (columns-5)/COLUMNS_PER_ZONE);
+	}
+
+	/**
+	 * 出力CSVと同じ並びの列番号ファイル(*_ep.csv)を書き出します．ゾーンは下層・中層・上層に3等分します．
+	 * @param folder 書き出すフォルダ(作業フォルダの複製元)
+	 * @param columns 出力CSVの列数
+	 */
+	public static void writeIndexFiles(Path folder, int columns) throws IOException
+	{
+		int zones = numberOfZones(Math.max(MINIMUM_COLUMNS, columns));
+		String[] floors = {"ground", "middle", "top"};
+		String[] kinds = {"temp", "humi", "pmv"};
+		for(int f=0; f<floors.length; f++)
+		{
+			int first = zones*f/floors.length;
+			int last = zones*(f+1)/floors.length;
+			for(int k=0; k<kinds.length; k++)
+			{
+				StringBuilder index = new StringBuilder();
+				for(int z=first; z<last; z++) {
+					if( index.length()>0 )	index.append(',');
+					index.append(3 + z*COLUMNS_PER_ZONE + k);
+				}
+				Files.write(folder.resolve(kinds[k]+floors[f]+"index_ep.csv"), (index+"\r\n").getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int width = Math.max(MINIMUM_COLUMNS, columns);
+		Files.write(folder.resolve("powerindex_ep.csv"), ((width-2)+","+(width-1)+"\r\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String format(double value)
+	{
+		return String.valueOf(Math.round(value*10000.0)/10000.0);
+	}
+}
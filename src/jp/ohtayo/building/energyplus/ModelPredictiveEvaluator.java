@@ -0,0 +1,180 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.building.optimization.ObjectiveEvaluator;
+import jp.ohtayo.commons.log.Logging;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * EnergyPlusの代わりに縮約熱モデル(RCZoneModel)で設定温度スケジュールを評価する評価器です．<br>
+ * addResultで渡したsimulateの結果データからモデルを同定し，候補のスケジュールの結果データを予測して
+ * EnergyPlusObjectivesと同じ定義で目的関数値を計算します．1回の評価はミリ秒以下なので，MPCで多数の候補を探索できます．<br>
+ * 結果データをinterval個追加するごとに直近windowSize個でモデルを同定し直します．
+ * 追加した結果データは同定に使う前にその時点のモデルで予測して誤差を記録するので(getErrors)，モデルの劣化を追跡できます．<br>
+ * 時刻・外気の温湿度・初期の室温は最後に追加した結果データを使うので，評価する日の結果データ(予報値を反映したものなど)を追加してください．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class ModelPredictiveEvaluator implements ObjectiveEvaluator {
+
+	/** EnergyPlusObjectivesの設定を行う関数 */
+	private final UnaryOperator<EnergyPlusObjectives> configurator;
+	/** 設計変数を設定温度に変換するときに差分とするか */
+	private final boolean usingDifference;
+	/** 設計変数の数 */
+	private final int numberOfVariables;
+	/** 1時間あたりのタイムステップ数 */
+	private final int timestepsPerHour;
+
+	/** 同定し直す間隔(追加した結果データの数) */
+	private int interval = 10;
+	/** 同定に使う直近の結果データの数 */
+	private int windowSize = 30;
+	/** PMVをJava側で計算する条件(nullなら一次式) */
+	private double[] comfortCondition = null;
+
+	/** 同定に使う直近の結果データ */
+	private final Deque<double[][]> window = new ArrayDeque<>();
+	/** 追加した結果データの数 */
+	private int added = 0;
+	/** 同定した回数 */
+	private int identifications = 0;
+	/** 追加した結果データごとの予測誤差{室温の二乗平均平方根誤差[℃], 消費電力量の相対誤差} */
+	private final List<double[]> errors = new ArrayList<>();
+	/** 同定済みのモデル */
+	private volatile RCZoneModel model = null;
+	/** 時刻・外気の温湿度・初期の室温を取る結果データ */
+	private volatile double[][] template = null;
+
+	/**
+	 * constructor.
+	 * @param configurator EnergyPlusObjectivesの設定を行う関数(評価日・評価期間・タイムステップ数などを結果データと揃える)
+	 * @param usingDifference 設計変数を設定温度に変換するときに差分とするか
+	 */
+	public ModelPredictiveEvaluator(UnaryOperator<EnergyPlusObjectives> configurator, boolean usingDifference)
+	{
+		this.configurator = configurator;
+		this.usingDifference = usingDifference;
+		EnergyPlusObjectives probe = configurator.apply(new EnergyPlusObjectives(new double[0]));
+		this.numberOfVariables = probe.getNumberOfVariables();
+		this.timestepsPerHour = probe.getTimestepsPerHour();
+	}
+
+	/**
+	 * モデルを同定し直す間隔と，同定に使う結果データの数を設定します．
+	 * @param interval 同定し直す間隔(追加した結果データの数)
+	 * @param windowSize 同定に使う直近の結果データの数
+	 */
+	public ModelPredictiveEvaluator setReidentification(int interval, int windowSize)
+	{
+		this.interval = interval;
+		this.windowSize = windowSize;
+		return this;
+	}
+
+	/**
+	 * PMVをJava側で計算するように設定します(RCZoneModel.setComfortCondition)．
+	 * @param Va 風速[m/s]
+	 * @param Icl 着衣量[clo]
+	 * @param M 代謝量[met]
+	 */
+	public ModelPredictiveEvaluator setComfortCondition(double Va, double Icl, double M)
+	{
+		this.comfortCondition = new double[]{Va, Icl, M};
+		return this;
+	}
+
+	/**
+	 * simulateの結果データを追加します．同定済みなら予測誤差を記録し，間隔に達したらモデルを同定し直します．
+	 * @param result simulateの結果データ(0時から始まる日単位の行)
+	 */
+	public synchronized ModelPredictiveEvaluator addResult(double[][] result)
+	{
+		if( result.length == 0 )	return this;
+		RCZoneModel current = model;
+		if( current != null )	errors.add(current.validate(result));
+
+		window.addLast(result);
+		while( window.size() > windowSize )	window.removeFirst();
+		template = result;
+		added++;
+		if( current == null || added % interval == 0 )	identify();
+		return this;
+	}
+
+	/**
+	 * アーカイブの全ての結果データを追加します．
+	 * @param archive 評価結果のアーカイブ
+	 * @throws IOException 読込エラー
+	 */
+	public ModelPredictiveEvaluator addResults(ResultArchive archive) throws IOException
+	{
+		archive.forEach(entry -> addResult(entry.getResult()));
+		return this;
+	}
+
+	/**
+	 * 直近の結果データでモデルを同定し直します．
+	 */
+	public synchronized void identify()
+	{
+		if( window.isEmpty() )	return;
+		RCZoneModel identified = new RCZoneModel(timestepsPerHour);
+		if( comfortCondition != null )	identified.setComfortCondition(comfortCondition[0], comfortCondition[1], comfortCondition[2]);
+		model = identified.identify(new ArrayList<>(window));
+		identifications++;
+		Logging.logger.info("RC model identified from "+window.size()+" results"
+				+(errors.isEmpty() ? "." : ", last error: "+errors.get(errors.size()-1)[0]+" degC, "+errors.get(errors.size()-1)[1]*100.0+" % of energy."));
+	}
+
+	/**
+	 * 追加した結果データごとの，追加前のモデルでの予測誤差を返します．
+	 * @return {室温の二乗平均平方根誤差[℃], 消費電力量の合計の相対誤差}のリスト(追加順)
+	 */
+	public synchronized List<double[]> getErrors(){ return new ArrayList<>(errors); }
+
+	public synchronized int getNumberOfIdentifications(){ return identifications; }
+
+	public RCZoneModel getModel(){ return model; }
+
+	/**
+	 * 候補の結果データを予測します．
+	 * @param variable 設計変数
+	 * @return 予測した結果データ
+	 */
+	public double[][] predict(double[] variable)
+	{
+		return predictObjectives(variable).get();
+	}
+
+	/**
+	 * 候補の結果データを予測し，目的関数値を計算できるEnergyPlusObjectivesを返します．
+	 */
+	private EnergyPlusObjectives predictObjectives(double[] variable)
+	{
+		RCZoneModel current = model;
+		double[][] base = template;
+		if( current == null || base == null )	throw new IllegalStateException("no result to identify the model.");
+		EnergyPlusObjectives objectives = configurator.apply(new EnergyPlusObjectives(variable));
+		double[] settemp = ControlEnergyPlus.expandTemperatureSetting(objectives.toTemperatureSchedule(variable, usingDifference), timestepsPerHour);
+		objectives.setResult(current.predict(base, settemp));
+		return objectives;
+	}
+
+	@Override
+	public double[] evaluate(double[] variable)
+	{
+		return predictObjectives(variable).calculateObjectives();
+	}
+
+	@Override
+	public int getNumberOfVariables(){ return numberOfVariables; }
+
+	@Override
+	public int getNumberOfObjectives(){ return EnergyPlusObjectives.NUMBER_OF_OBJECTIVES; }
+}
@@ -0,0 +1,235 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.building.optimization.ObjectiveEvaluator;
+import jp.ohtayo.building.optimization.ParetoRanking;
+import jp.ohtayo.building.optimization.Solution;
+import jp.ohtayo.commons.log.Logging;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * 低忠実度の評価で候補を選別し，上位の候補だけを通常の忠実度で評価し直す多忠実度の評価器です．<br>
+ * 全ての候補はまず簡略モデル・粗いタイムステップ・絞り込んだ出力(EnergyPlusObjectives.useLowFidelity)で評価します．
+ * 直近の低忠実度の評価結果の中で非優越ランクが上位の割合に入った候補だけを通常の忠実度で評価し，その目的関数値を返します．<br>
+ * それ以外の候補には，両方で評価した候補から目的関数ごとに線形回帰で求めた補正を低忠実度の目的関数値にかけて返します．
+ * 両者の順位相関(スピアマン)を記録するので，getRankCorrelation()で低忠実度の評価が選別に使えるかを確認できます．<br>
+ * 最初のwarmup個の候補は相関を学習するために両方で評価します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class MultiFidelityEvaluator implements ObjectiveEvaluator {
+
+	/** EnergyPlusObjectivesの設定を行う関数 */
+	private final UnaryOperator<EnergyPlusObjectives> configurator;
+	/** 設計変数を設定温度に変換するときに差分とするか */
+	private final boolean usingDifference;
+	/** 設計変数の数 */
+	private final int numberOfVariables;
+
+	/** 通常の忠実度で評価し直す上位の割合 */
+	private double eliteFraction = 0.2;
+	/** 順位を比べる直近の低忠実度の評価結果の数 */
+	private int windowSize = 100;
+	/** 両方で評価する最初の候補の数 */
+	private int warmup = 20;
+
+	/** 直近の低忠実度の目的関数値 */
+	private final Deque<double[]> window = new ArrayDeque<>();
+	/** 両方で評価した候補の低忠実度と通常の忠実度の目的関数値 */
+	private final List<double[]> lowFidelityResults = new ArrayList<>();
+	private final List<double[]> highFidelityResults = new ArrayList<>();
+	/** 評価数と評価時間[ns] */
+	private int lowFidelityEvaluations = 0, highFidelityEvaluations = 0;
+	private long lowFidelityTime = 0, highFidelityTime = 0;
+
+	/**
+	 * constructor.
+	 * @param configurator EnergyPlusObjectivesの設定を行う関数(setLowFidelityModelで簡略モデルも指定する)
+	 * @param usingDifference 設計変数を設定温度に変換するときに差分とするか
+	 */
+	public MultiFidelityEvaluator(UnaryOperator<EnergyPlusObjectives> configurator, boolean usingDifference)
+	{
+		this.configurator = configurator;
+		this.usingDifference = usingDifference;
+		this.numberOfVariables = configurator.apply(new EnergyPlusObjectives(new double[0])).getNumberOfVariables();
+	}
+
+	public synchronized MultiFidelityEvaluator setEliteFraction(double eliteFraction)
+	{
+		this.eliteFraction = eliteFraction;
+		return this;
+	}
+
+	/**
+	 * 順位を比べる直近の低忠実度の評価結果の数を設定します．最適化の個体数程度にしてください．
+	 * @param windowSize 評価結果の数
+	 */
+	public synchronized MultiFidelityEvaluator setWindowSize(int windowSize)
+	{
+		this.windowSize = windowSize;
+		return this;
+	}
+
+	public synchronized MultiFidelityEvaluator setWarmup(int warmup)
+	{
+		this.warmup = warmup;
+		return this;
+	}
+
+	@Override
+	public double[] evaluate(double[] variable)
+	{
+		long start = System.nanoTime();
+		EnergyPlusObjectives low = configurator.apply(new EnergyPlusObjectives(variable)).useLowFidelity().calculate(usingDifference);
+		double[] lowObjectives = low.calculateObjectives();
+		long lowTime = System.nanoTime() - start;
+
+		// 制約違反や打ち切りの候補は忠実度によらないので評価し直さない
+		boolean elite;
+		synchronized(this)
+		{
+			lowFidelityEvaluations++;
+			lowFidelityTime += lowTime;
+			if( low.isScreenedOut() || low.isTerminated() )	return lowObjectives;
+			elite = (lowFidelityEvaluations <= warmup) || isElite(lowObjectives);
+			window.addLast(lowObjectives);
+			while( window.size() > windowSize )	window.removeFirst();
+			if( !elite )	return correct(lowObjectives);
+		}
+
+		start = System.nanoTime();
+		double[] highObjectives = configurator.apply(new EnergyPlusObjectives(variable)).calculate(usingDifference).calculateObjectives();
+		long highTime = System.nanoTime() - start;
+		synchronized(this)
+		{
+			highFidelityEvaluations++;
+			highFidelityTime += highTime;
+			lowFidelityResults.add(lowObjectives);
+			highFidelityResults.add(highObjectives);
+			if( highFidelityEvaluations % 50 == 0 )
+				Logging.logger.info("multi-fidelity: "+highFidelityEvaluations+"/"+lowFidelityEvaluations+" re-evaluated, rank correlation = "
+						+Arrays.toString(getRankCorrelation()));
+		}
+		return highObjectives;
+	}
+
+	/**
+	 * 直近の低忠実度の評価結果の中で，非優越ランクが上位の割合に入るかを判定します．
+	 */
+	private boolean isElite(double[] objectives)
+	{
+		List<Solution> solutions = new ArrayList<>(window.size()+1);
+		for(double[] o : window)	solutions.add(new Solution(null, o));
+		Solution candidate = new Solution(null, objectives);
+		solutions.add(candidate);
+		ParetoRanking.sort(solutions);
+		int better = 0;
+		for(Solution s : solutions)
+			if( s.getRank() < candidate.getRank() )	better++;
+		return better <= eliteFraction * solutions.size();
+	}
+
+	/**
+	 * 両方で評価した結果から目的関数ごとに線形回帰で低忠実度の目的関数値を補正します．
+	 * @param objectives 低忠実度の目的関数値
+	 * @return 補正した目的関数値
+	 */
+	private double[] correct(double[] objectives)
+	{
+		int n = lowFidelityResults.size();
+		double[] corrected = objectives.clone();
+		if( n < 3 )	return corrected;
+		for(int m=0; m<objectives.length; m++)
+		{
+			double meanX = 0.0, meanY = 0.0;
+			for(int i=0; i<n; i++) {
+				meanX += lowFidelityResults.get(i)[m];
+				meanY += highFidelityResults.get(i)[m];
+			}
+			meanX /= n;
+			meanY /= n;
+			double sxx = 0.0, sxy = 0.0;
+			for(int i=0; i<n; i++) {
+				double dx = lowFidelityResults.get(i)[m] - meanX;
+				sxx += dx*dx;
+				sxy += dx*(highFidelityResults.get(i)[m] - meanY);
+			}
+			if( sxx > 0.0 )	corrected[m] = meanY + sxy/sxx*(objectives[m] - meanX);
+		}
+		return corrected;
+	}
+
+	/**
+	 * 両方で評価した候補について，低忠実度と通常の忠実度の目的関数値の順位相関(スピアマン)を目的関数ごとに返します．
+	 * @return 順位相関係数(評価し直した候補が2個未満ならNaN)
+	 */
+	public synchronized double[] getRankCorrelation()
+	{
+		int n = lowFidelityResults.size();
+		int numberOfObjectives = (n>0) ? lowFidelityResults.get(0).length : EnergyPlusObjectives.NUMBER_OF_OBJECTIVES;
+		double[] correlation = new double[numberOfObjectives];
+		for(int m=0; m<numberOfObjectives; m++)
+		{
+			if( n < 2 ) {
+				correlation[m] = Double.NaN;
+				continue;
+			}
+			double[] x = ranks(lowFidelityResults, m);
+			double[] y = ranks(highFidelityResults, m);
+			double mean = (n+1)/2.0;
+			double sxy = 0.0, sxx = 0.0, syy = 0.0;
+			for(int i=0; i<n; i++) {
+				sxy += (x[i]-mean)*(y[i]-mean);
+				sxx += (x[i]-mean)*(x[i]-mean);
+				syy += (y[i]-mean)*(y[i]-mean);
+			}
+			correlation[m] = (sxx>0.0 && syy>0.0) ? sxy/Math.sqrt(sxx*syy) : Double.NaN;
+		}
+		return correlation;
+	}
+
+	/**
+	 * 目的関数値の順位(1から，同順位は平均順位)を求めます．
+	 */
+	private static double[] ranks(List<double[]> results, int objective)
+	{
+		int n = results.size();
+		Integer[] order = new Integer[n];
+		for(int i=0; i<n; i++)	order[i] = i;
+		Arrays.sort(order, (a, b) -> Double.compare(results.get(a)[objective], results.get(b)[objective]));
+		double[] rank = new double[n];
+		for(int i=0; i<n; )
+		{
+			int j = i;
+			while( j+1<n && results.get(order[j+1])[objective] == results.get(order[i])[objective] )	j++;
+			for(int k=i; k<=j; k++)	rank[order[k]] = (i+j)/2.0 + 1.0;
+			i = j+1;
+		}
+		return rank;
+	}
+
+	public synchronized int getLowFidelityEvaluations(){ return lowFidelityEvaluations; }
+	public synchronized int getHighFidelityEvaluations(){ return highFidelityEvaluations; }
+
+	/**
+	 * 全ての候補を通常の忠実度で評価した場合に対する評価時間の割合の推定値を返します．
+	 * @return 評価時間の割合(1未満なら削減できている)
+	 */
+	public synchronized double getCostRatio()
+	{
+		if( highFidelityEvaluations == 0 )	return Double.NaN;
+		double highFidelityMean = (double)highFidelityTime / highFidelityEvaluations;
+		return (lowFidelityTime + highFidelityTime) / (highFidelityMean * lowFidelityEvaluations);
+	}
+
+	@Override
+	public int getNumberOfVariables(){ return numberOfVariables; }
+
+	@Override
+	public int getNumberOfObjectives(){ return EnergyPlusObjectives.NUMBER_OF_OBJECTIVES; }
+}
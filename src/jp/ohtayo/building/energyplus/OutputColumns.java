@@ -0,0 +1,169 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.commons.io.Csv;
+import jp.ohtayo.commons.util.Cast;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * EnergyPlusの出力CSV(eplusout.csv)のうち，抽出する列の定義を保持するクラスです．<br>
+ * 作業フォルダの列番号ファイル(*_ep.csv)から列番号を読み込み，出力のヘッダで列名と対応付けます．<br>
+ * 列名を保持しておけば，出力変数の構成が変わった出力でも列番号を求め直せます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class OutputColumns {
+
+	/** 列グループの定義 */
+	public static final int GROUND_TEMPERATURE	= 0;
+	public static final int MIDDLE_TEMPERATURE	= 1;
+	public static final int TOP_TEMPERATURE		= 2;
+	public static final int GROUND_HUMIDITY		= 3;
+	public static final int MIDDLE_HUMIDITY		= 4;
+	public static final int TOP_HUMIDITY		= 5;
+	public static final int GROUND_PMV			= 6;
+	public static final int MIDDLE_PMV			= 7;
+	public static final int TOP_PMV				= 8;
+	public static final int ENERGY				= 9;
+	public static final int OUTDOOR				= 10;
+
+	/** 列グループごとの列番号ファイル名 */
+	private static final String[] INDEX_FILES = {
+			"tempgroundindex_ep.csv", "tempmiddleindex_ep.csv", "temptopindex_ep.csv",
+			"humigroundindex_ep.csv", "humimiddleindex_ep.csv", "humitopindex_ep.csv",
+			"pmvgroundindex_ep.csv", "pmvmiddleindex_ep.csv", "pmvtopindex_ep.csv",
+			"powerindex_ep.csv" };
+	/** 時刻，外気温，外気湿度の列番号 */
+	private static final int[] OUTDOOR_INDEX = {0, 1, 2};
+
+	/** 列グループごとの列番号 */
+	private final int[][] indices;
+	/** 列グループごとの列名(未対応付けならnull) */
+	private final String[][] names;
+
+	private OutputColumns(int[][] indices, String[][] names)
+	{
+		this.indices = indices;
+		this.names = names;
+	}
+
+	/**
+	 * 作業フォルダの列番号ファイルから列の定義を読み込みます．
+	 * @param folder 列番号ファイルのあるフォルダ
+	 * @return 列の定義
+	 */
+	public static OutputColumns readIndexFiles(String folder)
+	{
+		int[][] indices = new int[INDEX_FILES.length+1][];
+		for(int g=0; g<INDEX_FILES.length; g++)
+			indices[g] = Cast.doubleToInt(Csv.read(folder + INDEX_FILES[g])[0]);
+		indices[OUTDOOR] = OUTDOOR_INDEX.clone();
+		return new OutputColumns(indices, null);
+	}
+
+	/**
+	 * 列グループの列番号を返します．
+	 * @param group 列グループ
+	 * @return 列番号
+	 */
+	public int[] get(int group){ return indices[group]; }
+
+	/**
+	 * 列グループの列名を返します．
+	 * @param group 列グループ
+	 * @return 列名
+	 */
+	public String[] getNames(int group){ return names[group]; }
+
+	public int numberOfGroups(){ return indices.length; }
+
+	/**
+	 * 出力のヘッダで各列の列名を対応付けます．
+	 * @param header 出力CSVのヘッダ(列名の配列)
+	 * @return 列名を持つ列の定義
+	 */
+	public OutputColumns withNames(String[] header)
+	{
+		String[][] names = new String[indices.length][];
+		for(int g=0; g<indices.length; g++) {
+			names[g] = new String[indices[g].length];
+			for(int i=0; i<indices[g].length; i++)	names[g][i] = header[indices[g][i]].trim();
+		}
+		return new OutputColumns(indices, names);
+	}
+
+	/**
+	 * PMVの列グループを空にした列の定義を返します．PMVをJava側で計算し，EnergyPlusにPMVを出力させない場合に使います．
+	 * @return PMVの列を含まない列の定義
+	 */
+	public OutputColumns withoutComfort()
+	{
+		int[][] indices = this.indices.clone();
+		String[][] names = (this.names==null) ? null : this.names.clone();
+		for(int g : new int[]{GROUND_PMV, MIDDLE_PMV, TOP_PMV}) {
+			indices[g] = new int[0];
+			if( names != null )	names[g] = new String[0];
+		}
+		return new OutputColumns(indices, names);
+	}
+
+	/**
+	 * 列名から別の出力での列番号を求めます．
+	 * @param header 出力CSVのヘッダ(列名の配列)
+	 * @return 列番号を求め直した列の定義
+	 */
+	public OutputColumns resolve(String[] header)
+	{
+		if( names == null )	throw new IllegalStateException("column names are not assigned.");
+		Map<String, Integer> position = new HashMap<>();
+		for(int c=0; c<header.length; c++)	position.putIfAbsent(header[c].trim().toLowerCase(), c);
+
+		int[][] resolved = new int[indices.length][];
+		for(int g=0; g<indices.length; g++) {
+			resolved[g] = new int[names[g].length];
+			for(int i=0; i<names[g].length; i++) {
+				Integer c = position.get(names[g][i].toLowerCase());
+				if( c == null )	throw new IllegalStateException("column '"+names[g][i]+"' is not found in the output.");
+				resolved[g][i] = c;
+			}
+		}
+		return new OutputColumns(resolved, names);
+	}
+
+	/**
+	 * 抽出に使う全ての列名を返します．時刻の列は含みません．
+	 * @return 列名の集合
+	 */
+	public Set<String> getAllNames()
+	{
+		Set<String> all = new LinkedHashSet<>();
+		for(int g=0; g<names.length; g++)
+			for(int i=0; i<names[g].length; i++)
+				if( indices[g][i] != 0 )	all.add(names[g][i]);
+		return all;
+	}
+
+	/**
+	 * 出力CSVのヘッダを読み込みます．
+	 * @param csvFile 出力CSVファイル
+	 * @return 列名の配列
+	 */
+	public static String[] readHeader(String csvFile)
+	{
+		try(BufferedReader reader = Files.newBufferedReader(Paths.get(csvFile), StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if( line == null )	throw new IllegalStateException("empty output: "+csvFile);
+			return line.split(",", -1);
+		}catch(IOException e){
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package jp.ohtayo.building.energyplus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * IDFの出力変数(Output:Variable, Output:Meter)を，指定した出力列だけを出力するように書き換えるクラスです．<br>
+ * 出力列名(例："ZONE1:Zone Mean Air Temperature [C](TimeStep)")からキー名・変数名・出力頻度を求め，
+ * 不要な出力変数を削除し，キーが"*"の出力変数は必要なキーだけに絞り込みます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class OutputVariablePruner {
+
+	/** 出力メーターのクラス名 */
+	private static final String[] METER_CLASSES = {
+			"Output:Meter", "Output:Meter:MeterFileOnly", "Output:Meter:Cumulative", "Output:Meter:Cumulative:MeterFileOnly" };
+
+	/** 必要な出力({キー名, 変数名, 出力頻度}) */
+	private final List<String[]> required = new ArrayList<>();
+	/** 必要な出力の「キー名:変数名」(メーター名との照合用) */
+	private final Set<String> requiredNames = new HashSet<>();
+
+	/**
+	 * constructor.
+	 * @param columnNames 必要な出力列名
+	 */
+	public OutputVariablePruner(Collection<String> columnNames)
+	{
+		for(String column : columnNames)
+		{
+			String name = column.trim();
+			String frequency = "TimeStep";
+			int open = name.lastIndexOf('(');
+			if( open>=0 && name.endsWith(")") ) {
+				frequency = name.substring(open+1, name.length()-1);
+				name = name.substring(0, open);
+			}
+			int unit = name.lastIndexOf('[');
+			if( unit>=0 )	name = name.substring(0, unit);
+			name = name.trim();
+			requiredNames.add(name.toLowerCase(Locale.ROOT)+"|"+frequency.toLowerCase(Locale.ROOT));
+
+			int colon = name.lastIndexOf(':');
+			if( colon>0 )	required.add(new String[]{ name.substring(0, colon).trim(), name.substring(colon+1).trim(), frequency });
+		}
+	}
+
+	/**
+	 * IDFの出力変数を書き換えます．
+	 * @param idf IDFファイルの各行
+	 * @return 書き換えたIDFファイルの各行
+	 */
+	public String[] prune(String[] idf)
+	{
+		List<String> lines = new ArrayList<>(idf.length);
+		int l = 0;
+		while( l<idf.length )
+		{
+			String content = IdfUtils.removeComment(idf[l]).trim();
+			if( content.isEmpty() ) {
+				lines.add(idf[l++]);
+				continue;
+			}
+			int end = IdfUtils.findObjectEnd(idf, l);
+			String className = IdfUtils.className(idf, l);
+			if( className.equalsIgnoreCase("Output:Variable") ) {
+				lines.addAll(pruneVariable(fields(idf, l, end)));
+			}else if( isMeter(className) ) {
+				lines.addAll(pruneMeter(className, fields(idf, l, end)));
+			}else {
+				for(int i=l; i<=end; i++)	lines.add(idf[i]);
+			}
+			l = end+1;
+		}
+		return lines.toArray(new String[0]);
+	}
+
+	/**
+	 * Output:Variableを必要なキーと出力頻度だけに書き換えます．
+	 * @param fields クラス名を除くフィールド値(キー名, 変数名, 出力頻度, スケジュール名)
+	 * @return 書き換えたオブジェクトの各行(不要なら空)
+	 */
+	private List<String> pruneVariable(List<String> fields)
+	{
+		List<String> lines = new ArrayList<>();
+		if( fields.size()<2 )	return lines;
+		String key = fields.get(0);
+		String variable = fields.get(1);
+		String schedule = fields.size()>3 ? fields.get(3) : "";
+
+		Set<String> emitted = new LinkedHashSet<>();
+		for(String[] r : required)
+		{
+			if( !r[1].equalsIgnoreCase(variable) )	continue;
+			if( !key.equals("*") && !key.equalsIgnoreCase(r[0]) )	continue;
+			String id = (r[0]+"|"+r[2]).toLowerCase(Locale.ROOT);
+			if( !emitted.add(id) )	continue;
+			lines.add("  Output:Variable,\r");
+			lines.add("    "+r[0]+",                  !- Key Value\r");
+			lines.add("    "+variable+",              !- Variable Name\r");
+			if( schedule.isEmpty() ) {
+				lines.add("    "+r[2]+";                  !- Reporting Frequency\r");
+			}else {
+				lines.add("    "+r[2]+",                  !- Reporting Frequency\r");
+				lines.add("    "+schedule+";              !- Schedule Name\r");
+			}
+			lines.add("\r");
+		}
+		return lines;
+	}
+
+	/**
+	 * Output:Meterを必要な場合だけ出力頻度を合わせて残します．
+	 * @param className クラス名
+	 * @param fields クラス名を除くフィールド値(メーター名, 出力頻度)
+	 * @return 書き換えたオブジェクトの各行(不要なら空)
+	 */
+	private List<String> pruneMeter(String className, List<String> fields)
+	{
+		List<String> lines = new ArrayList<>();
+		if( fields.isEmpty() )	return lines;
+		String meter = fields.get(0);
+		for(String name : requiredNames)
+		{
+			String[] r = name.split("\\|");
+			if( !r[0].equals(meter.toLowerCase(Locale.ROOT)) )	continue;
+			lines.add("  "+className+",\r");
+			lines.add("    "+meter+",                 !- Name\r");
+			lines.add("    "+r[1]+";                  !- Reporting Frequency\r");
+			lines.add("\r");
+		}
+		return lines;
+	}
+
+	private static boolean isMeter(String className)
+	{
+		for(String meter : METER_CLASSES)
+			if( meter.equalsIgnoreCase(className) )	return true;
+		return false;
+	}
+
+	/**
+	 * オブジェクトのクラス名を除くフィールド値を返します．
+	 */
+	private static List<String> fields(String[] idf, int start, int end)
+	{
+		StringBuilder object = new StringBuilder();
+		for(int l=start; l<=end; l++)	object.append(IdfUtils.removeComment(idf[l]));
+		String text = object.toString();
+		text = text.substring(0, text.indexOf(';'));
+		String[] values = text.split(",", -1);
+		List<String> fields = new ArrayList<>();
+		for(int i=1; i<values.length; i++)	fields.add(values[i].trim());
+		return fields;
+	}
+}
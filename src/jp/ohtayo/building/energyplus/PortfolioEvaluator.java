@@ -0,0 +1,284 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.building.BuildingUtils;
+import jp.ohtayo.building.optimization.ObjectiveEvaluator;
+import jp.ohtayo.building.tariff.TariffBill;
+import jp.ohtayo.building.tariff.TimeOfUseTariff;
+import jp.ohtayo.commons.log.Logging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+/**
+ * 複数の建物をまとめて評価する評価器です．<br>
+ * 設計変数は建物ごとの設計変数を連結したもので，各建物のスケジュールを並列にシミュレーションし，
+ * 電力量を時刻で揃えて合計した系列から全体の消費電力量，同時ピーク電力，電気料金を求めます．<br>
+ * 建物ごとにタイムステップ数が異なる場合は，最も粗いタイムステップに電力量を集計して揃えます．<br>
+ * 目的関数値はEnergyPlusObjectivesと同じ5つで，[0]は全体の消費電力量[J]，[1]は同時ピーク電力[kW]，
+ * [2]は建物ごとの平均PMVの0からの乖離の最大値，[3][4]は建物ごとの制約違反量の合計です．<br>
+ * EnergyPlusの作業フォルダは呼び出し元のスレッド名で決まるので，建物ごとのconfigファイルのidfBaseFolderは別のフォルダにしてください．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class PortfolioEvaluator implements ObjectiveEvaluator {
+
+	/** 建物ごとのEnergyPlusObjectivesの設定を行う関数 */
+	private final List<UnaryOperator<EnergyPlusObjectives>> buildings;
+	/** 設計変数を設定温度に変換するときに差分とするか */
+	private final boolean usingDifference;
+	/** 建物ごとの設計変数の数 */
+	private final int[] numberOfVariables;
+	/** 全体の契約に適用する料金体系(nullなら料金を計算しない) */
+	private TimeOfUseTariff tariff = null;
+	/** 建物を並列に実行するスレッド */
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r);
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * 建物全体の評価結果です．
+	 */
+	public static class Result {
+		private final EnergyPlusObjectives[] buildings;
+		private final double[][] objectives;
+		private final double[] energy;
+		private final int timestepsPerHour;
+		private final boolean feasible;
+		private final TariffBill bill;
+
+		Result(EnergyPlusObjectives[] buildings, double[][] objectives, double[] energy, int timestepsPerHour, boolean feasible, TariffBill bill)
+		{
+			this.buildings = buildings;
+			this.objectives = objectives;
+			this.energy = energy;
+			this.timestepsPerHour = timestepsPerHour;
+			this.feasible = feasible;
+			this.bill = bill;
+		}
+
+		/**
+		 * 建物ごとの評価結果を返します．
+		 * @return EnergyPlusObjectivesの配列(建物の順)
+		 */
+		public EnergyPlusObjectives[] getBuildings(){ return buildings; }
+
+		/**
+		 * 建物ごとの目的関数値を返します．
+		 * @return 目的関数値の配列(建物の順)
+		 */
+		public double[][] getBuildingObjectives(){ return objectives; }
+
+		/**
+		 * 時刻で揃えて合計した電力量の系列を返します．評価日の0時からのタイムステップごとで，評価時間外は0です．
+		 * @return 電力量[J]
+		 */
+		public double[] getEnergy(){ return energy; }
+		public int getTimestepsPerHour(){ return timestepsPerHour; }
+
+		/**
+		 * 全ての建物をシミュレーションできたかを返します．制約違反で選別した建物や打ち切った建物があればfalseです．
+		 * @return シミュレーションできたならtrue
+		 */
+		public boolean isFeasible(){ return feasible; }
+
+		/**
+		 * 全体の消費電力量を返します．
+		 * @return 消費電力量[J]
+		 */
+		public double getTotalEnergy()
+		{
+			double sum = 0.0;
+			for(double e : energy)	sum += e;
+			return sum;
+		}
+
+		/**
+		 * 同時ピーク電力を返します．
+		 * @return ピーク電力[kW]
+		 */
+		public double getCoincidentPeak()
+		{
+			double max = 0.0;
+			for(double e : energy)	max = Math.max(max, e);
+			return BuildingUtils.J2kWh(max)*timestepsPerHour;
+		}
+
+		/**
+		 * 全体の電気料金の請求結果を返します．
+		 * @return 請求結果(料金体系が未設定か，シミュレーションできなかった建物があればnull)
+		 */
+		public TariffBill getBill(){ return bill; }
+	}
+
+	/**
+	 * constructor.
+	 * @param buildings 建物ごとのEnergyPlusObjectivesの設定を行う関数(configファイル，IDFの変更行，評価日など．評価日と評価期間は揃える)
+	 * @param usingDifference 設計変数を設定温度に変換するときに差分とするか
+	 */
+	public PortfolioEvaluator(List<UnaryOperator<EnergyPlusObjectives>> buildings, boolean usingDifference)
+	{
+		this.buildings = new ArrayList<>(buildings);
+		this.usingDifference = usingDifference;
+		this.numberOfVariables = new int[buildings.size()];
+		for(int b=0; b<numberOfVariables.length; b++)
+			numberOfVariables[b] = buildings.get(b).apply(new EnergyPlusObjectives(new double[0])).getNumberOfVariables();
+	}
+
+	/**
+	 * 全体の契約に適用する料金体系を設定します．デマンド料金は同時ピーク電力にかかります．
+	 * @param tariff 料金体系
+	 */
+	public PortfolioEvaluator setTariff(TimeOfUseTariff tariff)
+	{
+		this.tariff = tariff;
+		return this;
+	}
+
+	/**
+	 * 建物ごとのスケジュールを並列にシミュレーションし，全体の評価結果を求めます．
+	 * @param variable 建物ごとの設計変数を連結したもの
+	 * @return 全体の評価結果
+	 */
+	public Result evaluatePortfolio(double[] variable)
+	{
+		if( variable.length != getNumberOfVariables() )	Logging.logger.severe("illegal variable length.");
+
+		// 建物ごとに呼び出し元のスレッド名で実行する
+		String threadName = Thread.currentThread().getName();
+		List<Future<EnergyPlusObjectives>> futures = new ArrayList<>();
+		int offset = 0;
+		for(int b=0; b<buildings.size(); b++)
+		{
+			final UnaryOperator<EnergyPlusObjectives> building = buildings.get(b);
+			final double[] slice = Arrays.copyOfRange(variable, offset, offset+numberOfVariables[b]);
+			offset += numberOfVariables[b];
+			futures.add(executor.submit(() -> {
+				Thread thread = Thread.currentThread();
+				String name = thread.getName();
+				thread.setName(threadName);
+				try {
+					return building.apply(new EnergyPlusObjectives(slice)).calculate(usingDifference);
+				}finally{
+					thread.setName(name);
+				}
+			}));
+		}
+		EnergyPlusObjectives[] results = new EnergyPlusObjectives[buildings.size()];
+		for(int b=0; b<results.length; b++) {
+			try {
+				results[b] = futures.get(b).get();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("portfolio evaluation interrupted.", e);
+			}catch(ExecutionException e){
+				throw new IllegalStateException("building "+b+" failed.", e.getCause());
+			}
+		}
+		return aggregate(results);
+	}
+
+	/**
+	 * 建物ごとの結果の電力量を最も粗いタイムステップの時刻で揃えて合計します．
+	 */
+	private Result aggregate(EnergyPlusObjectives[] results)
+	{
+		double[][] objectives = new double[results.length][];
+		boolean feasible = true;
+		int timestepsPerHour = Integer.MAX_VALUE;
+		for(int b=0; b<results.length; b++) {
+			objectives[b] = results[b].calculateObjectives();
+			feasible &= !results[b].isScreenedOut() && !results[b].isTerminated();
+			timestepsPerHour = Math.min(timestepsPerHour, results[b].getTimestepsPerHour());
+		}
+		if( !feasible )	return new Result(results, objectives, new double[0], timestepsPerHour, false, null);
+
+		// 各行の時刻は計算区間の終わりなので，評価日の0時からの区間番号に変換して集計する
+		double step = 3600.0/timestepsPerHour;
+		double start = Double.NaN;
+		List<double[]> series = new ArrayList<>(results.length);
+		int length = 0;
+		for(EnergyPlusObjectives result : results)
+		{
+			double[][] s = result.getElectricEnergySeries();
+			series.add(new double[0]);
+			if( s.length == 0 )	continue;
+			if( Double.isNaN(start) )	start = midnight(s[0][0] - 1.0);
+			double[] buckets = new double[0];
+			for(double[] row : s)
+			{
+				int index = (int)Math.ceil((row[0] - start)/step - 1.0e-6) - 1;
+				if( index < 0 )	continue;
+				if( index >= buckets.length )	buckets = Arrays.copyOf(buckets, Math.max(index+1, buckets.length*2));
+				buckets[index] += row[1];
+				length = Math.max(length, index+1);
+			}
+			series.set(series.size()-1, buckets);
+		}
+		// 料金の計算のため日単位の長さにする
+		int rowsPerDay = 24*timestepsPerHour;
+		length = (length+rowsPerDay-1)/rowsPerDay*rowsPerDay;
+		double[] energy = new double[length];
+		for(double[] buckets : series)
+			for(int t=0; t<Math.min(length, buckets.length); t++)	energy[t] += buckets[t];
+
+		TariffBill bill = null;
+		if( tariff != null && length > 0 )
+			bill = tariff.getCalendar(2006, results[0].getEvaluationMonth(), results[0].getEvaluationDay(), length, timestepsPerHour).bill(energy);
+		return new Result(results, objectives, energy, timestepsPerHour, true, bill);
+	}
+
+	/**
+	 * 時刻[s]の日の0時の時刻[s]を求めます．(結果データの時刻と同じくデフォルトのタイムゾーン)
+	 */
+	private static double midnight(double time)
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis((long)Math.floor(time*1000.0));
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTimeInMillis()/1000.0;
+	}
+
+	@Override
+	public double[] evaluate(double[] variable)
+	{
+		Result result = evaluatePortfolio(variable);
+		double[] objectives = new double[EnergyPlusObjectives.NUMBER_OF_OBJECTIVES];
+		if( !result.isFeasible() ) {
+			// 選別・打ち切りの建物のペナルティ値を含めた合計とする
+			for(double[] o : result.getBuildingObjectives())
+				for(int m=0; m<objectives.length; m++)	objectives[m] += o[m];
+			return objectives;
+		}
+		objectives[0] = result.getTotalEnergy();
+		objectives[1] = result.getCoincidentPeak();
+		for(double[] o : result.getBuildingObjectives()) {
+			objectives[2] = Math.max(objectives[2], o[2]);
+			objectives[3] += o[3];
+			objectives[4] += o[4];
+		}
+		return objectives;
+	}
+
+	@Override
+	public int getNumberOfVariables()
+	{
+		int sum = 0;
+		for(int n : numberOfVariables)	sum += n;
+		return sum;
+	}
+
+	@Override
+	public int getNumberOfObjectives(){ return EnergyPlusObjectives.NUMBER_OF_OBJECTIVES; }
+}
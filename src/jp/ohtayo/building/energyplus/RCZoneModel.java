@@ -0,0 +1,357 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.building.environment.ComfortKernel;
+
+import java.util.List;
+
+/**
+ * simulateの結果データから同定する建物の縮約熱モデル(グレーボックスのRCモデル)です．<br>
+ * 各階の室温を1つの熱容量とし，外気との熱抵抗，時刻ごとの内部・日射取得熱，空調の除去熱量で1タイムステップ後の室温を表します．<br>
+ * 　T[k+1] = T[k] + a(To[k+1] - T[k]) + g[時] - q Q[k+1]　(a:外皮の係数，g:取得熱による上昇，q:除去熱量あたりの低下，Q:冷房能力[J])<br>
+ * 空調は運転する時刻に室温を設定温度(+階ごとの差)に保つ除去熱量を出すとし(上限は学習データの最大値)，
+ * 消費電力量は時刻ごとの基礎分と除去熱量・外気温の一次式で表します．
+ * 相対湿度は時刻ごとの水蒸気圧を保つとして室温から求め，PMVは階ごとに室温と相対湿度の一次式で表します(setComfortConditionを指定すればJava側で計算します)．<br>
+ * パラメータは最小二乗法で同定するので，EnergyPlusを実行せずに結果データを数千倍速く予測できます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class RCZoneModel {
+
+	private static final int HOURS_IN_ONE_DAY = 24;
+	/** 階ごとの{温度，湿度，PMV}の結果データの列 */
+	private static final int[][] FLOORS = {
+			{ResultRowAggregator.GROUND_TEMPERATURE, ResultRowAggregator.GROUND_HUMIDITY, ResultRowAggregator.GROUND_PMV},
+			{ResultRowAggregator.MIDDLE_TEMPERATURE, ResultRowAggregator.MIDDLE_HUMIDITY, ResultRowAggregator.MIDDLE_PMV},
+			{ResultRowAggregator.TOP_TEMPERATURE, ResultRowAggregator.TOP_HUMIDITY, ResultRowAggregator.TOP_PMV} };
+	/** 冷房能力の結果データの列 */
+	private static final int COOLING = ResultRowAggregator.ENERGY + 1;
+	/** 空調を運転しているとみなす冷房能力(最大値に対する割合) */
+	private static final double OPERATING_FRACTION = 0.05;
+	/** 最小二乗法の正則化 */
+	private static final double RIDGE = 1.0e-6;
+
+	/** 1時間あたりのタイムステップ数 */
+	private final int timestepsPerHour;
+	/** PMVをJava側で計算する場合の計算(nullなら一次式) */
+	private ComfortKernel comfort = null;
+
+	/** 冷房能力の列が有るか(無ければ消費電力量を除去熱量の代わりにする) */
+	private boolean coolingMeasured;
+	/** 除去熱量の尺度(学習データの最大値)[J] */
+	private double capacity;
+	/** 階ごとの外皮の係数a */
+	private double[] envelope;
+	/** 階ごとの除去熱量あたりの室温の低下q[℃/J] */
+	private double[] removal;
+	/** 階ごと・時刻ごとの取得熱による室温の上昇g[℃] */
+	private double[][] gain;
+	/** 階ごとの空調運転中の設定温度との差[℃] */
+	private double[] offset;
+	/** 時刻ごとの空調の運転の有無 */
+	private boolean[] operating;
+	/** 消費電力量の時刻ごとの基礎分[J] */
+	private double[] electricBase;
+	/** 消費電力量の除去熱量(capacityで割った値)と，それに外気温をかけた項の係数 */
+	private double electricPerCooling, electricPerCoolingOutdoor;
+	/** 階ごと・時刻ごとの水蒸気圧[kPa] */
+	private double[][] vapourPressure;
+	/** 階ごとのPMVの一次式{定数，室温の係数，相対湿度の係数} */
+	private double[][] pmvModel;
+	/** 直前の検証の誤差{室温の二乗平均平方根誤差[℃], 消費電力量の相対誤差} */
+	private double[] error = null;
+
+	/**
+	 * constructor.
+	 * @param timestepsPerHour 結果データの1時間あたりのタイムステップ数
+	 */
+	public RCZoneModel(int timestepsPerHour)
+	{
+		this.timestepsPerHour = timestepsPerHour;
+	}
+
+	/**
+	 * PMVを一次式ではなくJava側で室温と相対湿度から計算するように設定します．平均放射温度は室温+1℃とします．
+	 * @param Va 風速[m/s]
+	 * @param Icl 着衣量[clo]
+	 * @param M 代謝量[met]
+	 */
+	public RCZoneModel setComfortCondition(double Va, double Icl, double M)
+	{
+		this.comfort = new ComfortKernel(Va, Icl, M);
+		return this;
+	}
+
+	public boolean isIdentified(){ return envelope != null; }
+
+	/**
+	 * 直前のvalidateで求めた誤差を返します．
+	 * @return {室温の二乗平均平方根誤差[℃], 消費電力量の合計の相対誤差}(検証していなければnull)
+	 */
+	public double[] getError(){ return (error==null) ? null : error.clone(); }
+
+	/**
+	 * 結果データからパラメータを同定します．各結果データは0時から始まる日単位の行とします．
+	 * @param results simulateの結果データのリスト
+	 * @return this
+	 */
+	public RCZoneModel identify(List<double[][]> results)
+	{
+		if( results.isEmpty() )	throw new IllegalArgumentException("no result to identify the model.");
+		coolingMeasured = true;
+		capacity = 0.0;
+		for(double[][] result : results)
+			for(double[] row : result) {
+				coolingMeasured &= row.length > COOLING;
+				capacity = Math.max(capacity, coolingOf(row));
+			}
+		if( capacity <= 0.0 )	capacity = 1.0;
+		double threshold = OPERATING_FRACTION*capacity;
+
+		// 空調を運転する時刻
+		int[] operatingCount = new int[HOURS_IN_ONE_DAY];
+		int[] count = new int[HOURS_IN_ONE_DAY];
+		for(double[][] result : results)
+			for(int k=0; k<result.length; k++) {
+				count[hourOf(k)]++;
+				if( coolingOf(result[k]) > threshold )	operatingCount[hourOf(k)]++;
+			}
+		operating = new boolean[HOURS_IN_ONE_DAY];
+		for(int h=0; h<HOURS_IN_ONE_DAY; h++)	operating[h] = operatingCount[h] > 0.1*count[h];
+
+		int floors = FLOORS.length;
+		envelope = new double[floors];
+		removal = new double[floors];
+		gain = new double[floors][];
+		offset = new double[floors];
+		vapourPressure = new double[floors][HOURS_IN_ONE_DAY];
+		pmvModel = new double[floors][];
+		for(int f=0; f<floors; f++)
+		{
+			int temperatureColumn = FLOORS[f][0];
+			int humidityColumn = FLOORS[f][1];
+			int pmvColumn = FLOORS[f][2];
+
+			// 室温の変化：{外気温との差, 除去熱量, 時刻ごとの取得熱}
+			LeastSquares thermal = new LeastSquares(2 + HOURS_IN_ONE_DAY);
+			LeastSquares pmv = new LeastSquares(3);
+			double offsetSum = 0.0;
+			int offsetCount = 0;
+			for(double[][] result : results)
+			{
+				for(int k=0; k<result.length; k++)
+				{
+					double[] row = result[k];
+					int h = hourOf(k);
+					double temperature = row[temperatureColumn];
+					vapourPressure[f][h] += row[humidityColumn]/100.0*saturatedVapourPressure(temperature)/count[h];
+					if( !Double.isNaN(row[pmvColumn]) )	pmv.add(new double[]{1.0, temperature, row[humidityColumn]}, row[pmvColumn]);
+					double cooling = coolingOf(row);
+					if( cooling > threshold ) {
+						offsetSum += temperature - row[ResultRowAggregator.SETPOINT_TEMPERATURE];
+						offsetCount++;
+					}
+					if( k == 0 )	continue;
+
+					double previous = result[k-1][temperatureColumn];
+					double[] x = new double[2 + HOURS_IN_ONE_DAY];
+					x[0] = row[ResultRowAggregator.OUTDOOR_TEMPERATURE] - previous;
+					x[1] = -cooling/capacity;
+					x[2+h] = 1.0;
+					thermal.add(x, temperature - previous);
+				}
+			}
+			double[] theta = thermal.solve();
+			envelope[f] = Math.min(1.0, Math.max(0.0, theta[0]));
+			removal[f] = Math.max(0.0, theta[1])/capacity;
+			gain[f] = new double[HOURS_IN_ONE_DAY];
+			System.arraycopy(theta, 2, gain[f], 0, HOURS_IN_ONE_DAY);
+			offset[f] = (offsetCount > 0) ? offsetSum/offsetCount : 0.0;
+			pmvModel[f] = pmv.solve();
+		}
+
+		// 消費電力量：{時刻ごとの基礎分, 除去熱量, 除去熱量×外気温}
+		LeastSquares electric = new LeastSquares(HOURS_IN_ONE_DAY + 2);
+		for(double[][] result : results)
+			for(int k=0; k<result.length; k++) {
+				double[] x = new double[HOURS_IN_ONE_DAY + 2];
+				x[hourOf(k)] = 1.0;
+				x[HOURS_IN_ONE_DAY] = coolingOf(result[k])/capacity;
+				x[HOURS_IN_ONE_DAY+1] = x[HOURS_IN_ONE_DAY]*outdoorTerm(result[k][ResultRowAggregator.OUTDOOR_TEMPERATURE]);
+				electric.add(x, result[k][ResultRowAggregator.ENERGY]);
+			}
+		double[] theta = electric.solve();
+		electricBase = new double[HOURS_IN_ONE_DAY];
+		System.arraycopy(theta, 0, electricBase, 0, HOURS_IN_ONE_DAY);
+		electricPerCooling = theta[HOURS_IN_ONE_DAY];
+		electricPerCoolingOutdoor = theta[HOURS_IN_ONE_DAY+1];
+		return this;
+	}
+
+	/**
+	 * 設定温度のスケジュールから結果データを予測します．<br>
+	 * 時刻と外気の温湿度は同じ期間の結果データ(過去の評価結果や予報値から作ったもの)から取り，初期の室温はその最初の行の値とします．<br>
+	 * @param template 時刻・外気温・外気湿度・初期の室温を取る結果データ
+	 * @param settemp タイムステップごとの設定温度[℃](ControlEnergyPlus.expandTemperatureSettingの出力)
+	 * @return 予測した結果データ(列の並びはResultRowAggregatorの定義)
+	 */
+	public double[][] predict(double[][] template, double[] settemp)
+	{
+		if( !isIdentified() )	throw new IllegalStateException("model is not identified.");
+		int floors = FLOORS.length;
+		double[] temperature = new double[floors];
+		for(int f=0; f<floors; f++)	temperature[f] = template[0][FLOORS[f][0]];
+
+		double[][] rows = new double[template.length][];
+		double[] free = new double[floors];
+		for(int k=0; k<template.length; k++)
+		{
+			int h = hourOf(k);
+			double outdoor = template[k][ResultRowAggregator.OUTDOOR_TEMPERATURE];
+			double setpoint = settemp[Math.min(k, settemp.length-1)];
+
+			// 空調が無い場合の室温から，設定温度に保つ除去熱量を求める
+			double need = 0.0;
+			int controlled = 0;
+			for(int f=0; f<floors; f++) {
+				free[f] = temperature[f] + envelope[f]*(outdoor - temperature[f]) + gain[f][h];
+				if( removal[f] > 0.0 ) {
+					need += (free[f] - setpoint - offset[f])/removal[f];
+					controlled++;
+				}
+			}
+			double cooling = (operating[h] && controlled > 0) ? Math.min(capacity, Math.max(0.0, need/controlled)) : 0.0;
+
+			double[] row = new double[template[k].length];
+			row[ResultRowAggregator.TIME] = template[k][ResultRowAggregator.TIME];
+			row[ResultRowAggregator.OUTDOOR_TEMPERATURE] = outdoor;
+			row[ResultRowAggregator.OUTDOOR_HUMIDITY] = template[k][ResultRowAggregator.OUTDOOR_HUMIDITY];
+			row[ResultRowAggregator.SETPOINT_TEMPERATURE] = setpoint;
+			for(int f=0; f<floors; f++)
+			{
+				temperature[f] = free[f] - removal[f]*cooling;
+				double humidity = Math.min(100.0, Math.max(0.0, 100.0*vapourPressure[f][h]/saturatedVapourPressure(temperature[f])));
+				row[FLOORS[f][0]] = temperature[f];
+				row[FLOORS[f][1]] = humidity;
+				row[FLOORS[f][2]] = (comfort != null) ? comfort.pmv(temperature[f], humidity, temperature[f]+1)
+						: pmvModel[f][0] + pmvModel[f][1]*temperature[f] + pmvModel[f][2]*humidity;
+			}
+			double scaled = cooling/capacity;
+			double electric = Math.max(0.0, electricBase[h] + scaled*(electricPerCooling + electricPerCoolingOutdoor*outdoorTerm(outdoor)));
+			row[ResultRowAggregator.ENERGY] = coolingMeasured ? electric : cooling;
+			if( row.length > COOLING )	row[COOLING] = cooling;
+			rows[k] = row;
+		}
+		return rows;
+	}
+
+	/**
+	 * 結果データの設定温度で予測し，実際の結果データとの誤差を求めます．求めた誤差はgetError()でも取得できます．
+	 * @param observed simulateの結果データ
+	 * @return {室温の二乗平均平方根誤差[℃], 消費電力量の合計の相対誤差}
+	 */
+	public double[] validate(double[][] observed)
+	{
+		double[] settemp = new double[observed.length];
+		for(int k=0; k<observed.length; k++)	settemp[k] = observed[k][ResultRowAggregator.SETPOINT_TEMPERATURE];
+		double[][] predicted = predict(observed, settemp);
+
+		double squareSum = 0.0;
+		double predictedEnergy = 0.0, observedEnergy = 0.0;
+		for(int k=0; k<observed.length; k++) {
+			for(int[] floor : FLOORS) {
+				double difference = predicted[k][floor[0]] - observed[k][floor[0]];
+				squareSum += difference*difference;
+			}
+			predictedEnergy += predicted[k][ResultRowAggregator.ENERGY];
+			observedEnergy += observed[k][ResultRowAggregator.ENERGY];
+		}
+		double rmse = Math.sqrt(squareSum/Math.max(1, observed.length*FLOORS.length));
+		double energyError = Math.abs(predictedEnergy - observedEnergy)/Math.max(Math.abs(observedEnergy), Double.MIN_NORMAL);
+		error = new double[]{rmse, energyError};
+		return error.clone();
+	}
+
+	/**
+	 * 行番号から時刻(その行の計算区間の始まりの時)を求めます．
+	 */
+	private int hourOf(int row)
+	{
+		return (row % (HOURS_IN_ONE_DAY*timestepsPerHour)) / timestepsPerHour;
+	}
+
+	private double coolingOf(double[] row)
+	{
+		return coolingMeasured ? row[COOLING] : row[ResultRowAggregator.ENERGY];
+	}
+
+	/** 消費電力量の外気温の項(25℃からの差を10℃で割った値) */
+	private static double outdoorTerm(double outdoor)
+	{
+		return (outdoor - 25.0)/10.0;
+	}
+
+	/**
+	 * 飽和水蒸気圧[kPa]を計算します．(Tetensの式)
+	 */
+	private static double saturatedVapourPressure(double temperature)
+	{
+		return 0.61078*Math.exp(17.27*temperature/(temperature + 237.3));
+	}
+
+	/**
+	 * 正規方程式を積算して解く最小二乗法です．
+	 */
+	private static class LeastSquares {
+		private final double[][] normal;
+		private final double[] moment;
+
+		LeastSquares(int size)
+		{
+			normal = new double[size][size];
+			moment = new double[size];
+		}
+
+		void add(double[] x, double y)
+		{
+			for(int i=0; i<x.length; i++) {
+				if( x[i] == 0.0 )	continue;
+				moment[i] += x[i]*y;
+				for(int j=0; j<x.length; j++)	normal[i][j] += x[i]*x[j];
+			}
+		}
+
+		/**
+		 * 部分ピボット選択付きのガウスの消去法で解きます．データの無い係数は正則化により0になります．
+		 */
+		double[] solve()
+		{
+			int n = moment.length;
+			double[][] a = new double[n][n+1];
+			for(int i=0; i<n; i++) {
+				System.arraycopy(normal[i], 0, a[i], 0, n);
+				a[i][i] += RIDGE*(1.0 + normal[i][i]);
+				a[i][n] = moment[i];
+			}
+			for(int c=0; c<n; c++)
+			{
+				int pivot = c;
+				for(int r=c+1; r<n; r++)
+					if( Math.abs(a[r][c]) > Math.abs(a[pivot][c]) )	pivot = r;
+				double[] swap = a[c];	a[c] = a[pivot];	a[pivot] = swap;
+				if( a[c][c] == 0.0 )	continue;
+				for(int r=c+1; r<n; r++) {
+					double factor = a[r][c]/a[c][c];
+					if( factor == 0.0 )	continue;
+					for(int j=c; j<=n; j++)	a[r][j] -= factor*a[c][j];
+				}
+			}
+			double[] x = new double[n];
+			for(int r=n-1; r>=0; r--) {
+				double sum = a[r][n];
+				for(int j=r+1; j<n; j++)	sum -= a[r][j]*x[j];
+				x[r] = (a[r][r] == 0.0) ? 0.0 : sum/a[r][r];
+			}
+			return x;
+		}
+	}
+}
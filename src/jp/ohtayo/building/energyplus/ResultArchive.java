@@ -0,0 +1,321 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.commons.log.Logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * シミュレーション結果を追記型のバイナリファイルに保存するアーカイブです．<br>
+ * 1回の評価ごとに設計変数・設定温度スケジュール・結果データ(simulateの15列)を1レコードとして保存します．<br>
+ * 結果データは列ごとに前の値との排他的論理和をとってから圧縮するため，変化の少ない列ほど小さくなります．<br>
+ * スケジュール(と評価条件)のハッシュ値で索引を作るので，同じスケジュールの結果をすぐに取り出せます．<br>
+ * 読み込み時はファイルをメモリマップして走査するため，大量の過去の評価結果も高速に再読込できます．<br>
+ * <br>
+ * レコードの形式：マジックナンバー(int), 圧縮データ長(int), ハッシュ値(long), 変数長(int), スケジュール長(int),
+ * 行数(int), 列数(int), 圧縮前データ長(int), 圧縮データ<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class ResultArchive implements AutoCloseable {
+
+	/** レコードの先頭を表す値 */
+	private static final int MAGIC = 0x45505241;	// "EPRA"
+	/** レコードヘッダの長さ[byte] */
+	private static final int HEADER_LENGTH = 36;
+	/** 読込時に1回にマップする領域の大きさ[byte] */
+	private static final int MAP_SIZE = 256*1024*1024;
+
+	/**
+	 * アーカイブの1レコード(1回の評価結果)です．
+	 */
+	public static class Entry {
+		private final long hash;
+		private final double[] variable;
+		private final double[] schedule;
+		private final double[][] result;
+
+		Entry(long hash, double[] variable, double[] schedule, double[][] result)
+		{
+			this.hash = hash;
+			this.variable = variable;
+			this.schedule = schedule;
+			this.result = result;
+		}
+
+		public long getHash(){ return hash; }
+		public double[] getVariable(){ return variable; }
+		public double[] getSchedule(){ return schedule; }
+		public double[][] getResult(){ return result; }
+	}
+
+	/** アーカイブファイル */
+	private final Path file;
+	private final FileChannel channel;
+	/** ハッシュ値からレコード位置への索引 */
+	private final Map<Long, List<Long>> index = new HashMap<>();
+	/** 全レコードの位置 */
+	private final List<Long> offsets = new ArrayList<>();
+	/** 有効なデータの末尾 */
+	private long end = 0;
+
+	/**
+	 * アーカイブを開きます．ファイルが無ければ作成します．
+	 * @param file アーカイブファイル
+	 * @throws IOException 読込エラー
+	 */
+	public ResultArchive(Path file) throws IOException
+	{
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		scan(null);
+		if( end < channel.size() ) {
+			// 書き込み途中で終了した末尾のレコードを捨てる
+			Logging.logger.warning("truncate incomplete record at "+end+" in "+file);
+			channel.truncate(end);
+		}
+	}
+
+	/**
+	 * スケジュールと評価条件からハッシュ値を計算します．
+	 * @param schedule 設定温度スケジュール
+	 * @param context 評価条件(configファイル，評価日など)を表す文字列
+	 * @return ハッシュ値
+	 */
+	public static long hash(double[] schedule, String context)
+	{
+		long h = 0xcbf29ce484222325L;	// FNV-1a
+		for(double value : schedule) {
+			long bits = Double.doubleToLongBits(value);
+			for(int i=0; i<8; i++) {
+				h ^= (bits >>> (i*8)) & 0xff;
+				h *= 0x100000001b3L;
+			}
+		}
+		for(byte b : context.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * 評価結果を追記します．
+	 * @param hash スケジュールと評価条件のハッシュ値
+	 * @param variable 設計変数
+	 * @param schedule 設定温度スケジュール
+	 * @param result 結果データ
+	 * @throws IOException 書込エラー
+	 */
+	public synchronized void append(long hash, double[] variable, double[] schedule, double[][] result) throws IOException
+	{
+		int rows = result.length;
+		int columns = (rows>0) ? result[0].length : 0;
+
+		// 変数・スケジュール・結果(列ごとに前の値とのXOR)を並べる
+		ByteBuffer raw = ByteBuffer.allocate((variable.length + schedule.length + rows*columns) * 8);
+		for(double v : variable)	raw.putLong(Double.doubleToLongBits(v));
+		for(double v : schedule)	raw.putLong(Double.doubleToLongBits(v));
+		for(int c=0; c<columns; c++) {
+			long previous = 0;
+			for(int r=0; r<rows; r++) {
+				long bits = Double.doubleToLongBits(result[r][c]);
+				raw.putLong(bits ^ previous);
+				previous = bits;
+			}
+		}
+
+		byte[] compressed = compress(raw.array());
+		ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + compressed.length);
+		record.putInt(MAGIC).putInt(compressed.length).putLong(hash)
+			  .putInt(variable.length).putInt(schedule.length).putInt(rows).putInt(columns).putInt(raw.capacity())
+			  .put(compressed);
+		record.flip();
+
+		long offset = end;
+		while( record.hasRemaining() )	channel.write(record, end + record.position());
+		end += HEADER_LENGTH + compressed.length;
+		index.computeIfAbsent(hash, k -> new ArrayList<>()).add(offset);
+		offsets.add(offset);
+	}
+
+	/**
+	 * 同じスケジュールと評価条件の評価結果を探します．
+	 * @param schedule 設定温度スケジュール
+	 * @param context 評価条件を表す文字列
+	 * @return 評価結果．無ければnull
+	 * @throws IOException 読込エラー
+	 */
+	public synchronized Entry find(double[] schedule, String context) throws IOException
+	{
+		List<Long> candidates = index.getOrDefault(hash(schedule, context), Collections.emptyList());
+		for(long offset : candidates) {
+			Entry entry = read(offset);
+			if( Arrays.equals(entry.getSchedule(), schedule) )	return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * 保存されているレコード数を返します．
+	 * @return レコード数
+	 */
+	public synchronized int size(){ return offsets.size(); }
+
+	/**
+	 * 全レコードを先頭から順に読み込みます．ファイルをメモリマップして走査します．
+	 * @param consumer 各レコードを受け取る処理
+	 * @throws IOException 読込エラー
+	 */
+	public synchronized void forEach(Consumer<Entry> consumer) throws IOException
+	{
+		scan(consumer);
+	}
+
+	/**
+	 * 指定位置のレコードを読み込みます．
+	 */
+	private Entry read(long offset) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		while( header.hasRemaining() )	channel.read(header, offset + header.position());
+		header.flip();
+		ByteBuffer payload = ByteBuffer.allocate(header.getInt(4));
+		while( payload.hasRemaining() )	channel.read(payload, offset + HEADER_LENGTH + payload.position());
+		payload.flip();
+		return decode(header, payload);
+	}
+
+	/**
+	 * ファイルをメモリマップして走査し，索引を作ります．
+	 * @param consumer 各レコードを受け取る処理(nullなら索引だけ作る)
+	 */
+	private void scan(Consumer<Entry> consumer) throws IOException
+	{
+		boolean indexing = (consumer == null);
+		if( indexing ) {
+			index.clear();
+			offsets.clear();
+		}
+		long size = indexing ? channel.size() : end;
+		long position = 0;
+		while( position + HEADER_LENGTH <= size )
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size-position));
+			int local = 0;
+			while( local + HEADER_LENGTH <= buffer.limit() )
+			{
+				if( buffer.getInt(local) != MAGIC )	throw new IOException("broken archive at "+(position+local)+": "+file);
+				int length = buffer.getInt(local+4);
+				if( local + HEADER_LENGTH + length > buffer.limit() )	break;	// 次の領域で読む
+
+				if( indexing ) {
+					index.computeIfAbsent(buffer.getLong(local+8), k -> new ArrayList<>()).add(position+local);
+					offsets.add(position+local);
+				}else {
+					ByteBuffer header = (ByteBuffer)((ByteBuffer)buffer.duplicate().position(local)).slice().limit(HEADER_LENGTH);
+					ByteBuffer payload = (ByteBuffer)((ByteBuffer)buffer.duplicate().position(local+HEADER_LENGTH)).slice().limit(length);
+					consumer.accept(decode(header, payload));
+				}
+				local += HEADER_LENGTH + length;
+			}
+			if( local == 0 )	break;	// 書き込み途中のレコード
+			position += local;
+		}
+		if( indexing )	end = position;
+	}
+
+	/**
+	 * レコードを復元します．
+	 */
+	private static Entry decode(ByteBuffer header, ByteBuffer payload) throws IOException
+	{
+		long hash = header.getLong(8);
+		int numberOfVariables = header.getInt(16);
+		int scheduleLength = header.getInt(20);
+		int rows = header.getInt(24);
+		int columns = header.getInt(28);
+		int rawLength = header.getInt(32);
+
+		byte[] compressed = new byte[payload.remaining()];
+		payload.get(compressed);
+		ByteBuffer raw = ByteBuffer.wrap(decompress(compressed, rawLength));
+
+		double[] variable = new double[numberOfVariables];
+		for(int i=0; i<variable.length; i++)	variable[i] = Double.longBitsToDouble(raw.getLong());
+		double[] schedule = new double[scheduleLength];
+		for(int i=0; i<schedule.length; i++)	schedule[i] = Double.longBitsToDouble(raw.getLong());
+		double[][] result = new double[rows][columns];
+		for(int c=0; c<columns; c++) {
+			long previous = 0;
+			for(int r=0; r<rows; r++) {
+				previous ^= raw.getLong();
+				result[r][c] = Double.longBitsToDouble(previous);
+			}
+		}
+		return new Entry(hash, variable, schedule, result);
+	}
+
+	private static byte[] compress(byte[] data)
+	{
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] buffer = new byte[Math.max(64, data.length/2)];
+		int length = 0;
+		while( !deflater.finished() ) {
+			if( length == buffer.length )	buffer = Arrays.copyOf(buffer, buffer.length*2);
+			length += deflater.deflate(buffer, length, buffer.length-length);
+		}
+		deflater.end();
+		return Arrays.copyOf(buffer, length);
+	}
+
+	private static byte[] decompress(byte[] data, int rawLength) throws IOException
+	{
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+		byte[] raw = new byte[rawLength];
+		try {
+			int length = 0;
+			while( length < rawLength && !inflater.finished() )
+				length += inflater.inflate(raw, length, rawLength-length);
+		}catch(DataFormatException e){
+			throw new IOException(e);
+		}finally{
+			inflater.end();
+		}
+		return raw;
+	}
+
+	/**
+	 * 書き込んだ内容をディスクに反映します．
+	 * @throws IOException 書込エラー
+	 */
+	public synchronized void flush() throws IOException
+	{
+		channel.force(false);
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		channel.force(false);
+		channel.close();
+	}
+}
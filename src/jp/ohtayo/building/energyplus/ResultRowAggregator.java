@@ -0,0 +1,211 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.building.environment.ComfortKernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * EnergyPlusの出力1行分から，simulateの結果データ1行分(時刻，外気温，外気湿度，設定温度，各階の温湿度・PMV，電力量)を作るクラスです．<br>
+ * 出力全体を保持せずに1行ずつ集約するために使います．<br>
+ * setComfortConditionを設定すると，各階のPMVをEnergyPlusの出力ではなく各ゾーンの温湿度からJava側で計算します．
+ * 各ゾーンの温湿度を記録しておき，calculateComfortでゾーンごとに並列に計算して階ごとに平均します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class ResultRowAggregator {
+
+	/** 結果データの列の定義 */
+	public static final int TIME				= 0;
+	public static final int OUTDOOR_TEMPERATURE	= 1;
+	public static final int OUTDOOR_HUMIDITY	= 2;
+	public static final int SETPOINT_TEMPERATURE= 3;
+	public static final int GROUND_TEMPERATURE	= 4;
+	public static final int GROUND_HUMIDITY		= 5;
+	public static final int MIDDLE_TEMPERATURE	= 6;
+	public static final int MIDDLE_HUMIDITY		= 7;
+	public static final int TOP_TEMPERATURE		= 8;
+	public static final int TOP_HUMIDITY		= 9;
+	public static final int GROUND_PMV			= 10;
+	public static final int MIDDLE_PMV			= 11;
+	public static final int TOP_PMV				= 12;
+	public static final int ENERGY				= 13;
+
+	/** 結果データのヘッダ */
+	public static final String HEADER = "time, outdoortemp, outdoorhumi, settemp, groundtemp, groundhumi, middletem, middlehumi, toptemp, tophumi, groundpmv, middlepmv, toppmv, electricenergy, coolingenergy";
+
+	/** 結果データの列と，平均をとる出力列グループの対応 */
+	private static final int[][] MEAN_COLUMNS = {
+			{GROUND_TEMPERATURE, OutputColumns.GROUND_TEMPERATURE},
+			{GROUND_HUMIDITY, OutputColumns.GROUND_HUMIDITY},
+			{MIDDLE_TEMPERATURE, OutputColumns.MIDDLE_TEMPERATURE},
+			{MIDDLE_HUMIDITY, OutputColumns.MIDDLE_HUMIDITY},
+			{TOP_TEMPERATURE, OutputColumns.TOP_TEMPERATURE},
+			{TOP_HUMIDITY, OutputColumns.TOP_HUMIDITY},
+			{GROUND_PMV, OutputColumns.GROUND_PMV},
+			{MIDDLE_PMV, OutputColumns.MIDDLE_PMV},
+			{TOP_PMV, OutputColumns.TOP_PMV} };
+
+	/** 階ごとの{温度の出力列グループ, 湿度の出力列グループ, PMVの結果データの列} */
+	private static final int[][] COMFORT_FLOORS = {
+			{OutputColumns.GROUND_TEMPERATURE, OutputColumns.GROUND_HUMIDITY, GROUND_PMV},
+			{OutputColumns.MIDDLE_TEMPERATURE, OutputColumns.MIDDLE_HUMIDITY, MIDDLE_PMV},
+			{OutputColumns.TOP_TEMPERATURE, OutputColumns.TOP_HUMIDITY, TOP_PMV} };
+
+	/** 抽出する列の定義 */
+	private final OutputColumns columns;
+	/** 出力の列番号の最大値 */
+	private final int maxColumn;
+
+	/** Java側でPMVを計算する条件{風速[m/s], 着衣量[clo], 代謝量[met]}(nullならEnergyPlusの出力を使う) */
+	private double[] comfortCondition = null;
+	/** PMVを計算していない行の各ゾーンの温度と湿度(階の順にゾーンごとに温度，湿度の並び) */
+	private final List<double[]> zoneSamples = new ArrayList<>();
+
+	/**
+	 * constructor.
+	 * @param columns 抽出する列の定義
+	 */
+	public ResultRowAggregator(OutputColumns columns)
+	{
+		this.columns = columns;
+		int max = 0;
+		for(int g=0; g<columns.numberOfGroups(); g++)
+			for(int c : columns.get(g))	max = Math.max(max, c);
+		this.maxColumn = max;
+	}
+
+	public OutputColumns getColumns(){ return columns; }
+
+	/**
+	 * 各階のPMVをJava側で計算するように設定します．<br>
+	 * 各階の温度と湿度の出力列グループは同じゾーンを同じ順に並べたものとし，平均放射温度は室温+1℃とします(BuildingUtils.calculatePMVと同じ)．<br>
+	 * @param Va 風速[m/s]
+	 * @param Icl 着衣量[clo]
+	 * @param M 代謝量[met]
+	 */
+	public ResultRowAggregator setComfortCondition(double Va, double Icl, double M)
+	{
+		this.comfortCondition = new double[]{Va, Icl, M};
+		return this;
+	}
+
+	public boolean isComfortCalculated(){ return comfortCondition != null; }
+
+	/**
+	 * 出力の列番号の最大値を返します．出力1行分の配列はこれより長くしてください．
+	 * @return 列番号の最大値
+	 */
+	public int getMaxColumn(){ return maxColumn; }
+
+	/**
+	 * 抽出に使う列かを判定する配列を返します．
+	 * @return 列番号ごとに抽出に使うならtrue
+	 */
+	public boolean[] getRequiredColumns()
+	{
+		boolean[] required = new boolean[maxColumn+1];
+		for(int g=0; g<columns.numberOfGroups(); g++)
+			for(int c : columns.get(g))	required[c] = true;
+		return required;
+	}
+
+	/**
+	 * 結果データの列数を返します．
+	 * @return 列数
+	 */
+	public int width()
+	{
+		return ENERGY + columns.get(OutputColumns.ENERGY).length;
+	}
+
+	/**
+	 * 出力1行分から結果データ1行分を作ります．
+	 * @param time 時刻
+	 * @param values 列番号ごとの出力値
+	 * @param settemp 設定温度[℃]
+	 * @param row 結果データ1行分の格納先
+	 */
+	public void aggregate(double time, double[] values, double settemp, double[] row)
+	{
+		int[] outdoor = columns.get(OutputColumns.OUTDOOR);
+		row[TIME] = time;
+		row[OUTDOOR_TEMPERATURE] = values[outdoor[1]];
+		row[OUTDOOR_HUMIDITY] = values[outdoor[2]];
+		row[SETPOINT_TEMPERATURE] = settemp;
+		for(int[] mean : MEAN_COLUMNS) {
+			int[] index = columns.get(mean[1]);
+			double sum = 0.0;
+			for(int c : index)	sum += values[c];
+			row[mean[0]] = sum / index.length;
+		}
+		int[] energy = columns.get(OutputColumns.ENERGY);
+		for(int i=0; i<energy.length; i++)	row[ENERGY+i] = values[energy[i]];
+
+		if( comfortCondition != null ) {
+			double[] sample = new double[numberOfComfortZones()*2];
+			int i = 0;
+			for(int[] floor : COMFORT_FLOORS) {
+				int[] temperature = columns.get(floor[0]);
+				int[] humidity = columns.get(floor[1]);
+				for(int z=0; z<zonesOf(floor); z++) {
+					sample[i++] = values[temperature[z]];
+					sample[i++] = values[humidity[z]];
+				}
+			}
+			zoneSamples.add(sample);
+		}
+	}
+
+	/**
+	 * 記録した各ゾーンの温湿度から，まだ計算していない行の各階のPMVを計算します．<br>
+	 * ゾーンごとに並列に計算し，階ごとにゾーンの平均をとって結果データのPMVの列に書き込みます．<br>
+	 * @param rows 結果データ(aggregateで作った行の並び)
+	 * @param from まだ計算していない最初の行番号(rowsのそれ以降の行は全てaggregateで記録した行)
+	 */
+	public void calculateComfort(List<double[]> rows, int from)
+	{
+		if( comfortCondition == null )	return;
+		int n = zoneSamples.size();
+		if( rows.size()-from != n )	throw new IllegalStateException("rows do not match the recorded zone samples.");
+		int comfortZones = numberOfComfortZones();
+		double[][] temperature = new double[comfortZones][n];
+		double[][] humidity = new double[comfortZones][n];
+		for(int r=0; r<n; r++) {
+			double[] sample = zoneSamples.get(r);
+			for(int z=0; z<comfortZones; z++) {
+				temperature[z][r] = sample[z*2];
+				humidity[z][r] = sample[z*2+1];
+			}
+		}
+
+		// ゾーンごとに並列にPMVを計算する
+		double[][] pmv = new double[comfortZones][n];
+		new ComfortKernel(comfortCondition[0], comfortCondition[1], comfortCondition[2]).calculate(temperature, humidity, null, pmv, null, null);
+
+		// 階ごとに平均する
+		int zone = 0;
+		for(int[] floor : COMFORT_FLOORS) {
+			int zones = zonesOf(floor);
+			for(int r=0; r<n; r++) {
+				double sum = 0.0;
+				for(int z=zone; z<zone+zones; z++)	sum += pmv[z][r];
+				rows.get(from+r)[floor[2]] = (zones>0) ? sum/zones : Double.NaN;
+			}
+			zone += zones;
+		}
+		zoneSamples.clear();
+	}
+
+	private int zonesOf(int[] floor)
+	{
+		return Math.min(columns.get(floor[0]).length, columns.get(floor[1]).length);
+	}
+
+	private int numberOfComfortZones()
+	{
+		int zones = 0;
+		for(int[] floor : COMFORT_FLOORS)	zones += zonesOf(floor);
+		return zones;
+	}
+}
@@ -0,0 +1,209 @@
+package jp.ohtayo.building.energyplus;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 実行中のEnergyPlusの出力から作った結果データの行を，タイムステップごとに購読者へ流すクラスです．<br>
+ * ControlEnergyPlus.setResultPublisherで登録すると，simulateは出力(eplusout.eso)を追いかけて読み，
+ * 読んだ行(列の並びはResultRowAggregatorの定義)をEnergyPlusの終了を待たずに購読者へ渡します．
+ * 全ての行を渡すとonComplete，打ち切った場合や正常終了しなかった場合はonErrorを呼びます．<br>
+ * 購読者とのやり取りはjava.util.concurrent.Flowと同じ形(request(n)で受け取る行数を要求し，要求を超える行は溜めておく)です．
+ * 行は行を読んだスレッド(simulateを呼んだスレッド)か，request(n)を呼んだスレッドで渡します．<br>
+ * 1回のシミュレーションに1つ使い，渡す行の配列は結果データと共有するので書き換えないでください．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class ResultRowPublisher {
+
+	/**
+	 * 購読者です．(java.util.concurrent.Flow.Subscriberと同じ形)
+	 */
+	public interface Subscriber {
+		/** 購読の開始時に呼ばれます．request(n)を呼ぶまで行は渡されません．*/
+		void onSubscribe(Subscription subscription);
+		/** 結果データの1行を受け取ります．*/
+		void onNext(double[] row);
+		/** 打ち切りやエラーで残りの行が来ないときに呼ばれます．*/
+		void onError(Throwable throwable);
+		/** 全ての行を渡し終えたときに呼ばれます．*/
+		void onComplete();
+	}
+
+	/**
+	 * 購読者ごとの購読です．(java.util.concurrent.Flow.Subscriptionと同じ形)
+	 */
+	public interface Subscription {
+		/** さらにn行を要求します．Long.MAX_VALUEなら制限しません．*/
+		void request(long n);
+		/** 購読をやめます．*/
+		void cancel();
+	}
+
+	/** 購読中の購読 */
+	private final List<RowSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	/** 全ての行を渡し終えたか */
+	private volatile boolean closed = false;
+	/** 打ち切りやエラーの理由(正常に終えたならnull) */
+	private volatile Throwable error = null;
+
+	/**
+	 * 購読者を登録します．登録より前に流した行は渡しません．
+	 * @param subscriber 購読者
+	 */
+	public void subscribe(Subscriber subscriber)
+	{
+		RowSubscription subscription = new RowSubscription(subscriber);
+		subscriptions.add(subscription);
+		subscriber.onSubscribe(subscription);
+		if( closed )	subscription.close(error);
+	}
+
+	/**
+	 * 購読中の購読者の数を返します．
+	 * @return 購読者の数
+	 */
+	public int getNumberOfSubscribers(){ return subscriptions.size(); }
+
+	public boolean isClosed(){ return closed; }
+
+	/**
+	 * 1行を全ての購読者に流します．
+	 * @param row 結果データの1行
+	 */
+	void submit(double[] row)
+	{
+		if( closed )	throw new IllegalStateException("publisher already closed.");
+		for(RowSubscription subscription : subscriptions)	subscription.offer(row);
+	}
+
+	/**
+	 * 全ての行を流し終えたとして，購読者にonCompleteを呼びます．
+	 */
+	void close()
+	{
+		closeExceptionally(null);
+	}
+
+	/**
+	 * 残りの行を流せないとして，購読者にonErrorを呼びます．
+	 * @param throwable 理由(nullならonComplete)
+	 */
+	void closeExceptionally(Throwable throwable)
+	{
+		if( closed )	return;
+		error = throwable;
+		closed = true;
+		for(RowSubscription subscription : subscriptions)	subscription.close(throwable);
+	}
+
+	/**
+	 * 購読者ごとに要求数と渡していない行を持つ購読です．<br>
+	 * 行を渡すのは同時に1つのスレッドだけで，onNextの中でrequestを呼ばれても入れ子にせず同じループで渡します．<br>
+	 */
+	private class RowSubscription implements Subscription {
+		private final Subscriber subscriber;
+		/** 渡していない行 */
+		private final ArrayDeque<double[]> buffer = new ArrayDeque<>();
+		/** 残りの要求数 */
+		private long demand = 0;
+		private volatile boolean cancelled = false;
+		/** 全ての行を受け取ったか */
+		private boolean done = false;
+		private Throwable reason = null;
+		/** onComplete/onErrorを呼んだか */
+		private boolean terminated = false;
+		/** 渡す処理の実行中の回数 */
+		private final AtomicInteger work = new AtomicInteger();
+
+		RowSubscription(Subscriber subscriber)
+		{
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n)
+		{
+			if( n <= 0 ) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("non-positive request: "+n));
+				return;
+			}
+			synchronized(this) {
+				demand = (Long.MAX_VALUE - demand < n) ? Long.MAX_VALUE : demand + n;
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel()
+		{
+			cancelled = true;
+			subscriptions.remove(this);
+			synchronized(this) {
+				buffer.clear();
+			}
+		}
+
+		void offer(double[] row)
+		{
+			if( cancelled )	return;
+			synchronized(this) {
+				buffer.add(row);
+			}
+			drain();
+		}
+
+		void close(Throwable throwable)
+		{
+			synchronized(this) {
+				done = true;
+				reason = throwable;
+			}
+			drain();
+		}
+
+		/**
+		 * 要求数の範囲で溜めている行を渡し，全て渡し終えていればonComplete/onErrorを呼びます．
+		 */
+		private void drain()
+		{
+			if( work.getAndIncrement() != 0 )	return;
+			int missed = 1;
+			do {
+				for(;;)
+				{
+					if( cancelled )	return;
+					double[] row;
+					synchronized(this) {
+						if( demand == 0 || buffer.isEmpty() )	break;
+						row = buffer.poll();
+						if( demand != Long.MAX_VALUE )	demand--;
+					}
+					try {
+						subscriber.onNext(row);
+					}catch(RuntimeException e){
+						cancel();
+						subscriber.onError(e);
+						return;
+					}
+				}
+				boolean finish;
+				Throwable finalReason;
+				synchronized(this) {
+					finish = done && !terminated && buffer.isEmpty();
+					if( finish )	terminated = true;
+					finalReason = reason;
+				}
+				if( finish ) {
+					subscriptions.remove(this);
+					if( finalReason == null )	subscriber.onComplete();
+					else	subscriber.onError(finalReason);
+				}
+				missed = work.addAndGet(-missed);
+			} while( missed != 0 );
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package jp.ohtayo.building.energyplus;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 連成シミュレーションの試験用にEnergyPlusの代わりをする簡易シミュレータです．<br>
+ * 作業フォルダのsocket.cfgを読んでCoSimulationSessionに接続し，ExternalInterfaceと同じ手順で値をやり取りします．<br>
+ * 各ゾーンの室温は外気温と設定温度に一次遅れで追従するものとして計算します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class StandInSimulator implements Runnable {
+
+	/** 作業フォルダ */
+	private final File workspace;
+	/** ゾーン数(出力値の数) */
+	private final int numberOfZones;
+	/** タイムステップ[s] */
+	private double timestep = 600.0;
+	/** シミュレーションするタイムステップ数 */
+	private int numberOfSteps = 144;
+	/** 外気との熱交換の時定数[s] */
+	private double envelopeTimeConstant = 5.0*3600.0;
+	/** 空調の追従の時定数[s] */
+	private double hvacTimeConstant = 1800.0;
+
+	/**
+	 * constructor.
+	 * @param workspace socket.cfgのある作業フォルダ
+	 * @param numberOfZones ゾーン数
+	 */
+	public StandInSimulator(File workspace, int numberOfZones)
+	{
+		this.workspace = workspace;
+		this.numberOfZones = numberOfZones;
+	}
+
+	/**
+	 * シミュレーション条件を設定します．
+	 * @param timestep タイムステップ[s]
+	 * @param numberOfSteps タイムステップ数
+	 */
+	public StandInSimulator setPeriod(double timestep, int numberOfSteps)
+	{
+		this.timestep = timestep;
+		this.numberOfSteps = numberOfSteps;
+		return this;
+	}
+
+	/**
+	 * 別スレッドでシミュレータを起動します．
+	 * @return 起動したスレッド
+	 */
+	public Thread startInBackground()
+	{
+		Thread thread = new Thread(this, "stand-in-simulator");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	@Override
+	public void run()
+	{
+		try {
+			simulate();
+		}catch(IOException | InterruptedException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * socket.cfgの接続先に接続してシミュレーションを実行します．
+	 */
+	public void simulate() throws IOException, InterruptedException
+	{
+		int port = readPort(new File(workspace, "socket.cfg"));
+		try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port))
+		{
+			socket.setTcpNoDelay(true);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+
+			double[] temperature = new double[numberOfZones];
+			for(int z=0; z<numberOfZones; z++)	temperature[z] = 26.0 + 0.5*z;
+
+			for(int step=0; step<=numberOfSteps; step++)
+			{
+				double time = step*timestep;
+				// 現在の室温を送り，設定温度を受け取る
+				writer.write(CoSimulationSession.formatMessage(CoSimulationSession.FLAG_NORMAL, time, temperature));
+				writer.flush();
+				String line = reader.readLine();
+				if( line == null )	return;
+				String[] field = line.trim().split("\\s+");
+				if( Integer.parseInt(field[1]) != CoSimulationSession.FLAG_NORMAL )	return;
+				double setpoint = Double.parseDouble(field[6]);
+
+				// 室温を1ステップ進める
+				double outdoor = outdoorTemperature(time);
+				for(int z=0; z<numberOfZones; z++) {
+					temperature[z] += timestep/envelopeTimeConstant * (outdoor - temperature[z])
+									+ Math.min(1.0, timestep/hvacTimeConstant) * (setpoint - temperature[z]);
+				}
+			}
+			writer.write(CoSimulationSession.formatMessage(CoSimulationSession.FLAG_END, numberOfSteps*timestep, new double[0]));
+			writer.flush();
+		}
+	}
+
+	/**
+	 * 外気温を日周期の正弦波で与えます．
+	 * @param time 0時からの経過秒数
+	 * @return 外気温[℃]
+	 */
+	private static double outdoorTemperature(double time)
+	{
+		return 28.0 + 4.0*Math.sin(2.0*Math.PI*(time/3600.0 - 9.0)/24.0);
+	}
+
+	/**
+	 * socket.cfgからポート番号を読み取ります．
+	 */
+	private static int readPort(File file) throws IOException, InterruptedException
+	{
+		// セッション側が書き出すまで待つ
+		for(int i=0; i<100 && !file.exists(); i++)	Thread.sleep(100);
+		String config = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+		Matcher matcher = Pattern.compile("port=\"(\\d+)\"").matcher(config);
+		if( !matcher.find() )	throw new IOException("port is not found in "+file);
+		return Integer.parseInt(matcher.group(1));
+	}
+
+	/**
+	 * コマンドラインから起動します．
+	 * @param args [0]: 作業フォルダ, [1]: ゾーン数, [2]: タイムステップ数
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		File workspace = new File(args.length>0 ? args[0] : ".");
+		int zones = args.length>1 ? Integer.parseInt(args[1]) : 1;
+		StandInSimulator simulator = new StandInSimulator(workspace, zones);
+		if( args.length>2 )	simulator.setPeriod(600.0, Integer.parseInt(args[2]));
+		simulator.simulate();
+	}
+}
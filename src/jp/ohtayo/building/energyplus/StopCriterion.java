@@ -0,0 +1,72 @@
+package jp.ohtayo.building.energyplus;
+
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * 実行中のEnergyPlusを打ち切る条件です．<br>
+ * ControlEnergyPlus.addStopCriterionで登録すると，実行中の出力(eplusout.eso)から作った途中までの結果データを定期的に渡されます．<br>
+ * trueを返すとEnergyPlusを終了し，途中までの結果データを打ち切りの印を付けて返します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public interface StopCriterion {
+
+	/**
+	 * 打ち切るかを判定します．
+	 * @param rows 途中までの結果データ(列の並びはResultRowAggregatorの定義)
+	 * @return 打ち切るならtrue
+	 */
+	boolean test(List<double[]> rows);
+
+	/**
+	 * 指定行の値の合計が上限を超えたら打ち切る条件を作ります．電力量などの累積値に使います．
+	 * @param column 結果データの列番号
+	 * @param rows 合計する行番号(nullなら全ての行)
+	 * @param limit 上限
+	 * @return 打ち切り条件
+	 */
+	static StopCriterion sumExceeds(int column, int[] rows, double limit)
+	{
+		return sumExceeds(new int[]{column}, rows, x -> x, limit);
+	}
+
+	/**
+	 * 指定行・指定列の値を換算した量の合計が上限を超えたら打ち切る条件を作ります．<br>
+	 * 例えばPMVの制約違反量(|PMV|を丸めた値の合計)は換算をx -> Math.round(Math.abs(x))とします．
+	 * @param columns 結果データの列番号
+	 * @param rows 合計する行番号(nullなら全ての行)
+	 * @param measure 値から合計する量への換算
+	 * @param limit 上限
+	 * @return 打ち切り条件
+	 */
+	static StopCriterion sumExceeds(int[] columns, int[] rows, DoubleUnaryOperator measure, double limit)
+	{
+		return data -> {
+			double sum = 0.0;
+			if( rows == null ) {
+				for(double[] row : data)
+					for(int c : columns)	sum += measure.applyAsDouble(row[c]);
+			}else {
+				for(int r : rows) {
+					if( r >= data.size() )	continue;
+					for(int c : columns)	sum += measure.applyAsDouble(data.get(r)[c]);
+				}
+			}
+			return sum > limit;
+		};
+	}
+
+	/**
+	 * 指定行の値の絶対値が幅を超えた回数が上限を超えたら打ち切る条件を作ります．PMVなどの範囲の逸脱に使います．
+	 * @param column 結果データの列番号
+	 * @param rows 数える行番号(nullなら全ての行)
+	 * @param band 幅(例：PMVなら0.5)
+	 * @param maxCount 許容する回数
+	 * @return 打ち切り条件
+	 */
+	static StopCriterion countOutOfBandExceeds(int column, int[] rows, double band, int maxCount)
+	{
+		return sumExceeds(new int[]{column}, rows, x -> (Math.abs(x) > band) ? 1.0 : 0.0, maxCount);
+	}
+}
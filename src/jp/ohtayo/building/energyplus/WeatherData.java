@@ -0,0 +1,123 @@
+package jp.ohtayo.building.energyplus;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * メモリ上に保持した気象データ(epwファイル)です．<br>
+ * 同じファイルは1度だけ読み込んで全スレッドで共有し，書き換えはWeatherOverlayの差分として与えます．<br>
+ * 差分を適用したepwは作業フォルダごとに書き出すので，元のファイルは書き換えません．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class WeatherData {
+
+	/** ヘッダの行数 */
+	public static final int HEADER_LINES = 8;
+	/** 列の定義 */
+	public static final int DRY_BULB_TEMPERATURE = 6;
+	public static final int DEW_POINT_TEMPERATURE = 7;
+	public static final int RELATIVE_HUMIDITY = 8;
+
+	/** 読込済みの気象データ(キーは絶対パス) */
+	private static final Map<Path, WeatherData> loaded = new ConcurrentHashMap<>();
+
+	/** 元のファイル */
+	private final Path file;
+	/** 各行(改行を除く)のバイト列 */
+	private final byte[][] lines;
+	/** 改行文字 */
+	private final byte[] newline;
+
+	private WeatherData(Path file) throws IOException
+	{
+		this.file = file;
+		byte[] bytes = Files.readAllBytes(file);
+		List<byte[]> text = new ArrayList<>(8800);
+		boolean crlf = false;
+		int start = 0;
+		for(int i=0; i<=bytes.length; i++)
+		{
+			if( i<bytes.length && bytes[i]!='\n' )	continue;
+			int end = i;
+			if( end>start && bytes[end-1]=='\r' ) {
+				end--;
+				crlf = true;
+			}
+			if( i<bytes.length || end>start )	text.add(Arrays.copyOfRange(bytes, start, end));
+			start = i+1;
+		}
+		this.lines = text.toArray(new byte[0][]);
+		this.newline = crlf ? new byte[]{'\r','\n'} : new byte[]{'\n'};
+	}
+
+	/**
+	 * 気象データを読み込みます．読込済みなら共有のデータを返します．
+	 * @param file epwファイル
+	 * @return 気象データ
+	 */
+	public static WeatherData load(Path file)
+	{
+		return loaded.computeIfAbsent(file.toAbsolutePath().normalize(), f -> {
+			try {
+				return new WeatherData(f);
+			}catch(IOException e){
+				throw new IllegalStateException("cannot read weather file: "+f, e);
+			}
+		});
+	}
+
+	public Path getFile(){ return file; }
+
+	/**
+	 * データ(ヘッダを除く)の行数を返します．
+	 * @return 行数
+	 */
+	public int numberOfRows(){ return lines.length - HEADER_LINES; }
+
+	/**
+	 * データの値を返します．
+	 * @param row データの行番号(1月1日1時が0)
+	 * @param field 列番号
+	 * @return 値の文字列
+	 */
+	public String get(int row, int field)
+	{
+		return new String(lines[HEADER_LINES+row], StandardCharsets.ISO_8859_1).split(",", -1)[field];
+	}
+
+	/**
+	 * 差分を適用した気象データを書き出します．差分の無い行は元のバイト列をそのまま書き出します．
+	 * @param overlay 差分(nullなら元のまま)
+	 * @param target 書き出すファイル
+	 * @throws IOException 書込エラー
+	 */
+	public void write(WeatherOverlay overlay, Path target) throws IOException
+	{
+		Map<Integer, Map<Integer, String>> changes = (overlay==null) ? null : overlay.resolve(this);
+		try(OutputStream output = new BufferedOutputStream(Files.newOutputStream(target), 1<<16))
+		{
+			for(int l=0; l<lines.length; l++)
+			{
+				Map<Integer, String> change = (changes==null || l<HEADER_LINES) ? null : changes.get(l-HEADER_LINES);
+				if( change == null ) {
+					output.write(lines[l]);
+				}else {
+					String[] field = new String(lines[l], StandardCharsets.ISO_8859_1).split(",", -1);
+					for(Map.Entry<Integer, String> c : change.entrySet())	field[c.getKey()] = c.getValue();
+					output.write(String.join(",", field).getBytes(StandardCharsets.ISO_8859_1));
+				}
+				output.write(newline);
+			}
+		}
+	}
+}
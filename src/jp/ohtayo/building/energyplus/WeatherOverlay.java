@@ -0,0 +1,206 @@
+package jp.ohtayo.building.energyplus;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 元の気象データに対する書き換えの差分です．<br>
+ * 値の置き換え，元の値への加算，別の時刻からの値の複写を記録するだけなので，気象シナリオを何千個作ってもファイルの複製は作りません．<br>
+ * ControlEnergyPlus.setWeatherOverlayで与えると，実行時に作業フォルダへ差分を適用したepwを書き出します．<br>
+ * 時刻はepwの1時間ごとの行で指定し，CalendarではMONTHの値をそのままIDFと同じ月として扱います．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class WeatherOverlay {
+
+	/** 差分の種類 */
+	private static final int SET = 0;
+	private static final int ADD = 1;
+	private static final int COPY = 2;
+
+	/** 差分の名前 */
+	private final String name;
+	/** 差分の並び {種類, 行, 列, 複写元の行} */
+	private final List<int[]> operations = new ArrayList<>();
+	/** 差分の値 */
+	private final List<Double> values = new ArrayList<>();
+
+	/**
+	 * constructor.
+	 * @param name 差分の名前(評価条件の区別に使う)
+	 */
+	public WeatherOverlay(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName(){ return name; }
+
+	/**
+	 * 時刻からepwのデータの行番号を求めます．1月1日1時(0時～1時のデータ)が0です．
+	 * @param time 時刻(MONTHの値をIDFと同じ月として扱う)
+	 * @return 行番号
+	 */
+	public static int row(Calendar time)
+	{
+		LocalDate date = ControlEnergyPlus.toIdfDate(time);
+		return (date.getDayOfYear()-1)*24 + time.get(Calendar.HOUR_OF_DAY) - 1;
+	}
+
+	/**
+	 * 値を置き換えます．
+	 * @param row データの行番号
+	 * @param field 列番号
+	 * @param value 値
+	 */
+	public synchronized WeatherOverlay set(int row, int field, double value)
+	{
+		operations.add(new int[]{SET, row, field, -1});
+		values.add(value);
+		return this;
+	}
+
+	/**
+	 * 元の値に加算します．予測誤差のシナリオなどに使います．
+	 * @param row データの行番号
+	 * @param field 列番号
+	 * @param delta 加算する値
+	 */
+	public synchronized WeatherOverlay add(int row, int field, double delta)
+	{
+		operations.add(new int[]{ADD, row, field, -1});
+		values.add(delta);
+		return this;
+	}
+
+	/**
+	 * 別の行の値を複写します．
+	 * @param sourceRow 複写元の行番号
+	 * @param row 複写先の行番号
+	 * @param field 列番号
+	 */
+	public synchronized WeatherOverlay copy(int sourceRow, int row, int field)
+	{
+		operations.add(new int[]{COPY, row, field, sourceRow});
+		values.add(0.0);
+		return this;
+	}
+
+	/**
+	 * 指定時刻から1時間ごとの外気温を置き換えます(rewriteEPWFileFromCsvに相当)．
+	 * @param start 最初の時刻
+	 * @param temperature 1時間ごとの外気温[℃]
+	 */
+	public WeatherOverlay setDryBulbTemperature(Calendar start, double[] temperature)
+	{
+		int first = row(start);
+		for(int h=0; h<temperature.length; h++)	set(first+h, WeatherData.DRY_BULB_TEMPERATURE, temperature[h]);
+		return this;
+	}
+
+	/**
+	 * 指定時刻から1時間ごとの外気温に誤差を加えます．
+	 * @param start 最初の時刻
+	 * @param error 1時間ごとの誤差[℃]
+	 */
+	public WeatherOverlay addDryBulbTemperature(Calendar start, double[] error)
+	{
+		int first = row(start);
+		for(int h=0; h<error.length; h++)	add(first+h, WeatherData.DRY_BULB_TEMPERATURE, error[h]);
+		return this;
+	}
+
+	/**
+	 * ある日の外気温を別の日に複写します(rewriteEPWFile(Calendar, Calendar)に相当)．
+	 * @param base 複写元の最初の時刻
+	 * @param target 複写先の最初の時刻
+	 * @param hours 複写する時間数
+	 */
+	public WeatherOverlay copyDryBulbTemperature(Calendar base, Calendar target, int hours)
+	{
+		int source = row(base);
+		int first = row(target);
+		for(int h=0; h<hours; h++)	copy(source+h, first+h, WeatherData.DRY_BULB_TEMPERATURE);
+		return this;
+	}
+
+	/**
+	 * 指定時刻の外気温と相対湿度を置き換えます(rewriteEPWFile(int, double, double)に相当)．
+	 * @param time 時刻
+	 * @param temperature 外気温[℃]
+	 * @param humidity 相対湿度[%]
+	 */
+	public WeatherOverlay setOutdoorCondition(Calendar time, double temperature, double humidity)
+	{
+		set(row(time), WeatherData.DRY_BULB_TEMPERATURE, temperature);
+		set(row(time), WeatherData.RELATIVE_HUMIDITY, (int)humidity);
+		return this;
+	}
+
+	/**
+	 * 元の気象データに差分を適用した値を求めます．差分は記録した順に適用します．
+	 * @param base 元の気象データ
+	 * @return 書き換える値 {行番号: {列番号: 値}}
+	 */
+	synchronized Map<Integer, Map<Integer, String>> resolve(WeatherData base)
+	{
+		Map<Integer, Map<Integer, String>> changes = new HashMap<>();
+		for(int i=0; i<operations.size(); i++)
+		{
+			int[] operation = operations.get(i);
+			int row = operation[1];
+			int field = operation[2];
+			String value;
+			switch(operation[0]) {
+				case ADD:
+					value = format(Double.parseDouble(current(changes, base, row, field)) + values.get(i));
+					break;
+				case COPY:
+					value = current(changes, base, operation[3], field);
+					break;
+				default:
+					value = format(values.get(i));
+			}
+			changes.computeIfAbsent(row, r -> new TreeMap<>()).put(field, value);
+		}
+		return changes;
+	}
+
+	/**
+	 * 適用途中の値を返します．
+	 */
+	private static String current(Map<Integer, Map<Integer, String>> changes, WeatherData base, int row, int field)
+	{
+		Map<Integer, String> change = changes.get(row);
+		if( change!=null && change.containsKey(field) )	return change.get(field);
+		return base.get(row, field);
+	}
+
+	private static String format(double value)
+	{
+		return (value == Math.rint(value) && Math.abs(value) < 1.0e9) ? String.valueOf((long)value) : String.valueOf(value);
+	}
+
+	/**
+	 * 差分の内容を表すハッシュ値を返します．評価結果の再利用で評価条件を区別するのに使います．
+	 * @return 名前と差分の内容のハッシュ値を表す文字列
+	 */
+	public synchronized String fingerprint()
+	{
+		long h = 0xcbf29ce484222325L;	// FNV-1a
+		for(int i=0; i<operations.size(); i++) {
+			for(int v : operations.get(i)) {
+				h ^= v;
+				h *= 0x100000001b3L;
+			}
+			h ^= Double.doubleToLongBits(values.get(i));
+			h *= 0x100000001b3L;
+		}
+		return name + ":" + Long.toHexString(h);
+	}
+}
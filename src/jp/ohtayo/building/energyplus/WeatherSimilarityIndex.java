@@ -0,0 +1,317 @@
+package jp.ohtayo.building.energyplus;
+
+import jp.ohtayo.building.optimization.ParetoRanking;
+import jp.ohtayo.building.optimization.Solution;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 過去に最適化した評価日を気象の類似度で検索する索引です．<br>
+ * 評価日ごとに外気温と相対湿度の日変化から特徴量を作り，その日に得られた解(設計変数と目的関数値)と組にして登録します．
+ * 新しい評価日の特徴量に近いk日をk-d木で探し，各日の非優越解をAsynchronousSteadyStateOptimizer.setInitialVariablesに渡す初期個体として返します．<br>
+ * 特徴量は3時間ごとの平均外気温[℃]と平均相対湿度[%]に重みをかけたもの(既定では4%を1℃相当)で，
+ * epwの値からも，当日の予報値からも作れます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class WeatherSimilarityIndex {
+
+	/** 特徴量の時間幅[時] */
+	private static final int HOURS_PER_FEATURE = 3;
+	private static final int HOURS_IN_ONE_DAY = 24;
+	public static final int NUMBER_OF_FEATURES = 2*HOURS_IN_ONE_DAY/HOURS_PER_FEATURE;
+
+	/** 保存ファイルの相対湿度の重みの行の見出し */
+	private static final String HUMIDITY_WEIGHT_HEADER = "#humidityWeight";
+
+	/** 相対湿度の重み(1%あたりの外気温[℃]相当) */
+	private double humidityWeight = 0.25;
+
+	/** 登録済みの評価日(登録順) */
+	private final List<Day> days = new ArrayList<>();
+	/** k-d木(登録後の最初の検索で作り直す) */
+	private Node root = null;
+	private List<Day> indexed = new ArrayList<>();
+
+	/**
+	 * 評価日ごとの特徴量と解です．
+	 */
+	private static class Day {
+		final int month;
+		final int day;
+		final double[] features;
+		final List<Solution> solutions = new ArrayList<>();
+
+		Day(int month, int day, double[] features)
+		{
+			this.month = month;
+			this.day = day;
+			this.features = features;
+		}
+	}
+
+	/**
+	 * k-d木のノードです．
+	 */
+	private static class Node {
+		final int index;
+		final int axis;
+		Node left, right;
+
+		Node(int index, int axis)
+		{
+			this.index = index;
+			this.axis = axis;
+		}
+	}
+
+	public WeatherSimilarityIndex setHumidityWeight(double humidityWeight)
+	{
+		this.humidityWeight = humidityWeight;
+		return this;
+	}
+
+	/**
+	 * epwの1日分の気象データから特徴量を作ります．
+	 * @param weather 気象データ
+	 * @param month 月(EnergyPlusObjectives.setEvaluationDateと同じくIDFの月)
+	 * @param day 日
+	 * @return 特徴量
+	 */
+	public double[] features(WeatherData weather, int month, int day)
+	{
+		int first = (LocalDate.of(2006, month, day).getDayOfYear()-1)*HOURS_IN_ONE_DAY;
+		double[] temperature = new double[HOURS_IN_ONE_DAY];
+		double[] humidity = new double[HOURS_IN_ONE_DAY];
+		for(int h=0; h<HOURS_IN_ONE_DAY; h++) {
+			temperature[h] = Double.parseDouble(weather.get(first+h, WeatherData.DRY_BULB_TEMPERATURE));
+			humidity[h] = Double.parseDouble(weather.get(first+h, WeatherData.RELATIVE_HUMIDITY));
+		}
+		return features(temperature, humidity);
+	}
+
+	/**
+	 * 1時間ごとの外気温と相対湿度(予報値など)から特徴量を作ります．
+	 * @param temperature 1時～24時の外気温[℃]
+	 * @param humidity 1時～24時の相対湿度[%]
+	 * @return 特徴量
+	 */
+	public double[] features(double[] temperature, double[] humidity)
+	{
+		if( temperature.length != HOURS_IN_ONE_DAY || humidity.length != HOURS_IN_ONE_DAY )	throw new IllegalArgumentException("illegal length of weather data.");
+		double[] features = new double[NUMBER_OF_FEATURES];
+		int half = NUMBER_OF_FEATURES/2;
+		for(int h=0; h<HOURS_IN_ONE_DAY; h++) {
+			features[h/HOURS_PER_FEATURE] += temperature[h]/HOURS_PER_FEATURE;
+			features[half + h/HOURS_PER_FEATURE] += humidityWeight*humidity[h]/HOURS_PER_FEATURE;
+		}
+		return features;
+	}
+
+	/**
+	 * 評価日の解を登録します．<br>
+	 * 特徴量は登録ごとに異なる(別の年の同じ日や予報値など)ので，同じ月日が登録済みでも別の評価日として登録します．<br>
+	 * @param month 月
+	 * @param day 日
+	 * @param features 特徴量
+	 * @param solutions その日に評価した解(EnergyPlusObjectivesの設計変数と目的関数値)
+	 */
+	public synchronized WeatherSimilarityIndex add(int month, int day, double[] features, List<Solution> solutions)
+	{
+		if( features.length != NUMBER_OF_FEATURES )	throw new IllegalArgumentException("illegal number of features.");
+		Day entry = new Day(month, day, features.clone());
+		for(Solution s : solutions)
+			entry.solutions.add(new Solution(s.getVariable().clone(), s.getObjectives().clone()));
+		days.add(entry);
+		root = null;
+		return this;
+	}
+
+	public synchronized int size(){ return days.size(); }
+
+	/**
+	 * 特徴量が近い順にk日を探します．
+	 * @param features 特徴量
+	 * @param k 日数
+	 * @return {月, 日}の配列(近い順)
+	 */
+	public synchronized List<int[]> nearestDays(double[] features, int k)
+	{
+		List<int[]> result = new ArrayList<>();
+		for(Day d : nearest(features, k))	result.add(new int[]{d.month, d.day});
+		return result;
+	}
+
+	/**
+	 * 特徴量が近いk日の非優越解を初期個体として返します．<br>
+	 * 各日の非優越解のうち混雑距離が大きい順(目的関数の端の解を優先)に最大perDay個ずつ，近い日から並べます．<br>
+	 * @param features 新しい評価日の特徴量
+	 * @param k 日数
+	 * @param perDay 1日あたりの最大の解の数
+	 * @return 設計変数のリスト
+	 */
+	public synchronized List<double[]> getInitialVariables(double[] features, int k, int perDay)
+	{
+		List<double[]> variables = new ArrayList<>();
+		for(Day d : nearest(features, k))
+		{
+			if( d.solutions.isEmpty() )	continue;
+			List<Solution> copies = new ArrayList<>();
+			for(Solution s : d.solutions)	copies.add(new Solution(s.getVariable(), s.getObjectives()));
+			List<Solution> front = ParetoRanking.sort(copies).get(0);
+			ParetoRanking.crowdingDistance(front);
+			front.sort(Comparator.comparingDouble(Solution::getCrowdingDistance).reversed());
+			for(int i=0; i<Math.min(perDay, front.size()); i++)	variables.add(front.get(i).getVariable().clone());
+		}
+		return variables;
+	}
+
+	/**
+	 * k-d木で特徴量が近いk日を探します．
+	 */
+	private List<Day> nearest(double[] features, int k)
+	{
+		if( root == null && !days.isEmpty() ) {
+			indexed = new ArrayList<>(days);
+			int[] order = new int[indexed.size()];
+			for(int i=0; i<order.length; i++)	order[i] = i;
+			root = build(order, 0, order.length);
+		}
+		// 距離が大きい順のk個の候補
+		PriorityQueue<double[]> best = new PriorityQueue<>((a, b) -> Double.compare(b[0], a[0]));
+		search(root, features, k, best);
+		List<Day> result = new ArrayList<>();
+		while( !best.isEmpty() )	result.add(0, indexed.get((int)best.poll()[1]));
+		return result;
+	}
+
+	/**
+	 * order[from]～order[to-1]の評価日からk-d木を作ります．分割軸は値の幅が最大の特徴量とし，中央値で分けます．
+	 */
+	private Node build(int[] order, int from, int to)
+	{
+		if( from >= to )	return null;
+		int axis = 0;
+		double widest = -1.0;
+		for(int f=0; f<NUMBER_OF_FEATURES; f++) {
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for(int i=from; i<to; i++) {
+				min = Math.min(min, indexed.get(order[i]).features[f]);
+				max = Math.max(max, indexed.get(order[i]).features[f]);
+			}
+			if( max-min > widest ) {
+				widest = max-min;
+				axis = f;
+			}
+		}
+		final int a = axis;
+		Integer[] sorted = new Integer[to-from];
+		for(int i=from; i<to; i++)	sorted[i-from] = order[i];
+		Arrays.sort(sorted, Comparator.comparingDouble(i -> indexed.get(i).features[a]));
+		for(int i=from; i<to; i++)	order[i] = sorted[i-from];
+
+		int median = (from+to)/2;
+		Node node = new Node(order[median], axis);
+		node.left = build(order, from, median);
+		node.right = build(order, median+1, to);
+		return node;
+	}
+
+	private void search(Node node, double[] features, int k, PriorityQueue<double[]> best)
+	{
+		if( node == null || k <= 0 )	return;
+		double[] point = indexed.get(node.index).features;
+		double distance = 0.0;
+		for(int f=0; f<NUMBER_OF_FEATURES; f++)	distance += (features[f]-point[f])*(features[f]-point[f]);
+		if( best.size() < k ) {
+			best.add(new double[]{distance, node.index});
+		}else if( distance < best.peek()[0] ) {
+			best.poll();
+			best.add(new double[]{distance, node.index});
+		}
+
+		double difference = features[node.axis] - point[node.axis];
+		Node near = (difference < 0) ? node.left : node.right;
+		Node far = (difference < 0) ? node.right : node.left;
+		search(near, features, k, best);
+		// 分割面までの距離が候補の最大距離より近ければ反対側も探す
+		if( best.size() < k || difference*difference < best.peek()[0] )	search(far, features, k, best);
+	}
+
+	/**
+	 * 索引をCSVに保存します．<br>
+	 * 1行目に「#humidityWeight,相対湿度の重み」を，以降は1行に1つの評価日を
+	 * 「月,日,特徴量の数,解の数,特徴量…」に続けて解ごとに「目的関数の数,設計変数の数,目的関数値…,設計変数…」で書き出します．
+	 * 解のない評価日も保存します．
+	 * @param file 保存するファイル
+	 * @throws IOException 書込エラー
+	 */
+	public synchronized void save(Path file) throws IOException
+	{
+		try(BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+		{
+			writer.write(HUMIDITY_WEIGHT_HEADER + "," + humidityWeight);
+			writer.write("\r\n");
+			for(Day d : days)
+			{
+				StringBuilder line = new StringBuilder();
+				line.append(d.month).append(',').append(d.day).append(',').append(d.features.length).append(',').append(d.solutions.size());
+				for(double v : d.features)	line.append(',').append(v);
+				for(Solution s : d.solutions)
+				{
+					line.append(',').append(s.getObjectives().length).append(',').append(s.getVariable().length);
+					for(double v : s.getObjectives())	line.append(',').append(v);
+					for(double v : s.getVariable())	line.append(',').append(v);
+				}
+				writer.write(line.toString());
+				writer.write("\r\n");
+			}
+		}
+	}
+
+	/**
+	 * CSVに保存した索引を読み込みます．
+	 * @param file save()で保存したファイル
+	 * @return 索引
+	 * @throws IOException 読込エラー
+	 */
+	public static WeatherSimilarityIndex load(Path file) throws IOException
+	{
+		WeatherSimilarityIndex index = new WeatherSimilarityIndex();
+		for(String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+		{
+			if( line.trim().isEmpty() )	continue;
+			String[] field = line.split(",");
+			if( field[0].trim().equals(HUMIDITY_WEIGHT_HEADER) ) {
+				index.setHumidityWeight(Double.parseDouble(field[1].trim()));
+				continue;
+			}
+			int month = Integer.parseInt(field[0].trim());
+			int day = Integer.parseInt(field[1].trim());
+			double[] features = new double[Integer.parseInt(field[2].trim())];
+			int numberOfSolutions = Integer.parseInt(field[3].trim());
+			int position = 4;
+			for(int f=0; f<features.length; f++)	features[f] = Double.parseDouble(field[position++].trim());
+			List<Solution> solutions = new ArrayList<>();
+			for(int s=0; s<numberOfSolutions; s++) {
+				double[] objectives = new double[Integer.parseInt(field[position++].trim())];
+				double[] variable = new double[Integer.parseInt(field[position++].trim())];
+				for(int o=0; o<objectives.length; o++)	objectives[o] = Double.parseDouble(field[position++].trim());
+				for(int v=0; v<variable.length; v++)	variable[v] = Double.parseDouble(field[position++].trim());
+				solutions.add(new Solution(variable, objectives));
+			}
+			index.add(month, day, features, solutions);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,351 @@
+package jp.ohtayo.building.environment;
+
+import java.util.stream.IntStream;
+
+/**
+ * 在室者の条件(風速・着衣量・代謝量)を固定して，温湿度の時系列からPMV・PPD・SET*をまとめて計算するクラスです。<br>
+ * 計算式はPMVクラス・SETクラスと同じですが，在室者の条件だけで決まる項と入力チェックはコンストラクタで1度だけ計算します。
+ * サンプルごとのPMVとSET*の計算は独立しており，PPDはそのサンプルのPMVから求めます。<br>
+ * 結果は呼び出し側が用意したdouble配列に書き込むので，サンプルごとのオブジェクトは作りません。<br>
+ * 複数ゾーンの時系列はゾーンごとに並列に計算できます。<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class ComfortKernel {
+
+	/** 被覆表面温度の収束精度*/
+	private static final double EPS = 0.00001;
+	/** 被覆表面温度繰り返し計算の最大繰り返し回数*/
+	private static final int MAX_ITERATE = 1000;
+	/** 外部仕事のデフォルト値[W/m^2] */
+	private static final double DEFAULT_EXTERNAL_WORK = 0.0;
+	/** 大気圧のデフォルト値[kPa] */
+	private static final double DEFAULT_ATMOSPHERIC_PRESSURE = 101.325;
+	private static final double METFACTOR = 58.2;	//W/m^2
+	private static final double SBC = 0.000000056697;	//Stefan-Boltzmann constant (W/m^2K4)
+	private static final double BODYWEIGHT = 69.9;	//kg
+	private static final double BODYSURFACEAREA = 1.8258;	//m^2
+
+	/** 在室者の条件 */
+	private final double MET, CLO, WME;
+	/** 放射温度を与えない場合の室温との差[℃] */
+	private double radiantOffset = 1.0;
+
+	// PMVの在室者の条件だけで決まる項
+	private final double pmvM, pmvMW, Fcl, Hc2, tclBase, tclFactor, radiationFactor, sweatLoss, pmvFactor;
+	// SET*の在室者の条件だけで決まる項
+	private final double AirVelocity, WCRIT, ICL, CHC, RCL, FACL, LR, RM, CHCS, RCLS, FACLS, RCLOS;
+
+	/**
+	 * constructor.
+	 * 外部仕事・大気圧はデフォルト値とします。
+	 * @param Va 風速[m/s]
+	 * @param Icl 着衣量[clo]
+	 * @param M 代謝量[met]
+	 */
+	public ComfortKernel(double Va, double Icl, double M)
+	{
+		this(Va, Icl, M, DEFAULT_EXTERNAL_WORK, DEFAULT_ATMOSPHERIC_PRESSURE);
+	}
+
+	/**
+	 * constructor.
+	 * @param Va 風速[m/s]
+	 * @param Icl 着衣量[clo]
+	 * @param M 代謝量[met]
+	 * @param W 外部仕事[W/m^2]
+	 * @param PATM 大気圧[kPa]
+	 */
+	public ComfortKernel(double Va, double Icl, double M, double W, double PATM)
+	{
+		if( Va < 0.0 || Icl < 0.0 || M < 0.0 )	throw new IllegalArgumentException("air velocity, clothing and metabolic rate must not be negative.");
+		this.MET = M;
+		this.CLO = Icl;
+		this.WME = W;
+
+		// PMV
+		pmvM = M * METFACTOR;
+		pmvMW = pmvM - W;
+		Fcl = (Icl > 0.5) ? 1.05 + 0.1*Icl : 1 + 0.2*Icl;
+		Hc2 = 12.1 * Math.sqrt(Va);
+		tclBase = 35.7 - 0.028*pmvMW;
+		tclFactor = 0.155*Icl;
+		radiationFactor = 3.96 * 0.00000001 * Fcl;
+		sweatLoss = 0.42 * (pmvMW - 58.15);
+		pmvFactor = 0.303*Math.exp(-0.036*pmvM) + 0.028;
+
+		// SET*
+		AirVelocity = Math.max(Va, 0.1);
+		double PressureInAtmospheres = PATM * 0.009869;
+		RCL = 0.155 * CLO;
+		FACL = 1.0 + 0.15 * CLO;
+		LR = 2.2/PressureInAtmospheres;
+		RM = MET * METFACTOR;
+		if (CLO <= 0) {
+			WCRIT = 0.38 * Math.pow(AirVelocity, -0.29);
+			ICL = 1.0;
+		} else {
+			WCRIT = 0.59 * Math.pow(AirVelocity, -0.08);
+			ICL = 0.45;
+		}
+		CHC = Math.max(3.0 * Math.pow(PressureInAtmospheres, 0.53), 8.600001 * Math.pow((AirVelocity * PressureInAtmospheres), 0.53));
+		CHCS = (MET < 0.85) ? 3.0 : Math.max(5.66 * Math.pow(((MET - 0.85)), 0.39), 3.0);
+		RCLOS = 1.52/((MET - WME/METFACTOR) + 0.6944) - 0.1835;
+		RCLS = 0.155 * RCLOS;
+		FACLS = 1.0 + 0.25 * RCLOS;
+	}
+
+	/**
+	 * 放射温度を与えない場合に室温に加える差を設定します。既定値はPMVの算出(BuildingUtils.calculatePMV等)と同じ1℃です。
+	 * @param radiantOffset 平均放射温度と室温の差[℃]
+	 */
+	public ComfortKernel setRadiantOffset(double radiantOffset)
+	{
+		this.radiantOffset = radiantOffset;
+		return this;
+	}
+
+	/**
+	 * 1つのゾーンの時系列のPMV・PPD・SET*を計算します。<br>
+	 * 出力配列がnullの指標は計算しません(SET*は時間がかかるので不要ならnullにしてください)。<br>
+	 * @param Ta 温度[℃]
+	 * @param Rh 相対湿度[%]
+	 * @param Tr 平均放射温度[℃](nullなら温度+radiantOffset)
+	 * @param from 計算する最初の位置
+	 * @param to 計算する最後の位置+1
+	 * @param pmv PMVの出力先(null可)
+	 * @param ppd PPD[%]の出力先(null可)
+	 * @param set SET*[℃]の出力先(null可)
+	 */
+	public void calculate(double[] Ta, double[] Rh, double[] Tr, int from, int to, double[] pmv, double[] ppd, double[] set)
+	{
+		for(int i=from; i<to; i++)
+		{
+			double ta = Ta[i];
+			double rh = Rh[i];
+			double tr = (Tr==null) ? ta + radiantOffset : Tr[i];
+			if( rh < 0.0 ) {
+				if( pmv != null )	pmv[i] = Double.NaN;
+				if( ppd != null )	ppd[i] = Double.NaN;
+				if( set != null )	set[i] = Double.NaN;
+				continue;
+			}
+			if( pmv != null || ppd != null ) {
+				double value = pmv(ta, rh, tr);
+				if( pmv != null )	pmv[i] = value;
+				if( ppd != null )	ppd[i] = ppd(value);
+			}
+			if( set != null )	set[i] = set(ta, rh, tr);
+		}
+	}
+
+	/**
+	 * 複数ゾーンの時系列のPMV・PPD・SET*をゾーンごとに並列に計算します。
+	 * @param Ta 温度[℃]([ゾーン][時刻])
+	 * @param Rh 相対湿度[%]([ゾーン][時刻])
+	 * @param Tr 平均放射温度[℃]([ゾーン][時刻]．nullなら温度+radiantOffset)
+	 * @param pmv PMVの出力先([ゾーン][時刻]．null可)
+	 * @param ppd PPD[%]の出力先([ゾーン][時刻]．null可)
+	 * @param set SET*[℃]の出力先([ゾーン][時刻]．null可)
+	 */
+	public void calculate(double[][] Ta, double[][] Rh, double[][] Tr, double[][] pmv, double[][] ppd, double[][] set)
+	{
+		IntStream.range(0, Ta.length).parallel().forEach(z ->
+			calculate(Ta[z], Rh[z], (Tr==null) ? null : Tr[z], 0, Ta[z].length,
+					(pmv==null) ? null : pmv[z], (ppd==null) ? null : ppd[z], (set==null) ? null : set[z]));
+	}
+
+	/**
+	 * PMV値を計算します。(PMV.calculateと同じ計算式)
+	 * @param Ta 温度[℃]
+	 * @param Rh 相対湿度[%]
+	 * @param Tr 平均放射温度[℃]
+	 * @return PMV値(被覆表面温度が収束しなければNaN)
+	 */
+	public double pmv(double Ta, double Rh, double Tr)
+	{
+		//①水蒸気分圧Paを計算する
+		double Pk = (673.4 -(1.8 *Ta));
+		double Pc = 3.2437814 + 0.00326014 * Pk  + 2.00658 *0.000000001 *Pk *Pk *Pk;
+		double Pb = (1165.09 - Pk) * (1 + 0.00121547 *Pk);
+		double Pa = (Rh /100 *22105.8416) / Math.exp(2.302585 *Pk *Pc /Pb) *1000.0;
+		double Tr4 = fourth(Tr + 273.15);
+
+		//③衣服表面温度を計算(収束するまでループ)
+		double Tcl = Ta;
+		double Tcl_ = Tcl;
+		double Hc;
+		int count = 0;
+		for(;;)
+		{
+			Tcl_ = Tcl_ *0.8 + Tcl *0.2;
+			double Hc1 = 2.38 *Math.sqrt( Math.sqrt(Math.abs(Tcl - Ta)) );
+			Hc = (Hc1 > Hc2) ? Hc1 : Hc2;
+			Tcl = tclBase - tclFactor *( radiationFactor *(fourth(Tcl_ + 273.15) - Tr4) + Fcl *Hc *(Tcl_ - Ta) );
+			if ( Math.abs(Tcl - Tcl_) < EPS )	break;
+			if ( Double.isNaN(Tcl) || count++ > MAX_ITERATE )	return Double.NaN;
+		}
+
+		//④人体熱負荷を求める
+		double Ed = 3.05 *0.001 *(5733.0 - 6.99 *pmvMW - Pa);
+		double Ere = 1.73 *0.00001 *pmvM *(5867.0 - Pa);
+		double Cre = 0.0014 *pmvM *(34.0 - Ta);
+		double C = Fcl *Hc *(Tcl - Ta);
+		double R = radiationFactor *(fourth(Tcl + 273.15) - Tr4);
+		double L = pmvMW - Ed - sweatLoss - Ere - Cre - R - C;
+
+		//⑤PMV値
+		return L *pmvFactor;
+	}
+
+	/**
+	 * 予測不満足者率PPDを計算します。(PMV.getPPDと同じ計算式)
+	 * @param pmv PMV値
+	 * @return PPD[%]
+	 */
+	public static double ppd(double pmv)
+	{
+		double pmv2 = pmv*pmv;
+		return 100 - 95 * Math.exp( -1*(0.03353*pmv2*pmv2 + 0.2179*pmv2) );
+	}
+
+	/**
+	 * SET*を計算します。(SET.calculateと同じ計算式)
+	 * @param TA 温度[℃]
+	 * @param RH 相対湿度[%]
+	 * @param TR 平均放射温度[℃]
+	 * @return SET*[℃]
+	 */
+	public double set(double TA, double RH, double TR)
+	{
+		double CSW = 170.0;
+		double CDIL = 120.0;
+		double CSTR = 0.5;
+		double LTIME = 60.0;
+		double VaporPressure = RH * saturatedVaporPressureTorr(TA)/100.0;
+		double TempSkinNeutral = 33.7;
+		double TempCoreNeutral = 36.49;
+		double TempBodyNeutral = 36.49;
+		double SkinBloodFlowNeutral = 6.3;
+		double TempSkin = TempSkinNeutral;
+		double TempCore = TempCoreNeutral;
+		double SkinBloodFlow = SkinBloodFlowNeutral;
+		double MSHIV;
+		double ALFA = 0.1;
+		double ESK = 0.1 * MET;
+		double M = RM;
+
+		double CHR = 4.7;
+		double CTC = CHR + CHC;
+		double RA = 1.0/(FACL * CTC);
+		double TOP = (CHR * TR + CHC * TA)/CTC;
+		double TCL = TOP + (TempSkin - TOP)/(CTC * (RA + RCL));
+		double TCL_OLD = TCL;
+		boolean flag = true;
+		double DRY = 0.0, EMAX = 0.0, PWET = 0.0;
+		double REA = 1.0/(LR * FACL * CHC);
+		double RECL = RCL/(LR * ICL);
+		for (double TIM = 1; TIM <= LTIME; TIM++) {
+			do {
+				if (flag) {
+					TCL_OLD = TCL;
+					CHR = 4.0 * SBC * cube((TCL + TR)/2.0 + 273.15) * 0.72;
+					CTC = CHR + CHC;
+					RA = 1.0/(FACL * CTC);
+					TOP = (CHR * TR + CHC * TA)/CTC;
+				}
+				TCL = (RA * TempSkin + RCL * TOP)/(RA + RCL);
+				flag = true;
+			} while (Math.abs(TCL - TCL_OLD) > 0.01);
+			flag = false;
+
+			DRY = (TempSkin - TOP)/(RA + RCL);
+			double HFCS = (TempCore - TempSkin) * (5.28 + 1.163 * SkinBloodFlow);
+			double ERES = 0.0023 * M * (44.0 - VaporPressure);
+			double CRES = 0.0014 * M * (34.0 - TA);
+			double SCR = M - HFCS - ERES - CRES - WME;
+			double SSK = HFCS - DRY - ESK;
+			double TCSK = 0.97 * ALFA * BODYWEIGHT;
+			double TCCR = 0.97 * (1 - ALFA) * BODYWEIGHT;
+			TempSkin = TempSkin + (SSK * BODYSURFACEAREA)/(TCSK * 60.0);
+			TempCore = TempCore + SCR * BODYSURFACEAREA/(TCCR * 60.0);
+			double TB = ALFA * TempSkin + (1 - ALFA) * TempCore;
+			double SKSIG = TempSkin - TempSkinNeutral;
+			double WARMS = (SKSIG > 0) ? SKSIG : 0.0;
+			double COLDS = (-SKSIG > 0) ? -SKSIG : 0.0;
+			double CRSIG = (TempCore - TempCoreNeutral);
+			double WARMC = (CRSIG > 0) ? CRSIG : 0.0;
+			double COLDC = (-CRSIG > 0) ? -CRSIG : 0.0;
+			double BDSIG = TB - TempBodyNeutral;
+			double WARMB = (BDSIG > 0) ? BDSIG : 0.0;
+			SkinBloodFlow = (SkinBloodFlowNeutral + CDIL * WARMC)/(1 + CSTR * COLDS);
+			SkinBloodFlow = Math.max(0.5, Math.min(90.0, SkinBloodFlow));
+			double REGSW = Math.min(CSW * WARMB * Math.exp(WARMS/10.7), 500.0);
+
+			double ERSW = 0.68 * REGSW;
+			EMAX = (saturatedVaporPressureTorr(TempSkin) - VaporPressure)/(REA + RECL);
+			double PRSW = ERSW/EMAX;
+			PWET = 0.06 + 0.94 * PRSW;
+			double EDIF = PWET * EMAX - ERSW;
+			if (PWET > WCRIT) {
+				PWET = WCRIT;
+				PRSW = WCRIT/0.94;
+				ERSW = PRSW * EMAX;
+				EDIF = 0.06 * (1.0 - PRSW) * EMAX;
+			}
+			if (EMAX < 0) {
+				EDIF = 0;
+				ERSW = 0;
+				PWET = WCRIT;
+			}
+			ESK = ERSW + EDIF;
+			MSHIV = 19.4 * COLDS * COLDC;
+			M = RM + MSHIV;
+			ALFA = 0.0417737 + 0.7451833/(SkinBloodFlow + 0.585417);
+		}
+
+		double HSK = DRY + ESK;
+		double W = PWET;
+		double PSSK = saturatedVaporPressureTorr(TempSkin);
+		// ASHRAEの標準環境
+		double CTCS = CHCS + CHR;
+		double FCLS = 1.0/(1.0 + 0.155 * FACLS * CTCS * RCLOS);
+		double IMS = 0.45;
+		double ICLS = IMS * CHCS/CTCS * (1 - FCLS)/(CHCS/CTCS - FCLS * IMS);
+		double RAS = 1.0/(FACLS * CTCS);
+		double REAS = 1.0/(LR * FACLS * CHCS);
+		double RECLS = RCLS/(LR * ICLS);
+		double HD_S = 1.0/(RAS + RCLS);
+		double HE_S = 1.0/(REAS + RECLS);
+
+		// ニュートン法でSET*を求める
+		double DELTA = 0.0001;
+		double dx = 100.0;
+		double SET = 0.0;
+		double SET_OLD = TempSkin - HSK/HD_S;
+		while (Math.abs(dx) > .01) {
+			double ERR1 = (HSK - HD_S * (TempSkin - SET_OLD) - W * HE_S * (PSSK - 0.5 * saturatedVaporPressureTorr(SET_OLD)));
+			double ERR2 = (HSK - HD_S * (TempSkin - (SET_OLD + DELTA)) - W * HE_S * (PSSK - 0.5 * saturatedVaporPressureTorr((SET_OLD + DELTA))));
+			SET = SET_OLD - DELTA * ERR1/(ERR2 - ERR1);
+			dx = SET - SET_OLD;
+			SET_OLD = SET;
+		}
+		return SET;
+	}
+
+	/**
+	 * 温度T[℃]の飽和水蒸気圧[Torr]を計算します。
+	 */
+	private static double saturatedVaporPressureTorr(double T)
+	{
+		return Math.exp(18.6686 - 4030.183/(T + 235.0));
+	}
+
+	private static double fourth(double x)
+	{
+		double x2 = x*x;
+		return x2*x2;
+	}
+
+	private static double cube(double x){ return x*x*x; }
+}
@@ -0,0 +1,221 @@
+package jp.ohtayo.building.environment;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * 在室者の条件(風速・着衣量・代謝量)の不確かさが快適性の指標に与える影響をモンテカルロ法で求めるクラスです．<br>
+ * 1回のシミュレーションで得た各ゾーンの温湿度の時系列に対して，条件を正規分布から多数抽出し，
+ * 抽出ごとにComfortKernelでPMV・PPDを計算して快適性の指標の分布を求めます．EnergyPlusを再実行する必要はありません．<br>
+ * 指標はEnergyPlusObjectivesと同じ定義で，{平均PMVの0からの乖離, PMVの制約違反量(|PMV|を丸めた値の合計), 平均PPD[%]}です．<br>
+ * 抽出は乱数の種で決まり，抽出ごとに並列に計算します．平均放射温度は室温+1℃とします．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class ComfortUncertainty {
+
+	/** 指標の数 */
+	public static final int NUMBER_OF_INDICES = 3;
+	/** 指標の番号 */
+	public static final int AVERAGE_PMV_DEVIATION = 0;
+	public static final int PMV_VIOLATION = 1;
+	public static final int AVERAGE_PPD = 2;
+
+	/** 条件の番号 */
+	public static final int AIR_VELOCITY = 0;
+	public static final int CLOTHING = 1;
+	public static final int METABOLIC_RATE = 2;
+
+	/** 条件ごとの{平均, 標準偏差, 最小値}(既定値は夏季の事務所) */
+	private final double[][] distribution = {
+			{0.1, 0.05, 0.0},	// 風速[m/s]
+			{0.5, 0.15, 0.0},	// 着衣量[clo]
+			{1.1, 0.15, 0.7} };	// 代謝量[met]
+	/** 抽出数 */
+	private int numberOfSamples = 1000;
+	/** 乱数の種 */
+	private long seed = 1;
+
+	public ComfortUncertainty setNumberOfSamples(int numberOfSamples)
+	{
+		this.numberOfSamples = numberOfSamples;
+		return this;
+	}
+
+	public ComfortUncertainty setSeed(long seed)
+	{
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * 風速の分布を設定します．
+	 * @param mean 平均[m/s]
+	 * @param standardDeviation 標準偏差[m/s]
+	 */
+	public ComfortUncertainty setAirVelocity(double mean, double standardDeviation)
+	{
+		return setDistribution(AIR_VELOCITY, mean, standardDeviation, 0.0);
+	}
+
+	/**
+	 * 着衣量の分布を設定します．
+	 * @param mean 平均[clo]
+	 * @param standardDeviation 標準偏差[clo]
+	 */
+	public ComfortUncertainty setClothing(double mean, double standardDeviation)
+	{
+		return setDistribution(CLOTHING, mean, standardDeviation, 0.0);
+	}
+
+	/**
+	 * 代謝量の分布を設定します．
+	 * @param mean 平均[met]
+	 * @param standardDeviation 標準偏差[met]
+	 * @param minimum 最小値[met](これより小さい値は最小値とする)
+	 */
+	public ComfortUncertainty setMetabolicRate(double mean, double standardDeviation, double minimum)
+	{
+		return setDistribution(METABOLIC_RATE, mean, standardDeviation, minimum);
+	}
+
+	private ComfortUncertainty setDistribution(int condition, double mean, double standardDeviation, double minimum)
+	{
+		if( standardDeviation < 0.0 )	throw new IllegalArgumentException("standard deviation must not be negative.");
+		distribution[condition] = new double[]{mean, standardDeviation, minimum};
+		return this;
+	}
+
+	/**
+	 * 条件を抽出します．
+	 * @return 抽出した条件([抽出][{風速, 着衣量, 代謝量}])
+	 */
+	public double[][] sampleConditions()
+	{
+		Random random = new Random(seed);
+		double[][] conditions = new double[numberOfSamples][distribution.length];
+		for(double[] condition : conditions)
+			for(int c=0; c<distribution.length; c++)
+				condition[c] = Math.max(distribution[c][2], distribution[c][0] + distribution[c][1]*random.nextGaussian());
+		return conditions;
+	}
+
+	/**
+	 * 各ゾーンの温湿度の時系列から快適性の指標の分布を求めます．
+	 * @param temperature 温度[℃]([ゾーン][時刻])
+	 * @param humidity 相対湿度[%]([ゾーン][時刻])
+	 * @param rows 評価する時刻の番号(nullなら全ての時刻)
+	 * @return 抽出ごとの条件と指標
+	 */
+	public Result evaluate(double[][] temperature, double[][] humidity, int[] rows)
+	{
+		int zones = temperature.length;
+		// 評価する時刻だけを詰めた系列を作る
+		double[][] t = new double[zones][];
+		double[][] h = new double[zones][];
+		for(int z=0; z<zones; z++) {
+			if( temperature[z].length != humidity[z].length )	throw new IllegalArgumentException("temperature and humidity lengths differ.");
+			t[z] = (rows == null) ? temperature[z] : select(temperature[z], rows);
+			h[z] = (rows == null) ? humidity[z] : select(humidity[z], rows);
+		}
+		int length = (zones == 0) ? 0 : t[0].length;
+		long count = (long)zones*length;
+
+		double[][] conditions = sampleConditions();
+		double[][] indices = new double[conditions.length][NUMBER_OF_INDICES];
+		IntStream.range(0, conditions.length).parallel().forEach(s -> {
+			ComfortKernel kernel = new ComfortKernel(conditions[s][AIR_VELOCITY], conditions[s][CLOTHING], conditions[s][METABOLIC_RATE]);
+			double[] pmv = new double[length];
+			double[] ppd = new double[length];
+			double pmvSum = 0.0, violation = 0.0, ppdSum = 0.0;
+			for(int z=0; z<zones; z++) {
+				kernel.calculate(t[z], h[z], null, 0, length, pmv, ppd, null);
+				for(int i=0; i<length; i++) {
+					pmvSum += pmv[i];
+					violation += Math.round(Math.abs(pmv[i]));
+					ppdSum += ppd[i];
+				}
+			}
+			indices[s][AVERAGE_PMV_DEVIATION] = Math.abs(pmvSum/count);
+			indices[s][PMV_VIOLATION] = violation;
+			indices[s][AVERAGE_PPD] = ppdSum/count;
+		});
+		return new Result(conditions, indices);
+	}
+
+	private static double[] select(double[] series, int[] rows)
+	{
+		double[] selected = new double[rows.length];
+		for(int i=0; i<rows.length; i++)	selected[i] = series[rows[i]];
+		return selected;
+	}
+
+	/**
+	 * 抽出ごとの条件と快適性の指標です．
+	 */
+	public static class Result {
+		private final double[][] conditions;
+		private final double[][] indices;
+
+		Result(double[][] conditions, double[][] indices)
+		{
+			this.conditions = conditions;
+			this.indices = indices;
+		}
+
+		/**
+		 * 抽出した条件を返します．
+		 * @return [抽出][{風速, 着衣量, 代謝量}]
+		 */
+		public double[][] getConditions(){ return conditions; }
+
+		/**
+		 * 抽出ごとの指標を返します．
+		 * @return [抽出][{平均PMVの0からの乖離, PMVの制約違反量, 平均PPD}]
+		 */
+		public double[][] getIndices(){ return indices; }
+
+		/**
+		 * 指標の平均を返します．
+		 * @param index 指標の番号
+		 * @return 平均
+		 */
+		public double getMean(int index)
+		{
+			double sum = 0.0;
+			for(double[] sample : indices)	sum += sample[index];
+			return sum/indices.length;
+		}
+
+		/**
+		 * 指標の標準偏差を返します．
+		 * @param index 指標の番号
+		 * @return 標準偏差
+		 */
+		public double getStandardDeviation(int index)
+		{
+			double mean = getMean(index);
+			double sum = 0.0;
+			for(double[] sample : indices)	sum += (sample[index]-mean)*(sample[index]-mean);
+			return Math.sqrt(sum/Math.max(1, indices.length-1));
+		}
+
+		/**
+		 * 指標のパーセンタイル値を返します(線形補間)．
+		 * @param index 指標の番号
+		 * @param percentile パーセンタイル(0～100)
+		 * @return パーセンタイル値
+		 */
+		public double getPercentile(int index, double percentile)
+		{
+			double[] sorted = new double[indices.length];
+			for(int s=0; s<sorted.length; s++)	sorted[s] = indices[s][index];
+			Arrays.sort(sorted);
+			double position = percentile/100.0*(sorted.length-1);
+			int lower = (int)Math.floor(position);
+			int upper = Math.min(lower+1, sorted.length-1);
+			return sorted[lower] + (position-lower)*(sorted[upper]-sorted[lower]);
+		}
+	}
+}
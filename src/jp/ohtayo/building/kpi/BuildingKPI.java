@@ -0,0 +1,148 @@
+package jp.ohtayo.building.kpi;
+
+import jp.ohtayo.building.BuildingUtils;
+import jp.ohtayo.building.environment.ComfortKernel;
+
+/**
+ * 1ビル分の計測データからCOP・消費電力量・ピーク電力・快適性の指標を逐次計算するクラスです．<br>
+ * データを1行ずつ受け取り，系列を保持せずに集計します．<br>
+ * 計算結果はBuildingUtilsの各関数(calculateAverageCOP, calculatePeakPower, calculateZonePMV)と同じ定義です．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class BuildingKPI implements MappedCsvReader.RowHandler {
+
+	/** 列の定義 */
+	private final KPIColumns columns;
+
+	/** データ数 */
+	private long count = 0;
+	/** 各時刻のCOPの合計 */
+	private double copSum = 0.0;
+	/** COPを計算できたデータ数 */
+	private long copCount = 0;
+	/** 消費電力量の合計[J] */
+	private double electricEnergySum = 0.0;
+	/** 冷房能力の合計[J] */
+	private double coolingEnergySum = 0.0;
+	/** 消費電力量の最大値[J] */
+	private double electricEnergyMax = Double.NEGATIVE_INFINITY;
+	/** ゾーンごとのPMVの合計 */
+	private double[] pmvSum;
+	/** ゾーンごとのPMVを計算できた(温湿度が欠測でない)データ数 */
+	private long[] pmvCount;
+	/** ゾーンごとのPMVが±0.5を超過した回数 */
+	private long[] pmvExceeded;
+	/** PMVの計算 */
+	private final ComfortKernel comfort;
+
+	/**
+	 * constructor.
+	 * @param columns 列の定義
+	 */
+	public BuildingKPI(KPIColumns columns)
+	{
+		this.columns = columns;
+		pmvSum = new double[columns.numberOfZones()];
+		pmvCount = new long[columns.numberOfZones()];
+		pmvExceeded = new long[columns.numberOfZones()];
+		comfort = new ComfortKernel(columns.getVa(), columns.getIcl(), columns.getM());
+	}
+
+	/**
+	 * 1行分のデータを集計します．値はKPIColumns.getColumns()の順に並んでいるものとします．
+	 * @param values 1行分のデータ
+	 */
+	@Override
+	public void row(double[] values)
+	{
+		count++;
+		double electric = values[KPIColumns.SLOT_ELECTRIC];
+		double cooling = values[KPIColumns.SLOT_COOLING];
+		if( !Double.isNaN(electric) ) {
+			electricEnergySum += electric;
+			if( electric > electricEnergyMax )	electricEnergyMax = electric;
+		}
+		if( !Double.isNaN(cooling) ) {
+			coolingEnergySum += cooling;
+			if( !Double.isNaN(electric) ) {
+				copSum += cooling / electric;
+				copCount++;
+			}
+		}
+
+		// 各ゾーンの温湿度からPMVを算出(欠測のデータは除く)
+		for(int z=0; z<pmvSum.length; z++)
+		{
+			double temperature = values[KPIColumns.SLOT_ZONE + z*2];
+			double humidity = values[KPIColumns.SLOT_ZONE + z*2 + 1];
+			if( Double.isNaN(temperature) || Double.isNaN(humidity) )	continue;
+			pmvCount[z]++;
+			double pmv = comfort.pmv(temperature, humidity, temperature+1);
+			pmvSum[z] += pmv;
+			pmvExceeded[z] += Math.round(Math.abs(pmv));
+		}
+	}
+
+	/**
+	 * 別のインスタンスの集計結果を加えます．
+	 * @param other 加える集計結果
+	 */
+	public void merge(BuildingKPI other)
+	{
+		count += other.count;
+		copSum += other.copSum;
+		copCount += other.copCount;
+		electricEnergySum += other.electricEnergySum;
+		coolingEnergySum += other.coolingEnergySum;
+		electricEnergyMax = Math.max(electricEnergyMax, other.electricEnergyMax);
+		for(int z=0; z<pmvSum.length; z++) {
+			pmvSum[z] += other.pmvSum[z];
+			pmvCount[z] += other.pmvCount[z];
+			pmvExceeded[z] += other.pmvExceeded[z];
+		}
+	}
+
+	public long getCount(){ return count; }
+
+	/**
+	 * 期間の平均COPを返します．
+	 * @return 平均COP
+	 */
+	public double getAverageCOP(){ return copSum / copCount; }
+
+	/**
+	 * 期間の総消費電力量を返します．
+	 * @return 総消費電力量[kWh]
+	 */
+	public double getTotalElectricEnergy(){ return BuildingUtils.J2kWh(electricEnergySum); }
+
+	/**
+	 * 期間の総冷房能力を返します．
+	 * @return 総冷房能力[kWh]
+	 */
+	public double getTotalCoolingEnergy(){ return BuildingUtils.J2kWh(coolingEnergySum); }
+
+	/**
+	 * 期間のピーク電力を返します．
+	 * @return ピーク電力[kW]
+	 */
+	public double getPeakPower(){ return BuildingUtils.J2kWh(electricEnergyMax) / columns.getSamplingPeriod(); }
+
+	/**
+	 * ゾーンごとの平均PMVを返します．温湿度が欠測のデータは除きます．
+	 * @return ゾーンごとの平均PMV
+	 */
+	public double[] getAveragePMV()
+	{
+		double[] average = new double[pmvSum.length];
+		for(int z=0; z<average.length; z++)	average[z] = pmvSum[z] / pmvCount[z];
+		return average;
+	}
+
+	/**
+	 * ゾーンごとのPMVが±0.5を超過した回数を返します．
+	 * @return ゾーンごとの超過回数
+	 */
+	public long[] getExceededTimesOfPMV(){ return pmvExceeded.clone(); }
+}
@@ -0,0 +1,109 @@
+package jp.ohtayo.building.kpi;
+
+/**
+ * 計測データファイルの列の定義と指標計算の条件を保持するクラスです．
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class KPIColumns {
+
+	/** 読込データ中の消費電力量の位置 */
+	static final int SLOT_ELECTRIC = 0;
+	/** 読込データ中の冷房能力の位置 */
+	static final int SLOT_COOLING = 1;
+	/** 読込データ中の最初のゾーン温度の位置 */
+	static final int SLOT_ZONE = 2;
+
+	/** 消費電力量[J]の列番号 */
+	private int electricEnergyColumn;
+	/** 冷房能力[J]の列番号 */
+	private int coolingEnergyColumn;
+	/** ゾーン温度・湿度の列番号(ゾーン1温度、ゾーン1湿度、ゾーン2温度…の順) */
+	private int[] zoneColumns = new int[0];
+	/** 読み飛ばすヘッダ行数 */
+	private int headerLines = 1;
+	/** サンプリング周期[hour] */
+	private double samplingPeriod = 1.0/6.0;
+	/** 風速[m/s] */
+	private double Va = 0.1;
+	/** 着衣量[clo] */
+	private double Icl = 0.5;
+	/** 代謝量[met] */
+	private double M = 1.1;
+
+	/**
+	 * constructor.
+	 * @param electricEnergyColumn 消費電力量[J]の列番号
+	 * @param coolingEnergyColumn 冷房能力[J]の列番号
+	 */
+	public KPIColumns(int electricEnergyColumn, int coolingEnergyColumn)
+	{
+		this.electricEnergyColumn = electricEnergyColumn;
+		this.coolingEnergyColumn = coolingEnergyColumn;
+	}
+
+	/**
+	 * ゾーン温湿度の列番号を設定します．
+	 * @param zoneColumns ゾーン1温度、ゾーン1湿度、ゾーン2温度…の順の列番号
+	 */
+	public KPIColumns setZoneColumns(int[] zoneColumns)
+	{
+		if( zoneColumns.length % 2 != 0 )	throw new IllegalArgumentException("zone columns must be pairs of temperature and humidity.");
+		this.zoneColumns = zoneColumns.clone();
+		return this;
+	}
+
+	/**
+	 * 読み飛ばすヘッダ行数を設定します．
+	 * @param headerLines ヘッダ行数
+	 */
+	public KPIColumns setHeaderLines(int headerLines)
+	{
+		this.headerLines = headerLines;
+		return this;
+	}
+
+	/**
+	 * サンプリング周期を設定します．
+	 * @param samplingPeriod サンプリング周期[hour]
+	 */
+	public KPIColumns setSamplingPeriod(double samplingPeriod)
+	{
+		this.samplingPeriod = samplingPeriod;
+		return this;
+	}
+
+	/**
+	 * PMV計算の条件を設定します．
+	 * @param Va 風速[m/s]
+	 * @param Icl 着衣量[clo]
+	 * @param M 代謝量[met]
+	 */
+	public KPIColumns setComfortCondition(double Va, double Icl, double M)
+	{
+		this.Va = Va;
+		this.Icl = Icl;
+		this.M = M;
+		return this;
+	}
+
+	public int getHeaderLines(){ return headerLines; }
+	public double getSamplingPeriod(){ return samplingPeriod; }
+	public double getVa(){ return Va; }
+	public double getIcl(){ return Icl; }
+	public double getM(){ return M; }
+	public int numberOfZones(){ return zoneColumns.length/2; }
+
+	/**
+	 * 読み込む列番号を読込データ中の並び順で返します．
+	 * @return 列番号
+	 */
+	public int[] getColumns()
+	{
+		int[] columns = new int[SLOT_ZONE + zoneColumns.length];
+		columns[SLOT_ELECTRIC] = electricEnergyColumn;
+		columns[SLOT_COOLING] = coolingEnergyColumn;
+		System.arraycopy(zoneColumns, 0, columns, SLOT_ZONE, zoneColumns.length);
+		return columns;
+	}
+}
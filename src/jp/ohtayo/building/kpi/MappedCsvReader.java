@@ -0,0 +1,204 @@
+package jp.ohtayo.building.kpi;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 数値CSVファイルをメモリマップドI/Oで少しずつ読み込むクラスです．<br>
+ * ファイル全体を読み込まずに，一定サイズの領域ごとにマップして1行ずつ指定列の値を通知します．<br>
+ * 文字列オブジェクトを作らずにバイト列から直接数値を読み取るため，大きなファイルでもメモリ使用量が一定です．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class MappedCsvReader {
+
+	/** 1回にマップする領域の大きさのデフォルト値[byte] */
+	public static final int DEFAULT_CHUNK_SIZE = 32*1024*1024;
+
+	/**
+	 * 1行分のデータを受け取るインタフェースです．
+	 */
+	public interface RowHandler {
+		/**
+		 * 1行分の指定列の値を受け取ります．配列は次の行で再利用されます．
+		 * @param values 指定列の値(数値でない列はNaN)
+		 */
+		void row(double[] values);
+	}
+
+	/** 読み込む列番号 */
+	private final int[] columns;
+	/** 列番号から出力配列の添字への対応表(-1は読み込まない列) */
+	private final int[] columnToSlot;
+	/** 読み飛ばすヘッダ行数 */
+	private final int headerLines;
+	/** 1回にマップする領域の大きさ[byte] */
+	private final int chunkSize;
+
+	/**
+	 * constructor.
+	 * @param columns 読み込む列番号(0始まり)
+	 * @param headerLines 読み飛ばすヘッダ行数
+	 */
+	public MappedCsvReader(int[] columns, int headerLines)
+	{
+		this(columns, headerLines, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * constructor.
+	 * @param columns 読み込む列番号(0始まり)
+	 * @param headerLines 読み飛ばすヘッダ行数
+	 * @param chunkSize 1回にマップする領域の大きさ[byte]
+	 */
+	public MappedCsvReader(int[] columns, int headerLines, int chunkSize)
+	{
+		this.columns = columns.clone();
+		this.headerLines = headerLines;
+		this.chunkSize = chunkSize;
+		int max = -1;
+		for(int c : columns)	max = Math.max(max, c);
+		columnToSlot = new int[max+1];
+		Arrays.fill(columnToSlot, -1);
+		for(int i=0; i<columns.length; i++)	columnToSlot[columns[i]] = i;
+	}
+
+	/**
+	 * ファイルを読み込み，1行ごとにhandlerを呼び出します．
+	 * @param file CSVファイル
+	 * @param handler 1行分のデータを受け取るハンドラ
+	 * @return 読み込んだデータ行数
+	 * @throws IOException 読込エラー
+	 */
+	public long read(Path file, RowHandler handler) throws IOException
+	{
+		double[] values = new double[columns.length];
+		long rows = 0;
+		int skipped = 0;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			long position = 0;
+			while( position < size )
+			{
+				long length = Math.min(chunkSize, size-position);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				boolean last = (position+length == size);
+
+				// 領域内の最後の改行までを処理し，残りは次の領域で読む
+				int limit = (int)length;
+				if( !last ) {
+					while( limit>0 && buffer.get(limit-1)!='\n' )	limit--;
+					if( limit==0 )	throw new IOException("line is longer than chunk size: "+file);
+				}
+
+				int lineStart = 0;
+				for(int i=0; i<=limit; i++)
+				{
+					if( i==limit || buffer.get(i)=='\n' ) {
+						if( i>lineStart ) {
+							if( skipped < headerLines )	skipped++;
+							else if( parseLine(buffer, lineStart, i, values) ) {
+								handler.row(values);
+								rows++;
+							}
+						}
+						lineStart = i+1;
+					}
+				}
+				position += limit;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * 1行を解析して指定列の値を格納します．
+	 * @return 空行でなければtrue
+	 */
+	private boolean parseLine(MappedByteBuffer buffer, int start, int end, double[] values)
+	{
+		// 行末の\rを除く
+		if( end>start && buffer.get(end-1)=='\r' )	end--;
+		if( end<=start )	return false;
+
+		Arrays.fill(values, Double.NaN);
+		int column = 0;
+		int fieldStart = start;
+		for(int i=start; i<=end && column<columnToSlot.length; i++)
+		{
+			if( i==end || buffer.get(i)==',' ) {
+				int slot = columnToSlot[column];
+				if( slot>=0 )	values[slot] = parseDouble(buffer, fieldStart, i);
+				column++;
+				fieldStart = i+1;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * バイト列から数値を読み取ります．数値でなければNaNを返します．
+	 */
+	static double parseDouble(MappedByteBuffer buffer, int start, int end)
+	{
+		// 前後の空白と引用符を除く
+		while( start<end && isBlank(buffer.get(start)) )	start++;
+		while( end>start && isBlank(buffer.get(end-1)) )	end--;
+		if( start>=end )	return Double.NaN;
+
+		int i = start;
+		boolean negative = false;
+		byte b = buffer.get(i);
+		if( b=='-' || b=='+' ) {
+			negative = (b=='-');
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		for(; i<end; i++)
+		{
+			b = buffer.get(i);
+			if( b>='0' && b<='9' ) {
+				if( digits<18 ) {
+					mantissa = mantissa*10 + (b-'0');
+					digits++;
+					if( point )	scale--;
+				}else if( !point ) {
+					scale++;	// 有効桁を超えた整数部
+				}
+			}else if( b=='.' && !point ) {
+				point = true;
+			}else {
+				break;
+			}
+		}
+		if( i<end ) {
+			// 指数表記など単純な形式でないものは標準の変換に任せる
+			byte[] bytes = new byte[end-start];
+			for(int k=0; k<bytes.length; k++)	bytes[k] = buffer.get(start+k);
+			try {
+				return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+			}catch(NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+		if( digits==0 )	return Double.NaN;
+		double value = mantissa;
+		if( scale<0 )	value = value / Math.pow(10, -scale);
+		else if( scale>0 )	value = value * Math.pow(10, scale);
+		return negative ? -value : value;
+	}
+
+	private static boolean isBlank(byte b)
+	{
+		return b==' ' || b=='\t' || b=='"';
+	}
+}
@@ -0,0 +1,101 @@
+package jp.ohtayo.building.kpi;
+
+import jp.ohtayo.commons.log.Logging;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 複数ビル・長期間の計測データファイルから指標を計算するパイプラインです．<br>
+ * 各ファイルをメモリマップドI/Oで少しずつ読みながら1回の走査でCOP・電力量・ピーク電力・快適性を集計します．<br>
+ * ファイル単位で並列に処理し，同時に処理するファイル数でメモリ使用量の上限が決まります．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class StreamingKPIPipeline {
+
+	/** 同時に処理するファイル数 */
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+	/** 1回にマップする領域の大きさ[byte] */
+	private int chunkSize = MappedCsvReader.DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * 同時に処理するファイル数を設定します．
+	 * @param numberOfThreads スレッド数
+	 */
+	public StreamingKPIPipeline setNumberOfThreads(int numberOfThreads)
+	{
+		this.numberOfThreads = numberOfThreads;
+		return this;
+	}
+
+	/**
+	 * 1回にマップする領域の大きさを設定します．
+	 * 1スレッドあたりのマップ領域はこの大きさ以下になります．
+	 * @param chunkSize 領域の大きさ[byte]
+	 */
+	public StreamingKPIPipeline setChunkSize(int chunkSize)
+	{
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * 1ファイル分の指標を計算します．
+	 * @param file 計測データファイル
+	 * @param columns 列の定義
+	 * @return 指標の計算結果
+	 * @throws IOException 読込エラー
+	 */
+	public BuildingKPI process(Path file, KPIColumns columns) throws IOException
+	{
+		BuildingKPI kpi = new BuildingKPI(columns);
+		new MappedCsvReader(columns.getColumns(), columns.getHeaderLines(), chunkSize).read(file, kpi);
+		return kpi;
+	}
+
+	/**
+	 * 複数ファイルの指標を並列に計算します．
+	 * @param files ビルごとの計測データファイル(1ビルが複数ファイルに分かれている場合は同じ列定義で順に集計)
+	 * @param columns ビルごとの列の定義
+	 * @return ビル名ごとの指標の計算結果
+	 */
+	public Map<String, BuildingKPI> process(Map<String, List<Path>> files, Map<String, KPIColumns> columns)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		Map<String, List<Future<BuildingKPI>>> futures = new LinkedHashMap<>();
+		try {
+			// ファイル単位でタスクを投入
+			for(Map.Entry<String, List<Path>> entry : files.entrySet()) {
+				KPIColumns column = columns.get(entry.getKey());
+				List<Future<BuildingKPI>> list = new ArrayList<>();
+				for(Path file : entry.getValue())
+					list.add(executor.submit(() -> process(file, column)));
+				futures.put(entry.getKey(), list);
+			}
+
+			// ビルごとに集計結果をまとめる
+			Map<String, BuildingKPI> results = new LinkedHashMap<>();
+			for(Map.Entry<String, List<Future<BuildingKPI>>> entry : futures.entrySet()) {
+				BuildingKPI kpi = new BuildingKPI(columns.get(entry.getKey()));
+				for(Future<BuildingKPI> future : entry.getValue())
+					kpi.merge(future.get());
+				results.put(entry.getKey(), kpi);
+			}
+			return results;
+		}catch(InterruptedException | ExecutionException e){
+			Logging.logger.severe(e.getMessage());
+			throw new IllegalStateException(e);
+		}finally{
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package jp.ohtayo.building.optimization;
+
+import jp.ohtayo.commons.log.Logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 非同期定常状態型の多目的最適化クラスです．<br>
+ * 世代ごとに全個体の評価完了を待たず，評価が1つ終わるたびにその解を個体群に加えて最悪解を1つ除き，
+ * 空いたワーカーにすぐ次の子個体を割り当てます．EnergyPlusの計算時間がばらついてもCPUが遊びません．<br>
+ * 個体群の更新はNSGA-IIと同じ非優越ソートと混雑距離，子個体の生成はSBX交叉と多項式突然変異で行います．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class AsynchronousSteadyStateOptimizer {
+
+	/** 評価器 */
+	private final ObjectiveEvaluator evaluator;
+	/** 個体数 */
+	private int populationSize = 100;
+	/** 最大評価回数 */
+	private int maxEvaluations = 10000;
+	/** 同時に評価する解の数 */
+	private int numberOfWorkers = Runtime.getRuntime().availableProcessors();
+	/** 交叉率 */
+	private double crossoverProbability = 0.9;
+	/** SBX交叉の分布指数 */
+	private double crossoverDistributionIndex = 20.0;
+	/** 突然変異の分布指数 */
+	private double mutationDistributionIndex = 20.0;
+	/** 乱数 */
+	private Random random = new Random();
+	/** 初期個体(評価前の設計変数) */
+	private List<double[]> initialVariables = new ArrayList<>();
+
+	/** 評価済みの解を追加する非優越解のアーカイブ */
+	private ParetoArchive archive = null;
+
+	/** 個体群 */
+	private List<Solution> population = new ArrayList<>();
+	/** 評価済みの数 */
+	private int evaluations = 0;
+
+	/**
+	 * constructor.
+	 * @param evaluator 評価器
+	 */
+	public AsynchronousSteadyStateOptimizer(ObjectiveEvaluator evaluator)
+	{
+		this.evaluator = evaluator;
+	}
+
+	public AsynchronousSteadyStateOptimizer setPopulationSize(int populationSize)
+	{
+		this.populationSize = populationSize;
+		return this;
+	}
+
+	public AsynchronousSteadyStateOptimizer setMaxEvaluations(int maxEvaluations)
+	{
+		this.maxEvaluations = maxEvaluations;
+		return this;
+	}
+
+	public AsynchronousSteadyStateOptimizer setNumberOfWorkers(int numberOfWorkers)
+	{
+		this.numberOfWorkers = numberOfWorkers;
+		return this;
+	}
+
+	/**
+	 * 遺伝的操作のパラメータを設定します．
+	 * @param crossoverProbability 交叉率
+	 * @param crossoverDistributionIndex SBX交叉の分布指数
+	 * @param mutationDistributionIndex 多項式突然変異の分布指数
+	 */
+	public AsynchronousSteadyStateOptimizer setOperators(double crossoverProbability, double crossoverDistributionIndex, double mutationDistributionIndex)
+	{
+		this.crossoverProbability = crossoverProbability;
+		this.crossoverDistributionIndex = crossoverDistributionIndex;
+		this.mutationDistributionIndex = mutationDistributionIndex;
+		return this;
+	}
+
+	public AsynchronousSteadyStateOptimizer setSeed(long seed)
+	{
+		this.random = new Random(seed);
+		return this;
+	}
+
+	/**
+	 * 初期個体を与えます．与えた個体はランダムな初期個体より先に評価されます．
+	 * @param variables 初期個体の設計変数
+	 */
+	public AsynchronousSteadyStateOptimizer setInitialVariables(List<double[]> variables)
+	{
+		this.initialVariables = new ArrayList<>(variables);
+		return this;
+	}
+
+	/**
+	 * 評価済みの解を全て追加する非優越解のアーカイブを指定します．個体群から除かれた非優越解も残せます．
+	 * @param archive 非優越解のアーカイブ
+	 */
+	public AsynchronousSteadyStateOptimizer setArchive(ParetoArchive archive)
+	{
+		this.archive = archive;
+		return this;
+	}
+
+	public List<Solution> getPopulation(){ return population; }
+	public int getEvaluations(){ return evaluations; }
+
+	/**
+	 * 最適化を実行します．
+	 * @return 最終個体群のうち非優越解
+	 */
+	public List<Solution> run()
+	{
+		AtomicInteger threadNumber = new AtomicInteger(0);
+		// EnergyPlusの作業フォルダはスレッド名で分かれるので，ワーカーに1からの番号を付ける("0"は複製元)
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfWorkers, r -> {
+			Thread thread = new Thread(r, String.valueOf(threadNumber.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		});
+		CompletionService<Solution> completion = new ExecutorCompletionService<>(executor);
+
+		int submitted = 0;
+		int running = 0;
+		try {
+			// 全ワーカーに解を割り当てる
+			while( running<numberOfWorkers && submitted<maxEvaluations ) {
+				submit(completion, createCandidate(submitted));
+				submitted++;
+				running++;
+			}
+
+			// 評価が1つ終わるたびに個体群を更新して次の解を割り当てる
+			while( running>0 )
+			{
+				Future<Solution> future = completion.take();
+				running--;
+				Solution solution;
+				try {
+					solution = future.get();
+				}catch(ExecutionException e){
+					Logging.logger.severe("evaluation failed: "+e.getCause());
+					solution = null;
+				}
+				evaluations++;
+				if( solution!=null ) {
+					insert(solution);
+					if( archive!=null )	archive.add(solution);
+				}
+
+				if( submitted<maxEvaluations ) {
+					submit(completion, createCandidate(submitted));
+					submitted++;
+					running++;
+				}
+				if( evaluations % populationSize == 0 )
+					Logging.logger.info("evaluations = "+evaluations);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			Logging.logger.severe("optimization interrupted.");
+		}finally{
+			executor.shutdownNow();
+		}
+
+		List<Solution> front = new ArrayList<>();
+		for(Solution s : population)
+			if( s.rank==0 )	front.add(s);
+		return front;
+	}
+
+	/**
+	 * 解の評価を投入します．
+	 */
+	private void submit(CompletionService<Solution> completion, double[] variable)
+	{
+		completion.submit(() -> new Solution(variable, evaluator.evaluate(variable)));
+	}
+
+	/**
+	 * 次に評価する設計変数を作ります．個体群がそろうまでは初期個体，それ以降は子個体を作ります．
+	 * @param index これまでに投入した解の数
+	 */
+	private double[] createCandidate(int index)
+	{
+		if( index < initialVariables.size() )	return initialVariables.get(index).clone();
+		if( population.size() < Math.min(populationSize, 2) || index < populationSize ) {
+			double[] variable = new double[evaluator.getNumberOfVariables()];
+			for(int v=0; v<variable.length; v++)	variable[v] = random.nextDouble();
+			return variable;
+		}
+		Solution parent1 = tournament();
+		Solution parent2 = tournament();
+		double[] child = crossover(parent1.getVariable(), parent2.getVariable());
+		mutate(child);
+		return child;
+	}
+
+	/**
+	 * 評価済みの解を個体群に加え，個体数を超えた場合は最悪解を除きます．
+	 * @param solution 評価済みの解
+	 */
+	private void insert(Solution solution)
+	{
+		population.add(solution);
+		List<List<Solution>> fronts = ParetoRanking.sort(population);
+		List<Solution> last = fronts.get(fronts.size()-1);
+		ParetoRanking.crowdingDistance(last);
+		if( population.size() > populationSize ) {
+			// 最悪ランクのうち最も混雑した解を除く
+			Solution worst = last.get(0);
+			for(Solution s : last)
+				if( s.crowdingDistance < worst.crowdingDistance )	worst = s;
+			population.remove(worst);
+			last.remove(worst);
+			ParetoRanking.crowdingDistance(last);
+		}
+		for(int f=0; f<fronts.size()-1; f++)	ParetoRanking.crowdingDistance(fronts.get(f));
+	}
+
+	/**
+	 * 2値トーナメント選択を行います．
+	 * @return 選択された解
+	 */
+	private Solution tournament()
+	{
+		Solution a = population.get(random.nextInt(population.size()));
+		Solution b = population.get(random.nextInt(population.size()));
+		if( a.rank != b.rank )	return a.rank < b.rank ? a : b;
+		return a.crowdingDistance >= b.crowdingDistance ? a : b;
+	}
+
+	/**
+	 * SBX交叉で子個体を1つ作ります．<br>
+	 * 変数ごとに下限(0)側と上限(1)側の2つの子の値を計算し，どちらかを等確率で選びます(Debの実装と同じ)．
+	 */
+	private double[] crossover(double[] parent1, double[] parent2)
+	{
+		double[] child = parent1.clone();
+		if( random.nextDouble() > crossoverProbability )	return child;
+		for(int v=0; v<child.length; v++)
+		{
+			if( random.nextDouble() > 0.5 || Math.abs(parent1[v]-parent2[v]) < 1.0e-14 )	continue;
+			double y1 = Math.min(parent1[v], parent2[v]);
+			double y2 = Math.max(parent1[v], parent2[v]);
+			double u = random.nextDouble();
+			double c1 = 0.5*((y1+y2) - spreadFactor(1.0 + 2.0*y1/(y2-y1), u)*(y2-y1));
+			double c2 = 0.5*((y1+y2) + spreadFactor(1.0 + 2.0*(1.0-y2)/(y2-y1), u)*(y2-y1));
+			c1 = Math.min(1.0, Math.max(0.0, c1));
+			c2 = Math.min(1.0, Math.max(0.0, c2));
+			child[v] = (random.nextDouble() <= 0.5) ? c1 : c2;
+		}
+		return child;
+	}
+
+	/**
+	 * 範囲の端までの距離で制限したSBXの広がり係数を求めます．
+	 * @param beta 親の間隔に対する範囲の端までの距離の比(1+2*距離/間隔)
+	 * @param u 一様乱数
+	 * @return 広がり係数
+	 */
+	private double spreadFactor(double beta, double u)
+	{
+		double alpha = 2.0 - Math.pow(beta, -(crossoverDistributionIndex+1.0));
+		return (u <= 1.0/alpha) ? Math.pow(u*alpha, 1.0/(crossoverDistributionIndex+1.0))
+								: Math.pow(1.0/(2.0-u*alpha), 1.0/(crossoverDistributionIndex+1.0));
+	}
+
+	/**
+	 * 多項式突然変異を行います．変異率は1/変数長です．
+	 */
+	private void mutate(double[] variable)
+	{
+		double probability = 1.0/variable.length;
+		for(int v=0; v<variable.length; v++)
+		{
+			if( random.nextDouble() > probability )	continue;
+			double y = variable[v];
+			double u = random.nextDouble();
+			double power = 1.0/(mutationDistributionIndex+1.0);
+			double deltaq;
+			if( u < 0.5 ) {
+				double val = 2.0*u + (1.0-2.0*u)*Math.pow(1.0-y, mutationDistributionIndex+1.0);
+				deltaq = Math.pow(val, power) - 1.0;
+			}else {
+				double val = 2.0*(1.0-u) + 2.0*(u-0.5)*Math.pow(y, mutationDistributionIndex+1.0);
+				deltaq = 1.0 - Math.pow(val, power);
+			}
+			variable[v] = Math.min(1.0, Math.max(0.0, y+deltaq));
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package jp.ohtayo.building.optimization;
+
+/**
+ * 設計変数から目的関数値を算出するインタフェースです．<br>
+ * 複数のスレッドから同時に呼び出されるため，実装はスレッドセーフである必要があります．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public interface ObjectiveEvaluator {
+
+	/**
+	 * 目的関数値を算出します．
+	 * @param variable 設計変数(各要素0～1)
+	 * @return 目的関数値(小さいほど良い)
+	 */
+	double[] evaluate(double[] variable);
+
+	/**
+	 * 設計変数の数を返します．
+	 * @return 設計変数の数
+	 */
+	int getNumberOfVariables();
+
+	/**
+	 * 目的関数の数を返します．
+	 * @return 目的関数の数
+	 */
+	int getNumberOfObjectives();
+}
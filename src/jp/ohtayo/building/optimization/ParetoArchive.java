@@ -0,0 +1,439 @@
+package jp.ohtayo.building.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 非優越解を保持するアーカイブです．(最小化)<br>
+ * 解はND-tree(Jaszkiewicz and Lust, 2018)で保持します．各ノードは配下の解の理想点と最悪点(nadir)の近似を持ち，
+ * 追加する解とそれらを比べて，優越関係が生じ得ないノードを丸ごと読み飛ばすので，全ての解と比べずに追加と優越判定ができます．<br>
+ * 容量を設定すると，超えた分を混雑距離または超体積への寄与が最も小さい解から除きます．<br>
+ * 複数のスレッドから評価結果をそのまま追加できます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class ParetoArchive {
+
+	/** 容量を超えたときに除く解の選び方 */
+	public enum Pruning {
+		/** 混雑距離が最小の解を除く */
+		CROWDING,
+		/** 超体積への寄与(モンテカルロ推定)が最小の解を除く */
+		HYPERVOLUME
+	}
+
+	/** 目的関数の数 */
+	private final int numberOfObjectives;
+	/** 葉ノードに保持する解の最大数 */
+	private int maxLeafSize = 20;
+	/** 分割したときの子ノードの数 */
+	private final int numberOfChildren;
+	/** 保持する解の最大数 */
+	private int capacity = Integer.MAX_VALUE;
+	private Pruning pruning = Pruning.CROWDING;
+	/** 超体積への寄与の推定に使う標本数 */
+	private int hypervolumeSamples = 10000;
+	private final Random random = new Random(0);
+
+	private Node root = null;
+	private int size = 0;
+
+	/**
+	 * ND-treeのノードです．葉ノードは解を，内部ノードは子ノードを持ちます．
+	 */
+	private static class Node {
+		Node parent;
+		final List<Solution> solutions = new ArrayList<>();
+		final List<Node> children = new ArrayList<>();
+		/** 配下の解の各目的関数の最小値と最大値(解を除いても更新しないので近似) */
+		final double[] ideal;
+		final double[] nadir;
+
+		Node(Node parent, int numberOfObjectives)
+		{
+			this.parent = parent;
+			ideal = new double[numberOfObjectives];
+			nadir = new double[numberOfObjectives];
+			Arrays.fill(ideal, Double.POSITIVE_INFINITY);
+			Arrays.fill(nadir, Double.NEGATIVE_INFINITY);
+		}
+
+		boolean isLeaf(){ return children.isEmpty(); }
+
+		/** 理想点と最悪点を広げます． */
+		void include(double[] objectives)
+		{
+			for(int m=0; m<objectives.length; m++) {
+				ideal[m] = Math.min(ideal[m], objectives[m]);
+				nadir[m] = Math.max(nadir[m], objectives[m]);
+			}
+		}
+
+		/** 理想点と最悪点の中点との距離の2乗 */
+		double distance(double[] objectives)
+		{
+			double sum = 0.0;
+			for(int m=0; m<objectives.length; m++) {
+				double d = objectives[m] - (ideal[m] + nadir[m])/2.0;
+				sum += d*d;
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * constructor.
+	 * @param numberOfObjectives 目的関数の数
+	 */
+	public ParetoArchive(int numberOfObjectives)
+	{
+		this.numberOfObjectives = numberOfObjectives;
+		this.numberOfChildren = numberOfObjectives + 1;
+	}
+
+	/**
+	 * 保持する解の最大数を設定します．
+	 * @param capacity 最大数
+	 * @param pruning 超えたときに除く解の選び方
+	 */
+	public synchronized ParetoArchive setCapacity(int capacity, Pruning pruning)
+	{
+		this.capacity = capacity;
+		this.pruning = pruning;
+		while( size > capacity )	prune();
+		return this;
+	}
+
+	public synchronized ParetoArchive setMaxLeafSize(int maxLeafSize)
+	{
+		this.maxLeafSize = Math.max(numberOfChildren, maxLeafSize);
+		return this;
+	}
+
+	public synchronized ParetoArchive setHypervolumeSamples(int hypervolumeSamples)
+	{
+		this.hypervolumeSamples = hypervolumeSamples;
+		return this;
+	}
+
+	/**
+	 * 解を追加します．追加する解に優越される解はアーカイブから除きます．
+	 * @param solution 目的関数値を持つ解
+	 * @return 追加したならtrue(既存の解に弱優越されるなら追加せずfalse)
+	 */
+	public synchronized boolean add(Solution solution)
+	{
+		double[] objectives = solution.getObjectives();
+		if( objectives.length != numberOfObjectives )	throw new IllegalArgumentException("illegal number of objectives.");
+		if( root != null ) {
+			if( !update(root, objectives) )	return false;
+			if( root != null && root.isLeaf() && root.solutions.isEmpty() )	root = null;
+		}
+		if( root == null )	root = new Node(null, numberOfObjectives);
+		insert(root, solution);
+		size++;
+		if( size > capacity )	prune();
+		return true;
+	}
+
+	/**
+	 * 目的関数値を持つ解をまとめて追加します．
+	 * @param solutions 解のリスト
+	 * @return 追加した数
+	 */
+	public synchronized int addAll(List<Solution> solutions)
+	{
+		int added = 0;
+		for(Solution s : solutions)
+			if( add(s) )	added++;
+		return added;
+	}
+
+	/**
+	 * 目的関数値がアーカイブのいずれかの解に弱優越されるかを判定します．
+	 * @param objectives 目的関数値
+	 * @return 弱優越されるならtrue
+	 */
+	public synchronized boolean isDominated(double[] objectives)
+	{
+		return root != null && isDominated(root, objectives);
+	}
+
+	private boolean isDominated(Node node, double[] objectives)
+	{
+		if( weaklyDominates(node.nadir, objectives) )	return true;
+		if( !weaklyDominates(node.ideal, objectives) )	return false;
+		if( node.isLeaf() ) {
+			for(Solution s : node.solutions)
+				if( weaklyDominates(s.getObjectives(), objectives) )	return true;
+			return false;
+		}
+		for(Node child : node.children)
+			if( isDominated(child, objectives) )	return true;
+		return false;
+	}
+
+	/**
+	 * 追加する解と優越関係にある解を探し，優越される解を除きます．
+	 * @return 追加する解が既存の解に弱優越されなければtrue
+	 */
+	private boolean update(Node node, double[] objectives)
+	{
+		if( weaklyDominates(node.nadir, objectives) )	return false;	// 配下の全ての解に優越される
+		if( weaklyDominates(objectives, node.ideal) ) {
+			remove(node);	// 配下の全ての解を優越する
+			return true;
+		}
+		if( !weaklyDominates(objectives, node.nadir) && !weaklyDominates(node.ideal, objectives) )	return true;	// 優越関係は生じない
+
+		if( node.isLeaf() ) {
+			for(int i=node.solutions.size()-1; i>=0; i--) {
+				double[] other = node.solutions.get(i).getObjectives();
+				if( weaklyDominates(other, objectives) )	return false;
+				if( weaklyDominates(objectives, other) ) {
+					node.solutions.remove(i);
+					size--;
+				}
+			}
+			if( node.solutions.isEmpty() && node.parent != null )	detach(node);
+			return true;
+		}
+		for(Node child : new ArrayList<>(node.children))
+			if( !update(child, objectives) )	return false;
+		return true;
+	}
+
+	/**
+	 * ノードとその配下の解を全て除きます．
+	 */
+	private void remove(Node node)
+	{
+		size -= count(node);
+		if( node.parent == null ) {
+			root = null;
+			return;
+		}
+		detach(node);
+	}
+
+	private static int count(Node node)
+	{
+		if( node.isLeaf() )	return node.solutions.size();
+		int sum = 0;
+		for(Node child : node.children)	sum += count(child);
+		return sum;
+	}
+
+	/**
+	 * 空になったノードを親から外します．子が1つだけになった親はその子で置き換えます．
+	 */
+	private void detach(Node node)
+	{
+		Node parent = node.parent;
+		parent.children.remove(node);
+		if( parent.children.isEmpty() ) {
+			if( parent.parent == null )	root = null;
+			else	detach(parent);
+		}else if( parent.children.size() == 1 ) {
+			Node child = parent.children.get(0);
+			if( parent.parent == null ) {
+				child.parent = null;
+				root = child;
+			}else {
+				List<Node> siblings = parent.parent.children;
+				siblings.set(siblings.indexOf(parent), child);
+				child.parent = parent.parent;
+			}
+		}
+	}
+
+	/**
+	 * 中点が最も近い子ノードをたどって葉ノードに解を加え，葉ノードがあふれたら分割します．
+	 */
+	private void insert(Node node, Solution solution)
+	{
+		double[] objectives = solution.getObjectives();
+		while( !node.isLeaf() )
+		{
+			node.include(objectives);
+			Node closest = node.children.get(0);
+			for(Node child : node.children)
+				if( child.distance(objectives) < closest.distance(objectives) )	closest = child;
+			node = closest;
+		}
+		node.include(objectives);
+		node.solutions.add(solution);
+		if( node.solutions.size() > maxLeafSize )	split(node);
+	}
+
+	/**
+	 * 葉ノードを分割します．互いに遠い解を子ノードの種とし，残りの解は中点が最も近い子ノードに加えます．
+	 */
+	private void split(Node node)
+	{
+		List<Solution> rest = new ArrayList<>(node.solutions);
+		node.solutions.clear();
+
+		// 他の解との平均距離が最大の解を最初の種とする
+		int first = 0;
+		double farthest = -1.0;
+		for(int i=0; i<rest.size(); i++) {
+			double sum = 0.0;
+			for(Solution other : rest)	sum += squaredDistance(rest.get(i).getObjectives(), other.getObjectives());
+			if( sum > farthest ) {
+				farthest = sum;
+				first = i;
+			}
+		}
+		List<Solution> seeds = new ArrayList<>();
+		seeds.add(rest.remove(first));
+		// 種との平均距離が最大の解を次の種とする
+		while( seeds.size() < numberOfChildren && !rest.isEmpty() ) {
+			int next = 0;
+			farthest = -1.0;
+			for(int i=0; i<rest.size(); i++) {
+				double sum = 0.0;
+				for(Solution seed : seeds)	sum += squaredDistance(rest.get(i).getObjectives(), seed.getObjectives());
+				if( sum > farthest ) {
+					farthest = sum;
+					next = i;
+				}
+			}
+			seeds.add(rest.remove(next));
+		}
+		for(Solution seed : seeds) {
+			Node child = new Node(node, numberOfObjectives);
+			child.include(seed.getObjectives());
+			child.solutions.add(seed);
+			node.children.add(child);
+		}
+		for(Solution s : rest) {
+			Node closest = node.children.get(0);
+			for(Node child : node.children)
+				if( child.distance(s.getObjectives()) < closest.distance(s.getObjectives()) )	closest = child;
+			closest.include(s.getObjectives());
+			closest.solutions.add(s);
+		}
+	}
+
+	/**
+	 * 混雑距離または超体積への寄与が最も小さい解を1つ除きます．
+	 */
+	private void prune()
+	{
+		List<Solution> solutions = getSolutions();
+		Solution worst;
+		if( pruning == Pruning.HYPERVOLUME ) {
+			double[] contribution = hypervolumeContributions(solutions);
+			int index = 0;
+			for(int i=1; i<contribution.length; i++)
+				if( contribution[i] < contribution[index] )	index = i;
+			worst = solutions.get(index);
+		}else {
+			// 個体群と共有している解の混雑距離を書き換えないよう，複製で計算する
+			List<Solution> copies = new ArrayList<>(solutions.size());
+			for(Solution s : solutions)	copies.add(new Solution(s.getVariable(), s.getObjectives()));
+			ParetoRanking.crowdingDistance(copies);
+			int index = 0;
+			for(int i=1; i<copies.size(); i++)
+				if( copies.get(i).crowdingDistance < copies.get(index).crowdingDistance )	index = i;
+			worst = solutions.get(index);
+		}
+		removeSolution(root, worst);
+	}
+
+	private boolean removeSolution(Node node, Solution solution)
+	{
+		if( node.isLeaf() ) {
+			if( !node.solutions.remove(solution) )	return false;
+			size--;
+			if( node.solutions.isEmpty() ) {
+				if( node.parent == null )	root = null;
+				else	detach(node);
+			}
+			return true;
+		}
+		if( !weaklyDominates(node.ideal, solution.getObjectives()) || !weaklyDominates(solution.getObjectives(), node.nadir) )	return false;
+		for(Node child : new ArrayList<>(node.children))
+			if( removeSolution(child, solution) )	return true;
+		return false;
+	}
+
+	/**
+	 * 各解だけが支配する領域の体積をモンテカルロ法で推定します．<br>
+	 * 参照点は最悪点から各目的関数の幅の1割だけ離した点とし，理想点との間の一様な標本を唯一支配する解に数えます．<br>
+	 * @param solutions 非優越解
+	 * @return 各解の超体積への寄与(標本数)
+	 */
+	private double[] hypervolumeContributions(List<Solution> solutions)
+	{
+		double[] lower = new double[numberOfObjectives];
+		double[] upper = new double[numberOfObjectives];
+		Arrays.fill(lower, Double.POSITIVE_INFINITY);
+		Arrays.fill(upper, Double.NEGATIVE_INFINITY);
+		for(Solution s : solutions) {
+			for(int m=0; m<numberOfObjectives; m++) {
+				lower[m] = Math.min(lower[m], s.getObjectives()[m]);
+				upper[m] = Math.max(upper[m], s.getObjectives()[m]);
+			}
+		}
+		for(int m=0; m<numberOfObjectives; m++)	upper[m] += Math.max(0.1*(upper[m]-lower[m]), 1.0e-12);
+
+		double[] contribution = new double[solutions.size()];
+		double[] sample = new double[numberOfObjectives];
+		for(int n=0; n<hypervolumeSamples; n++)
+		{
+			for(int m=0; m<numberOfObjectives; m++)	sample[m] = lower[m] + random.nextDouble()*(upper[m]-lower[m]);
+			int dominator = -1;
+			for(int i=0; i<solutions.size(); i++) {
+				if( !weaklyDominates(solutions.get(i).getObjectives(), sample) )	continue;
+				if( dominator >= 0 ) {
+					dominator = -2;
+					break;
+				}
+				dominator = i;
+			}
+			if( dominator >= 0 )	contribution[dominator]++;
+		}
+		return contribution;
+	}
+
+	/**
+	 * 保持している解を返します．
+	 * @return 非優越解のリスト(複製)
+	 */
+	public synchronized List<Solution> getSolutions()
+	{
+		List<Solution> solutions = new ArrayList<>(size);
+		if( root != null )	collect(root, solutions);
+		return solutions;
+	}
+
+	private static void collect(Node node, List<Solution> solutions)
+	{
+		if( node.isLeaf() )	solutions.addAll(node.solutions);
+		else	for(Node child : node.children)	collect(child, solutions);
+	}
+
+	public synchronized int size(){ return size; }
+	public int getNumberOfObjectives(){ return numberOfObjectives; }
+
+	/**
+	 * aがbを弱優越する(全ての目的関数でb以下)かを判定します．
+	 */
+	private static boolean weaklyDominates(double[] a, double[] b)
+	{
+		for(int m=0; m<a.length; m++)
+			if( a[m] > b[m] )	return false;
+		return true;
+	}
+
+	private static double squaredDistance(double[] a, double[] b)
+	{
+		double sum = 0.0;
+		for(int m=0; m<a.length; m++)	sum += (a[m]-b[m])*(a[m]-b[m]);
+		return sum;
+	}
+}
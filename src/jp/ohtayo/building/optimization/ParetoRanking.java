@@ -0,0 +1,110 @@
+package jp.ohtayo.building.optimization;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 非優越ソートと混雑距離の計算を行うクラスです．(NSGA-IIと同じ定義)
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class ParetoRanking {
+
+	/**
+	 * aがbを優越するかを判定します．(最小化)
+	 * @param a 目的関数値
+	 * @param b 目的関数値
+	 * @return aがbを優越するなら1，bがaを優越するなら-1，どちらでもなければ0
+	 */
+	public static int compare(double[] a, double[] b)
+	{
+		boolean aBetter = false;
+		boolean bBetter = false;
+		for(int m=0; m<a.length; m++){
+			if( a[m] < b[m] )	aBetter = true;
+			else if( b[m] < a[m] )	bBetter = true;
+			if( aBetter && bBetter )	return 0;
+		}
+		if( aBetter )	return 1;
+		if( bBetter )	return -1;
+		return 0;
+	}
+
+	/**
+	 * 非優越ソートを行い，各解のrankを設定します．
+	 * @param solutions 解の集合
+	 * @return フロントごとの解のリスト
+	 */
+	public static List<List<Solution>> sort(List<Solution> solutions)
+	{
+		int n = solutions.size();
+		int[] dominatedCount = new int[n];
+		List<List<Integer>> dominates = new ArrayList<>();
+		for(int i=0; i<n; i++)	dominates.add(new ArrayList<>());
+
+		List<List<Solution>> fronts = new ArrayList<>();
+		List<Integer> current = new ArrayList<>();
+		for(int i=0; i<n; i++){
+			for(int j=i+1; j<n; j++){
+				int c = compare(solutions.get(i).getObjectives(), solutions.get(j).getObjectives());
+				if( c>0 ) {
+					dominates.get(i).add(j);
+					dominatedCount[j]++;
+				}else if( c<0 ) {
+					dominates.get(j).add(i);
+					dominatedCount[i]++;
+				}
+			}
+		}
+		for(int i=0; i<n; i++)
+			if( dominatedCount[i]==0 )	current.add(i);
+
+		int rank = 0;
+		while( !current.isEmpty() )
+		{
+			List<Solution> front = new ArrayList<>();
+			List<Integer> next = new ArrayList<>();
+			for(int i : current){
+				solutions.get(i).rank = rank;
+				front.add(solutions.get(i));
+				for(int j : dominates.get(i)){
+					if( --dominatedCount[j]==0 )	next.add(j);
+				}
+			}
+			fronts.add(front);
+			current = next;
+			rank++;
+		}
+		return fronts;
+	}
+
+	/**
+	 * フロント内の各解の混雑距離を計算します．
+	 * @param front 同じランクの解の集合
+	 */
+	public static void crowdingDistance(List<Solution> front)
+	{
+		int n = front.size();
+		for(Solution s : front)	s.crowdingDistance = 0.0;
+		if( n<=2 ) {
+			for(Solution s : front)	s.crowdingDistance = Double.POSITIVE_INFINITY;
+			return;
+		}
+		int objectives = front.get(0).getObjectives().length;
+		List<Solution> sorted = new ArrayList<>(front);
+		for(int m=0; m<objectives; m++)
+		{
+			final int index = m;
+			sorted.sort(Comparator.comparingDouble(s -> s.getObjectives()[index]));
+			double min = sorted.get(0).getObjectives()[m];
+			double max = sorted.get(n-1).getObjectives()[m];
+			sorted.get(0).crowdingDistance = Double.POSITIVE_INFINITY;
+			sorted.get(n-1).crowdingDistance = Double.POSITIVE_INFINITY;
+			if( max==min )	continue;
+			for(int i=1; i<n-1; i++){
+				sorted.get(i).crowdingDistance += (sorted.get(i+1).getObjectives()[m] - sorted.get(i-1).getObjectives()[m]) / (max-min);
+			}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package jp.ohtayo.building.optimization;
+
+/**
+ * 最適化の解(設計変数と目的関数値の組)を表すクラスです．
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class Solution {
+
+	/** 設計変数 */
+	private final double[] variable;
+	/** 目的関数値 */
+	private double[] objectives;
+	/** 非優越ランク(0が最良) */
+	int rank;
+	/** 混雑距離 */
+	double crowdingDistance;
+
+	/**
+	 * constructor.
+	 * @param variable 設計変数
+	 */
+	public Solution(double[] variable)
+	{
+		this.variable = variable;
+	}
+
+	/**
+	 * constructor.
+	 * @param variable 設計変数
+	 * @param objectives 目的関数値
+	 */
+	public Solution(double[] variable, double[] objectives)
+	{
+		this.variable = variable;
+		this.objectives = objectives;
+	}
+
+	public double[] getVariable(){ return variable; }
+	public double[] getObjectives(){ return objectives; }
+	public void setObjectives(double[] objectives){ this.objectives = objectives; }
+	public int getRank(){ return rank; }
+	public double getCrowdingDistance(){ return crowdingDistance; }
+}
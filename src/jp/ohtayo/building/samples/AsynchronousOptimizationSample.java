@@ -0,0 +1,36 @@
+package jp.ohtayo.building.samples;
+
+import jp.ohtayo.building.energyplus.EnergyPlusEvaluator;
+import jp.ohtayo.building.optimization.AsynchronousSteadyStateOptimizer;
+import jp.ohtayo.building.optimization.Solution;
+
+import java.util.List;
+
+/**
+ * sample class for asynchronous multi-objective optimization using EnergyPlus.
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class AsynchronousOptimizationSample
+{
+  public static void main(String args[])
+  {
+    // EnergyPlus計算の準備
+    boolean usingDifference = true;
+    EnergyPlusEvaluator evaluator = new EnergyPlusEvaluator(o -> o
+            .setXmlFile(".\\xml\\energyplus_vrf5z.xml")
+            .setIdfOffsets(242 -1, 521 -1), usingDifference);
+
+    // 最適化の実行
+    List<Solution> front = new AsynchronousSteadyStateOptimizer(evaluator)
+            .setPopulationSize(40)
+            .setMaxEvaluations(2000)
+            .setNumberOfWorkers(Runtime.getRuntime().availableProcessors())
+            .run();
+
+    // 非優越解の表示
+    for(Solution solution : front) {
+      System.out.println(java.util.Arrays.toString(solution.getObjectives()));
+    }
+  }
+}
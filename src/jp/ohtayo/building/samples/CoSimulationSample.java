@@ -0,0 +1,40 @@
+package jp.ohtayo.building.samples;
+
+import jp.ohtayo.building.energyplus.CoSimulationSession;
+import jp.ohtayo.building.energyplus.ControlEnergyPlus;
+
+import java.io.IOException;
+import java.util.Calendar;
+
+/**
+ * sample class for step-by-step co-simulation with EnergyPlus.
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class CoSimulationSample {
+    public static void main(String[] args) throws IOException {
+        String energyPlusConfigFile = "./xml/energyplus_vrf5z.xml";
+        int idfDateOffset = 242 -1;			//idfファイルの最初の日付の行数-1
+        int idfTemperatureOffset = 521 -1;	//idfファイルの最初の温度の行数-1
+        Calendar simulationDate = Calendar.getInstance();
+        simulationDate.set(2006, 8, 21, 1, 0);
+
+        // 受け取るゾーン温度の定義
+        String[][] outputs = {
+                {"SPACE1-1", "Zone Mean Air Temperature"},
+                {"SPACE2-1", "Zone Mean Air Temperature"},
+        };
+
+        ControlEnergyPlus energyPlus = new ControlEnergyPlus(energyPlusConfigFile);
+        try(CoSimulationSession session = energyPlus.openCoSimulation(simulationDate, simulationDate, idfDateOffset, idfTemperatureOffset, outputs, 26.0)) {
+            double[] state = session.start();
+            while (state != null) {
+                // 室温の平均が26℃を超えたら設定温度を下げる簡単な制御
+                double mean = (state[0] + state[1]) / 2.0;
+                double setpoint = mean > 26.0 ? 25.0 : 27.0;
+                state = session.step(new double[]{setpoint});
+                System.out.println(session.getTime() + ", " + setpoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package jp.ohtayo.building.samples;
+
+import jp.ohtayo.building.energyplus.EnergyPlusEvaluator;
+import jp.ohtayo.building.energyplus.ResultArchive;
+import jp.ohtayo.building.sensitivity.MorrisAnalysis;
+import jp.ohtayo.building.sensitivity.SobolAnalysis;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * sample class for global sensitivity analysis of setpoint schedules using EnergyPlus.
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class SensitivityAnalysisSample
+{
+  public static void main(String args[]) throws Exception
+  {
+    // 評価結果のアーカイブを共有し，同じスケジュールはシミュレーションしない
+    try(ResultArchive archive = new ResultArchive(Paths.get(".\\sensitivity.epra")))
+    {
+      boolean usingDifference = true;
+      EnergyPlusEvaluator evaluator = new EnergyPlusEvaluator(o -> o
+              .setXmlFile(".\\xml\\energyplus_vrf5z.xml")
+              .setIdfOffsets(242 -1, 521 -1)
+              .setResultArchive(archive, true), usingDifference);
+
+      // Morris法で重要な変数を絞り込む
+      MorrisAnalysis morris = new MorrisAnalysis(evaluator).setNumberOfTrajectories(20);
+      morris.setListener(a -> System.out.println("trajectories = "+((MorrisAnalysis)a).getCompletedTrajectories()));
+      morris.run();
+      double[][] muStar = morris.getMuStar();
+      for(int m=0; m<muStar.length; m++)
+        System.out.println("mu*["+m+"] = "+Arrays.toString(muStar[m]));
+
+      // Sobol法で1次の感度指標と全効果指標を求める
+      SobolAnalysis sobol = new SobolAnalysis(evaluator).setNumberOfSamples(128);
+      sobol.run();
+      double[][] first = sobol.getFirstOrderIndices();
+      double[][] total = sobol.getTotalOrderIndices();
+      for(int m=0; m<first.length; m++) {
+        System.out.println("S["+m+"]  = "+Arrays.toString(first[m]));
+        System.out.println("ST["+m+"] = "+Arrays.toString(total[m]));
+      }
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package jp.ohtayo.building.samples;
+
+import jp.ohtayo.building.energyplus.EnergyPlusObjectives;
+import jp.ohtayo.building.energyplus.WeatherOverlay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * sample class for concurrent weather-ensemble simulation with forecast-error scenarios.
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class WeatherEnsembleSample
+{
+  public static void main(String args[]) throws Exception
+  {
+    int numberOfScenarios = 100;
+    Random random = new Random(1);
+
+    // 外気温の予測誤差のシナリオを差分として作る(1次の自己回帰モデル)
+    Calendar baseDate = Calendar.getInstance();
+    baseDate.set(2006, 8, 21, 1, 0);
+    List<WeatherOverlay> scenarios = new ArrayList<>();
+    for(int s=0; s<numberOfScenarios; s++) {
+      double[] error = new double[25];
+      for(int h=1; h<error.length; h++)  error[h] = 0.8*error[h-1] + 0.6*random.nextGaussian();
+      scenarios.add(new WeatherOverlay("scenario"+s).addDryBulbTemperature(baseDate, error));
+    }
+
+    // 同じ設定温度スケジュールを全シナリオで並列に評価する
+    double[] variable = new double[19];
+    Arrays.fill(variable, 0.5);
+    variable[0] = (26.0-18.0)/12.0;
+    AtomicInteger threadNumber = new AtomicInteger(0);
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            r -> new Thread(r, String.valueOf(threadNumber.incrementAndGet())));
+    List<Future<double[]>> results = new ArrayList<>();
+    for(WeatherOverlay scenario : scenarios) {
+      results.add(executor.submit(() -> new EnergyPlusObjectives(variable)
+              .setXmlFile(".\\xml\\energyplus_vrf5z.xml")
+              .setIdfOffsets(242 -1, 521 -1)
+              .setWeatherOverlay(scenario)
+              .calculate(true)
+              .calculateObjectives()));
+    }
+    for(int s=0; s<numberOfScenarios; s++) {
+      System.out.println(scenarios.get(s).getName()+": "+Arrays.toString(results.get(s).get()));
+    }
+    executor.shutdown();
+  }
+}
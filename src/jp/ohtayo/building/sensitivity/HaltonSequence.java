@@ -0,0 +1,107 @@
+package jp.ohtayo.building.sensitivity;
+
+import java.util.Random;
+
+/**
+ * Halton列による準乱数を生成するクラスです．<br>
+ * 各次元の基数に小さい順の素数を使います．次元が大きいと高次元どうしの相関が強くなるため，
+ * 乱数の種を与えた場合は基数ごとに0以外の桁の値を並べ替えた(スクランブルした)列を生成します．<br>
+ * 原点を避けるため，1番目の点から生成します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class HaltonSequence {
+
+	/** 各次元の基数 */
+	private final int[] bases;
+	/** 各次元の桁の並べ替え */
+	private final int[][] permutations;
+	/** 次に生成する点の番号 */
+	private long index = 1;
+
+	/**
+	 * スクランブルしないHalton列を作ります．
+	 * @param dimension 次元数
+	 */
+	public HaltonSequence(int dimension)
+	{
+		this.bases = primes(dimension);
+		this.permutations = new int[dimension][];
+		for(int d=0; d<dimension; d++) {
+			permutations[d] = new int[bases[d]];
+			for(int i=0; i<bases[d]; i++)	permutations[d][i] = i;
+		}
+	}
+
+	/**
+	 * スクランブルしたHalton列を作ります．
+	 * @param dimension 次元数
+	 * @param seed 並べ替えに使う乱数の種
+	 */
+	public HaltonSequence(int dimension, long seed)
+	{
+		this(dimension);
+		Random random = new Random(seed);
+		for(int[] permutation : permutations) {
+			// 0は0のまま，1～base-1を並べ替える
+			for(int i=permutation.length-1; i>1; i--) {
+				int j = 1 + random.nextInt(i);
+				int temp = permutation[i];
+				permutation[i] = permutation[j];
+				permutation[j] = temp;
+			}
+		}
+	}
+
+	public int getDimension(){ return bases.length; }
+
+	/**
+	 * 指定した数の点を読み飛ばします．
+	 * @param count 読み飛ばす点の数
+	 */
+	public HaltonSequence skip(long count)
+	{
+		index += count;
+		return this;
+	}
+
+	/**
+	 * 次の点を生成します．
+	 * @return 各要素0～1の点
+	 */
+	public double[] next()
+	{
+		double[] point = new double[bases.length];
+		for(int d=0; d<bases.length; d++)
+		{
+			int base = bases[d];
+			double factor = 1.0/base;
+			double value = 0.0;
+			for(long n=index; n>0; n/=base) {
+				value += permutations[d][(int)(n % base)] * factor;
+				factor /= base;
+			}
+			point[d] = value;
+		}
+		index++;
+		return point;
+	}
+
+	/**
+	 * 小さい順に素数を返します．
+	 * @param count 素数の数
+	 * @return 素数の配列
+	 */
+	static int[] primes(int count)
+	{
+		int[] primes = new int[count];
+		int found = 0;
+		for(int n=2; found<count; n++) {
+			boolean prime = true;
+			for(int i=0; i<found && primes[i]*primes[i]<=n; i++)
+				if( n % primes[i] == 0 ) { prime = false; break; }
+			if( prime )	primes[found++] = n;
+		}
+		return primes;
+	}
+}
@@ -0,0 +1,173 @@
+package jp.ohtayo.building.sensitivity;
+
+import jp.ohtayo.building.optimization.ObjectiveEvaluator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Morris法(Elementary Effects法)による感度解析クラスです．<br>
+ * 各軌跡は設計変数を1つずつ格子幅deltaだけ動かした(変数の数+1)点からなり，隣り合う点の差から各変数の要素効果を求めます．<br>
+ * 軌跡の始点はスクランブルしたHalton列から格子点に割り当て，変数を動かす順番と向きは乱数で決めます．<br>
+ * 軌跡の全点の評価が終わるたびに，要素効果の平均(mu)，絶対値の平均(mu*)，標準偏差(sigma)を逐次更新します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class MorrisAnalysis extends SensitivityAnalysis {
+
+	/** 軌跡の数 */
+	private int numberOfTrajectories = 20;
+	/** 格子の水準数(偶数) */
+	private int numberOfLevels = 4;
+
+	/** 格子幅 */
+	private double delta;
+	/** 各軌跡で変数を動かす順番 */
+	private int[][] orders;
+	/** 各軌跡で変数を動かす向き(+1または-1) */
+	private int[][] directions;
+	/** 各軌跡の各点の目的関数値 */
+	private double[][][] results;
+	/** 各軌跡の評価済みの点の数 */
+	private int[] received;
+
+	/** 評価の終わった軌跡の数 */
+	private int completed = 0;
+	/** 要素効果の平均 [目的関数][変数] */
+	private double[][] mean;
+	/** 要素効果の絶対値の平均 */
+	private double[][] meanAbsolute;
+	/** 要素効果の偏差平方和 */
+	private double[][] sumOfSquares;
+
+	/**
+	 * constructor.
+	 * @param evaluator 評価器
+	 */
+	public MorrisAnalysis(ObjectiveEvaluator evaluator)
+	{
+		super(evaluator);
+	}
+
+	public MorrisAnalysis setNumberOfTrajectories(int numberOfTrajectories)
+	{
+		this.numberOfTrajectories = numberOfTrajectories;
+		return this;
+	}
+
+	/**
+	 * 格子の水準数を設定します．格子幅は水準数/(2*(水準数-1))になります．
+	 * @param numberOfLevels 水準数(偶数)
+	 */
+	public MorrisAnalysis setNumberOfLevels(int numberOfLevels)
+	{
+		if( numberOfLevels<2 || numberOfLevels%2!=0 )	throw new IllegalArgumentException("numberOfLevels must be even: "+numberOfLevels);
+		this.numberOfLevels = numberOfLevels;
+		return this;
+	}
+
+	@Override
+	protected List<double[]> createDesign()
+	{
+		int k = numberOfVariables;
+		delta = numberOfLevels / (2.0*(numberOfLevels-1));
+		orders = new int[numberOfTrajectories][k];
+		directions = new int[numberOfTrajectories][k];
+		results = new double[numberOfTrajectories][k+1][];
+		received = new int[numberOfTrajectories];
+		completed = 0;
+		mean = new double[numberOfObjectives][k];
+		meanAbsolute = new double[numberOfObjectives][k];
+		sumOfSquares = new double[numberOfObjectives][k];
+
+		HaltonSequence halton = new HaltonSequence(k, seed);
+		Random random = new Random(seed);
+		List<double[]> design = new ArrayList<>(numberOfTrajectories*(k+1));
+		for(int t=0; t<numberOfTrajectories; t++)
+		{
+			// 始点：格子の下半分の水準に割り当て，向きが-1の変数はdeltaだけ上から始める
+			double[] u = halton.next();
+			double[] x = new double[k];
+			for(int v=0; v<k; v++) {
+				int level = Math.min((int)(u[v]*numberOfLevels/2), numberOfLevels/2-1);
+				directions[t][v] = random.nextBoolean() ? 1 : -1;
+				x[v] = level/(double)(numberOfLevels-1) + (directions[t][v]<0 ? delta : 0.0);
+			}
+			// 変数を動かす順番
+			for(int v=0; v<k; v++)	orders[t][v] = v;
+			for(int v=k-1; v>0; v--) {
+				int j = random.nextInt(v+1);
+				int temp = orders[t][v];
+				orders[t][v] = orders[t][j];
+				orders[t][j] = temp;
+			}
+			design.add(x.clone());
+			for(int step=0; step<k; step++) {
+				int v = orders[t][step];
+				x[v] += directions[t][v]*delta;
+				design.add(x.clone());
+			}
+		}
+		return design;
+	}
+
+	@Override
+	protected synchronized void accept(int index, double[] objectives)
+	{
+		int k = numberOfVariables;
+		int t = index/(k+1);
+		results[t][index%(k+1)] = objectives;
+		if( ++received[t] < k+1 )	return;
+
+		// 軌跡がそろったら要素効果を求めて統計量を更新する(Welford法)
+		completed++;
+		for(int step=0; step<k; step++)
+		{
+			int v = orders[t][step];
+			for(int m=0; m<numberOfObjectives; m++)
+			{
+				double effect = (results[t][step+1][m] - results[t][step][m]) / (directions[t][v]*delta);
+				double difference = effect - mean[m][v];
+				mean[m][v] += difference/completed;
+				sumOfSquares[m][v] += difference*(effect - mean[m][v]);
+				meanAbsolute[m][v] += (Math.abs(effect) - meanAbsolute[m][v])/completed;
+			}
+		}
+		results[t] = null;
+	}
+
+	public synchronized int getCompletedTrajectories(){ return completed; }
+
+	/**
+	 * 要素効果の絶対値の平均(mu*)を返します．変数の重要度の指標です．
+	 * @return mu* [目的関数][変数]
+	 */
+	public synchronized double[][] getMuStar(){ return copy(meanAbsolute); }
+
+	/**
+	 * 要素効果の平均(mu)を返します．
+	 * @return mu [目的関数][変数]
+	 */
+	public synchronized double[][] getMu(){ return copy(mean); }
+
+	/**
+	 * 要素効果の標準偏差(sigma)を返します．非線形性や交互作用の指標です．
+	 * @return sigma [目的関数][変数]
+	 */
+	public synchronized double[][] getSigma()
+	{
+		double[][] sigma = new double[numberOfObjectives][numberOfVariables];
+		for(int m=0; m<numberOfObjectives; m++)
+			for(int v=0; v<numberOfVariables; v++)
+				sigma[m][v] = completed>1 ? Math.sqrt(sumOfSquares[m][v]/(completed-1)) : 0.0;
+		return sigma;
+	}
+
+	private static double[][] copy(double[][] values)
+	{
+		double[][] copy = new double[values.length][];
+		for(int i=0; i<values.length; i++)	copy[i] = values[i].clone();
+		return copy;
+	}
+}
@@ -0,0 +1,197 @@
+package jp.ohtayo.building.sensitivity;
+
+import jp.ohtayo.building.optimization.ObjectiveEvaluator;
+import jp.ohtayo.commons.log.Logging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 設計変数空間の大域的感度解析の基底クラスです．<br>
+ * 派生クラスが作った計画点をワーカースレッドで並列に評価し，評価が1つ終わるたびに派生クラスへ渡して感度指標を更新させます．<br>
+ * 同じ設計変数の計画点は1回だけ評価し，評価済みの結果(addKnownResultで与えたものを含む)は再評価しません．<br>
+ * 設定温度が同じになる別の設計変数の結果も再利用するには，EnergyPlusObjectives.setResultArchiveで再利用を有効にした評価器を使います．<br>
+ * 制約違反のスケジュールにペナルティ値を返す評価器では分散が壊れるため，FeasibilityPolicyはSIMULATEかREPAIRとしてください．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public abstract class SensitivityAnalysis {
+
+	/** 評価器 */
+	protected final ObjectiveEvaluator evaluator;
+	/** 設計変数の数 */
+	protected final int numberOfVariables;
+	/** 目的関数の数 */
+	protected final int numberOfObjectives;
+	/** 同時に評価する解の数 */
+	private int numberOfWorkers = Runtime.getRuntime().availableProcessors();
+	/** 計画点の生成に使う乱数の種 */
+	protected long seed = 1;
+	/** 感度指標を更新するたびに呼ぶ処理 */
+	private Consumer<SensitivityAnalysis> listener = null;
+
+	/** 評価済みの設計変数と目的関数値 */
+	private final Map<Key, double[]> evaluated = new HashMap<>();
+	/** 評価した数 */
+	private int evaluations = 0;
+	/** 評価済みの結果を再利用した計画点の数 */
+	private int reused = 0;
+
+	/**
+	 * constructor.
+	 * @param evaluator 評価器
+	 */
+	protected SensitivityAnalysis(ObjectiveEvaluator evaluator)
+	{
+		this.evaluator = evaluator;
+		this.numberOfVariables = evaluator.getNumberOfVariables();
+		this.numberOfObjectives = evaluator.getNumberOfObjectives();
+	}
+
+	public SensitivityAnalysis setNumberOfWorkers(int numberOfWorkers)
+	{
+		this.numberOfWorkers = numberOfWorkers;
+		return this;
+	}
+
+	public SensitivityAnalysis setSeed(long seed)
+	{
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * 感度指標を更新するたびに呼ぶ処理を設定します．評価ループのスレッドから呼ばれます．
+	 * @param listener 更新時の処理
+	 */
+	public SensitivityAnalysis setListener(Consumer<SensitivityAnalysis> listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * 評価済みの結果を与えます．同じ設計変数の計画点は評価せずにこの結果を使います．
+	 * @param variable 設計変数
+	 * @param objectives 目的関数値
+	 */
+	public synchronized SensitivityAnalysis addKnownResult(double[] variable, double[] objectives)
+	{
+		evaluated.put(new Key(variable), objectives.clone());
+		return this;
+	}
+
+	public synchronized int getEvaluations(){ return evaluations; }
+	public synchronized int getReusedEvaluations(){ return reused; }
+
+	/**
+	 * 感度解析を実行します．
+	 */
+	public void run()
+	{
+		List<double[]> design = createDesign();
+
+		// 評価済みの計画点はすぐ反映し，残りは同じ設計変数ごとにまとめる
+		Map<Key, List<Integer>> pending = new LinkedHashMap<>();
+		synchronized(this) {
+			for(int i=0; i<design.size(); i++) {
+				Key key = new Key(design.get(i));
+				double[] objectives = evaluated.get(key);
+				if( objectives != null ) {
+					accept(i, objectives);
+					reused++;
+				}else {
+					pending.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+				}
+			}
+		}
+		Logging.logger.info("design points = "+design.size()+", to evaluate = "+pending.size()+", reused = "+reused);
+		if( reused>0 && listener!=null )	listener.accept(this);
+
+		AtomicInteger threadNumber = new AtomicInteger(0);
+		// EnergyPlusの作業フォルダはスレッド名で分かれるので，ワーカーに1からの番号を付ける("0"は複製元)
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfWorkers, r -> {
+			Thread thread = new Thread(r, String.valueOf(threadNumber.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		});
+		CompletionService<double[]> completion = new ExecutorCompletionService<>(executor);
+		Map<Future<double[]>, Key> submitted = new HashMap<>();
+		try {
+			for(Key key : pending.keySet())
+				submitted.put(completion.submit(() -> evaluator.evaluate(key.variable.clone())), key);
+
+			for(int n=0; n<submitted.size(); n++)
+			{
+				Future<double[]> future = completion.take();
+				Key key = submitted.get(future);
+				double[] objectives;
+				try {
+					objectives = future.get();
+				}catch(ExecutionException e){
+					Logging.logger.severe("evaluation failed: "+e.getCause());
+					continue;
+				}
+				synchronized(this) {
+					evaluated.put(key, objectives);
+					evaluations++;
+					for(int index : pending.get(key))	accept(index, objectives);
+				}
+				if( listener!=null )	listener.accept(this);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			Logging.logger.severe("sensitivity analysis interrupted.");
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * 評価する計画点を作ります．
+	 * @return 計画点の設計変数(各要素0～1)
+	 */
+	protected abstract List<double[]> createDesign();
+
+	/**
+	 * 計画点の評価結果を受け取り，感度指標を更新します．
+	 * @param index 計画点の番号
+	 * @param objectives 目的関数値
+	 */
+	protected abstract void accept(int index, double[] objectives);
+
+	/**
+	 * 設計変数を値で比較するためのキーです．
+	 */
+	private static final class Key {
+		private final double[] variable;
+		private final int hash;
+
+		Key(double[] variable)
+		{
+			this.variable = variable.clone();
+			this.hash = Arrays.hashCode(this.variable);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return (o instanceof Key) && Arrays.equals(variable, ((Key)o).variable);
+		}
+
+		@Override
+		public int hashCode(){ return hash; }
+	}
+}
@@ -0,0 +1,171 @@
+package jp.ohtayo.building.sensitivity;
+
+import jp.ohtayo.building.optimization.ObjectiveEvaluator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sobol法による分散ベースの感度解析クラスです．<br>
+ * 2倍の次元のスクランブルしたHalton列から行列A，Bを作り，Aの第i列をBの第i列に置き換えた行列AB_iとあわせて
+ * N*(変数の数+2)点を評価します．<br>
+ * 1次の感度指標はSaltelli(2010)，全効果指標はJansen(1999)の推定式で求めます．
+ * 標本jのf(A_j)，f(B_j)，f(AB_i,j)がそろうたびに和を逐次更新するので，評価の途中でも指標を取り出せます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class SobolAnalysis extends SensitivityAnalysis {
+
+	/** 標本数N */
+	private int numberOfSamples = 256;
+
+	/** 各標本の目的関数値 [標本][0:A, 1:B, 2+i:AB_i] */
+	private double[][][] results;
+	/** 指標の和に加えたか [標本][変数] */
+	private boolean[][] counted;
+
+	/** 分散の計算に使った値の数 */
+	private int varianceCount = 0;
+	/** f(A), f(B)の平均 [目的関数] */
+	private double[] mean;
+	/** f(A), f(B)の偏差平方和 [目的関数] */
+	private double[] sumOfSquares;
+	/** 指標の和に加えた標本の数 [変数] */
+	private int[] count;
+	/** f(B)(f(AB_i)-f(A))の和 [目的関数][変数] */
+	private double[][] sumFirst;
+	/** (f(A)-f(AB_i))^2の和 [目的関数][変数] */
+	private double[][] sumTotal;
+
+	/**
+	 * constructor.
+	 * @param evaluator 評価器
+	 */
+	public SobolAnalysis(ObjectiveEvaluator evaluator)
+	{
+		super(evaluator);
+	}
+
+	/**
+	 * 標本数を設定します．評価回数は標本数*(変数の数+2)になります．
+	 * @param numberOfSamples 標本数
+	 */
+	public SobolAnalysis setNumberOfSamples(int numberOfSamples)
+	{
+		this.numberOfSamples = numberOfSamples;
+		return this;
+	}
+
+	@Override
+	protected List<double[]> createDesign()
+	{
+		int k = numberOfVariables;
+		results = new double[numberOfSamples][k+2][];
+		counted = new boolean[numberOfSamples][k];
+		varianceCount = 0;
+		mean = new double[numberOfObjectives];
+		sumOfSquares = new double[numberOfObjectives];
+		count = new int[k];
+		sumFirst = new double[numberOfObjectives][k];
+		sumTotal = new double[numberOfObjectives][k];
+
+		HaltonSequence halton = new HaltonSequence(2*k, seed);
+		List<double[]> design = new ArrayList<>(numberOfSamples*(k+2));
+		for(int j=0; j<numberOfSamples; j++)
+		{
+			double[] point = halton.next();
+			double[] a = new double[k];
+			double[] b = new double[k];
+			System.arraycopy(point, 0, a, 0, k);
+			System.arraycopy(point, k, b, 0, k);
+			design.add(a);
+			design.add(b);
+			for(int i=0; i<k; i++) {
+				double[] ab = a.clone();
+				ab[i] = b[i];
+				design.add(ab);
+			}
+		}
+		return design;
+	}
+
+	@Override
+	protected synchronized void accept(int index, double[] objectives)
+	{
+		int k = numberOfVariables;
+		int j = index/(k+2);
+		int slot = index%(k+2);
+		results[j][slot] = objectives;
+
+		// f(A), f(B)は分散の推定に使う(Welford法)
+		if( slot<2 ) {
+			varianceCount++;
+			for(int m=0; m<numberOfObjectives; m++) {
+				double difference = objectives[m] - mean[m];
+				mean[m] += difference/varianceCount;
+				sumOfSquares[m] += difference*(objectives[m] - mean[m]);
+			}
+		}
+
+		double[] fa = results[j][0];
+		double[] fb = results[j][1];
+		if( fa==null || fb==null )	return;
+		for(int i=0; i<k; i++)
+		{
+			double[] fab = results[j][2+i];
+			if( fab==null || counted[j][i] )	continue;
+			counted[j][i] = true;
+			count[i]++;
+			for(int m=0; m<numberOfObjectives; m++) {
+				sumFirst[m][i] += fb[m]*(fab[m] - fa[m]);
+				sumTotal[m][i] += (fa[m] - fab[m])*(fa[m] - fab[m]);
+			}
+		}
+	}
+
+	/**
+	 * f(A), f(B)から推定した目的関数の分散を返します．
+	 * @return 分散 [目的関数]
+	 */
+	public synchronized double[] getVariance()
+	{
+		double[] variance = new double[numberOfObjectives];
+		for(int m=0; m<numberOfObjectives; m++)
+			variance[m] = varianceCount>1 ? sumOfSquares[m]/(varianceCount-1) : 0.0;
+		return variance;
+	}
+
+	/**
+	 * 1次の感度指標を返します．分散が0の目的関数や標本がまだ無い変数は0です．
+	 * @return 1次の感度指標 [目的関数][変数]
+	 */
+	public synchronized double[][] getFirstOrderIndices()
+	{
+		return indices(sumFirst, 1.0);
+	}
+
+	/**
+	 * 全効果指標を返します．分散が0の目的関数や標本がまだ無い変数は0です．
+	 * @return 全効果指標 [目的関数][変数]
+	 */
+	public synchronized double[][] getTotalOrderIndices()
+	{
+		return indices(sumTotal, 0.5);
+	}
+
+	/**
+	 * 指標の和に加えた標本の数を返します．
+	 * @return 標本の数 [変数]
+	 */
+	public synchronized int[] getSampleCounts(){ return count.clone(); }
+
+	private double[][] indices(double[][] sum, double factor)
+	{
+		double[] variance = getVariance();
+		double[][] indices = new double[numberOfObjectives][numberOfVariables];
+		for(int m=0; m<numberOfObjectives; m++)
+			for(int i=0; i<numberOfVariables; i++)
+				if( variance[m]>0.0 && count[i]>0 )	indices[m][i] = factor*sum[m][i]/count[i]/variance[m];
+		return indices;
+	}
+}
@@ -0,0 +1,48 @@
+package jp.ohtayo.building.tariff;
+
+/**
+ * 時間帯別電気料金の請求結果を保持するクラスです．
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class TariffBill {
+
+	/** 料金区分別の電力量[kWh](最後の要素は区分外) */
+	private double[] periodEnergy;
+	/** 請求月別のピーク電力[kW] */
+	private double[] monthlyPeak;
+	/** 電力量料金[円] */
+	private double energyCharge;
+	/** 基本料金(デマンド料金)[円] */
+	private double demandCharge;
+
+	TariffBill(double[] periodEnergy, double[] monthlyPeak, double energyCharge, double demandCharge)
+	{
+		this.periodEnergy = periodEnergy;
+		this.monthlyPeak = monthlyPeak;
+		this.energyCharge = energyCharge;
+		this.demandCharge = demandCharge;
+	}
+
+	public double[] getPeriodEnergy(){ return periodEnergy; }
+	public double[] getMonthlyPeak(){ return monthlyPeak; }
+	public double getEnergyCharge(){ return energyCharge; }
+	public double getDemandCharge(){ return demandCharge; }
+
+	/**
+	 * 電気料金の合計を返します．
+	 * @return 電力量料金と基本料金の合計[円]
+	 */
+	public double getTotal(){ return energyCharge + demandCharge; }
+
+	/**
+	 * 期間の総電力量を返します．
+	 * @return 総電力量[kWh]
+	 */
+	public double getTotalEnergy()
+	{
+		double sum = 0.0;
+		for(double e : periodEnergy)	sum += e;
+		return sum;
+	}
+}
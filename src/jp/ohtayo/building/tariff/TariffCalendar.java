@@ -0,0 +1,153 @@
+package jp.ohtayo.building.tariff;
+
+import jp.ohtayo.building.BuildingUtils;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.stream.IntStream;
+
+/**
+ * 時間帯別電気料金の料金区分マスクを，ある期間・タイムステップについて事前計算したクラスです．<br>
+ * 一度作成すれば，同じ期間の複数の電力量系列(複数ビル)を1回の走査で課金できます．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class TariffCalendar {
+
+	/** 料金体系 */
+	private final TimeOfUseTariff tariff;
+	/** 各タイムステップの料金区分番号(periodsの添字．最後の番号は区分外) */
+	private final byte[] periodIndex;
+	/** 各タイムステップの請求月番号(0始まり) */
+	private final byte[] monthIndex;
+	/** 料金区分ごとの電力量料金単価[円/kWh] */
+	private final double[] units;
+	/** 期間に含まれる請求月の数 */
+	private final int numberOfMonths;
+	/** サンプリング周期[hour] */
+	private final double samplingPeriod;
+
+	/**
+	 * constructor.<br>
+	 * 各データは計測区間の終端時刻に記録される(EnergyPlusの出力と同じ)ものとし，区間の開始時刻で料金区分を決定します．<br>
+	 * @param tariff 料金体系
+	 * @param start 最初のデータの区間開始日時
+	 * @param length データ数
+	 * @param timestepsPerHour 1時間あたりのタイムステップ数
+	 */
+	TariffCalendar(TimeOfUseTariff tariff, Calendar start, int length, int timestepsPerHour)
+	{
+		if( 60 % timestepsPerHour != 0 )
+			throw new IllegalArgumentException("timestepsPerHour must divide 60: "+timestepsPerHour);
+
+		this.tariff = tariff;
+		this.samplingPeriod = 1.0/timestepsPerHour;
+		TariffPeriod[] periods = tariff.getPeriods();
+		if( periods.length >= Byte.MAX_VALUE )
+			throw new IllegalArgumentException("too many tariff periods.");
+
+		// 区分ごとの単価表．最後の要素は区分外の単価
+		units = new double[periods.length+1];
+		for(int p=0; p<periods.length; p++)	units[p] = periods[p].getUnit();
+		units[periods.length] = tariff.getDefaultUnit();
+
+		periodIndex = new byte[length];
+		monthIndex = new byte[length];
+		int minutesPerStep = 60 / timestepsPerHour;
+		int stepsPerDay = 24 * timestepsPerHour;
+
+		// 1日分の区分マスクは月・曜日種別が同じなら共通なのでキャッシュする
+		byte[][] dayMasks = new byte[12*2][];
+		Calendar cal = (Calendar)start.clone();
+		int startMinute = cal.get(Calendar.HOUR_OF_DAY)*60 + cal.get(Calendar.MINUTE);
+		int startYear = cal.get(Calendar.YEAR);
+		int firstMonth = cal.get(Calendar.MONTH);
+		int month = 0;
+		int t = 0;
+		int stepInDay = startMinute / minutesPerStep;
+		while( t<length )
+		{
+			int m = cal.get(Calendar.MONTH) + 1;
+			boolean holiday = tariff.isHoliday(cal);
+			int key = (m-1)*2 + (holiday ? 1 : 0);
+			if( dayMasks[key]==null ) {
+				dayMasks[key] = new byte[stepsPerDay];
+				for(int s=0; s<stepsPerDay; s++)
+					dayMasks[key][s] = (byte)findPeriod(periods, m, holiday, s*minutesPerStep);
+			}
+			month = (cal.get(Calendar.YEAR)-startYear)*12 + cal.get(Calendar.MONTH) - firstMonth;
+			int n = Math.min(stepsPerDay-stepInDay, length-t);
+			System.arraycopy(dayMasks[key], stepInDay, periodIndex, t, n);
+			Arrays.fill(monthIndex, t, t+n, (byte)month);
+			t += n;
+			stepInDay = 0;
+			cal.add(Calendar.DATE, 1);
+		}
+		numberOfMonths = month+1;
+		if( numberOfMonths > Byte.MAX_VALUE )
+			throw new IllegalArgumentException("billing period is too long: "+numberOfMonths+" months");
+	}
+
+	/**
+	 * 該当する料金区分の番号を探します．
+	 * @return 区分番号．該当が無ければ区分数
+	 */
+	private static int findPeriod(TariffPeriod[] periods, int month, boolean holiday, int minuteOfDay)
+	{
+		for(int p=0; p<periods.length; p++){
+			if( periods[p].matches(month, holiday, minuteOfDay) )	return p;
+		}
+		return periods.length;
+	}
+
+	public int length(){ return periodIndex.length; }
+	public int getNumberOfMonths(){ return numberOfMonths; }
+
+	/**
+	 * 電力量系列に対して電気料金を計算します．<br>
+	 * @param electricEnergy 各タイムステップの消費電力量[J]
+	 * @return 請求結果
+	 */
+	public TariffBill bill(double[] electricEnergy)
+	{
+		if( electricEnergy.length != periodIndex.length )
+			throw new IllegalArgumentException("illegal series length: "+electricEnergy.length+" (expected "+periodIndex.length+")");
+
+		double[] periodEnergy = new double[units.length];
+		double[] monthlyPeak = new double[numberOfMonths];
+
+		// 1回の走査で区分別電力量と月別最大値を集計する
+		for(int t=0; t<electricEnergy.length; t++)
+		{
+			double e = electricEnergy[t];
+			periodEnergy[periodIndex[t]] += e;
+			int m = monthIndex[t];
+			if( e > monthlyPeak[m] )	monthlyPeak[m] = e;
+		}
+
+		// 単位変換と料金の計算
+		double energyCharge = 0.0;
+		for(int p=0; p<units.length; p++){
+			periodEnergy[p] = BuildingUtils.J2kWh(periodEnergy[p]);
+			energyCharge += BuildingUtils.calculateElectricityRate(periodEnergy[p], units[p]);
+		}
+		double demandCharge = 0.0;
+		for(int m=0; m<numberOfMonths; m++){
+			monthlyPeak[m] = BuildingUtils.J2kWh(monthlyPeak[m]) / samplingPeriod;	// 電力量[J]->電力[kW]
+			demandCharge += BuildingUtils.calculateBasicElectricityRate(monthlyPeak[m], tariff.getBasicUnit(), tariff.getPowerFactor());
+		}
+		return new TariffBill(periodEnergy, monthlyPeak, energyCharge, demandCharge);
+	}
+
+	/**
+	 * 複数の電力量系列(複数ビル)に対して並列に電気料金を計算します．
+	 * @param electricEnergy 系列ごとの各タイムステップの消費電力量[J]
+	 * @return 系列ごとの請求結果
+	 */
+	public TariffBill[] bill(double[][] electricEnergy)
+	{
+		TariffBill[] bills = new TariffBill[electricEnergy.length];
+		IntStream.range(0, electricEnergy.length).parallel().forEach(i -> bills[i] = bill(electricEnergy[i]));
+		return bills;
+	}
+}
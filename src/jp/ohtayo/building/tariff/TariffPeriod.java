@@ -0,0 +1,99 @@
+package jp.ohtayo.building.tariff;
+
+/**
+ * 時間帯別電気料金の1つの料金区分(ピーク時間，昼間時間，夜間時間など)を表すクラスです．<br>
+ * 適用する月・曜日種別・時間帯と電力量料金単価を保持します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class TariffPeriod {
+
+	/** 平日に適用する */
+	public static final int WEEKDAY = 1;
+	/** 土日祝日に適用する */
+	public static final int HOLIDAY = 2;
+	/** 全日に適用する */
+	public static final int ALL_DAYS = WEEKDAY | HOLIDAY;
+
+	/** 区分名 */
+	private String name;
+	/** 電力量料金単価[円/kWh] */
+	private double unit;
+	/** 適用月のビットマスク(1月がbit0) */
+	private int monthMask;
+	/** 適用する曜日種別 */
+	private int dayType;
+	/** 適用開始時刻[時](この時刻を含む) */
+	private int startHour;
+	/** 適用終了時刻[時](この時刻を含まない) */
+	private int endHour;
+
+	/**
+	 * constructor.<br>
+	 * startHour &gt; endHour の場合は日付をまたぐ時間帯(例：22時～8時)として扱います．<br>
+	 * @param name 区分名
+	 * @param unit 電力量料金単価[円/kWh]
+	 * @param firstMonth 適用開始月(1～12)
+	 * @param lastMonth 適用終了月(1～12)．firstMonth より小さい場合は年をまたぐ
+	 * @param dayType 適用する曜日種別(WEEKDAY, HOLIDAY, ALL_DAYS)
+	 * @param startHour 適用開始時刻[時](0～24)
+	 * @param endHour 適用終了時刻[時](0～24)
+	 */
+	public TariffPeriod(String name, double unit, int firstMonth, int lastMonth, int dayType, int startHour, int endHour)
+	{
+		if( firstMonth<1 || firstMonth>12 || lastMonth<1 || lastMonth>12 )
+			throw new IllegalArgumentException("illegal month range: "+firstMonth+"-"+lastMonth);
+		if( startHour<0 || startHour>24 || endHour<0 || endHour>24 )
+			throw new IllegalArgumentException("illegal hour range: "+startHour+"-"+endHour);
+
+		this.name = name;
+		this.unit = unit;
+		this.dayType = dayType;
+		this.startHour = startHour;
+		this.endHour = endHour;
+
+		// 適用月をビットマスクに変換
+		int month = firstMonth;
+		for(;;) {
+			monthMask |= 1 << (month-1);
+			if( month == lastMonth )	break;
+			month = month % 12 + 1;
+		}
+	}
+
+	/**
+	 * 全月・全日に適用する時間帯区分を作成します．
+	 * @param name 区分名
+	 * @param unit 電力量料金単価[円/kWh]
+	 * @param startHour 適用開始時刻[時]
+	 * @param endHour 適用終了時刻[時]
+	 * @return 時間帯区分
+	 */
+	public static TariffPeriod allYear(String name, double unit, int startHour, int endHour)
+	{
+		return new TariffPeriod(name, unit, 1, 12, ALL_DAYS, startHour, endHour);
+	}
+
+	public String getName(){ return name; }
+	public double getUnit(){ return unit; }
+
+	/**
+	 * 指定した日時にこの区分が適用されるかを判定します．
+	 * @param month 月(1～12)
+	 * @param holiday 土日祝日ならtrue
+	 * @param minuteOfDay 0時からの経過分
+	 * @return 適用されるならtrue
+	 */
+	public boolean matches(int month, boolean holiday, int minuteOfDay)
+	{
+		if( (monthMask & (1 << (month-1))) == 0 )	return false;
+		if( (dayType & (holiday ? HOLIDAY : WEEKDAY)) == 0 )	return false;
+
+		int start = startHour*60;
+		int end = endHour*60;
+		if( start <= end )
+			return minuteOfDay >= start && minuteOfDay < end;
+		else
+			return minuteOfDay >= start || minuteOfDay < end;	// 日付をまたぐ時間帯
+	}
+}
@@ -0,0 +1,144 @@
+package jp.ohtayo.building.tariff;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 時間帯別・季節別電気料金の料金体系を表すクラスです．<br>
+ * ピーク時間・昼間時間・夜間時間・夏季料金などの料金区分と，月別ピーク電力に基づく基本料金(デマンド料金)を扱います．<br>
+ * 料金区分は登録順に判定し，最初に該当した区分の単価を適用します．<br>
+ * <br>
+ * 課金対象期間ごとに{@link TariffCalendar}を作成して区分マスクを事前計算し，
+ * 同じ期間の電力量系列はマスクを再利用して課金します．<br>
+ *
+ * @author ohtayo (ohta.yoshihiro@outlook.jp)
+ */
+public class TimeOfUseTariff {
+
+	/** 料金区分 */
+	private List<TariffPeriod> periods = new ArrayList<>();
+	/** どの区分にも該当しない時刻の電力量料金単価[円/kWh] */
+	private double defaultUnit = 17.22;
+	/** 基本料金単価[円/kW] */
+	private double basicUnit = 1684.8;
+	/** 力率[-] */
+	private double powerFactor = 0.9;
+	/** 土日を休日として扱うか */
+	private boolean weekendAsHoliday = true;
+	/** 休日(祝日)の月日(month*100+day) */
+	private Set<Integer> holidays = new HashSet<>();
+
+	/** 事前計算した料金区分マスクのキャッシュ */
+	private Map<String, TariffCalendar> calendars = new ConcurrentHashMap<>();
+
+	/**
+	 * 単一単価の料金体系を作成します．
+	 * @param unit 電力量料金単価[円/kWh]
+	 * @param basicUnit 基本料金単価[円/kW]
+	 * @param powerFactor 力率[-]
+	 * @return 料金体系
+	 */
+	public static TimeOfUseTariff flatRate(double unit, double basicUnit, double powerFactor)
+	{
+		return new TimeOfUseTariff().setDefaultUnit(unit).setDemandCharge(basicUnit, powerFactor);
+	}
+
+	/**
+	 * 料金区分を追加します．先に追加した区分が優先されます．
+	 * @param period 料金区分
+	 */
+	public TimeOfUseTariff addPeriod(TariffPeriod period)
+	{
+		periods.add(period);
+		calendars.clear();
+		return this;
+	}
+
+	/**
+	 * どの区分にも該当しない時刻の電力量料金単価を設定します．
+	 * @param unit 電力量料金単価[円/kWh]
+	 */
+	public TimeOfUseTariff setDefaultUnit(double unit)
+	{
+		this.defaultUnit = unit;
+		calendars.clear();
+		return this;
+	}
+
+	/**
+	 * 基本料金(デマンド料金)を設定します．
+	 * @param basicUnit 基本料金単価[円/kW]
+	 * @param powerFactor 力率[-]
+	 */
+	public TimeOfUseTariff setDemandCharge(double basicUnit, double powerFactor)
+	{
+		this.basicUnit = basicUnit;
+		this.powerFactor = powerFactor;
+		return this;
+	}
+
+	/**
+	 * 土日を休日として扱うかを設定します．
+	 * @param weekendAsHoliday 土日を休日として扱うならtrue
+	 */
+	public TimeOfUseTariff setWeekendAsHoliday(boolean weekendAsHoliday)
+	{
+		this.weekendAsHoliday = weekendAsHoliday;
+		calendars.clear();
+		return this;
+	}
+
+	/**
+	 * 休日(祝日)を追加します．
+	 * @param month 月(1～12)
+	 * @param day 日
+	 */
+	public TimeOfUseTariff addHoliday(int month, int day)
+	{
+		holidays.add(month*100+day);
+		calendars.clear();
+		return this;
+	}
+
+	public double getDefaultUnit(){ return defaultUnit; }
+	public double getBasicUnit(){ return basicUnit; }
+	public double getPowerFactor(){ return powerFactor; }
+	TariffPeriod[] getPeriods(){ return periods.toArray(new TariffPeriod[0]); }
+
+	/**
+	 * 指定日が休日かを判定します．
+	 * @param cal 日付
+	 * @return 休日ならtrue
+	 */
+	public boolean isHoliday(Calendar cal)
+	{
+		int dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
+		if( weekendAsHoliday && (dayOfWeek==Calendar.SATURDAY || dayOfWeek==Calendar.SUNDAY) )	return true;
+		return holidays.contains( (cal.get(Calendar.MONTH)+1)*100 + cal.get(Calendar.DATE) );
+	}
+
+	/**
+	 * 課金対象期間の料金区分マスクを取得します．同じ期間のマスクは一度だけ計算されます．
+	 * @param year 開始年
+	 * @param month 開始月(1～12)
+	 * @param day 開始日
+	 * @param length データ数
+	 * @param timestepsPerHour 1時間あたりのタイムステップ数
+	 * @return 料金区分マスク
+	 */
+	public TariffCalendar getCalendar(int year, int month, int day, int length, int timestepsPerHour)
+	{
+		String key = year+"/"+month+"/"+day+"/"+length+"/"+timestepsPerHour;
+		return calendars.computeIfAbsent(key, k -> {
+			Calendar start = Calendar.getInstance();
+			start.clear();
+			start.set(year, month-1, day, 0, 0, 0);
+			return new TariffCalendar(this, start, length, timestepsPerHour);
+		});
+	}
+}